@@ -0,0 +1,173 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a store's async calls on an I/O executor.  When key ordering is on, calls for the same key run one at a time in
+ * the order they were made, so a getAsync() always sees the putAsync() issued before it.  Calls for different keys
+ * still run in parallel.
+ */
+class AsyncExecutor {
+
+    static final int SHARED_THREADS = 2;
+
+    private static ExecutorService sharedExecutor;
+
+    private final Executor executor;
+    private final boolean ordered;
+    // Calls waiting behind the running call for each key - a key is only present while one of its calls is running
+    private final Map<String, ArrayDeque<Task<?>>> queues = new HashMap<>();
+
+    AsyncExecutor(Executor executor, boolean ordered) {
+        this.executor = executor;
+        this.ordered = ordered;
+    }
+
+    static synchronized ExecutorService getSharedExecutor() {
+        if(sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(SHARED_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PreferenceHelper-io");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    boolean isOrdered() {
+        return ordered;
+    }
+
+    <V> Future<V> submit(String key, Callable<V> call, PreferenceCallback<V> callback) {
+        Task<V> task = new Task<>(key, call, callback);
+        if(ordered) {
+            synchronized(queues) {
+                ArrayDeque<Task<?>> queue = queues.get(key);
+                if(queue != null) {
+                    queue.add(task);
+                    return task;
+                }
+                queues.put(key, new ArrayDeque<Task<?>>());
+            }
+        }
+
+        dispatch(task);
+        return task;
+    }
+
+    private void dispatch(Task<?> task) {
+        try {
+            // The shared pool is only started by the first async call
+            (executor != null ? executor : getSharedExecutor()).execute(task);
+        }
+        catch(RuntimeException e) {
+            if(ordered) {
+                cancelQueued(task.key);
+            }
+            throw e;
+        }
+    }
+
+    private void cancelQueued(String key) {
+        ArrayDeque<Task<?>> queue;
+        synchronized(queues) {
+            queue = queues.remove(key);
+        }
+        for(Task<?> waiting : queue) {
+            waiting.cancel(false);
+        }
+    }
+
+    private void runNext(String key) {
+        Task<?> next;
+        synchronized(queues) {
+            ArrayDeque<Task<?>> queue = queues.get(key);
+            next = queue.poll();
+            if(next == null) {
+                queues.remove(key);
+            }
+        }
+
+        if(next != null) {
+            try {
+                dispatch(next);
+            }
+            catch(RuntimeException e) {
+                // Runs on the thread that finished the previous call, so nobody would see the rejection - the call
+                // is cancelled instead, which fails its future rather than leaving it waiting forever
+                next.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * A submitted call.  The callback is told about the result before the next call for the same key starts, and the
+     * next call starts even when the callback throws.
+     */
+    private class Task<V> extends FutureTask<V> {
+
+        final String key;
+        private final PreferenceCallback<V> callback;
+        private boolean completed;
+        private V value;
+        private Throwable error;
+
+        Task(String key, Callable<V> call, PreferenceCallback<V> callback) {
+            super(call);
+            this.key = key;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+                notifyCallback();
+            }
+            finally {
+                if(ordered) {
+                    runNext(key);
+                }
+            }
+        }
+
+        private void notifyCallback() {
+            if(callback == null || !completed) {
+                return;
+            }
+
+            if(error != null) {
+                callback.onError(error);
+            }
+            else {
+                callback.onSuccess(value);
+            }
+        }
+
+        @Override
+        protected void set(V value) {
+            super.set(value);
+            this.value = value;
+            completed = true;
+        }
+
+        @Override
+        protected void setException(Throwable error) {
+            super.setException(error);
+            this.error = error;
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.simplymadeapps.preferencehelper;
+
+/**
+ * Unpadded standard Base64.  java.util.Base64 needs API 26, and android.util.Base64 isn't available to the plain JVM
+ * unit tests, so the codecs use this instead.
+ */
+final class Base64Encoding {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        for(int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for(int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Encoding() { }
+
+    static String encode(byte[] bytes, int length) {
+        char[] out = new char[(length * 4 + 2) / 3];
+        int o = 0;
+        int i = 0;
+
+        for(; i + 2 < length; i += 3) {
+            int chunk = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            out[o++] = ALPHABET[chunk >>> 18];
+            out[o++] = ALPHABET[(chunk >>> 12) & 0x3F];
+            out[o++] = ALPHABET[(chunk >>> 6) & 0x3F];
+            out[o++] = ALPHABET[chunk & 0x3F];
+        }
+
+        int remaining = length - i;
+        if(remaining == 1) {
+            int chunk = (bytes[i] & 0xFF) << 16;
+            out[o++] = ALPHABET[chunk >>> 18];
+            out[o] = ALPHABET[(chunk >>> 12) & 0x3F];
+        }
+        else if(remaining == 2) {
+            int chunk = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+            out[o++] = ALPHABET[chunk >>> 18];
+            out[o++] = ALPHABET[(chunk >>> 12) & 0x3F];
+            out[o] = ALPHABET[(chunk >>> 6) & 0x3F];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Decodes text from the given offset.  Throws IllegalArgumentException if the text is not valid Base64.
+     */
+    static byte[] decode(String text, int offset) {
+        int length = text.length() - offset;
+        if(length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid Base64 length");
+        }
+
+        byte[] out = new byte[length * 3 / 4];
+        int o = 0;
+        int buffer = 0;
+        int bits = 0;
+
+        for(int i = offset; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int value = c < VALUES.length ? VALUES[c] : -1;
+            if(value < 0) {
+                throw new IllegalArgumentException("Invalid Base64 character '" + c + "'");
+            }
+
+            buffer = buffer << 6 | value;
+            bits += 6;
+            if(bits >= 8) {
+                bits -= 8;
+                out[o++] = (byte) (buffer >>> bits);
+            }
+        }
+        return out;
+    }
+}
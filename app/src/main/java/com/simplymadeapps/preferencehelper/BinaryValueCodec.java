@@ -0,0 +1,290 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a JSON tree, stored as Base64 text.  Integers are written as variable length numbers and
+ * each object field name is written once per value and referenced by index after that, so lists of objects shrink
+ * the most.
+ */
+public final class BinaryValueCodec implements ValueCodec {
+
+    public static final String TAG = "#b1:";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INTEGER = 3;
+    private static final int NUMBER = 4;
+    private static final int STRING = 5;
+    private static final int ARRAY = 6;
+    private static final int OBJECT = 7;
+
+    @Override
+    public String getTag() {
+        return TAG;
+    }
+
+    @Override
+    public String encode(JsonElement tree) {
+        Output output = new Output();
+        output.writeElement(tree);
+        return Base64Encoding.encode(output.bytes, output.size);
+    }
+
+    @Override
+    public JsonElement decode(String encoded) {
+        byte[] bytes;
+        try {
+            bytes = Base64Encoding.decode(encoded, 0);
+        }
+        catch(IllegalArgumentException e) {
+            throw new JsonSyntaxException("Corrupt binary value", e);
+        }
+
+        Input input = new Input(bytes);
+        JsonElement tree = input.readElement();
+        if(input.position != bytes.length) {
+            throw new JsonSyntaxException("Binary value was not fully consumed");
+        }
+        return tree;
+    }
+
+    private static final class Output {
+
+        byte[] bytes = new byte[64];
+        int size;
+        final Map<String, Integer> names = new HashMap<>();
+
+        void writeElement(JsonElement element) {
+            if(element == null || element.isJsonNull()) {
+                writeByte(NULL);
+            }
+            else if(element.isJsonObject()) {
+                JsonObject object = element.getAsJsonObject();
+                writeByte(OBJECT);
+                writeVarint(object.size());
+                for(Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                    writeName(entry.getKey());
+                    writeElement(entry.getValue());
+                }
+            }
+            else if(element.isJsonArray()) {
+                JsonArray array = element.getAsJsonArray();
+                writeByte(ARRAY);
+                writeVarint(array.size());
+                for(JsonElement item : array) {
+                    writeElement(item);
+                }
+            }
+            else {
+                writePrimitive(element.getAsJsonPrimitive());
+            }
+        }
+
+        private void writePrimitive(JsonPrimitive primitive) {
+            if(primitive.isBoolean()) {
+                writeByte(primitive.getAsBoolean() ? TRUE : FALSE);
+            }
+            else if(primitive.isNumber()) {
+                String text = primitive.getAsString();
+                Long integer = parseInteger(text);
+                if(integer != null) {
+                    writeByte(INTEGER);
+                    // Zigzag encoding keeps small negative numbers short
+                    writeVarint((integer << 1) ^ (integer >> 63));
+                }
+                else {
+                    // Decimals keep their exact text so nothing is lost to binary floating point
+                    writeByte(NUMBER);
+                    writeString(text);
+                }
+            }
+            else {
+                writeByte(STRING);
+                writeString(primitive.getAsString());
+            }
+        }
+
+        private static Long parseInteger(String text) {
+            try {
+                return Long.parseLong(text);
+            }
+            catch(NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private void writeName(String name) {
+            Integer index = names.get(name);
+            if(index != null) {
+                writeVarint((long) index << 1 | 1);
+                return;
+            }
+
+            names.put(name, names.size());
+            byte[] utf8 = name.getBytes(UTF_8);
+            writeVarint((long) utf8.length << 1);
+            writeBytes(utf8);
+        }
+
+        private void writeString(String value) {
+            byte[] utf8 = value.getBytes(UTF_8);
+            writeVarint(utf8.length);
+            writeBytes(utf8);
+        }
+
+        private void writeVarint(long value) {
+            while((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if(size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static final class Input {
+
+        final byte[] bytes;
+        int position;
+        final List<String> names = new ArrayList<>();
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        JsonElement readElement() {
+            int type = readByte();
+            switch(type) {
+                case NULL:
+                    return JsonNull.INSTANCE;
+                case TRUE:
+                    return new JsonPrimitive(true);
+                case FALSE:
+                    return new JsonPrimitive(false);
+                case INTEGER:
+                    long zigzag = readVarint();
+                    return new JsonPrimitive((zigzag >>> 1) ^ -(zigzag & 1));
+                case NUMBER:
+                    return new JsonPrimitive(parseNumber(readString()));
+                case STRING:
+                    return new JsonPrimitive(readString());
+                case ARRAY:
+                    int length = readLength();
+                    JsonArray array = new JsonArray(length);
+                    for(int i = 0; i < length; i++) {
+                        array.add(readElement());
+                    }
+                    return array;
+                case OBJECT:
+                    int fields = readLength();
+                    JsonObject object = new JsonObject();
+                    for(int i = 0; i < fields; i++) {
+                        String name = readName();
+                        object.add(name, readElement());
+                    }
+                    return object;
+                default:
+                    throw new JsonSyntaxException("Unknown binary value type " + type);
+            }
+        }
+
+        private static Number parseNumber(String text) {
+            try {
+                return new BigDecimal(text);
+            }
+            catch(NumberFormatException e) {
+                // NaN and Infinity are only written when Gson is configured to allow them
+                return Double.valueOf(text);
+            }
+        }
+
+        private String readName() {
+            long header = readVarint();
+            if((header & 1) == 1) {
+                long index = header >>> 1;
+                if(index >= names.size()) {
+                    throw new JsonSyntaxException("Corrupt binary value");
+                }
+                return names.get((int) index);
+            }
+
+            String name = readUtf8(checkLength(header >>> 1));
+            names.add(name);
+            return name;
+        }
+
+        private String readString() {
+            return readUtf8(readLength());
+        }
+
+        private String readUtf8(int length) {
+            String value = new String(bytes, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        private int readLength() {
+            return checkLength(readVarint());
+        }
+
+        private int checkLength(long length) {
+            // Every element takes at least one byte, so a count or length can never exceed what is left
+            if(length > bytes.length - position) {
+                throw new JsonSyntaxException("Corrupt binary value");
+            }
+            return (int) length;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new JsonSyntaxException("Corrupt binary value");
+        }
+
+        private int readByte() {
+            if(position >= bytes.length) {
+                throw new JsonSyntaxException("Corrupt binary value");
+            }
+            return bytes[position++] & 0xFF;
+        }
+    }
+}
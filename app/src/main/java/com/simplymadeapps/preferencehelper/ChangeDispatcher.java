@@ -0,0 +1,224 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a store's SharedPreferences change notifications into typed values for its observers.  Changes to a key are
+ * collected for the change window and then delivered once with the value stored at that point, so a burst of writes
+ * produces a single call.
+ */
+class ChangeDispatcher implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private final PreferenceStore store;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMillis;
+    private final List<Subscription<?>> subscriptions = new CopyOnWriteArrayList<>();
+
+    ChangeDispatcher(PreferenceStore store, Executor executor, long windowMillis) {
+        this(store, executor, windowMillis, null);
+    }
+
+    ChangeDispatcher(PreferenceStore store, Executor executor, long windowMillis, ScheduledExecutorService scheduler) {
+        this.store = store;
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.scheduler = scheduler;
+    }
+
+    <T> PreferenceSubscription subscribe(Set<String> keys, String prefix, T fallback, Class<T> type, PreferenceObserver<T> observer) {
+        Subscription<T> subscription = new Subscription<>(keys, prefix, fallback, type, observer);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    int size() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        RuntimeException failure = null;
+        for(Subscription<?> subscription : subscriptions) {
+            if(subscription.isReleased()) {
+                // The observer was garbage collected
+                subscriptions.remove(subscription);
+            }
+            else if(subscription.mark(key)) {
+                try {
+                    schedule(subscription);
+                }
+                catch(RuntimeException e) {
+                    // An executor that runs deliveries in place throws an observer's failure here
+                    if(failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    private void schedule(final Subscription<?> subscription) {
+        if(windowMillis == 0) {
+            dispatch(subscription);
+            return;
+        }
+
+        // The timer thread only hands the delivery over - decoding and the observer run on the change executor
+        (scheduler != null ? scheduler : CoalescingPreferences.getSharedScheduler()).schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(subscription);
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(final Subscription<?> subscription) {
+        (executor != null ? executor : AsyncExecutor.getSharedExecutor()).execute(new Runnable() {
+            @Override
+            public void run() {
+                subscription.deliver();
+            }
+        });
+    }
+
+    /**
+     * A single observer along with the keys it covers and the changes waiting to be delivered to it.
+     */
+    class Subscription<T> implements PreferenceSubscription {
+
+        // Either the observed keys or, when null, the observed prefix
+        private final Set<String> keys;
+        private final String prefix;
+        private final T fallback;
+        private final Class<T> type;
+        private final WeakReference<PreferenceObserver<T>> observer;
+        private final Set<String> pending = new LinkedHashSet<>();
+        // Keys under the prefix known to hold a value, so a clear() can report them
+        private final Set<String> present = new HashSet<>();
+        private boolean scheduled;
+        private volatile boolean cancelled;
+
+        Subscription(Set<String> keys, String prefix, T fallback, Class<T> type, PreferenceObserver<T> observer) {
+            this.keys = keys;
+            this.prefix = prefix;
+            this.fallback = fallback;
+            this.type = type;
+            this.observer = new WeakReference<>(observer);
+            if(prefix != null) {
+                for(String key : store.preferences.getAll().keySet()) {
+                    if(matches(key)) {
+                        present.add(key);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        boolean isReleased() {
+            return observer.get() == null;
+        }
+
+        /**
+         * The expiry times the store keeps next to a key and the parts listed by a stored collection's manifest are
+         * never reported under a prefix.  Keys observed by name are always reported.
+         */
+        boolean matches(String key) {
+            if(keys != null) {
+                return keys.contains(key);
+            }
+            return key.startsWith(prefix) && !key.startsWith(ExpiryTracker.PREFIX) && !store.collections.isStoredPart(key);
+        }
+
+        /**
+         * Records a change and returns true when a delivery needs to be scheduled for it.  A null key means the
+         * store was cleared.
+         */
+        synchronized boolean mark(String key) {
+            if(key == null) {
+                pending.addAll(keys != null ? keys : present);
+            }
+            else if(matches(key) && (keys != null || present.contains(key) || store.preferences.contains(key))) {
+                // A removed key under the prefix that was never reported is a part removed along with its manifest
+                pending.add(key);
+            }
+
+            if(pending.isEmpty() || scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        void deliver() {
+            List<String> changed;
+            synchronized(this) {
+                changed = new ArrayList<>(pending);
+                pending.clear();
+                scheduled = false;
+            }
+
+            PreferenceObserver<T> target = observer.get();
+            if(target == null || cancelled) {
+                subscriptions.remove(this);
+                return;
+            }
+
+            RuntimeException failure = null;
+            for(String key : changed) {
+                try {
+                    // The value is read now rather than at notification time, so only the latest write is reported
+                    boolean exists = store.contains(key);
+                    T value = store.get(key, fallback, type);
+                    if(keys == null) {
+                        trackPresence(key, exists);
+                    }
+                    target.onChanged(key, value);
+                }
+                catch(RuntimeException e) {
+                    // A value that can't be read as the observed type or a failing observer only costs its own key
+                    if(failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if(failure != null) {
+                // Every other key has been delivered, so the first failure can go to the executor's thread
+                throw failure;
+            }
+        }
+
+        private synchronized void trackPresence(String key, boolean exists) {
+            if(exists) {
+                present.add(key);
+            }
+            else {
+                present.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SharedPreferences wrapper that holds written values in memory and flushes them to the wrapped preferences in one
+ * write once the coalescing window closes or the batch fills up.  Pending values are visible to reads immediately.
+ * <p>
+ * With a WriteJournal every write is appended to the journal before it is staged, and the journal only drops it
+ * once a flush has reached the disk.  A journaled flush waits for the disk with a single commit(), so it runs on the
+ * journal executor instead of the thread that asked for it.  Commits run outside the lock reads take, so a read never
+ * waits for the disk.  Writes recovered from the journal when it is opened are
+ * pending again and are flushed with the first batch.
+ */
+class CoalescingPreferences implements SharedPreferences {
+
+    // Marks a key that was removed but has not been flushed yet
+    private static final Object REMOVED = StagingEditor.REMOVED;
+
+    private static ScheduledExecutorService sharedScheduler;
+    private static ExecutorService sharedJournalExecutor;
+
+    private final SharedPreferences delegate;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final WriteJournal journal;
+    private final Executor journalExecutor;
+    private final Object lock = new Object();
+    // Held for the whole of a commit, so commits write one after another without holding up readers
+    private final Object commitLock = new Object();
+
+    private final Map<String, Object> pending = new HashMap<>();
+    private boolean pendingClear;
+    private int pendingWrites;
+    // The changes handed to a commit that hasn't returned yet, which reads still see until it has
+    private Map<String, Object> committing;
+    private boolean committingClear;
+    private ScheduledFuture<?> scheduledFlush;
+    // The owning store's metrics, which record every flush
+    private volatile MetricsRecorder metrics;
+    // The owning store's spilled files, swept once a commit puts the changes that replaced them on disk
+    private volatile SpilloverFiles spillover;
+
+    CoalescingPreferences(SharedPreferences delegate, WritePolicy policy, WriteJournal journal) {
+        this(delegate, policy, getSharedScheduler(), journal);
+    }
+
+    CoalescingPreferences(SharedPreferences delegate, WritePolicy policy, ScheduledExecutorService scheduler) {
+        this(delegate, policy, scheduler, null);
+    }
+
+    CoalescingPreferences(SharedPreferences delegate, WritePolicy policy, ScheduledExecutorService scheduler, WriteJournal journal) {
+        this(delegate, policy, scheduler, journal, journal == null ? null : getSharedJournalExecutor());
+    }
+
+    CoalescingPreferences(SharedPreferences delegate, WritePolicy policy, ScheduledExecutorService scheduler, WriteJournal journal, Executor journalExecutor) {
+        this.delegate = delegate;
+        this.windowMillis = policy.getWindowMillis();
+        this.maxBatchSize = policy.getMaxBatchSize();
+        this.scheduler = scheduler;
+        this.journal = journal;
+        this.journalExecutor = journalExecutor;
+
+        if(journal != null && (journal.isRecoveredClear() || !journal.getRecovered().isEmpty())) {
+            // Only staged - the delegate may still be loading, so the recovered writes wait for the first flush
+            synchronized(lock) {
+                pending.putAll(journal.getRecovered());
+                pendingClear = journal.isRecoveredClear();
+                pendingWrites = 1;
+                scheduleFlush();
+            }
+        }
+    }
+
+    static synchronized ScheduledExecutorService getSharedScheduler() {
+        if(sharedScheduler == null) {
+            sharedScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PreferenceHelper-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedScheduler;
+    }
+
+    /**
+     * The thread journaled flushes wait for the disk on, kept apart from the shared scheduler so a slow disk can't
+     * hold up flush timers, expiry sweeps or change windows.
+     */
+    static synchronized ExecutorService getSharedJournalExecutor() {
+        if(sharedJournalExecutor == null) {
+            sharedJournalExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PreferenceHelper-journal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedJournalExecutor;
+    }
+
+    SharedPreferences getDelegate() {
+        return delegate;
+    }
+
+    WriteJournal getJournal() {
+        return journal;
+    }
+
+    void setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
+    }
+
+    void setSpillover(SpilloverFiles spillover) {
+        this.spillover = spillover;
+    }
+
+    /**
+     * Hands every pending change to the wrapped preferences using apply(), or with a journal, has the journal
+     * executor write them.
+     */
+    void flush() {
+        if(journal == null) {
+            writePending(false);
+            return;
+        }
+
+        synchronized(lock) {
+            if(pending.isEmpty() && !pendingClear) {
+                return;
+            }
+        }
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeJournaled();
+            }
+        });
+    }
+
+    /**
+     * Writes every pending change to the wrapped preferences using commit() and blocks until it is on disk.
+     */
+    boolean flushAndWait() {
+        return journal == null ? writePending(true) : writeJournaled();
+    }
+
+    /**
+     * Commits every pending change, then drops the journal records the commit covered.
+     */
+    private boolean writeJournaled() {
+        long position;
+        // Every record before the position was staged along with it, so the commit below writes it or waits for the
+        // earlier flush that did.  Records after it stay in the journal until the next flush.
+        synchronized(journal) {
+            position = journal.getPosition();
+        }
+
+        if(!writePending(true)) {
+            return false;
+        }
+
+        try {
+            journal.discard(position);
+        }
+        catch(IOException e) {
+            // The records stay in the journal - replaying them after a crash rewrites the same values
+        }
+        return true;
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private boolean writePending(boolean waitForDisk) {
+        long start = System.nanoTime();
+        if(!waitForDisk) {
+            synchronized(lock) {
+                cancelScheduledFlush();
+                if(pending.isEmpty() && !pendingClear) {
+                    return true;
+                }
+                if(committing != null) {
+                    // Applied now, the changes could reach memory before the commit's older values and be overwritten
+                    scheduleFlush();
+                    return true;
+                }
+
+                // The delegate must receive the changes before we release the lock so readers never see a gap between
+                // the pending values being dropped and the delegate holding them
+                int size = sizeOf(pending);
+                SharedPreferences.Editor editor = takePending();
+                long commitStart = System.nanoTime();
+                editor.apply();
+                recordFlush(start, size, commitStart);
+            }
+            return true;
+        }
+
+        synchronized(commitLock) {
+            SpilloverFiles files = spillover;
+            // Taken before the pending changes, so every file they replaced was retired before it
+            long mark = files == null ? 0 : files.mark();
+            int size;
+            SharedPreferences.Editor editor;
+            synchronized(lock) {
+                cancelScheduledFlush();
+                size = sizeOf(pending);
+                committing = new HashMap<>(pending);
+                committingClear = pendingClear;
+                editor = takePending();
+            }
+
+            long commitStart = System.nanoTime();
+            // An empty commit still waits for any earlier apply() to reach the disk
+            boolean written = editor.commit();
+            synchronized(lock) {
+                committing = null;
+                committingClear = false;
+            }
+
+            recordFlush(start, size, commitStart);
+            if(files != null && written) {
+                files.sweep(mark, this);
+            }
+            return written;
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if(scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    /**
+     * Stages every pending change on an editor of the wrapped preferences and drops them.  Called while holding the
+     * lock.
+     */
+    private SharedPreferences.Editor takePending() {
+        SharedPreferences.Editor editor = delegate.edit();
+        if(pendingClear) {
+            editor.clear();
+        }
+        for(Map.Entry<String, Object> entry : pending.entrySet()) {
+            StagingEditor.putValue(editor, entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+        pendingClear = false;
+        pendingWrites = 0;
+        return editor;
+    }
+
+    private void recordFlush(long start, int size, long commitStart) {
+        MetricsRecorder recorder = metrics;
+        if(recorder != null) {
+            long end = System.nanoTime();
+            recorder.record(PreferenceOperation.FLUSH, null, end - start, size, end - commitStart);
+        }
+    }
+
+    private static int sizeOf(Map<String, Object> changes) {
+        int size = 0;
+        for(Object value : changes.values()) {
+            size += sizeOf(value);
+        }
+        return size;
+    }
+
+    // Sizes count the characters of strings, like the store's own metrics
+    private static int sizeOf(Object value) {
+        if(value instanceof String) {
+            return ((String) value).length();
+        }
+        int size = 0;
+        if(value instanceof Set) {
+            for(String element : (Set<String>) value) {
+                size += element == null ? 0 : element.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Journals the changes, when there is a journal, and stages them.  Returns false if they couldn't be journaled;
+     * they are still staged and are written with the next flush.
+     */
+    private boolean merge(Map<String, Object> changes, boolean clear) {
+        if(journal == null) {
+            stage(changes, clear);
+            return true;
+        }
+
+        // Every journaled write holds the journal's lock until it is staged, so the journal's order is the staging order
+        synchronized(journal) {
+            boolean journaled = true;
+            try {
+                journal.append(changes, clear);
+            }
+            catch(IOException e) {
+                journaled = false;
+            }
+            stage(changes, clear);
+            return journaled;
+        }
+    }
+
+    private void stage(Map<String, Object> changes, boolean clear) {
+        boolean flushNow = false;
+
+        synchronized(lock) {
+            if(clear) {
+                pending.clear();
+                pendingClear = true;
+            }
+            pending.putAll(changes);
+            pendingWrites++;
+
+            if(pendingWrites >= maxBatchSize) {
+                flushNow = true;
+            }
+            else {
+                scheduleFlush();
+            }
+        }
+
+        if(flushNow) {
+            flush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if(scheduledFlush == null) {
+            scheduledFlush = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Object getPending(String key) {
+        synchronized(lock) {
+            if(pending.containsKey(key)) {
+                return pending.get(key);
+            }
+            if(pendingClear) {
+                return REMOVED;
+            }
+            if(committing != null && committing.containsKey(key)) {
+                return committing.get(key);
+            }
+            return committingClear ? REMOVED : null;
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized(lock) {
+            Map<String, Object> all = new HashMap<>();
+            if(!pendingClear) {
+                if(!committingClear) {
+                    all.putAll(delegate.getAll());
+                }
+                if(committing != null) {
+                    overlay(all, committing);
+                }
+            }
+            overlay(all, pending);
+            return all;
+        }
+    }
+
+    private static void overlay(Map<String, Object> all, Map<String, Object> changes) {
+        for(Map.Entry<String, Object> entry : changes.entrySet()) {
+            if(entry.getValue() == REMOVED) {
+                all.remove(entry.getKey());
+            }
+            else if(entry.getValue() instanceof Set) {
+                all.put(entry.getKey(), new HashSet<>((Set<String>) entry.getValue()));
+            }
+            else {
+                all.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = getPending(key);
+        if(value == null) {
+            return delegate.getString(key, defValue);
+        }
+        return value == REMOVED ? defValue : (String) value;
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = getPending(key);
+        if(value == null) {
+            return delegate.getStringSet(key, defValues);
+        }
+        // A copy, so a caller changing the set can't change the staged write
+        return value == REMOVED ? defValues : new HashSet<>((Set<String>) value);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = getPending(key);
+        if(value == null) {
+            return delegate.getInt(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Integer) value;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = getPending(key);
+        if(value == null) {
+            return delegate.getLong(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Long) value;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = getPending(key);
+        if(value == null) {
+            return delegate.getFloat(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Float) value;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = getPending(key);
+        if(value == null) {
+            return delegate.getBoolean(key, defValue);
+        }
+        return value == REMOVED ? defValue : (Boolean) value;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Object value = getPending(key);
+        if(value == null) {
+            return delegate.contains(key);
+        }
+        return value != REMOVED;
+    }
+
+    @Override
+    public SharedPreferences.Editor edit() {
+        return new Editor();
+    }
+
+    // Listeners are notified when the pending changes are flushed to the wrapped preferences
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        delegate.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        delegate.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    final class Editor extends StagingEditor {
+
+        // Both commit() and apply() only stage the changes; the write to disk happens when the batch is flushed
+        @Override
+        boolean write(Map<String, Object> changes, boolean clear, boolean waitForDisk) {
+            return merge(changes, clear);
+        }
+    }
+}
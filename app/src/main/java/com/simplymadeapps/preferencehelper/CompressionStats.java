@@ -0,0 +1,107 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for the value compression enabled with PreferenceOptions.setCompressionThreshold(), for tuning the
+ * threshold.  Sizes are in characters of the stored string.
+ */
+public final class CompressionStats {
+
+    private final AtomicInteger compressedValues = new AtomicInteger();
+    private final AtomicInteger skippedValues = new AtomicInteger();
+    private final AtomicInteger decompressedValues = new AtomicInteger();
+    private final AtomicLong originalSize = new AtomicLong();
+    private final AtomicLong compressedSize = new AtomicLong();
+    private final AtomicLong compressTimeNanos = new AtomicLong();
+    private final AtomicLong decompressTimeNanos = new AtomicLong();
+
+    CompressionStats() { }
+
+    void recordCompressed(int original, int compressed, long nanos) {
+        compressedValues.incrementAndGet();
+        originalSize.addAndGet(original);
+        compressedSize.addAndGet(compressed);
+        compressTimeNanos.addAndGet(nanos);
+    }
+
+    void recordSkipped(long nanos) {
+        skippedValues.incrementAndGet();
+        compressTimeNanos.addAndGet(nanos);
+    }
+
+    void recordDecompressed(long nanos) {
+        decompressedValues.incrementAndGet();
+        decompressTimeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Returns the number of values that were stored compressed.
+     */
+    public int getCompressedValues() {
+        return compressedValues.get();
+    }
+
+    /**
+     * Returns the number of values over the threshold that were stored uncompressed because compressing them did not
+     * make them smaller.
+     */
+    public int getSkippedValues() {
+        return skippedValues.get();
+    }
+
+    /**
+     * Returns the number of compressed values that were read back.
+     */
+    public int getDecompressedValues() {
+        return decompressedValues.get();
+    }
+
+    /**
+     * Returns the total size of the compressed values before compression.
+     */
+    public long getOriginalSize() {
+        return originalSize.get();
+    }
+
+    /**
+     * Returns the total stored size of the compressed values.
+     */
+    public long getCompressedSize() {
+        return compressedSize.get();
+    }
+
+    /**
+     * Returns the compressed size as a fraction of the original size, or 1 if nothing has been compressed yet.
+     */
+    public double getCompressionRatio() {
+        long original = originalSize.get();
+        return original == 0 ? 1 : (double) compressedSize.get() / original;
+    }
+
+    /**
+     * Returns the total time spent compressing values, including values that were skipped.
+     */
+    public long getCompressTimeNanos() {
+        return compressTimeNanos.get();
+    }
+
+    /**
+     * Returns the total time spent decompressing values.
+     */
+    public long getDecompressTimeNanos() {
+        return decompressTimeNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{compressedValues=" + compressedValues.get() +
+                ", skippedValues=" + skippedValues.get() +
+                ", decompressedValues=" + decompressedValues.get() +
+                ", originalSize=" + originalSize.get() +
+                ", compressedSize=" + compressedSize.get() +
+                ", compressTimeNanos=" + compressTimeNanos.get() +
+                ", decompressTimeNanos=" + decompressTimeNanos.get() + "}";
+    }
+}
@@ -0,0 +1,194 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * SharedPreferences wrapper that opens the wrapped preferences on a background thread.  Creating it never blocks;
+ * the first call that needs the stored values waits until that one store has finished loading.
+ */
+class DeferredSharedPreferences implements SharedPreferences {
+
+    private static ExecutorService sharedExecutor;
+
+    private final FutureTask<SharedPreferences> task;
+    private final StartupMetrics metrics = new StartupMetrics();
+    // Listeners registered before the load finished are handed to the loaded preferences by the loading thread
+    private final List<OnSharedPreferenceChangeListener> pendingListeners = new ArrayList<>();
+    private volatile SharedPreferences delegate;
+
+    DeferredSharedPreferences(Callable<SharedPreferences> loader) {
+        this(loader, getSharedExecutor());
+    }
+
+    DeferredSharedPreferences(final Callable<SharedPreferences> loader, Executor executor) {
+        task = new FutureTask<>(new Callable<SharedPreferences>() {
+            @Override
+            public SharedPreferences call() throws Exception {
+                return load(loader);
+            }
+        });
+        executor.execute(task);
+    }
+
+    static synchronized ExecutorService getSharedExecutor() {
+        if(sharedExecutor == null) {
+            sharedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PreferenceHelper-load");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    private SharedPreferences load(Callable<SharedPreferences> loader) throws Exception {
+        long start = System.nanoTime();
+        SharedPreferences preferences = loader.call();
+        // SharedPreferences parses its file on a thread of its own - any read waits until the parse is done
+        preferences.contains("");
+        metrics.recordLoad(System.nanoTime() - start);
+
+        synchronized(pendingListeners) {
+            for(OnSharedPreferenceChangeListener listener : pendingListeners) {
+                preferences.registerOnSharedPreferenceChangeListener(listener);
+            }
+            pendingListeners.clear();
+            delegate = preferences;
+        }
+        return preferences;
+    }
+
+    StartupMetrics getStartupMetrics() {
+        return metrics;
+    }
+
+    boolean isLoaded() {
+        return task.isDone();
+    }
+
+    SharedPreferences getDelegate() {
+        SharedPreferences loaded = delegate;
+        if(loaded != null) {
+            return loaded;
+        }
+
+        long start = System.nanoTime();
+        try {
+            loaded = task.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the preferences to load", e);
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("Unable to load preferences", e.getCause());
+        }
+        metrics.recordBlocked(System.nanoTime() - start);
+        return loaded;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return getDelegate().getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return getDelegate().getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return getDelegate().getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return getDelegate().getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return getDelegate().getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return getDelegate().getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return getDelegate().getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return getDelegate().contains(key);
+    }
+
+    // The editor only waits for the load when its changes are written
+    @Override
+    public SharedPreferences.Editor edit() {
+        return new Editor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized(pendingListeners) {
+            if(delegate == null) {
+                pendingListeners.add(listener);
+                return;
+            }
+        }
+        delegate.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized(pendingListeners) {
+            if(delegate == null) {
+                pendingListeners.remove(listener);
+                return;
+            }
+        }
+        delegate.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    final class Editor extends StagingEditor {
+
+        @Override
+        @SuppressLint({"CommitPrefEdits", "ApplySharedPref"})
+        boolean write(Map<String, Object> changes, boolean clear, boolean waitForDisk) {
+            SharedPreferences.Editor editor = getDelegate().edit();
+            if(clear) {
+                editor.clear();
+            }
+            for(Map.Entry<String, Object> entry : changes.entrySet()) {
+                StagingEditor.putValue(editor, entry.getKey(), entry.getValue());
+            }
+
+            if(waitForDisk) {
+                return editor.commit();
+            }
+            editor.apply();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the keys of a store that were written with a TTL.  Each one's expiry time is stored at "#ttl:key" so it
+ * survives a restart, and is kept in memory for the lazy checks made by every read.  The store rejects user keys in
+ * that namespace, so an expiry time is never mistaken for a value or the other way around.  Expired keys read as
+ * missing until a sweep removes them, and when a byte budget is set a sweep also removes the least recently used of
+ * these keys until the store fits.  Keys written without a TTL are never evicted.
+ */
+class ExpiryTracker {
+
+    static final String PREFIX = "#ttl:";
+
+    private final PreferenceStore store;
+    private final long byteBudget;
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+    // Last read or write of each tracked key, only kept when there is a byte budget to enforce
+    private final Map<String, Long> accessed = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    ExpiryTracker(PreferenceStore store, long byteBudget) {
+        this.store = store;
+        this.byteBudget = byteBudget;
+    }
+
+    static String expiryKey(String key) {
+        return PREFIX + key;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    long getByteBudget() {
+        return byteBudget;
+    }
+
+    int size() {
+        load();
+        return expiries.size();
+    }
+
+    /**
+     * Reads the stored expiry times the first time they are needed, so opening a store doesn't wait on a scan.
+     */
+    private void load() {
+        if(loaded) {
+            return;
+        }
+
+        synchronized(this) {
+            if(!loaded) {
+                for(Map.Entry<String, ?> entry : store.preferences.getAll().entrySet()) {
+                    String key = entry.getKey();
+                    if(key.startsWith(PREFIX) && entry.getValue() instanceof Long) {
+                        expiries.put(key.substring(PREFIX.length()), (Long) entry.getValue());
+                    }
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    /**
+     * True when the key was written with a TTL that has run out.  Counts as an access for the byte budget otherwise.
+     */
+    boolean isExpired(String key) {
+        load();
+        return isExpired(key, expiries.get(key));
+    }
+
+    /**
+     * Like isExpired(key) for an expiry time read elsewhere, such as from a snapshot.  Null means the key has no TTL.
+     */
+    boolean isExpired(String key, Long expiry) {
+        if(expiry == null) {
+            return false;
+        }
+
+        long now = currentTimeMillis();
+        if(expiry <= now) {
+            return true;
+        }
+        if(byteBudget > 0) {
+            accessed.put(key, now);
+        }
+        return false;
+    }
+
+    /**
+     * True when the write to the key (every key when null) may replace a value with a TTL.
+     */
+    boolean isTracked(String key) {
+        load();
+        return key == null ? !expiries.isEmpty() : expiries.containsKey(key);
+    }
+
+    /**
+     * Stages the key's expiry time beside its value and starts tracking it.  Called while holding the tracker's lock.
+     */
+    void track(SharedPreferences.Editor editor, String key, long ttlMillis) {
+        load();
+        long now = currentTimeMillis();
+        long expiry = now + ttlMillis;
+        editor.putLong(expiryKey(key), expiry);
+        expiries.put(key, expiry);
+        if(byteBudget > 0) {
+            accessed.put(key, now);
+        }
+    }
+
+    /**
+     * Stages the removal of the expiry time of a key written without a TTL (every key when null, for a clear) and
+     * stops tracking it.  Called while holding the tracker's lock.
+     */
+    void forget(SharedPreferences.Editor editor, String key) {
+        if(key == null) {
+            // The clear removes the stored times along with everything else
+            expiries.clear();
+            accessed.clear();
+            return;
+        }
+
+        if(expiries.remove(key) != null) {
+            editor.remove(expiryKey(key));
+            accessed.remove(key);
+        }
+    }
+
+    /**
+     * Stages the removal of every expired key and, over the byte budget, the least recently used keys with a TTL,
+     * then stops tracking them.  Returns the keys removed.  Called while holding the tracker's lock.
+     */
+    List<String> evict(SharedPreferences.Editor editor) {
+        load();
+        long now = currentTimeMillis();
+        List<String> evicted = new ArrayList<>();
+        for(Map.Entry<String, Long> entry : expiries.entrySet()) {
+            if(entry.getValue() <= now) {
+                evicted.add(entry.getKey());
+            }
+        }
+        if(byteBudget > 0) {
+            evictOverBudget(store.preferences.getAll(), evicted);
+        }
+
+        for(String key : evicted) {
+            store.collections.removeParts(editor, key);
+            editor.remove(key);
+            editor.remove(expiryKey(key));
+            expiries.remove(key);
+            accessed.remove(key);
+        }
+        return evicted;
+    }
+
+    private void evictOverBudget(Map<String, ?> values, List<String> evicted) {
+        long over = -byteBudget;
+        for(Map.Entry<String, ?> entry : values.entrySet()) {
+            over += entry.getKey().length() + length(entry.getValue());
+        }
+        for(String key : evicted) {
+            over -= sizeOf(values, key);
+        }
+        if(over <= 0) {
+            return;
+        }
+
+        // Keys not read or written since the store was opened count as the least recently used
+        List<String> candidates = new ArrayList<>(expiries.keySet());
+        candidates.removeAll(evicted);
+        Collections.sort(candidates, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                // Long.compare() needs API 19
+                long firstTime = accessTime(first);
+                long secondTime = accessTime(second);
+                return firstTime < secondTime ? -1 : (firstTime == secondTime ? 0 : 1);
+            }
+        });
+
+        for(int i = 0; i < candidates.size() && over > 0; i++) {
+            String key = candidates.get(i);
+            evicted.add(key);
+            over -= sizeOf(values, key);
+        }
+    }
+
+    private long accessTime(String key) {
+        Long time = accessed.get(key);
+        return time == null ? 0 : time;
+    }
+
+    /**
+     * The characters a key takes up in the store with its expiry time and any collection parts, which is close to
+     * their size in the file.
+     */
+    private static long sizeOf(Map<String, ?> values, String key) {
+        List<String> keys = new ArrayList<>();
+        keys.add(key);
+        keys.add(expiryKey(key));
+        keys.addAll(SegmentedCollections.partKeys(key, values.get(key)));
+
+        long size = 0;
+        for(String stored : keys) {
+            if(values.containsKey(stored)) {
+                size += stored.length() + length(values.get(stored));
+            }
+        }
+        return size;
+    }
+
+    private static long length(Object value) {
+        if(value instanceof Set) {
+            long length = 0;
+            for(Object element : (Set<?>) value) {
+                length += String.valueOf(element).length();
+            }
+            return length;
+        }
+        return String.valueOf(value).length();
+    }
+
+    /**
+     * Sweeps the store every intervalMillis on the executor, until the store is garbage collected.
+     */
+    void startSweeping(ScheduledExecutorService scheduler, Executor executor, long intervalMillis) {
+        SweepTask task = new SweepTask(store, executor);
+        task.future = scheduler.scheduleWithFixedDelay(task, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static class SweepTask implements Runnable {
+
+        // Weak so a scheduled sweep doesn't keep a store that is no longer used alive
+        private final WeakReference<PreferenceStore> store;
+        private final Executor executor;
+        volatile ScheduledFuture<?> future;
+
+        SweepTask(PreferenceStore store, Executor executor) {
+            this.store = new WeakReference<>(store);
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            final PreferenceStore target = store.get();
+            if(target == null) {
+                future.cancel(false);
+                return;
+            }
+
+            // The timer thread only hands the sweep over - the commit runs on the executor
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    target.sweepExpired();
+                }
+            });
+        }
+    }
+}
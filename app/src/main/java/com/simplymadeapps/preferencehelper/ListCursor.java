@@ -0,0 +1,180 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Decodes the elements of a stored list one at a time as it is iterated, so large lists can be scanned without
+ * building every element up front.  A cursor can only be iterated once.
+ */
+public class ListCursor<T> implements Iterator<T>, Iterable<T>, Closeable {
+
+    private final TypeAdapter<T> adapter;
+    private final String typeName;
+    private final JsonReader reader;
+    // Set instead of the reader when the list was stored by a ValueCodec and decoded to a tree
+    private final Iterator<JsonElement> elements;
+    private boolean isNull;
+    private boolean finished;
+
+    ListCursor(Gson gson, String json, Class<T> elementType) {
+        this.adapter = gson.getAdapter(elementType);
+        this.typeName = typeName(elementType);
+        this.elements = null;
+
+        if(json == null) {
+            reader = null;
+            isNull = true;
+            return;
+        }
+
+        reader = gson.newJsonReader(new StringReader(json));
+        // Gson.fromJson() reads leniently, so we do too to stay compatible with values stored by older versions
+        reader.setLenient(true);
+        try {
+            if(reader.peek() == JsonToken.NULL) {
+                isNull = true;
+            }
+            else {
+                reader.beginArray();
+            }
+        }
+        catch(EOFException e) {
+            // Gson treats an empty document as null
+            isNull = true;
+        }
+        catch(IOException | RuntimeException e) {
+            throw invalidList(e);
+        }
+    }
+
+    ListCursor(Gson gson, ValueCodec codec, String encoded, Class<T> elementType) {
+        this.adapter = gson.getAdapter(elementType);
+        this.typeName = typeName(elementType);
+        this.reader = null;
+
+        JsonElement tree;
+        try {
+            tree = codec.decode(encoded);
+        }
+        catch(RuntimeException e) {
+            throw invalidList(e);
+        }
+
+        if(tree.isJsonNull()) {
+            isNull = true;
+            elements = null;
+        }
+        else if(tree.isJsonArray()) {
+            elements = ((JsonArray) tree).iterator();
+        }
+        else {
+            throw invalidList(new JsonSyntaxException("Expected an array but was " + tree));
+        }
+    }
+
+    ListCursor(Gson gson, Class<T> elementType, Iterator<JsonElement> elements) {
+        this.adapter = gson.getAdapter(elementType);
+        this.typeName = typeName(elementType);
+        this.reader = null;
+        this.elements = elements;
+    }
+
+    private IllegalArgumentException invalidList(Exception cause) {
+        return invalidList(typeName, cause);
+    }
+
+    static IllegalArgumentException invalidList(String typeName, Exception cause) {
+        return new IllegalArgumentException("The object stored at the specified key is not a " + typeName, cause);
+    }
+
+    static String typeName(Class<?> elementType) {
+        return elementType.getSimpleName() + "[]";
+    }
+
+    /**
+     * True when nothing is stored or a null list was stored.
+     */
+    boolean isNull() {
+        return isNull;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(isNull || finished) {
+            return false;
+        }
+
+        if(elements != null) {
+            try {
+                // A segmented list reads its segments as it goes
+                return elements.hasNext();
+            }
+            catch(RuntimeException e) {
+                throw invalidList(e);
+            }
+        }
+
+        try {
+            if(reader.hasNext()) {
+                return true;
+            }
+
+            reader.endArray();
+            if(reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            finished = true;
+            return false;
+        }
+        catch(IOException | RuntimeException e) {
+            throw invalidList(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            if(elements != null) {
+                return adapter.fromJsonTree(elements.next());
+            }
+            return adapter.read(reader);
+        }
+        catch(IOException | RuntimeException e) {
+            throw invalidList(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Stored lists cannot be modified through a cursor");
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(reader != null) {
+            reader.close();
+        }
+    }
+}
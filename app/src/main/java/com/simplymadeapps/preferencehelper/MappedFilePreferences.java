@@ -0,0 +1,484 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * SharedPreferences backed by a memory-mapped, append-only log file.
+ *
+ * Every commit() or apply() appends a single record holding just the changed keys, so a small update costs
+ * O(value size) instead of rewriting the whole file.  Once the log has grown to twice its size after the last
+ * compaction it is rewritten with only the live values.
+ *
+ * File layout: an 8 byte header (magic, version) followed by records of [int length][payload][long CRC32].  A record
+ * with a zero length marks the end of the log, and replay stops at the first record that fails its checksum, so a
+ * write torn by a crash is dropped as a whole.
+ */
+class MappedFilePreferences implements SharedPreferences {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x50484B56; // "PHKV"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 4 + 8;
+    static final int MIN_CAPACITY = 16 * 1024;
+    static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+    private static final byte OP_REMOVE = 0;
+    private static final byte OP_STRING = 1;
+    private static final byte OP_INT = 2;
+    private static final byte OP_LONG = 3;
+    private static final byte OP_FLOAT = 4;
+    private static final byte OP_BOOLEAN = 5;
+    private static final byte OP_STRING_SET = 6;
+    private static final byte OP_CLEAR = 7;
+
+    private final File file;
+    private final Object lock = new Object();
+    private final Map<String, Object> values = new HashMap<>();
+    // SharedPreferences holds its listeners weakly, so we do too
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private int compactAt;
+
+    MappedFilePreferences(File file) {
+        this.file = file;
+        try {
+            open();
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Unable to open preference file " + file.getPath(), e);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getWritePosition() {
+        synchronized(lock) {
+            return writePosition;
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = file.getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent.getPath());
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        long length = randomAccessFile.length();
+
+        if(length < HEADER_SIZE) {
+            map(MIN_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            writePosition = HEADER_SIZE;
+        }
+        else {
+            map((int) length);
+            if(buffer.getInt(0) != MAGIC) {
+                throw new IOException(file.getPath() + " is not a preference file");
+            }
+            replay();
+        }
+
+        compactAt = Math.max(MIN_COMPACT_SIZE, writePosition * 2);
+    }
+
+    private void map(int capacity) throws IOException {
+        if(randomAccessFile.length() < capacity) {
+            randomAccessFile.setLength(capacity);
+        }
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void replay() throws IOException {
+        int position = HEADER_SIZE;
+
+        while(position + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || position + RECORD_OVERHEAD + length > buffer.capacity()) {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + 4);
+            view.get(payload);
+            if(checksum(payload) != buffer.getLong(position + 4 + length)) {
+                break;
+            }
+
+            applyPayload(payload, null);
+            position += RECORD_OVERHEAD + length;
+        }
+
+        writePosition = position;
+
+        // Zero anything left after the last good record so a torn write can never be mistaken for a record later
+        if(position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+            for(int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    static long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+
+    private void applyPayload(byte[] payload, List<String> changedKeys) throws IOException {
+        Map<String, Object> changes = new HashMap<>();
+        if(decode(payload, changes)) {
+            values.clear();
+            if(changedKeys != null) {
+                // Matches SharedPreferences, which reports clear() with a null key
+                changedKeys.add(null);
+            }
+        }
+
+        for(Map.Entry<String, Object> entry : changes.entrySet()) {
+            if(entry.getValue() == StagingEditor.REMOVED) {
+                values.remove(entry.getKey());
+            }
+            else {
+                values.put(entry.getKey(), entry.getValue());
+            }
+
+            if(changedKeys != null) {
+                changedKeys.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Reads a record's changes into the map, with removed keys marked StagingEditor.REMOVED, and returns true if the
+     * record starts with a clear.
+     */
+    static boolean decode(byte[] payload, Map<String, Object> changes) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        boolean clear = false;
+
+        while(input.available() > 0) {
+            byte op = input.readByte();
+            if(op == OP_CLEAR) {
+                changes.clear();
+                clear = true;
+                continue;
+            }
+
+            String key = readString(input);
+            switch(op) {
+                case OP_REMOVE:
+                    changes.put(key, StagingEditor.REMOVED);
+                    break;
+                case OP_STRING:
+                    changes.put(key, readString(input));
+                    break;
+                case OP_INT:
+                    changes.put(key, input.readInt());
+                    break;
+                case OP_LONG:
+                    changes.put(key, input.readLong());
+                    break;
+                case OP_FLOAT:
+                    changes.put(key, input.readFloat());
+                    break;
+                case OP_BOOLEAN:
+                    changes.put(key, input.readBoolean());
+                    break;
+                case OP_STRING_SET:
+                    int count = input.readInt();
+                    Set<String> set = new HashSet<>();
+                    for(int i = 0; i < count; i++) {
+                        set.add(readString(input));
+                    }
+                    changes.put(key, set);
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + op);
+            }
+        }
+        return clear;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static byte[] encode(Map<String, Object> changes, boolean clear) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        if(clear) {
+            output.writeByte(OP_CLEAR);
+        }
+
+        for(Map.Entry<String, Object> entry : changes.entrySet()) {
+            Object value = entry.getValue();
+            if(value == StagingEditor.REMOVED) {
+                output.writeByte(OP_REMOVE);
+                writeString(output, entry.getKey());
+            }
+            else if(value instanceof String) {
+                output.writeByte(OP_STRING);
+                writeString(output, entry.getKey());
+                writeString(output, (String) value);
+            }
+            else if(value instanceof Integer) {
+                output.writeByte(OP_INT);
+                writeString(output, entry.getKey());
+                output.writeInt((Integer) value);
+            }
+            else if(value instanceof Long) {
+                output.writeByte(OP_LONG);
+                writeString(output, entry.getKey());
+                output.writeLong((Long) value);
+            }
+            else if(value instanceof Float) {
+                output.writeByte(OP_FLOAT);
+                writeString(output, entry.getKey());
+                output.writeFloat((Float) value);
+            }
+            else if(value instanceof Boolean) {
+                output.writeByte(OP_BOOLEAN);
+                writeString(output, entry.getKey());
+                output.writeBoolean((Boolean) value);
+            }
+            else {
+                Set<String> set = (Set<String>) value;
+                output.writeByte(OP_STRING_SET);
+                writeString(output, entry.getKey());
+                output.writeInt(set.size());
+                for(String item : set) {
+                    writeString(output, item);
+                }
+            }
+        }
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private boolean write(Map<String, Object> changes, boolean clear, boolean waitForDisk) {
+        List<String> changedKeys = new ArrayList<>();
+
+        synchronized(lock) {
+            try {
+                byte[] payload = encode(changes, clear);
+                int recordSize = RECORD_OVERHEAD + payload.length;
+
+                // Leave room for the zero length that terminates the log
+                ensureCapacity(writePosition + recordSize + 4);
+
+                // The length is written last so a crash part way through leaves the log terminated at this record
+                ByteBuffer view = buffer.duplicate();
+                view.position(writePosition + 4);
+                view.put(payload);
+                buffer.putLong(writePosition + 4 + payload.length, checksum(payload));
+                buffer.putInt(writePosition, payload.length);
+                writePosition += recordSize;
+
+                applyPayload(payload, changedKeys);
+
+                if(waitForDisk) {
+                    buffer.force();
+                }
+
+            }
+            catch(IOException e) {
+                return false;
+            }
+
+            if(writePosition >= compactAt) {
+                try {
+                    compact();
+                }
+                catch(IOException e) {
+                    // The record is already safely in the log - we'll try compacting again after the next write
+                    compactAt = writePosition + MIN_COMPACT_SIZE;
+                }
+            }
+        }
+
+        notifyListeners(changedKeys);
+        return true;
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if(required > buffer.capacity()) {
+            map(Math.max(required, buffer.capacity() * 2));
+        }
+    }
+
+    /**
+     * Rewrites the log with a single record holding only the live values.  The new log is written to a temporary
+     * file and renamed over the old one, so a crash during compaction leaves the old log intact.
+     */
+    void compact() throws IOException {
+        synchronized(lock) {
+            byte[] payload = encode(values, true);
+            File temp = new File(file.getPath() + ".tmp");
+
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                DataOutputStream output = new DataOutputStream(stream);
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(payload.length);
+                output.write(payload);
+                output.writeLong(checksum(payload));
+                output.flush();
+                stream.getFD().sync();
+            }
+            finally {
+                stream.close();
+            }
+
+            randomAccessFile.close();
+            boolean renamed = temp.renameTo(file);
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if(!renamed) {
+                // Carry on appending to the old log
+                map(buffer.capacity());
+                temp.delete();
+                throw new IOException("Unable to replace " + file.getPath());
+            }
+
+            writePosition = HEADER_SIZE + RECORD_OVERHEAD + payload.length;
+            map(Math.max(MIN_CAPACITY, writePosition * 2));
+            compactAt = Math.max(MIN_COMPACT_SIZE, writePosition * 2);
+        }
+    }
+
+    private void notifyListeners(List<String> changedKeys) {
+        List<OnSharedPreferenceChangeListener> toNotify;
+        synchronized(listeners) {
+            toNotify = new ArrayList<>(listeners.keySet());
+        }
+
+        for(String key : changedKeys) {
+            for(OnSharedPreferenceChangeListener listener : toNotify) {
+                listener.onSharedPreferenceChanged(this, key);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized(lock) {
+            return new HashMap<>(values);
+        }
+    }
+
+    private Object getValue(String key) {
+        synchronized(lock) {
+            return values.get(key);
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = getValue(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = getValue(key);
+        return value != null ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = getValue(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = getValue(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = getValue(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = getValue(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return getValue(key) != null;
+    }
+
+    @Override
+    public SharedPreferences.Editor edit() {
+        return new Editor();
+    }
+
+    // Unlike SharedPreferences, listeners are notified on the thread that made the change
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized(listeners) {
+            listeners.put(listener, this);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized(listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    final class Editor extends StagingEditor {
+
+        @Override
+        boolean write(Map<String, Object> changes, boolean clear, boolean waitForDisk) {
+            return MappedFilePreferences.this.write(changes, clear, waitForDisk);
+        }
+    }
+}
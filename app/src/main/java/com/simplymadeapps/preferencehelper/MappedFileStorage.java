@@ -0,0 +1,35 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage backed by memory-mapped, append-only log files in the app's files directory.  Small updates only append the
+ * changed values instead of rewriting the whole store, which makes this a good fit for frequently written keys.
+ */
+public class MappedFileStorage implements PreferenceStorage {
+
+    static final String DIRECTORY = "preferencehelper";
+
+    // Each file must only be mapped once per process
+    private static final Map<String, MappedFilePreferences> openFiles = new HashMap<>();
+
+    @Override
+    public SharedPreferences open(Context context, String name) {
+        String fileName = name == null ? context.getPackageName() + "_preferences" : name;
+        File file = new File(new File(context.getFilesDir(), DIRECTORY), fileName + ".kv");
+
+        synchronized(openFiles) {
+            MappedFilePreferences preferences = openFiles.get(file.getPath());
+            if(preferences == null) {
+                preferences = new MappedFilePreferences(file);
+                openFiles.put(file.getPath(), preferences);
+            }
+            return preferences;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the per key and per store operation totals for one store.  Stores without metrics don't create one, so
+ * the only cost when metrics are off is a null check.
+ */
+class MetricsRecorder {
+
+    private final String storeName;
+    private final PreferenceMetricsListener listener;
+    private final ConcurrentHashMap<String, OperationStats.Recorder[]> keys = new ConcurrentHashMap<>();
+    private volatile OperationStats.Recorder[] totals = newRecorders();
+
+    MetricsRecorder(String storeName, PreferenceMetricsListener listener) {
+        this.storeName = storeName;
+        this.listener = listener;
+    }
+
+    private static OperationStats.Recorder[] newRecorders() {
+        PreferenceOperation[] operations = PreferenceOperation.values();
+        OperationStats.Recorder[] recorders = new OperationStats.Recorder[operations.length];
+        for(int i = 0; i < recorders.length; i++) {
+            recorders[i] = new OperationStats.Recorder();
+        }
+        return recorders;
+    }
+
+    void record(PreferenceOperation operation, String key, long timeNanos, int size, long commitNanos) {
+        int index = operation.ordinal();
+        totals[index].record(timeNanos, size, commitNanos);
+
+        if(key != null) {
+            recordersOf(key)[index].record(timeNanos, size, commitNanos);
+        }
+
+        if(listener != null) {
+            listener.onOperation(storeName, operation, key, timeNanos, size, commitNanos);
+        }
+    }
+
+    /**
+     * Records a write of several keys once for the store, with the total size, and once for each key with its own
+     * size.  The listener hears about the write once, without a key.
+     */
+    void recordBatch(PreferenceOperation operation, Map<String, Integer> sizes, long timeNanos, long commitNanos) {
+        int size = 0;
+        for(Map.Entry<String, Integer> entry : sizes.entrySet()) {
+            size += entry.getValue();
+            recordersOf(entry.getKey())[operation.ordinal()].record(timeNanos, entry.getValue(), commitNanos);
+        }
+        record(operation, null, timeNanos, size, commitNanos);
+    }
+
+    private OperationStats.Recorder[] recordersOf(String key) {
+        OperationStats.Recorder[] recorders = keys.get(key);
+        if(recorders == null) {
+            // Another thread may get there first, so always use whichever array ended up in the map
+            keys.putIfAbsent(key, newRecorders());
+            recorders = keys.get(key);
+        }
+        return recorders;
+    }
+
+    MetricsSnapshot snapshot() {
+        return MetricsSnapshot.of(keys, totals);
+    }
+
+    void reset() {
+        keys.clear();
+        totals = newRecorders();
+    }
+}
@@ -0,0 +1,62 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A point in time copy of a store's metrics.  Per key totals are only kept for keys that were used.
+ */
+public final class MetricsSnapshot {
+
+    private final Map<String, Map<PreferenceOperation, OperationStats>> keys;
+    private final Map<PreferenceOperation, OperationStats> totals;
+
+    MetricsSnapshot(Map<String, Map<PreferenceOperation, OperationStats>> keys, Map<PreferenceOperation, OperationStats> totals) {
+        this.keys = keys;
+        this.totals = totals;
+    }
+
+    /**
+     * Returns every key with recorded operations.
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(keys.keySet());
+    }
+
+    /**
+     * Returns the totals for an operation on a key, or null if it was never recorded.
+     */
+    public OperationStats getStats(String key, PreferenceOperation operation) {
+        Map<PreferenceOperation, OperationStats> operations = keys.get(key);
+        return operations == null ? null : operations.get(operation);
+    }
+
+    /**
+     * Returns the totals for an operation across every key, or null if it was never recorded.
+     */
+    public OperationStats getTotal(PreferenceOperation operation) {
+        return totals.get(operation);
+    }
+
+    static MetricsSnapshot of(Map<String, OperationStats.Recorder[]> keyRecorders, OperationStats.Recorder[] totalRecorders) {
+        Map<String, Map<PreferenceOperation, OperationStats>> keys = new HashMap<>();
+        for(Map.Entry<String, OperationStats.Recorder[]> entry : keyRecorders.entrySet()) {
+            keys.put(entry.getKey(), snapshot(entry.getValue()));
+        }
+        return new MetricsSnapshot(keys, snapshot(totalRecorders));
+    }
+
+    private static Map<PreferenceOperation, OperationStats> snapshot(OperationStats.Recorder[] recorders) {
+        Map<PreferenceOperation, OperationStats> result = new EnumMap<>(PreferenceOperation.class);
+        for(PreferenceOperation operation : PreferenceOperation.values()) {
+            OperationStats stats = recorders[operation.ordinal()].snapshot();
+            if(stats.getCount() > 0) {
+                result.put(operation, stats);
+            }
+        }
+        return result;
+    }
+}
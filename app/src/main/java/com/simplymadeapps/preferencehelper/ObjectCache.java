@@ -0,0 +1,116 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of decoded custom objects keyed by preference key and target type.
+ *
+ * Each entry remembers the JSON it was decoded from and is only used while the stored JSON still matches, so a write
+ * that slips past invalidation can never hand back a stale object.
+ */
+class ObjectCache implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static final class CacheKey {
+        final String key;
+        final Type type;
+
+        CacheKey(String key, Type type) {
+            this.key = key;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) other;
+            return key.equals(cacheKey.key) && type.equals(cacheKey.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + type.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        final String json;
+        final Object value;
+
+        Entry(String json, Object value) {
+            this.json = json;
+            this.value = value;
+        }
+    }
+
+    private final ObjectCacheMode mode;
+    private final LinkedHashMap<CacheKey, Entry> entries;
+
+    ObjectCache(final int maxEntries, ObjectCacheMode mode) {
+        this.mode = mode;
+        // Access ordered so the least recently read entry is the one evicted
+        this.entries = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    ObjectCacheMode getMode() {
+        return mode;
+    }
+
+    synchronized Object get(String key, Type type, String json) {
+        Entry entry = entries.get(new CacheKey(key, type));
+        if(entry == null) {
+            return null;
+        }
+
+        // Reference equality is the common case since SharedPreferences hands back the same String instance
+        if(entry.json == json || (entry.json != null && entry.json.equals(json))) {
+            return entry.value;
+        }
+        return null;
+    }
+
+    synchronized void put(String key, Type type, String json, Object value) {
+        if(value != null) {
+            entries.put(new CacheKey(key, type), new Entry(json, value));
+        }
+    }
+
+    synchronized void invalidate(String key) {
+        Iterator<CacheKey> iterator = entries.keySet().iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().key.equals(key)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // Newer Android versions report clear() with a null key
+        if(key == null) {
+            clear();
+        }
+        else {
+            invalidate(key);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.simplymadeapps.preferencehelper;
+
+/**
+ * How cached custom objects are handed back from get().
+ */
+public enum ObjectCacheMode {
+    /**
+     * The parsed JSON is cached and every get() decodes a fresh instance from it, so callers can modify the result.
+     */
+    COPY_ON_READ,
+    /**
+     * Every get() returns the same decoded instance.  Callers must treat the result as immutable.
+     */
+    SHARED
+}
@@ -0,0 +1,138 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.util.Arrays;
+
+/**
+ * Totals for one operation, either on a single key or across a whole store.  Sizes are in characters of the stored
+ * string; numbers and booleans count as 0.
+ */
+public final class OperationStats {
+
+    // Upper bounds of the latency histogram buckets: 1us, 10us, 100us, 1ms, 10ms, 100ms and everything slower
+    private static final long[] BUCKET_BOUNDS_NANOS = {
+            1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, Long.MAX_VALUE
+    };
+
+    private final long count;
+    private final long totalTimeNanos;
+    private final long maxTimeNanos;
+    private final long[] histogram;
+    private final long totalSize;
+    private final long maxSize;
+    private final long totalCommitNanos;
+    private final long maxCommitNanos;
+
+    private OperationStats(Recorder recorder) {
+        this.count = recorder.count;
+        this.totalTimeNanos = recorder.totalTimeNanos;
+        this.maxTimeNanos = recorder.maxTimeNanos;
+        this.histogram = recorder.histogram.clone();
+        this.totalSize = recorder.totalSize;
+        this.maxSize = recorder.maxSize;
+        this.totalCommitNanos = recorder.totalCommitNanos;
+        this.maxCommitNanos = recorder.maxCommitNanos;
+    }
+
+    /**
+     * Returns the number of histogram buckets.
+     */
+    public static int getBucketCount() {
+        return BUCKET_BOUNDS_NANOS.length;
+    }
+
+    /**
+     * Returns the exclusive upper bound of a histogram bucket.  The last bucket is unbounded.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        return BUCKET_BOUNDS_NANOS[bucket];
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalTimeNanos() {
+        return totalTimeNanos;
+    }
+
+    public long getMaxTimeNanos() {
+        return maxTimeNanos;
+    }
+
+    public long getAverageTimeNanos() {
+        return count == 0 ? 0 : totalTimeNanos / count;
+    }
+
+    /**
+     * Returns the number of calls that fell in each bucket, see getBucketUpperBoundNanos().
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTotalCommitNanos() {
+        return totalCommitNanos;
+    }
+
+    public long getMaxCommitNanos() {
+        return maxCommitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationStats{count=" + count +
+                ", totalTimeNanos=" + totalTimeNanos +
+                ", maxTimeNanos=" + maxTimeNanos +
+                ", histogram=" + Arrays.toString(histogram) +
+                ", totalSize=" + totalSize +
+                ", maxSize=" + maxSize +
+                ", totalCommitNanos=" + totalCommitNanos +
+                ", maxCommitNanos=" + maxCommitNanos + "}";
+    }
+
+    /**
+     * The mutable running totals behind a snapshot.
+     */
+    static final class Recorder {
+
+        private long count;
+        private long totalTimeNanos;
+        private long maxTimeNanos;
+        private final long[] histogram = new long[BUCKET_BOUNDS_NANOS.length];
+        private long totalSize;
+        private long maxSize;
+        private long totalCommitNanos;
+        private long maxCommitNanos;
+
+        synchronized void record(long timeNanos, int size, long commitNanos) {
+            count++;
+            totalTimeNanos += timeNanos;
+            maxTimeNanos = Math.max(maxTimeNanos, timeNanos);
+            histogram[bucketOf(timeNanos)]++;
+            totalSize += size;
+            maxSize = Math.max(maxSize, size);
+            totalCommitNanos += commitNanos;
+            maxCommitNanos = Math.max(maxCommitNanos, commitNanos);
+        }
+
+        synchronized OperationStats snapshot() {
+            return new OperationStats(this);
+        }
+
+        private static int bucketOf(long timeNanos) {
+            int bucket = 0;
+            while(timeNanos >= BUCKET_BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            return bucket;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs decode tasks on several threads and returns their results in order.  The calling thread runs every task the
+ * pool hasn't started yet instead of waiting for it, so a call made from a pool thread can't deadlock and a busy pool
+ * never makes decoding slower than doing it all on the calling thread.
+ */
+class ParallelDecoder {
+
+    // The calling thread decodes too, so one core is left for it
+    static final int SHARED_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static ExecutorService sharedExecutor;
+
+    static synchronized ExecutorService getSharedExecutor() {
+        if(sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(SHARED_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PreferenceHelper-decode");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        return invokeAll(getSharedExecutor(), tasks);
+    }
+
+    static <T> List<T> invokeAll(Executor executor, List<Callable<T>> tasks) {
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for(Callable<T> task : tasks) {
+            FutureTask<T> future = new FutureTask<>(task);
+            futures.add(future);
+            try {
+                executor.execute(future);
+            }
+            catch(RejectedExecutionException e) {
+                // Run by the calling thread below
+            }
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        for(FutureTask<T> future : futures) {
+            // Does nothing if a pool thread has already started the task
+            future.run();
+            results.add(getResult(future));
+        }
+        return results;
+    }
+
+    private static <T> T getResult(FutureTask<T> future) {
+        try {
+            return future.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for values to decode", e);
+        }
+        catch(ExecutionException e) {
+            // Decoding errors such as a value of the wrong type reach the caller as they would on one thread
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to decode a value", e.getCause());
+        }
+    }
+
+    /**
+     * Splits a JSON array into about the given number of smaller arrays, cut between top level elements, by scanning
+     * the text without parsing it.  Returns null when the text isn't a plain array with at least two elements, such
+     * as null, a codec's output or JSON with comments, so the caller can decode it in one piece and report any error
+     * the way it normally would.
+     */
+    static List<String> splitArray(String json, int parts) {
+        int length = json.length();
+        int start = 0;
+        while(start < length && Character.isWhitespace(json.charAt(start))) {
+            start++;
+        }
+        if(start == length || json.charAt(start) != '[') {
+            return null;
+        }
+
+        List<String> chunks = new ArrayList<>(parts);
+        int target = Math.max(1, length / parts);
+        int chunkStart = start + 1;
+        int depth = 0;
+        char quote = 0;
+        int end = -1;
+        for(int i = chunkStart; i < length && end < 0; i++) {
+            char c = json.charAt(i);
+            if(quote != 0) {
+                if(c == '\\') {
+                    i++;
+                }
+                else if(c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+
+            switch(c) {
+                case '"':
+                case '\'':
+                    quote = c;
+                    break;
+                case '[':
+                case '{':
+                    depth++;
+                    break;
+                case ']':
+                    if(depth == 0) {
+                        end = i;
+                    }
+                    depth--;
+                    break;
+                case '}':
+                    if(depth == 0) {
+                        // Not an array after all - decoding it in one piece reports the error
+                        return null;
+                    }
+                    depth--;
+                    break;
+                case ',':
+                    if(depth == 0 && i - chunkStart >= target) {
+                        chunks.add("[" + json.substring(chunkStart, i) + "]");
+                        chunkStart = i + 1;
+                    }
+                    break;
+                case '/':
+                case '#':
+                    // Comments, which lenient parsing allows, could hide brackets and commas
+                    return null;
+                default:
+                    break;
+            }
+        }
+
+        // A blank last chunk means the array ended with a comma, which lenient parsing reads as a null element
+        if(end < 0 || chunks.isEmpty() || json.substring(chunkStart, end).trim().isEmpty() || json.substring(end + 1).trim().length() > 0) {
+            return null;
+        }
+        chunks.add("[" + json.substring(chunkStart, end) + "]");
+        return chunks;
+    }
+}
@@ -0,0 +1,36 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of an interface as a typed preference, such as
+ * <pre>
+ * public interface Settings {
+ *     &#64;Pref(name = "launch_count", defaultValue = "0")
+ *     int launchCount();
+ * }
+ * </pre>
+ * With the preferencehelper processor on the annotation processor path, each interface with @Pref methods gets a
+ * generated Settings_Preferences class that implements it, along with put and remove methods for every key.  The
+ * generated code reads and writes each value directly, and custom types get generated Gson TypeAdapters, so nothing
+ * is looked up by reflection and R8 is free to rename or remove the fields of stored classes.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Pref {
+
+    /**
+     * The key the value is stored under.  Defaults to the method name.
+     */
+    String name() default "";
+
+    /**
+     * The fallback returned when nothing is stored, written as it would be in code without quotes: "0", "true",
+     * "1.5", a string, or the name of an enum constant.  Without one the fallback is 0, false or null.  Other types
+     * always fall back to null.
+     */
+    String defaultValue() default "";
+}
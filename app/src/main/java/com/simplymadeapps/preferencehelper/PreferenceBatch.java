@@ -0,0 +1,121 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of changes that are staged in memory and written together with a single commit() or apply().
+ * Start a batch with PreferenceHelper.edit() or PreferenceStore.edit().
+ */
+public class PreferenceBatch {
+
+    private final PreferenceStore store;
+    private SharedPreferences.Editor editor;
+    // Spilled values the batch replaces, and the ones it wrote, mapped to their keys
+    private final Map<String, String> replaced = new HashMap<>();
+    private final Map<String, String> staged = new HashMap<>();
+    // The stored size of every key the batch writes, for the metrics
+    private final Map<String, Integer> sizes = new HashMap<>();
+
+    @SuppressLint("CommitPrefEdits")
+    PreferenceBatch(PreferenceStore store) {
+        this.store = store;
+        this.editor = store.preferences.edit();
+    }
+
+    public <T> PreferenceBatch put(@NonNull String key, T value) {
+        return put(key, value, null);
+    }
+
+    public <T> PreferenceBatch put(@NonNull String key, T value, Class<T> type) {
+        PreferenceStore.checkForExceptions(key, value, type);
+        replaced.putAll(store.findSpilled(key));
+        sizes.put(key, store.putValue(editor, key, value, type, staged));
+        store.forgetExpiry(editor, key);
+        store.invalidateCachedObject(key);
+        return this;
+    }
+
+    public <T> PreferenceBatch putList(@NonNull String key, List<T> value) {
+        return put(key, value, List.class);
+    }
+
+    public PreferenceBatch remove(@NonNull String key) {
+        replaced.putAll(store.findSpilled(key));
+        store.collections.removeParts(editor, key);
+        editor.remove(key);
+        sizes.put(key, 0);
+        store.forgetExpiry(editor, key);
+        store.invalidateCachedObject(key);
+        return this;
+    }
+
+    public PreferenceBatch clear() {
+        replaced.putAll(store.findSpilled(null));
+        editor.clear();
+        store.forgetExpiry(editor, null);
+        store.clearCachedObjects();
+        return this;
+    }
+
+    /**
+     * Writes every staged change in one synchronous disk write.
+     */
+    @SuppressLint("ApplySharedPref")
+    public boolean commit() {
+        long start = store.startTimer();
+        long mark = store.markSpilled();
+        boolean committed = editor.commit();
+        store.recordBatch(PreferenceOperation.BATCH_COMMIT, sizes, start);
+        store.invalidateSnapshot();
+        // A COALESCE store's commit only stages the changes, so they are on disk once they're flushed
+        retireReplaced(committed && store.getCoalescing() == null, mark);
+        return committed;
+    }
+
+    /**
+     * Writes every staged change to memory immediately and to disk in the background.
+     */
+    public void apply() {
+        long start = store.startTimer();
+        editor.apply();
+        store.recordBatch(PreferenceOperation.BATCH_APPLY, sizes, start);
+        store.invalidateSnapshot();
+        retireReplaced(false, 0);
+    }
+
+    /**
+     * Retires the files of the spilled values the written changes replaced, including values the batch wrote and then
+     * replaced itself, and sweeps them when the changes are on disk.
+     */
+    private void retireReplaced(boolean onDisk, long mark) {
+        replaced.putAll(staged);
+        store.retireReplaced(replaced, onDisk);
+        if(onDisk) {
+            store.sweepSpilled(mark);
+        }
+        replaced.clear();
+        staged.clear();
+    }
+
+    /**
+     * Discards every change staged since the batch was started or last written.
+     */
+    @SuppressLint("CommitPrefEdits")
+    public void rollback() {
+        // SharedPreferences editors can't drop their staged changes so we start over with a fresh one
+        editor = store.preferences.edit();
+        // None of the staged values were written, so their files are no longer needed
+        for(String reference : staged.keySet()) {
+            store.spillover.delete(reference);
+        }
+        replaced.clear();
+        staged.clear();
+        sizes.clear();
+    }
+}
@@ -0,0 +1,12 @@
+package com.simplymadeapps.preferencehelper;
+
+/**
+ * Receives the result of an async call such as PreferenceHelper.getAsync().  Both methods run on the async executor's
+ * thread, so post to the main thread before touching views.
+ */
+public interface PreferenceCallback<T> {
+
+    void onSuccess(T value);
+
+    void onError(Throwable error);
+}
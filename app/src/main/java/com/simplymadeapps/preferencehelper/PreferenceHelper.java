@@ -3,200 +3,428 @@ package com.simplymadeapps.preferencehelper;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Array;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 public class PreferenceHelper {
 
-    protected static SharedPreferences preferences;
-    protected static SharedPreferences.Editor editor;
+    // init() writes the options and context before the volatile store, so any thread that sees the store sees them too
+    protected static volatile PreferenceStore defaultStore;
+    protected static PreferenceOptions defaultOptions;
+    // Only the application context is kept so named stores can be opened after init()
+    @SuppressLint("StaticFieldLeak")
+    protected static Context context;
+    protected static final Map<String, PreferenceStore> stores = new HashMap<>();
 
     private PreferenceHelper() { }
 
-    @SuppressLint("CommitPrefEdits")
     public static void init(Context context) {
-        if (preferences == null || editor == null) {
-            preferences = PreferenceManager.getDefaultSharedPreferences(context);
-            editor = preferences.edit();
+        init(context, new PreferenceOptions());
+    }
+
+    /**
+     * Opens the default store.  Only the first call has any effect, even when several threads call init() at once.
+     */
+    public static synchronized void init(Context context, @NonNull PreferenceOptions options) {
+        if (defaultStore == null) {
+            setContext(context);
+            defaultOptions = options;
+            defaultStore = new PreferenceStore(null, options.getStorage().open(context, null), options);
         }
     }
 
-    public static boolean contains(String key) {
-        return preferences.contains(key);
+    public static void initAsync(Context context) {
+        initAsync(context, new PreferenceOptions());
     }
 
-    public static void remove(String key) {
-        editor.remove(key);
-        editor.commit();
+    /**
+     * Returns immediately and loads the default store, along with any named stores listed, on a background thread.
+     * A call that needs a store's values before it has loaded waits for that store only.
+     */
+    public static synchronized void initAsync(Context context, @NonNull PreferenceOptions options, String... storeNames) {
+        if (defaultStore == null) {
+            setContext(context);
+            defaultOptions = options;
+            defaultStore = new PreferenceStore(null, openDeferred(context, options, null, DeferredSharedPreferences.getSharedExecutor()), options);
+        }
+
+        synchronized(stores) {
+            for(String name : storeNames) {
+                checkStoreName(name);
+                if(!stores.containsKey(name)) {
+                    stores.put(name, new PreferenceStore(name, openDeferred(PreferenceHelper.context, options, name, DeferredSharedPreferences.getSharedExecutor()), options));
+                }
+            }
+        }
     }
 
-    public static void clear() {
-        editor.clear();
-        editor.commit();
+    private static void setContext(Context context) {
+        Context applicationContext = context.getApplicationContext();
+        PreferenceHelper.context = applicationContext != null ? applicationContext : context;
     }
 
-    private static <T> boolean isTypePrimitive(Class<T> type) {
-        return type.equals(Integer.class) ||
-                type.equals(Boolean.class) ||
-                type.equals(Float.class) ||
-                type.equals(Long.class);
+    /**
+     * Opens the store on the executor.  The write policy is applied there too, so a journal is opened and replayed
+     * with the rest of the load.
+     */
+    static SharedPreferences openDeferred(final Context context, final PreferenceOptions options, final String name, Executor executor) {
+        return new DeferredSharedPreferences(new Callable<SharedPreferences>() {
+            @Override
+            public SharedPreferences call() {
+                return PreferenceStore.applyWritePolicy(options.getStorage().open(context, name), options.getWritePolicy(), name);
+            }
+        }, executor);
     }
 
-    private static <T> void checkForExceptions(String key, T value, Class<T> type) {
-        if (preferences == null || editor == null) {
-            throw new IllegalStateException("You must call PreferenceHelper.init() before any other PreferenceHelper methods");
-        }
+    /**
+     * Returns the store with the given name, opening it with the options passed to init() the first time it is used.
+     * Each store has its own file, editor and write policy.
+     */
+    public static PreferenceStore store(@NonNull String name) {
+        return store(name, null);
+    }
 
-        if(key == null) {
-            throw new IllegalArgumentException("Key cannot be null");
+    /**
+     * Returns the store with the given name, opening it with the given options the first time it is used.  The
+     * options are ignored if the store is already open.
+     */
+    public static PreferenceStore store(@NonNull String name, PreferenceOptions options) {
+        checkInitialized();
+        checkStoreName(name);
+
+        synchronized(stores) {
+            PreferenceStore store = stores.get(name);
+            if(store == null) {
+                PreferenceOptions storeOptions = options != null ? options : defaultOptions;
+                store = new PreferenceStore(name, storeOptions.getStorage().open(context, name), storeOptions);
+                stores.put(name, store);
+            }
+            return store;
         }
+    }
 
-        if(value == null && type == null) {
-            throw new IllegalArgumentException("You must specify the object type when storing or retrieving a null value using put(String key, T value, Class<T> type) or get(String key, T fallback, Class<T> type)");
+    private static void checkStoreName(String name) {
+        if(name == null) {
+            throw new IllegalArgumentException("Store name cannot be null");
         }
+    }
 
-        if(value == null && isTypePrimitive(type)) {
-            throw new IllegalArgumentException("Null primitive types (boolean, int, long, float) are invalid");
+    static PreferenceStore checkInitialized() {
+        PreferenceStore store = defaultStore;
+        if (store == null) {
+            throw new IllegalStateException("You must call PreferenceHelper.init() before any other PreferenceHelper methods");
         }
+        return store;
     }
 
-    private static <T> Class<T> getInstanceType(T value, Class<T> type) {
-        if(value == null) {
-            return type;
-        }
-        else {
-            // We don't have to worry about a type mismatch because the compiler enforces the T value to match
-            // For example, put("key", "string", Integer.class) would not compile
-            return (Class<T>) value.getClass();
-        }
+    public static boolean isLoaded() {
+        return checkInitialized().isLoaded();
+    }
+
+    public static StartupMetrics getStartupMetrics() {
+        return checkInitialized().getStartupMetrics();
+    }
+
+    public static CompressionStats getCompressionStats() {
+        return checkInitialized().getCompressionStats();
+    }
+
+    public static MetricsSnapshot getMetrics() {
+        return checkInitialized().getMetrics();
+    }
+
+    public static void resetMetrics() {
+        checkInitialized().resetMetrics();
+    }
+
+    /**
+     * Hands any writes held by the COALESCE write policy to SharedPreferences without waiting for the disk write.
+     */
+    public static void flush() {
+        checkInitialized().flush();
+    }
+
+    /**
+     * Writes any pending changes and blocks until they are on disk.  Call this from shutdown paths.
+     */
+    public static boolean flushAndWait() {
+        return checkInitialized().flushAndWait();
+    }
+
+    /**
+     * Returns an immutable view of every value in the default store as of the latest write.  Reading from it never
+     * takes a lock.
+     */
+    public static PreferenceSnapshot snapshot() {
+        return checkInitialized().snapshot();
+    }
+
+    /**
+     * Reads every key from the default store in one pass over a single snapshot.
+     */
+    public static PreferenceValues getMany(@NonNull PreferenceKey<?>... keys) {
+        return checkInitialized().getMany(keys);
+    }
+
+    /**
+     * Starts a batch of changes that are staged in memory and written together with a single commit() or apply().
+     */
+    public static PreferenceBatch edit() {
+        return checkInitialized().edit();
+    }
+
+    public static boolean contains(String key) {
+        return checkInitialized().contains(key);
+    }
+
+    public static void remove(String key) {
+        checkInitialized().remove(key);
+    }
+
+    public static void clear() {
+        checkInitialized().clear();
     }
 
     public static <T> void put(@NonNull String key, T value) {
-        put(key, value, null);
+        checkInitialized().put(key, value);
     }
 
     public static <T> void put(@NonNull String key, T value, Class<T> type) {
-        checkForExceptions(key, value, type);
+        checkInitialized().put(key, value, type);
+    }
 
-        Class<T> instanceType = getInstanceType(value, type);
+    /**
+     * Stores a value of a generic type such as Map&lt;String, List&lt;User&gt;&gt;, which a Class cannot describe.
+     */
+    public static <T> void put(@NonNull String key, T value, @NonNull TypeToken<T> type) {
+        checkInitialized().put(key, value, type);
+    }
 
-        if(String.class.isAssignableFrom(instanceType)) {
-            editor.putString(key, (String) value);
-        }
-        else if(Integer.class.isAssignableFrom(instanceType)) {
-            editor.putInt(key, (Integer) value);
-        }
-        else if(Boolean.class.isAssignableFrom(instanceType)) {
-            editor.putBoolean(key, (Boolean) value);
-        }
-        else if(Long.class.isAssignableFrom(instanceType)) {
-            // Reminder: if using hardcoded numbers we specify that is a literal long value (ex 0L or 0l)
-            editor.putLong(key, (Long) value);
-        }
-        else if(Float.class.isAssignableFrom(instanceType)) {
-            // Reminder: if using hardcoded numbers we specify that is a literal float value (ex 0F or 0f)
-            editor.putFloat(key, (Float) value);
-        }
-        else if(Set.class.isAssignableFrom(instanceType)) {
-            // Be careful when working with Sets - they work differently than the other types (https://stackoverflow.com/a/14034804/6754511)
-            editor.putStringSet(key, (Set<String>) value);
-        }
-        else {
-            // Store a custom non-primitive object as JSON string
-            editor.putString(key, new Gson().toJson(value, instanceType));
-        }
+    /**
+     * Stores a value of the given type, which may be a Class or a generic type such as one from
+     * TypeToken.getParameterized().
+     */
+    public static void put(@NonNull String key, Object value, @NonNull Type type) {
+        checkInitialized().put(key, value, type);
+    }
+
+    /**
+     * Stores a value that reads as missing once ttlMillis have passed.  Needs PreferenceOptions.setExpiryEnabled().
+     */
+    public static <T> void put(@NonNull String key, T value, long ttlMillis) {
+        checkInitialized().put(key, value, ttlMillis);
+    }
 
-        editor.commit();
+    /**
+     * Removes every expired value in a single write and returns the number removed.
+     */
+    public static int sweepExpired() {
+        return checkInitialized().sweepExpired();
     }
 
     public static <T> void putList(@NonNull String key, List<T> value) {
-        put(key, value, List.class);
+        checkInitialized().putList(key, value);
+    }
+
+    public static void putString(@NonNull String key, String value) {
+        checkInitialized().putString(key, value);
+    }
+
+    public static void putInt(@NonNull String key, int value) {
+        checkInitialized().putInt(key, value);
+    }
+
+    public static void putLong(@NonNull String key, long value) {
+        checkInitialized().putLong(key, value);
+    }
+
+    public static void putFloat(@NonNull String key, float value) {
+        checkInitialized().putFloat(key, value);
+    }
+
+    public static void putBoolean(@NonNull String key, boolean value) {
+        checkInitialized().putBoolean(key, value);
+    }
+
+    public static String getString(@NonNull String key, String fallback) {
+        return checkInitialized().getString(key, fallback);
+    }
+
+    public static int getInt(@NonNull String key, int fallback) {
+        return checkInitialized().getInt(key, fallback);
+    }
+
+    public static long getLong(@NonNull String key, long fallback) {
+        return checkInitialized().getLong(key, fallback);
+    }
+
+    public static float getFloat(@NonNull String key, float fallback) {
+        return checkInitialized().getFloat(key, fallback);
+    }
+
+    public static boolean getBoolean(@NonNull String key, boolean fallback) {
+        return checkInitialized().getBoolean(key, fallback);
     }
 
     public static <T> T get(@NonNull String key, T fallback) {
-        return get(key, fallback, null);
+        return checkInitialized().get(key, fallback);
     }
 
     public static <T> T get(@NonNull String key, T fallback, Class<T> type) {
-        checkForExceptions(key, fallback, type);
+        return checkInitialized().get(key, fallback, type);
+    }
 
-        Class<T> instanceType = getInstanceType(fallback, type);
+    /**
+     * Reads a value of a generic type such as Map&lt;String, List&lt;User&gt;&gt; with its type parameters intact.
+     */
+    public static <T> T get(@NonNull String key, T fallback, @NonNull TypeToken<T> type) {
+        return checkInitialized().get(key, fallback, type);
+    }
 
-        if(String.class.isAssignableFrom(instanceType)) {
-            // We assume a null fallback is a string because the other primitive types cannot be null
-            return (T) preferences.getString(key, (String) fallback);
-        }
-        if(Integer.class.isAssignableFrom(instanceType)) {
-            return (T) (Integer) preferences.getInt(key, (Integer) fallback);
-        }
-        if(Boolean.class.isAssignableFrom(instanceType)) {
-            return (T) (Boolean) preferences.getBoolean(key, (Boolean) fallback);
-        }
-        if(Long.class.isAssignableFrom(instanceType)) {
-            // Reminder: if using hardcoded numbers we specify that is a literal long value (ex 0L or 0l)
-            return (T) (Long) preferences.getLong(key, (Long) fallback);
-        }
-        if(Float.class.isAssignableFrom(instanceType)) {
-            // Reminder: if using hardcoded numbers we specify that is a literal float value (ex 0F or 0f)
-            return (T) (Float) preferences.getFloat(key, (Float) fallback);
-        }
-        if(Set.class.isAssignableFrom(instanceType)) {
-            // We need to create a new set from the current set so it has a different memory address (https://stackoverflow.com/a/14034804/6754511)
-            return (T) new HashSet<>(preferences.getStringSet(key, (Set<String>) fallback));
-        }
+    /**
+     * Reads a value of the given type, which may be a Class or a generic type such as one from
+     * TypeToken.getParameterized().  The adapter for each generic type is resolved once and reused.
+     */
+    public static <T> T get(@NonNull String key, T fallback, @NonNull Type type) {
+        return checkInitialized().get(key, fallback, type);
+    }
 
-        return getCustomObject(key, fallback, instanceType);
+    public static <T> List<T> getList(String key, List<T> fallback, Class<T[]> type) {
+        return checkInitialized().getList(key, fallback, type);
     }
 
-    private static <T> T getCustomObject(String key, T fallback, Class<T> instanceType) {
-        // Retrieve a custom non-primitive object as JSON string
-        if(!contains(key)) {
-            // No record exists for this key - return their fallback object
-            return fallback;
-        }
+    /**
+     * Returns a cursor that decodes the stored list one element at a time.  A missing key or null list produces an
+     * empty cursor.
+     */
+    public static <T> ListCursor<T> getListCursor(@NonNull String key, @NonNull Class<T> type) {
+        return checkInitialized().getListCursor(key, type);
+    }
 
-        if(List.class.isAssignableFrom(instanceType)) {
-            throw new IllegalArgumentException("Please use getList() instead of get() when retrieving a list of stored objects.");
-        }
+    /**
+     * Adds the element to the end of the stored list, rewriting only the list's last segment.
+     */
+    public static <T> void appendToList(@NonNull String key, T element) {
+        checkInitialized().appendToList(key, element);
+    }
 
-        String objectAsJson = preferences.getString(key, null);
-        try {
-            return new Gson().fromJson(objectAsJson, instanceType);
-        }
-        catch(JsonSyntaxException e) {
-            throw new IllegalArgumentException("The object stored at the specified key is not an instance of " + instanceType.getName(), e);
-        }
+    /**
+     * Removes the first element of the stored list that serializes the same as the given one and returns true if
+     * one was found.
+     */
+    public static <T> boolean removeFromList(@NonNull String key, T element) {
+        return checkInitialized().removeFromList(key, element);
     }
 
-    public static <T> List<T> getList(String key, List<T> fallback, Class<T[]> type) {
-        if(!contains(key)) {
-            // No record exists for this key - return their fallback object
-            return fallback;
-        }
+    /**
+     * Returns the number of elements in the stored list without decoding them once the list is segmented.
+     */
+    public static int getListSize(@NonNull String key) {
+        return checkInitialized().getListSize(key);
+    }
 
-        try {
-            String objectAsJson = preferences.getString(key, null);
-            T[] fromJson = (T[]) new Gson().fromJson(objectAsJson, type);
-            if(fromJson == null) {
-                return null;
-            }
-            List<T> result = new ArrayList<>(Arrays.asList(fromJson));
-            return result;
-        }
-        catch(RuntimeException e) {
-            throw new IllegalArgumentException("The object stored at the specified key is not a " + type.getSimpleName(), e);
-        }
+    public static boolean addToSet(@NonNull String key, String value) {
+        return checkInitialized().addToSet(key, value);
+    }
+
+    public static boolean removeFromSet(@NonNull String key, String value) {
+        return checkInitialized().removeFromSet(key, value);
+    }
+
+    /**
+     * Stores the value under entryKey in the map stored at the key, writing only that entry and the map's manifest,
+     * which lists every entry key.
+     */
+    public static void putMapEntry(@NonNull String key, @NonNull String entryKey, Object value) {
+        checkInitialized().putMapEntry(key, entryKey, value);
+    }
+
+    public static boolean removeMapEntry(@NonNull String key, @NonNull String entryKey) {
+        return checkInitialized().removeMapEntry(key, entryKey);
+    }
+
+    public static <T> T getMapEntry(@NonNull String key, @NonNull String entryKey, T fallback, Class<T> type) {
+        return checkInitialized().getMapEntry(key, entryKey, fallback, type);
+    }
+
+    public static int getMapSize(@NonNull String key) {
+        return checkInitialized().getMapSize(key);
+    }
+
+    public static <T> Future<Void> putAsync(@NonNull String key, T value) {
+        return checkInitialized().putAsync(key, value);
+    }
+
+    public static <T> Future<Void> putAsync(@NonNull String key, T value, Class<T> type) {
+        return checkInitialized().putAsync(key, value, type);
+    }
+
+    /**
+     * Stores the value on the async executor.  The callback, which may be null, is told once the write is done.
+     */
+    public static <T> Future<Void> putAsync(@NonNull String key, T value, Class<T> type, PreferenceCallback<Void> callback) {
+        return checkInitialized().putAsync(key, value, type, callback);
+    }
+
+    public static <T> Future<T> getAsync(@NonNull String key, T fallback) {
+        return checkInitialized().getAsync(key, fallback);
+    }
+
+    public static <T> Future<T> getAsync(@NonNull String key, T fallback, Class<T> type) {
+        return checkInitialized().getAsync(key, fallback, type);
+    }
+
+    /**
+     * Reads the value on the async executor.  The callback, which may be null, receives the value or the error that
+     * get() would have thrown.
+     */
+    public static <T> Future<T> getAsync(@NonNull String key, T fallback, Class<T> type, PreferenceCallback<T> callback) {
+        return checkInitialized().getAsync(key, fallback, type, callback);
+    }
+
+    public static <T> Future<List<T>> getListAsync(@NonNull String key, List<T> fallback, Class<T[]> type) {
+        return checkInitialized().getListAsync(key, fallback, type);
+    }
+
+    /**
+     * Reads and decodes the stored list on the async executor.  The callback, which may be null, receives the list or
+     * the error that getList() would have thrown.
+     */
+    public static <T> Future<List<T>> getListAsync(@NonNull String key, List<T> fallback, Class<T[]> type, PreferenceCallback<List<T>> callback) {
+        return checkInitialized().getListAsync(key, fallback, type, callback);
+    }
+
+    /**
+     * Calls the observer with the new value each time the key changes.  See observe(Collection, ...).
+     */
+    public static <T> PreferenceSubscription observe(@NonNull String key, T fallback, Class<T> type, @NonNull PreferenceObserver<T> observer) {
+        return checkInitialized().observe(key, fallback, type, observer);
+    }
+
+    /**
+     * Calls the observer with the new value of any of the keys when it changes.  A burst of writes to a key within
+     * the change window is delivered once, with the value stored when the window closes.  Calls are made on the
+     * change executor, and the observer is only held weakly.
+     */
+    public static <T> PreferenceSubscription observe(@NonNull Collection<String> keys, T fallback, Class<T> type, @NonNull PreferenceObserver<T> observer) {
+        return checkInitialized().observe(keys, fallback, type, observer);
+    }
+
+    /**
+     * Calls the observer with the new value of every key starting with the prefix when it changes.  Every value under
+     * the prefix must be readable as the given type.
+     */
+    public static <T> PreferenceSubscription observePrefix(@NonNull String prefix, T fallback, Class<T> type, @NonNull PreferenceObserver<T> observer) {
+        return checkInitialized().observePrefix(prefix, fallback, type, observer);
     }
 }
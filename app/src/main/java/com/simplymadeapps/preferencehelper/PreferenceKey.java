@@ -0,0 +1,408 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A key declared once with its type and fallback, such as
+ * <pre>
+ * static final PreferenceKey&lt;Integer&gt; LAUNCH_COUNT = PreferenceKey.ofInt("launch_count", 0);
+ * </pre>
+ * How the value is stored is worked out when the key is created, so get() and put() go straight to the matching
+ * SharedPreferences call instead of inspecting the value's class on every access.  Keys are immutable and can be
+ * shared by every thread and store.
+ */
+public abstract class PreferenceKey<T> {
+
+    private final String name;
+    private final T fallback;
+
+    PreferenceKey(String name, T fallback) {
+        this.name = name;
+        this.fallback = fallback;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public T getFallback() {
+        return fallback;
+    }
+
+    public static PreferenceKey<String> ofString(@NonNull String name, String fallback) {
+        PreferenceStore.checkForExceptions(name, fallback, String.class);
+        return new StringKey(name, fallback);
+    }
+
+    public static PreferenceKey<Integer> ofInt(@NonNull String name, int fallback) {
+        PreferenceStore.checkForExceptions(name, fallback, Integer.class);
+        return new IntKey(name, fallback);
+    }
+
+    public static PreferenceKey<Long> ofLong(@NonNull String name, long fallback) {
+        PreferenceStore.checkForExceptions(name, fallback, Long.class);
+        return new LongKey(name, fallback);
+    }
+
+    public static PreferenceKey<Float> ofFloat(@NonNull String name, float fallback) {
+        PreferenceStore.checkForExceptions(name, fallback, Float.class);
+        return new FloatKey(name, fallback);
+    }
+
+    public static PreferenceKey<Boolean> ofBoolean(@NonNull String name, boolean fallback) {
+        PreferenceStore.checkForExceptions(name, fallback, Boolean.class);
+        return new BooleanKey(name, fallback);
+    }
+
+    public static PreferenceKey<Set<String>> ofStringSet(@NonNull String name, Set<String> fallback) {
+        PreferenceStore.checkForExceptions(name, fallback, (Class<Set<String>>) (Class<?>) Set.class);
+        return new StringSetKey(name, fallback);
+    }
+
+    /**
+     * Creates a key for any type get() accepts.  Strings, primitives and string sets get the same key as their own
+     * factory; anything else is stored as a custom object.
+     */
+    public static <T> PreferenceKey<T> of(@NonNull String name, T fallback, @NonNull Class<T> type) {
+        if(type == null) {
+            throw new IllegalArgumentException("Type cannot be null");
+        }
+        PreferenceStore.checkForExceptions(name, fallback, type);
+
+        if(String.class.equals(type)) {
+            return (PreferenceKey<T>) new StringKey(name, (String) fallback);
+        }
+        if(Integer.class.equals(type)) {
+            return (PreferenceKey<T>) new IntKey(name, (Integer) fallback);
+        }
+        if(Long.class.equals(type)) {
+            return (PreferenceKey<T>) new LongKey(name, (Long) fallback);
+        }
+        if(Float.class.equals(type)) {
+            return (PreferenceKey<T>) new FloatKey(name, (Float) fallback);
+        }
+        if(Boolean.class.equals(type)) {
+            return (PreferenceKey<T>) new BooleanKey(name, (Boolean) fallback);
+        }
+        if(Set.class.isAssignableFrom(type)) {
+            return (PreferenceKey<T>) new StringSetKey(name, (Set<String>) fallback);
+        }
+        if(List.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException("Use a TypeToken such as new TypeToken<List<User>>() {} for a key that holds a list");
+        }
+        return new ObjectKey<>(name, fallback, type);
+    }
+
+    /**
+     * Creates a key for a generic type such as List&lt;User&gt; or Map&lt;String, User&gt;.
+     */
+    public static <T> PreferenceKey<T> of(@NonNull String name, T fallback, @NonNull TypeToken<T> type) {
+        if(type == null) {
+            throw new IllegalArgumentException("Type cannot be null");
+        }
+        if(type.getType() instanceof Class) {
+            return of(name, fallback, (Class<T>) type.getType());
+        }
+        PreferenceStore.checkForExceptions(name, fallback, (Class<T>) type.getRawType());
+        return new ObjectKey<>(name, fallback, type.getType());
+    }
+
+    /**
+     * Creates a key whose value is converted by the given adapter instead of Gson's reflection.  Accessors generated
+     * from @Pref interfaces use this with the TypeAdapters generated for their custom types.
+     */
+    public static <T> PreferenceKey<T> of(@NonNull String name, T fallback, @NonNull TypeAdapter<T> adapter) {
+        PreferenceStore.checkKey(name);
+        if(adapter == null) {
+            throw new IllegalArgumentException("Adapter cannot be null");
+        }
+        return new AdapterKey<>(name, fallback, adapter);
+    }
+
+    /**
+     * Reads the key from the default store.
+     */
+    public T get() {
+        return get(PreferenceHelper.checkInitialized());
+    }
+
+    public T get(@NonNull PreferenceStore store) {
+        return store.read(this);
+    }
+
+    /**
+     * Writes the key to the default store.
+     */
+    public void put(T value) {
+        put(PreferenceHelper.checkInitialized(), value);
+    }
+
+    public void put(@NonNull PreferenceStore store, T value) {
+        store.write(this, value);
+    }
+
+    /**
+     * Removes the key from the default store.
+     */
+    public void remove() {
+        remove(PreferenceHelper.checkInitialized());
+    }
+
+    public void remove(@NonNull PreferenceStore store) {
+        store.remove(name);
+    }
+
+    /**
+     * Reads the stored value, or the fallback when there is none.
+     */
+    abstract T read(PreferenceStore store);
+
+    /**
+     * Decodes the key's stored value from values, a snapshot of the store.  Stored is never null.
+     */
+    abstract T decode(PreferenceStore store, Map<String, ?> values, Object stored);
+
+    /**
+     * Stages the value on the editor and returns its stored size in characters.
+     */
+    abstract int write(PreferenceStore store, SharedPreferences.Editor editor, T value);
+
+    static void checkPrimitive(Object value) {
+        if(value == null) {
+            throw new IllegalArgumentException("Null primitive types (boolean, int, long, float) are invalid");
+        }
+    }
+
+    static class StringKey extends PreferenceKey<String> {
+
+        StringKey(String name, String fallback) {
+            super(name, fallback);
+        }
+
+        @Override
+        String decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            return (String) stored;
+        }
+
+        @Override
+        String read(PreferenceStore store) {
+            return store.preferences.getString(getName(), getFallback());
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, String value) {
+            editor.putString(getName(), value);
+            return value == null ? 0 : value.length();
+        }
+    }
+
+    static class IntKey extends PreferenceKey<Integer> {
+
+        IntKey(String name, Integer fallback) {
+            super(name, fallback);
+        }
+
+        @Override
+        Integer decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            return (Integer) stored;
+        }
+
+        @Override
+        Integer read(PreferenceStore store) {
+            return store.preferences.getInt(getName(), getFallback());
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, Integer value) {
+            checkPrimitive(value);
+            editor.putInt(getName(), value);
+            return 0;
+        }
+    }
+
+    static class LongKey extends PreferenceKey<Long> {
+
+        LongKey(String name, Long fallback) {
+            super(name, fallback);
+        }
+
+        @Override
+        Long decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            return (Long) stored;
+        }
+
+        @Override
+        Long read(PreferenceStore store) {
+            return store.preferences.getLong(getName(), getFallback());
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, Long value) {
+            checkPrimitive(value);
+            editor.putLong(getName(), value);
+            return 0;
+        }
+    }
+
+    static class FloatKey extends PreferenceKey<Float> {
+
+        FloatKey(String name, Float fallback) {
+            super(name, fallback);
+        }
+
+        @Override
+        Float decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            return (Float) stored;
+        }
+
+        @Override
+        Float read(PreferenceStore store) {
+            return store.preferences.getFloat(getName(), getFallback());
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, Float value) {
+            checkPrimitive(value);
+            editor.putFloat(getName(), value);
+            return 0;
+        }
+    }
+
+    static class BooleanKey extends PreferenceKey<Boolean> {
+
+        BooleanKey(String name, Boolean fallback) {
+            super(name, fallback);
+        }
+
+        @Override
+        Boolean decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            return (Boolean) stored;
+        }
+
+        @Override
+        Boolean read(PreferenceStore store) {
+            return store.preferences.getBoolean(getName(), getFallback());
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, Boolean value) {
+            checkPrimitive(value);
+            editor.putBoolean(getName(), value);
+            return 0;
+        }
+    }
+
+    static class StringSetKey extends PreferenceKey<Set<String>> {
+
+        StringSetKey(String name, Set<String> fallback) {
+            super(name, fallback);
+        }
+
+        @Override
+        Set<String> decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            return new HashSet<>((Set<String>) stored);
+        }
+
+        @Override
+        Set<String> read(PreferenceStore store) {
+            Set<String> stored = store.preferences.getStringSet(getName(), getFallback());
+            // A copy, like get(), so changing it can't change the stored set
+            return stored == null ? null : new HashSet<>(stored);
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, Set<String> value) {
+            editor.putStringSet(getName(), value);
+            int size = 0;
+            if(value != null) {
+                for(String element : value) {
+                    size += element == null ? 0 : element.length();
+                }
+            }
+            return size;
+        }
+    }
+
+    static class ObjectKey<T> extends PreferenceKey<T> {
+
+        private final Type type;
+
+        ObjectKey(String name, T fallback, Type type) {
+            super(name, fallback);
+            this.type = type;
+        }
+
+        Type getType() {
+            return type;
+        }
+
+        @Override
+        T decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            return store.readObject(values, getName(), (String) stored, type);
+        }
+
+        @Override
+        T read(PreferenceStore store) {
+            String stored = store.preferences.getString(getName(), null);
+            return stored == null ? getFallback() : store.<T>readObject(null, getName(), stored, type);
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, T value) {
+            String encoded = store.encodeValue(value, type);
+            editor.putString(getName(), encoded);
+            return encoded.length();
+        }
+    }
+
+    /**
+     * A custom object stored as the same JSON Gson would write, converted by its adapter.  The store parses it as a
+     * JsonElement, which Gson reads without reflection, so the object cache keeps the parsed tree and each read
+     * builds a new object from it.
+     */
+    static class AdapterKey<T> extends ObjectKey<T> {
+
+        private final TypeAdapter<T> adapter;
+
+        AdapterKey(String name, T fallback, TypeAdapter<T> adapter) {
+            super(name, fallback, JsonElement.class);
+            this.adapter = adapter;
+        }
+
+        @Override
+        T decode(PreferenceStore store, Map<String, ?> values, Object stored) {
+            JsonElement tree = store.readObject(values, getName(), (String) stored, JsonElement.class);
+            try {
+                return adapter.fromJsonTree(tree);
+            }
+            catch(IllegalStateException | NumberFormatException | JsonParseException e) {
+                throw new IllegalArgumentException("The object stored at the specified key can't be read by the key's adapter", e);
+            }
+        }
+
+        @Override
+        T read(PreferenceStore store) {
+            String stored = store.preferences.getString(getName(), null);
+            return stored == null ? getFallback() : decode(store, null, stored);
+        }
+
+        @Override
+        int write(PreferenceStore store, SharedPreferences.Editor editor, T value) {
+            String encoded = store.encodeValue(adapter.toJsonTree(value), JsonElement.class);
+            editor.putString(getName(), encoded);
+            return encoded.length();
+        }
+    }
+}
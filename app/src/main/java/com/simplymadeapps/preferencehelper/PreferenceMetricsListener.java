@@ -0,0 +1,18 @@
+package com.simplymadeapps.preferencehelper;
+
+/**
+ * Receives every operation recorded by a store with metrics enabled.  It is called synchronously on the thread that
+ * made the call, so it should return quickly.
+ */
+public interface PreferenceMetricsListener {
+
+    /**
+     * @param storeName   the store's name, or null for the default store
+     * @param key         the key, or null for CLEAR and the other operations recorded for the whole store
+     * @param timeNanos   how long the whole call took
+     * @param size        the stored size of the written value, or 0 for reads and removes
+     * @param commitNanos how long the commit() or apply() took, or 0 for reads.  Under the COALESCE write policy
+     *                    this only covers staging the write; the disk write is reported as a FLUSH
+     */
+    void onOperation(String storeName, PreferenceOperation operation, String key, long timeNanos, int size, long commitNanos);
+}
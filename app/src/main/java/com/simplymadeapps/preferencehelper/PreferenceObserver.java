@@ -0,0 +1,10 @@
+package com.simplymadeapps.preferencehelper;
+
+/**
+ * Receives the new value of an observed key.  Called on the change executor once per changed key, after a burst of
+ * writes to the key has settled.  A removed key is reported with the fallback passed to observe().
+ */
+public interface PreferenceObserver<T> {
+
+    void onChanged(String key, T value);
+}
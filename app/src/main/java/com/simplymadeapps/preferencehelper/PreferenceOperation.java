@@ -0,0 +1,46 @@
+package com.simplymadeapps.preferencehelper;
+
+/**
+ * The store operations recorded by the metrics enabled with PreferenceOptions.setMetricsEnabled().
+ */
+public enum PreferenceOperation {
+    /**
+     * get() and the typed getters such as getInt().
+     */
+    GET,
+    /**
+     * put(), putList() and the typed setters such as putInt().
+     */
+    PUT,
+    REMOVE,
+    /**
+     * clear() is recorded without a key.
+     */
+    CLEAR,
+    /**
+     * getList() and opening a getListCursor().
+     */
+    GET_LIST,
+    /**
+     * A sweep that removed expired or over budget values, recorded once per sweep without a key.
+     */
+    EVICT,
+    /**
+     * getMany() is recorded once per call without a key.
+     */
+    GET_MANY,
+    /**
+     * PreferenceBatch.commit(), recorded once per batch without a key with the size of everything it wrote, and once
+     * for each key it wrote with that key's size.
+     */
+    BATCH_COMMIT,
+    /**
+     * PreferenceBatch.apply(), recorded like BATCH_COMMIT.
+     */
+    BATCH_APPLY,
+    /**
+     * A COALESCE write policy handing its pending changes to the stored file, recorded once per flush without a key.
+     * The commit time is how long the write took; the writes that were coalesced only record staging them.
+     */
+    FLUSH
+}
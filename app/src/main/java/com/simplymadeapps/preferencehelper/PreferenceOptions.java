@@ -0,0 +1,345 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Optional configuration passed to PreferenceHelper.init(Context, PreferenceOptions).
+ */
+public class PreferenceOptions {
+
+    private WritePolicy writePolicy = WritePolicy.commit();
+    private PreferenceStorage storage = new SharedPreferencesStorage();
+    private GsonBuilder gsonBuilder;
+    private int objectCacheSize;
+    private ObjectCacheMode objectCacheMode = ObjectCacheMode.COPY_ON_READ;
+    private ValueCodec valueCodec;
+    private int compressionThreshold;
+    private boolean metricsEnabled;
+    private PreferenceMetricsListener metricsListener;
+    private Executor asyncExecutor;
+    private boolean asyncKeyOrdering = true;
+    private Executor changeExecutor;
+    private long changeWindowMillis = 50;
+    private int listSegmentSize = 64;
+    private boolean expiryEnabled;
+    private long expirySweepIntervalMillis = 60000;
+    private long expiryByteBudget;
+    private int parallelDecodeThreshold;
+    private int parallelListThreshold;
+    private File spilloverDirectory;
+    private int spilloverThreshold;
+
+    public WritePolicy getWritePolicy() {
+        return writePolicy;
+    }
+
+    public PreferenceOptions setWritePolicy(@NonNull WritePolicy writePolicy) {
+        if(writePolicy == null) {
+            throw new IllegalArgumentException("Write policy cannot be null");
+        }
+
+        this.writePolicy = writePolicy;
+        return this;
+    }
+
+    public PreferenceStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Selects the backend values are stored in.  Defaults to SharedPreferencesStorage.
+     */
+    public PreferenceOptions setStorage(@NonNull PreferenceStorage storage) {
+        if(storage == null) {
+            throw new IllegalArgumentException("Storage cannot be null");
+        }
+
+        this.storage = storage;
+        return this;
+    }
+
+    public GsonBuilder getGsonBuilder() {
+        return gsonBuilder;
+    }
+
+    /**
+     * Custom objects and lists are serialized with a single Gson instance created from this builder, so any type
+     * adapters registered on it are resolved once and reused by every call.
+     */
+    public PreferenceOptions setGsonBuilder(GsonBuilder gsonBuilder) {
+        this.gsonBuilder = gsonBuilder;
+        return this;
+    }
+
+    public int getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    public ObjectCacheMode getObjectCacheMode() {
+        return objectCacheMode;
+    }
+
+    /**
+     * Keeps up to maxEntries decoded custom objects in memory so repeated get() calls skip JSON deserialization.
+     * The cache is off by default.
+     */
+    public PreferenceOptions setObjectCache(int maxEntries, @NonNull ObjectCacheMode mode) {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("The object cache must hold at least 1 entry");
+        }
+
+        if(mode == null) {
+            throw new IllegalArgumentException("Object cache mode cannot be null");
+        }
+
+        this.objectCacheSize = maxEntries;
+        this.objectCacheMode = mode;
+        return this;
+    }
+
+    public ValueCodec getValueCodec() {
+        return valueCodec;
+    }
+
+    /**
+     * Selects how custom objects and lists are encoded when they are written.  The default (null) stores plain Gson
+     * JSON.  Values keep their encoding until they are written again, and every store can read JSON, BinaryValueCodec
+     * values and values written by the configured codec, so the codec can be changed without migrating stored data.
+     */
+    public PreferenceOptions setValueCodec(ValueCodec valueCodec) {
+        if(valueCodec != null && (valueCodec.getTag() == null || !valueCodec.getTag().startsWith("#"))) {
+            throw new IllegalArgumentException("Value codec tags must start with '#'");
+        }
+
+        this.valueCodec = valueCodec;
+        return this;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * GZIPs custom objects and lists whose encoded form is at least the given number of characters.  Compressed values
+     * are read back transparently, even after compression is turned off again.  0, the default, turns compression off.
+     */
+    public PreferenceOptions setCompressionThreshold(int threshold) {
+        if(threshold < 0) {
+            throw new IllegalArgumentException("Compression threshold cannot be negative");
+        }
+
+        this.compressionThreshold = threshold;
+        return this;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled || metricsListener != null;
+    }
+
+    /**
+     * Records the call count, latency histogram, stored size and commit time of every get, put, remove, clear and
+     * getList, per key and for the whole store.  Read them with PreferenceHelper.getMetrics().  Off by default.
+     */
+    public PreferenceOptions setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+        return this;
+    }
+
+    public PreferenceMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Reports every recorded operation to the listener as it happens.  Setting a listener also turns metrics on.
+     */
+    public PreferenceOptions setMetricsListener(PreferenceMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Runs putAsync(), getAsync() and getListAsync() on the given executor.  The default (null) is a small pool of
+     * daemon threads shared by every store.
+     */
+    public PreferenceOptions setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+        return this;
+    }
+
+    public boolean isAsyncKeyOrdering() {
+        return asyncKeyOrdering;
+    }
+
+    /**
+     * When on, the default, async calls for the same key run one at a time in the order they were made.  Turn it off
+     * to let every call run as soon as the executor has a free thread.
+     */
+    public PreferenceOptions setAsyncKeyOrdering(boolean ordered) {
+        this.asyncKeyOrdering = ordered;
+        return this;
+    }
+
+    public Executor getChangeExecutor() {
+        return changeExecutor;
+    }
+
+    /**
+     * Delivers observed changes on the given executor.  The default (null) is the pool used by the async calls.
+     */
+    public PreferenceOptions setChangeExecutor(Executor executor) {
+        this.changeExecutor = executor;
+        return this;
+    }
+
+    public long getChangeWindowMillis() {
+        return changeWindowMillis;
+    }
+
+    /**
+     * How long an observed key collects changes before its latest value is delivered.  Defaults to 50ms; 0 delivers
+     * as soon as the change executor is free, which still merges changes made while a delivery is waiting.
+     */
+    public PreferenceOptions setChangeWindowMillis(long windowMillis) {
+        if(windowMillis < 0) {
+            throw new IllegalArgumentException("Change window cannot be negative");
+        }
+
+        this.changeWindowMillis = windowMillis;
+        return this;
+    }
+
+    public int getListSegmentSize() {
+        return listSegmentSize;
+    }
+
+    /**
+     * How many elements each segment of a list updated with appendToList() or removeFromList() holds.  Defaults to
+     * 64; smaller segments make each update cheaper and full reads touch more keys.
+     */
+    public PreferenceOptions setListSegmentSize(int segmentSize) {
+        if(segmentSize < 1) {
+            throw new IllegalArgumentException("List segments must hold at least 1 element");
+        }
+
+        this.listSegmentSize = segmentSize;
+        return this;
+    }
+
+    public boolean isExpiryEnabled() {
+        return expiryEnabled;
+    }
+
+    /**
+     * Allows values to be stored with a TTL using put(key, value, ttlMillis).  Off by default.
+     */
+    public PreferenceOptions setExpiryEnabled(boolean enabled) {
+        this.expiryEnabled = enabled;
+        return this;
+    }
+
+    public long getExpirySweepIntervalMillis() {
+        return expirySweepIntervalMillis;
+    }
+
+    /**
+     * How often expired values are removed in the background.  Defaults to a minute; 0 turns the background sweep
+     * off, leaving expired values unreadable until sweepExpired() is called.
+     */
+    public PreferenceOptions setExpirySweepIntervalMillis(long intervalMillis) {
+        if(intervalMillis < 0) {
+            throw new IllegalArgumentException("Sweep interval cannot be negative");
+        }
+
+        this.expirySweepIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    public long getExpiryByteBudget() {
+        return expiryByteBudget;
+    }
+
+    /**
+     * Caps the size of the store in characters.  Each sweep over the budget removes the least recently used values
+     * stored with a TTL until it fits; values stored without one are never removed.  Defaults to 0, no budget.
+     */
+    public PreferenceOptions setExpiryByteBudget(long budget) {
+        if(budget < 0) {
+            throw new IllegalArgumentException("Byte budget cannot be negative");
+        }
+
+        this.expiryByteBudget = budget;
+        return this;
+    }
+
+    public int getParallelDecodeThreshold() {
+        return parallelDecodeThreshold;
+    }
+
+    /**
+     * How many custom objects a getMany() call has to read before they are decoded on several threads.  Defaults
+     * to 0, which always decodes on the calling thread.
+     */
+    public PreferenceOptions setParallelDecodeThreshold(int threshold) {
+        if(threshold < 0) {
+            throw new IllegalArgumentException("Parallel decode threshold cannot be negative");
+        }
+
+        this.parallelDecodeThreshold = threshold;
+        return this;
+    }
+
+    public int getParallelListThreshold() {
+        return parallelListThreshold;
+    }
+
+    /**
+     * How long, in characters of JSON, a stored list has to be before getList() splits it and decodes the pieces on
+     * several threads.  Worth it for lists of many thousands of objects; smaller lists decode faster on one thread.
+     * Defaults to 0, which always decodes on the calling thread.
+     */
+    public PreferenceOptions setParallelListThreshold(int characters) {
+        if(characters < 0) {
+            throw new IllegalArgumentException("Parallel list threshold cannot be negative");
+        }
+
+        this.parallelListThreshold = characters;
+        return this;
+    }
+
+    public File getSpilloverDirectory() {
+        return spilloverDirectory;
+    }
+
+    public int getSpilloverThreshold() {
+        return spilloverThreshold;
+    }
+
+    /**
+     * Moves custom objects and lists whose encoded form is at least threshold characters into their own files under
+     * the directory, leaving a short reference in the store so loading the store doesn't read them.  They are read
+     * only when asked for and their files are deleted when the values are replaced, removed or cleared.  A threshold
+     * of 0 writes every value to the store again while values already moved stay readable from the directory.
+     */
+    public PreferenceOptions setSpillover(@NonNull File directory, int threshold) {
+        if(directory == null) {
+            throw new IllegalArgumentException("The spillover directory cannot be null");
+        }
+
+        if(threshold < 0) {
+            throw new IllegalArgumentException("Spillover threshold cannot be negative");
+        }
+
+        this.spilloverDirectory = directory;
+        this.spilloverThreshold = threshold;
+        return this;
+    }
+}
@@ -0,0 +1,182 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable copy of every value in a store at one point in time.  Reads take no locks and never see a later
+ * write, so any number of threads can read from a snapshot while others write to the store.  Take a new one with
+ * PreferenceStore.snapshot() to see newer values.
+ * <p>
+ * Custom objects are decoded on every get(), so each call returns a fresh copy.  Values written with a TTL keep the
+ * expiry time they had when the snapshot was taken and read as missing once it has passed.
+ */
+public class PreferenceSnapshot {
+
+    private final PreferenceStore store;
+    // Every stored value, including the parts of segmented collections that reads assemble them from
+    final Map<String, ?> stored;
+    // The stored values without the parts and expiry times, and the expiry time of every key written with a TTL.
+    // Built by the first getAll(), so taking a snapshot costs no more than copying the store.
+    private volatile Map<String, ?> values;
+    private Map<String, Long> expiries;
+    // The store's write count when the values were copied
+    final long version;
+
+    PreferenceSnapshot(PreferenceStore store, Map<String, ?> stored, long version) {
+        this.store = store;
+        this.stored = stored;
+        this.version = version;
+    }
+
+    /**
+     * Returns every stored value that hasn't expired.  The expiry times and the segments and entries of lists and maps
+     * built with appendToList() and putMapEntry() aren't values of their own and are left out.  The map can't be
+     * modified.
+     */
+    public Map<String, ?> getAll() {
+        Map<String, ?> values = getValues();
+        if(expiries.isEmpty()) {
+            return values;
+        }
+
+        Map<String, Object> live = new HashMap<>(values);
+        for(String key : expiries.keySet()) {
+            if(isExpired(key)) {
+                live.remove(key);
+            }
+        }
+        return Collections.unmodifiableMap(live);
+    }
+
+    private Map<String, ?> getValues() {
+        Map<String, ?> values = this.values;
+        if(values != null) {
+            return values;
+        }
+
+        // Two threads may both build it - they build the same map
+        Map<String, Object> filtered = new HashMap<>(stored);
+        filtered.keySet().removeAll(SegmentedCollections.partKeys(stored));
+        Map<String, Long> expiries = new HashMap<>();
+        if(store.expiry != null) {
+            for(Map.Entry<String, ?> entry : stored.entrySet()) {
+                String key = entry.getKey();
+                if(key.startsWith(ExpiryTracker.PREFIX) && entry.getValue() instanceof Long) {
+                    filtered.remove(key);
+                    expiries.put(key.substring(ExpiryTracker.PREFIX.length()), (Long) entry.getValue());
+                }
+            }
+        }
+        // Set before the volatile write of values, which publishes both
+        this.expiries = expiries;
+        values = Collections.unmodifiableMap(filtered);
+        this.values = values;
+        return values;
+    }
+
+    public int size() {
+        return getAll().size();
+    }
+
+    public boolean contains(String key) {
+        return read(key) != null;
+    }
+
+    /**
+     * True when the key was written with a TTL that had run out by now, going by the expiry time stored when the
+     * snapshot was taken.
+     */
+    boolean isExpired(String key) {
+        if(store.expiry == null) {
+            return false;
+        }
+        Object expiry = stored.get(ExpiryTracker.expiryKey(key));
+        return store.expiry.isExpired(key, expiry instanceof Long ? (Long) expiry : null);
+    }
+
+    /**
+     * Returns the key's value, or null when it has expired or isn't a value of its own.  Single keys are looked up
+     * in the copy of the store directly, so reads never wait for getAll() to filter it.
+     */
+    private Object read(String key) {
+        Object value = stored.get(key);
+        if(value == null || isExpired(key) || store.collections.isStoredPart(stored, key)) {
+            return null;
+        }
+        if(store.expiry != null && key.startsWith(ExpiryTracker.PREFIX) && value instanceof Long) {
+            return null;
+        }
+        return value;
+    }
+
+    // Like SharedPreferences, the typed accessors throw a ClassCastException when the key holds another type
+
+    public String getString(@NonNull String key, String fallback) {
+        Object value = read(key);
+        return value == null ? fallback : (String) value;
+    }
+
+    public int getInt(@NonNull String key, int fallback) {
+        Object value = read(key);
+        return value == null ? fallback : (Integer) value;
+    }
+
+    public long getLong(@NonNull String key, long fallback) {
+        Object value = read(key);
+        return value == null ? fallback : (Long) value;
+    }
+
+    public float getFloat(@NonNull String key, float fallback) {
+        Object value = read(key);
+        return value == null ? fallback : (Float) value;
+    }
+
+    public boolean getBoolean(@NonNull String key, boolean fallback) {
+        Object value = read(key);
+        return value == null ? fallback : (Boolean) value;
+    }
+
+    public <T> T get(@NonNull String key, T fallback) {
+        return get(key, fallback, null);
+    }
+
+    /**
+     * Reads a value the same way PreferenceStore.get() does.
+     */
+    public <T> T get(@NonNull String key, T fallback, Class<T> type) {
+        PreferenceStore.checkForExceptions(key, fallback, type);
+        Object value = read(key);
+        if(value == null) {
+            return fallback;
+        }
+
+        Class<T> instanceType = PreferenceStore.getInstanceType(fallback, type);
+        if(String.class.isAssignableFrom(instanceType) || PreferenceStore.isTypePrimitive(instanceType)) {
+            return instanceType.cast(value);
+        }
+        if(Set.class.isAssignableFrom(instanceType)) {
+            // A copy, like PreferenceStore.get(), so the caller can't change the snapshot's set
+            return (T) new HashSet<>((Set<String>) value);
+        }
+        if(List.class.isAssignableFrom(instanceType)) {
+            throw new IllegalArgumentException("Please use getList() instead of get() when retrieving a list of stored objects.");
+        }
+
+        return store.readObject(stored, key, (String) value, instanceType);
+    }
+
+    public <T> List<T> getList(@NonNull String key, List<T> fallback, Class<T[]> type) {
+        Object value = read(key);
+        if(value == null) {
+            return fallback;
+        }
+        return store.readList(stored, key, (String) value, (Class<T>) type.getComponentType());
+    }
+}
@@ -0,0 +1,18 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Opens the store that PreferenceHelper reads from and writes to.
+ *
+ * Every backend is exposed through the SharedPreferences interface, so put()/get() work the same on all of them.
+ */
+public interface PreferenceStorage {
+
+    /**
+     * Returns the store with the given name, or the app's default store when name is null.  Repeated calls with the
+     * same name must return the same instance.
+     */
+    SharedPreferences open(Context context, String name);
+}
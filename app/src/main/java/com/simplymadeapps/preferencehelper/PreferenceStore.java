@@ -0,0 +1,1460 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A single preference file with its own write policy and object cache.  The static PreferenceHelper methods use the
+ * default store; open named stores with PreferenceHelper.store(String).
+ * <p>
+ * A store is safe to use from any number of threads.  Every write stages its change on its own editor and commits
+ * or applies only that change, so concurrent writers never commit each other's half finished edits.  The store adds
+ * no store-wide lock of its own; writers only meet inside the backend's commit, the object cache when it is enabled
+ * and, for the read-modify-write collection updates, the collections lock.
+ * A write is visible to every thread once the call returns.  A PreferenceBatch belongs to the thread that created it.
+ */
+public class PreferenceStore {
+
+    // Gson is thread safe and caches its type adapters, so one instance is shared by every store without a builder
+    static final Gson DEFAULT_GSON = new Gson();
+    // Binary values stay readable even when a store is switched back to JSON
+    private static final ValueCodec BINARY_CODEC = new BinaryValueCodec();
+
+    private final String name;
+    private final DeferredSharedPreferences deferred;
+    protected SharedPreferences preferences;
+    protected WritePolicy writePolicy;
+    protected Gson gson;
+    protected TypeAdapterCache typeAdapters;
+    protected ObjectCache objectCache;
+    protected ValueCodec valueCodec;
+    protected ValueCompressor compressor;
+    protected SpilloverFiles spillover;
+    protected MetricsRecorder metrics;
+    // Whether the coalescing preferences of a COALESCE store have been handed the metrics and spilled files
+    private volatile boolean coalescingAttached;
+    protected AsyncExecutor asyncExecutor;
+    protected ChangeDispatcher changeDispatcher;
+    protected SegmentedCollections collections;
+    protected volatile SnapshotPublisher snapshots;
+    protected ExpiryTracker expiry;
+    private final Executor changeExecutor;
+    private final long changeWindowMillis;
+    private final int parallelDecodeThreshold;
+    private final int parallelListThreshold;
+
+    PreferenceStore(String name, SharedPreferences preferences, PreferenceOptions options) {
+        this.name = name;
+        this.deferred = preferences instanceof DeferredSharedPreferences ? (DeferredSharedPreferences) preferences : null;
+        this.writePolicy = options.getWritePolicy();
+        this.gson = options.getGsonBuilder() != null ? options.getGsonBuilder().create() : DEFAULT_GSON;
+        this.typeAdapters = new TypeAdapterCache(gson);
+        this.valueCodec = options.getValueCodec();
+        this.compressor = new ValueCompressor(options.getCompressionThreshold());
+        if(options.getSpilloverDirectory() != null) {
+            spillover = new SpilloverFiles(new File(options.getSpilloverDirectory(), name == null ? "default" : "store_" + name), options.getSpilloverThreshold());
+        }
+        this.asyncExecutor = new AsyncExecutor(options.getAsyncExecutor(), options.isAsyncKeyOrdering());
+        this.changeExecutor = options.getChangeExecutor();
+        this.changeWindowMillis = options.getChangeWindowMillis();
+        this.parallelDecodeThreshold = options.getParallelDecodeThreshold();
+        this.parallelListThreshold = options.getParallelListThreshold();
+        this.collections = new SegmentedCollections(this, options.getListSegmentSize());
+        if(options.isMetricsEnabled()) {
+            metrics = new MetricsRecorder(name, options.getMetricsListener());
+        }
+        if(deferred == null) {
+            // A store loaded in the background has the policy applied by its loader, off the calling thread
+            preferences = applyWritePolicy(preferences, writePolicy, name);
+        }
+        this.preferences = preferences;
+        if(deferred == null) {
+            attachCoalescing();
+        }
+        if(options.getObjectCacheSize() > 0) {
+            objectCache = new ObjectCache(options.getObjectCacheSize(), options.getObjectCacheMode());
+            // SharedPreferences only holds its listeners weakly - the store's field keeps the cache registered
+            preferences.registerOnSharedPreferenceChangeListener(objectCache);
+        }
+        if(options.isExpiryEnabled()) {
+            expiry = new ExpiryTracker(this, options.getExpiryByteBudget());
+            if(options.getExpirySweepIntervalMillis() > 0) {
+                expiry.startSweeping(CoalescingPreferences.getSharedScheduler(), AsyncExecutor.getSharedExecutor(), options.getExpirySweepIntervalMillis());
+            }
+        }
+    }
+
+    /**
+     * Returns the name the store was opened with, or null for the default store.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns false while a store opened by PreferenceHelper.initAsync() is still loading in the background.  Calls
+     * made before then wait for the load to finish.
+     */
+    public boolean isLoaded() {
+        return deferred == null || deferred.isLoaded();
+    }
+
+    /**
+     * Returns the background load timings for a store opened by PreferenceHelper.initAsync(), or null for a store
+     * that was opened synchronously.
+     */
+    public StartupMetrics getStartupMetrics() {
+        return deferred == null ? null : deferred.getStartupMetrics();
+    }
+
+    /**
+     * Returns the running totals for values compressed by this store.
+     */
+    public CompressionStats getCompressionStats() {
+        return compressor.getStats();
+    }
+
+    /**
+     * Returns a copy of the operation metrics recorded so far, or null when metrics are off.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    /**
+     * Discards the operation metrics recorded so far.
+     */
+    public void resetMetrics() {
+        if(metrics != null) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Hands any writes held by the COALESCE write policy to SharedPreferences without waiting for the disk write.
+     */
+    public void flush() {
+        CoalescingPreferences coalescing = getCoalescing();
+        if(coalescing != null) {
+            coalescing.flush();
+        }
+    }
+
+    /**
+     * Writes any pending changes and blocks until they are on disk.  Call this from shutdown paths.
+     */
+    @SuppressLint("ApplySharedPref")
+    public boolean flushAndWait() {
+        CoalescingPreferences coalescing = getCoalescing();
+        if(coalescing != null) {
+            if(!coalescingAttached) {
+                attachCoalescing();
+            }
+            return coalescing.flushAndWait();
+        }
+
+        long mark = markSpilled();
+        // An empty commit waits for any earlier apply() to finish writing
+        boolean written = preferences.edit().commit();
+        if(written) {
+            sweepSpilled(mark);
+        }
+        return written;
+    }
+
+    /**
+     * Returns the preferences holding writes back for the COALESCE write policy, waiting for a store that is still
+     * loading, or null for the other policies.
+     */
+    CoalescingPreferences getCoalescing() {
+        SharedPreferences current = preferences;
+        if(current == deferred && writePolicy.getMode() == WritePolicy.Mode.COALESCE) {
+            current = deferred.getDelegate();
+        }
+        return current instanceof CoalescingPreferences ? (CoalescingPreferences) current : null;
+    }
+
+    long startTimer() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records a batch that just wrote the keys in sizes, then forgets them so the batch can be reused.
+     */
+    void recordBatch(PreferenceOperation operation, Map<String, Integer> sizes, long start) {
+        if(metrics != null) {
+            long time = System.nanoTime() - start;
+            metrics.recordBatch(operation, sizes, time, time);
+        }
+        sizes.clear();
+    }
+
+    private void recordRead(PreferenceOperation operation, String key, long start) {
+        if(metrics != null) {
+            metrics.record(operation, key, System.nanoTime() - start, 0, 0);
+        }
+    }
+
+    /**
+     * Starts the editor for a single write.  Each write gets its own so nothing staged by another thread can be
+     * committed with it.
+     */
+    @SuppressLint("CommitPrefEdits")
+    private SharedPreferences.Editor newEditor() {
+        return preferences.edit();
+    }
+
+    /**
+     * Saves a change staged on the write's editor, drops the cached objects it affects (every object when key is null)
+     * and records the operation.  A write to a key stored with a TTL makes it permanent.
+     */
+    private void finishWrite(SharedPreferences.Editor editor, PreferenceOperation operation, String key, int size, long start) {
+        if(expiry != null && expiry.isTracked(key)) {
+            // Held until the save so a sweep can't remove the new value as the old one expires
+            synchronized(expiry) {
+                expiry.forget(editor, key);
+                completeWrite(editor, operation, key, size, start);
+            }
+            return;
+        }
+        completeWrite(editor, operation, key, size, start);
+    }
+
+    private void completeWrite(SharedPreferences.Editor editor, PreferenceOperation operation, String key, int size, long start) {
+        Map<String, String> spilled = findSpilled(key);
+        long mark = markSpilled();
+        long commitStart = startTimer();
+        boolean onDisk = save(editor);
+        long end = startTimer();
+        retireReplaced(spilled, onDisk);
+        if(onDisk) {
+            sweepSpilled(mark);
+        }
+
+        if(key == null) {
+            clearCachedObjects();
+        }
+        else {
+            invalidateCachedObject(key);
+        }
+        invalidateSnapshot();
+
+        if(metrics != null) {
+            metrics.record(operation, key, end - start, size, end - commitStart);
+        }
+    }
+
+    /**
+     * Returns the spilled values a write to the key can replace, or every spilled value when key is null, mapped to
+     * their keys.  Read before the write is saved and passed to retireReplaced() after it.
+     */
+    Map<String, String> findSpilled(String key) {
+        Map<String, String> spilled = new HashMap<>();
+        if(spillover == null) {
+            return spilled;
+        }
+
+        if(key != null) {
+            String stored = getStoredString(key);
+            if(SpilloverFiles.isSpilled(stored)) {
+                spilled.put(stored, key);
+            }
+        }
+        else {
+            for(Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+                if(entry.getValue() instanceof String && SpilloverFiles.isSpilled((String) entry.getValue())) {
+                    spilled.put((String) entry.getValue(), entry.getKey());
+                }
+            }
+        }
+        for(String reference : spilled.keySet()) {
+            spillover.track(reference);
+        }
+        return spilled;
+    }
+
+    /**
+     * Retires the files of spilled values that are no longer stored at their keys.  They are deleted by a sweep once
+     * the write is on disk: right away when onDisk is true, otherwise after the next commit or flushAndWait().
+     */
+    void retireReplaced(Map<String, String> spilled, boolean onDisk) {
+        for(Map.Entry<String, String> entry : spilled.entrySet()) {
+            if(!entry.getKey().equals(getStoredString(entry.getValue()))) {
+                spillover.retire(entry.getKey(), onDisk);
+            }
+        }
+    }
+
+    /**
+     * Returns the mark to pass to sweepSpilled() once the commit about to start is on disk.
+     */
+    long markSpilled() {
+        return spillover == null ? 0 : spillover.mark();
+    }
+
+    /**
+     * Deletes the files of the spilled values retired before the mark.  Only call this after a commit that put the
+     * store on disk - the coalescing preferences sweep after their own commits.
+     */
+    void sweepSpilled(long mark) {
+        if(spillover != null) {
+            spillover.sweep(mark, preferences);
+        }
+    }
+
+    private String getStoredString(String key) {
+        try {
+            return preferences.getString(key, null);
+        }
+        catch(ClassCastException e) {
+            return null;
+        }
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private boolean save(SharedPreferences.Editor editor) {
+        if(writePolicy.getMode() == WritePolicy.Mode.COMMIT) {
+            return editor.commit();
+        }
+
+        if(!coalescingAttached) {
+            // A store loaded in the background only has its coalescing preferences once the load is done
+            attachCoalescing();
+        }
+        // The coalescing editor only stages the change here - it is written when the batch is flushed
+        editor.apply();
+        return false;
+    }
+
+    /**
+     * Hands the metrics and spilled files to the coalescing preferences, so flushes are timed and swept where the disk
+     * write happens.
+     */
+    private void attachCoalescing() {
+        CoalescingPreferences coalescing = getCoalescing();
+        if(coalescing != null) {
+            coalescing.setMetrics(metrics);
+            coalescing.setSpillover(spillover);
+        }
+        coalescingAttached = true;
+    }
+
+    /**
+     * Returns an immutable view of every value in the store as of the latest write.  Snapshots are shared until the
+     * next write, so hot readers can call this as often as they like; reading from one never takes a lock.
+     */
+    public PreferenceSnapshot snapshot() {
+        SnapshotPublisher publisher = snapshots;
+        if(publisher == null) {
+            publisher = getSnapshotPublisher();
+        }
+        return publisher.get();
+    }
+
+    private synchronized SnapshotPublisher getSnapshotPublisher() {
+        if(snapshots == null) {
+            SnapshotPublisher publisher = new SnapshotPublisher(this);
+            // Like the object cache, the store's field is what keeps the weakly held listener registered
+            preferences.registerOnSharedPreferenceChangeListener(publisher);
+            snapshots = publisher;
+        }
+        return snapshots;
+    }
+
+    void invalidateSnapshot() {
+        SnapshotPublisher publisher = snapshots;
+        if(publisher != null) {
+            publisher.invalidate();
+        }
+    }
+
+    /**
+     * Starts a batch of changes that are staged in memory and written together with a single commit() or apply().
+     */
+    public PreferenceBatch edit() {
+        return new PreferenceBatch(this);
+    }
+
+    public boolean contains(String key) {
+        return preferences.contains(key) && !isExpired(key);
+    }
+
+    public void remove(String key) {
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key);
+        editor.remove(key);
+        finishWrite(editor, PreferenceOperation.REMOVE, key, 0, start);
+    }
+
+    public void clear() {
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        editor.clear();
+        finishWrite(editor, PreferenceOperation.CLEAR, null, 0, start);
+    }
+
+    void invalidateCachedObject(String key) {
+        if(objectCache != null) {
+            objectCache.invalidate(key);
+        }
+    }
+
+    void clearCachedObjects() {
+        if(objectCache != null) {
+            objectCache.clear();
+        }
+    }
+
+    /**
+     * Wraps the preferences for the COALESCE write policy, opening and replaying its journal, or returns them as they
+     * are for the other policies.
+     */
+    static SharedPreferences applyWritePolicy(SharedPreferences preferences, WritePolicy writePolicy, String name) {
+        if(writePolicy.getMode() != WritePolicy.Mode.COALESCE) {
+            return preferences;
+        }
+        return new CoalescingPreferences(preferences, writePolicy, openJournal(writePolicy.getJournalDirectory(), name));
+    }
+
+    /**
+     * Opens the store's journal in the directory, or returns null when the write policy doesn't journal.
+     */
+    static WriteJournal openJournal(File directory, String name) {
+        if(directory == null) {
+            return null;
+        }
+
+        File file = new File(directory, (name == null ? "default" : "store_" + name) + ".journal");
+        try {
+            return new WriteJournal(file);
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Unable to open journal " + file.getPath(), e);
+        }
+    }
+
+    static <T> boolean isTypePrimitive(Class<T> type) {
+        return type.equals(Integer.class) ||
+                type.equals(Boolean.class) ||
+                type.equals(Float.class) ||
+                type.equals(Long.class);
+    }
+
+    static void checkKey(String key) {
+        if(key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        if(key.startsWith(ExpiryTracker.PREFIX)) {
+            throw new IllegalArgumentException("Keys starting with " + ExpiryTracker.PREFIX + " are reserved for expiry times");
+        }
+    }
+
+    static <T> void checkForExceptions(String key, T value, Class<T> type) {
+        checkKey(key);
+
+        if(value == null && type == null) {
+            throw new IllegalArgumentException("You must specify the object type when storing or retrieving a null value using put(String key, T value, Class<T> type) or get(String key, T fallback, Class<T> type)");
+        }
+
+        if(value == null && isTypePrimitive(type)) {
+            throw new IllegalArgumentException("Null primitive types (boolean, int, long, float) are invalid");
+        }
+    }
+
+    static <T> Class<T> getInstanceType(T value, Class<T> type) {
+        if(value == null) {
+            return type;
+        }
+        else {
+            // We don't have to worry about a type mismatch because the compiler enforces the T value to match
+            // For example, put("key", "string", Integer.class) would not compile
+            return (Class<T>) value.getClass();
+        }
+    }
+
+    public <T> void put(@NonNull String key, T value) {
+        put(key, value, (Class<T>) null);
+    }
+
+    public <T> void put(@NonNull String key, T value, Class<T> type) {
+        checkForExceptions(key, value, type);
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        int size = putValue(editor, key, value, type);
+        finishWrite(editor, PreferenceOperation.PUT, key, size, start);
+    }
+
+    /**
+     * Stores a value that reads as missing once ttlMillis have passed, and is removed by the next sweep after that.
+     * Needs PreferenceOptions.setExpiryEnabled().  Writing the key again without a TTL makes it permanent.
+     */
+    public <T> void put(@NonNull String key, T value, long ttlMillis) {
+        checkForExceptions(key, value, null);
+        if(ttlMillis <= 0) {
+            throw new IllegalArgumentException("TTL must be greater than 0");
+        }
+        if(expiry == null) {
+            throw new IllegalStateException("Enable expiry with PreferenceOptions.setExpiryEnabled() to store values with a TTL");
+        }
+
+        long start = startTimer();
+        synchronized(expiry) {
+            SharedPreferences.Editor editor = newEditor();
+            int size = putValue(editor, key, value, null);
+            expiry.track(editor, key, ttlMillis);
+            completeWrite(editor, PreferenceOperation.PUT, key, size, start);
+        }
+    }
+
+    /**
+     * Removes every expired value, and the least recently used values with a TTL while the store is over its byte
+     * budget, in a single write.  Returns the number of values removed.  The background sweep calls this on its own;
+     * call it directly when the sweep interval is 0.
+     */
+    public int sweepExpired() {
+        if(expiry == null) {
+            return 0;
+        }
+
+        long start = startTimer();
+        // Collections first, like their updates, so an append can't rewrite a list while it is being removed
+        synchronized(collections) {
+            synchronized(expiry) {
+                SharedPreferences.Editor editor = newEditor();
+                List<String> evicted = expiry.evict(editor);
+                if(evicted.isEmpty()) {
+                    return 0;
+                }
+
+                Map<String, String> spilled = new HashMap<>();
+                for(String key : evicted) {
+                    spilled.putAll(findSpilled(key));
+                }
+                long mark = markSpilled();
+                long commitStart = startTimer();
+                boolean onDisk = save(editor);
+                long end = startTimer();
+                retireReplaced(spilled, onDisk);
+                if(onDisk) {
+                    sweepSpilled(mark);
+                }
+                for(String key : evicted) {
+                    invalidateCachedObject(key);
+                }
+                invalidateSnapshot();
+                if(metrics != null) {
+                    metrics.record(PreferenceOperation.EVICT, null, end - start, 0, end - commitStart);
+                }
+                return evicted.size();
+            }
+        }
+    }
+
+    private boolean isExpired(String key) {
+        return expiry != null && expiry.isExpired(key);
+    }
+
+    /**
+     * Stages the removal of the key's TTL (every TTL when key is null) for a batch that overwrites or removes it.
+     */
+    void forgetExpiry(SharedPreferences.Editor editor, String key) {
+        if(expiry != null && expiry.isTracked(key)) {
+            synchronized(expiry) {
+                expiry.forget(editor, key);
+            }
+        }
+    }
+
+    /**
+     * Stages the value on the editor and returns its stored size in characters.
+     */
+    <T> int putValue(SharedPreferences.Editor editor, String key, T value, Class<T> type) {
+        return putValue(editor, key, value, type, null);
+    }
+
+    /**
+     * Stages the value like putValue() and adds it to spilled, mapped to the key, when it was moved to a file.
+     */
+    <T> int putValue(SharedPreferences.Editor editor, String key, T value, Class<T> type, Map<String, String> spilled) {
+        Class<T> instanceType = getInstanceType(value, type);
+        collections.removeParts(editor, key);
+
+        if(String.class.isAssignableFrom(instanceType)) {
+            editor.putString(key, (String) value);
+            return length((String) value);
+        }
+        else if(Integer.class.isAssignableFrom(instanceType)) {
+            editor.putInt(key, (Integer) value);
+        }
+        else if(Boolean.class.isAssignableFrom(instanceType)) {
+            editor.putBoolean(key, (Boolean) value);
+        }
+        else if(Long.class.isAssignableFrom(instanceType)) {
+            // Reminder: if using hardcoded numbers we specify that is a literal long value (ex 0L or 0l)
+            editor.putLong(key, (Long) value);
+        }
+        else if(Float.class.isAssignableFrom(instanceType)) {
+            // Reminder: if using hardcoded numbers we specify that is a literal float value (ex 0F or 0f)
+            editor.putFloat(key, (Float) value);
+        }
+        else if(Set.class.isAssignableFrom(instanceType)) {
+            // Be careful when working with Sets - they work differently than the other types (https://stackoverflow.com/a/14034804/6754511)
+            editor.putStringSet(key, (Set<String>) value);
+            return sizeOf((Set<String>) value);
+        }
+        else {
+            // Store a custom non-primitive object as JSON string, or in the configured codec's format
+            String encoded = encodeValue(value, instanceType);
+            editor.putString(key, encoded);
+            if(spilled != null && SpilloverFiles.isSpilled(encoded)) {
+                spilled.put(encoded, key);
+            }
+            return encoded.length();
+        }
+        return 0;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static int sizeOf(Set<String> values) {
+        int size = 0;
+        if(values != null) {
+            for(String value : values) {
+                size += length(value);
+            }
+        }
+        return size;
+    }
+
+    String encodeObject(Object value, Type type) {
+        if(valueCodec == null) {
+            return compressor.compress(gson.toJson(value, type));
+        }
+        return compressor.compress(valueCodec.getTag() + valueCodec.encode(gson.toJsonTree(value, type)));
+    }
+
+    /**
+     * Encodes a value stored under a key of its own, which is moved to a file of its own when it is at least the
+     * spillover threshold.  The parts of segmented collections are always stored in the store.
+     */
+    String encodeValue(Object value, Type type) {
+        String encoded = encodeObject(value, type);
+        return spillover == null ? encoded : spillover.spill(encoded);
+    }
+
+    /**
+     * Returns the encoded form of a stored value, reading it from its file when it was spilled and inflating it when
+     * it was compressed.
+     */
+    private String inflate(String stored) {
+        return compressor.decompress(spillover == null ? stored : spillover.load(stored));
+    }
+
+    /**
+     * Returns the codec that wrote a stored value, or null when it is plain JSON.
+     */
+    ValueCodec getCodec(String stored) {
+        if(stored == null || !stored.startsWith("#")) {
+            return null;
+        }
+        if(valueCodec != null && stored.startsWith(valueCodec.getTag())) {
+            return valueCodec;
+        }
+        if(stored.startsWith(BinaryValueCodec.TAG)) {
+            return BINARY_CODEC;
+        }
+        return null;
+    }
+
+    private static JsonElement decodeTree(ValueCodec codec, String stored) {
+        return codec.decode(stored.substring(codec.getTag().length()));
+    }
+
+    private <T> T decodeObject(String stored, Type type) {
+        stored = inflate(stored);
+        ValueCodec codec = getCodec(stored);
+        if(codec == null) {
+            return fromJson(stored, type);
+        }
+        return fromJsonTree(decodeTree(codec, stored), type);
+    }
+
+    // Gson looks up a Class cheaply, so only generic types go through the cached adapters
+
+    private <T> T fromJson(String json, Type type) {
+        if(type instanceof Class) {
+            return gson.fromJson(json, (Class<T>) type);
+        }
+        return typeAdapters.fromJson(json, type);
+    }
+
+    private <T> T fromJsonTree(JsonElement tree, Type type) {
+        if(type instanceof Class) {
+            return gson.fromJson(tree, (Class<T>) type);
+        }
+        return typeAdapters.fromJsonTree(tree, type);
+    }
+
+    private static String typeName(Type type) {
+        return type instanceof Class ? ((Class<?>) type).getName() : type.toString();
+    }
+
+    JsonElement parseTree(String stored) {
+        stored = inflate(stored);
+        ValueCodec codec = getCodec(stored);
+        return codec == null ? JsonParser.parseString(stored) : decodeTree(codec, stored);
+    }
+
+    /**
+     * Opens a cursor over a stored list.  A segmented list reads its segments from values, a snapshot of the store,
+     * or from the preferences when values is null.
+     */
+    <T> ListCursor<T> openCursor(Map<String, ?> values, String key, String stored, Class<T> elementType) {
+        if(SegmentedCollections.isManifest(stored)) {
+            return new ListCursor<>(gson, elementType, collections.elements(values, key, stored));
+        }
+        return openDecompressed(decompressList(stored, elementType), elementType);
+    }
+
+    private String decompressList(String stored, Class<?> elementType) {
+        try {
+            return inflate(stored);
+        }
+        catch(JsonSyntaxException e) {
+            throw ListCursor.invalidList(ListCursor.typeName(elementType), e);
+        }
+    }
+
+    private <T> ListCursor<T> openDecompressed(String json, Class<T> elementType) {
+        ValueCodec codec = getCodec(json);
+        if(codec == null) {
+            return new ListCursor<>(gson, json, elementType);
+        }
+        return new ListCursor<>(gson, codec, json.substring(codec.getTag().length()), elementType);
+    }
+
+    /**
+     * Reads a whole stored list.  A plain JSON list of at least PreferenceOptions.setParallelListThreshold()
+     * characters is split between its elements and the pieces are decoded on several threads.
+     */
+    <T> List<T> readList(Map<String, ?> values, String key, String stored, Class<T> elementType) {
+        if(parallelListThreshold == 0 || SegmentedCollections.isManifest(stored)) {
+            return toList(openCursor(values, key, stored, elementType));
+        }
+
+        String json = decompressList(stored, elementType);
+        if(json != null && json.length() >= parallelListThreshold && getCodec(json) == null) {
+            List<T> list = readListInParallel(json, elementType, ParallelDecoder.getSharedExecutor(), ParallelDecoder.SHARED_THREADS + 1);
+            if(list != null) {
+                return list;
+            }
+        }
+        return toList(openDecompressed(json, elementType));
+    }
+
+    /**
+     * Decodes a JSON list in pieces on the executor, or returns null when it can't be split.
+     */
+    <T> List<T> readListInParallel(String json, final Class<T> elementType, Executor executor, int threads) {
+        // A few pieces per thread, so a thread that finishes early picks up another
+        List<String> chunks = ParallelDecoder.splitArray(json, threads * 4);
+        if(chunks == null) {
+            return null;
+        }
+
+        List<Callable<List<T>>> tasks = new ArrayList<>(chunks.size());
+        for(final String chunk : chunks) {
+            tasks.add(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return toList(new ListCursor<>(gson, chunk, elementType));
+                }
+            });
+        }
+
+        List<T> result = new ArrayList<>();
+        for(List<T> part : ParallelDecoder.invokeAll(executor, tasks)) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    public <T> void putList(@NonNull String key, List<T> value) {
+        put(key, value, List.class);
+    }
+
+    // The typed accessors below skip the boxing and type dispatch of put()/get() for hot paths
+
+    public void putString(@NonNull String key, String value) {
+        checkKey(key);
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key);
+        editor.putString(key, value);
+        finishWrite(editor, PreferenceOperation.PUT, key, length(value), start);
+    }
+
+    public void putInt(@NonNull String key, int value) {
+        checkKey(key);
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key);
+        editor.putInt(key, value);
+        finishWrite(editor, PreferenceOperation.PUT, key, 0, start);
+    }
+
+    public void putLong(@NonNull String key, long value) {
+        checkKey(key);
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key);
+        editor.putLong(key, value);
+        finishWrite(editor, PreferenceOperation.PUT, key, 0, start);
+    }
+
+    public void putFloat(@NonNull String key, float value) {
+        checkKey(key);
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key);
+        editor.putFloat(key, value);
+        finishWrite(editor, PreferenceOperation.PUT, key, 0, start);
+    }
+
+    public void putBoolean(@NonNull String key, boolean value) {
+        checkKey(key);
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key);
+        editor.putBoolean(key, value);
+        finishWrite(editor, PreferenceOperation.PUT, key, 0, start);
+    }
+
+    public String getString(@NonNull String key, String fallback) {
+        checkKey(key);
+        long start = startTimer();
+        String value = isExpired(key) ? fallback : preferences.getString(key, fallback);
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    public int getInt(@NonNull String key, int fallback) {
+        checkKey(key);
+        long start = startTimer();
+        int value = isExpired(key) ? fallback : preferences.getInt(key, fallback);
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    public long getLong(@NonNull String key, long fallback) {
+        checkKey(key);
+        long start = startTimer();
+        long value = isExpired(key) ? fallback : preferences.getLong(key, fallback);
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    public float getFloat(@NonNull String key, float fallback) {
+        checkKey(key);
+        long start = startTimer();
+        float value = isExpired(key) ? fallback : preferences.getFloat(key, fallback);
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    public boolean getBoolean(@NonNull String key, boolean fallback) {
+        checkKey(key);
+        long start = startTimer();
+        boolean value = isExpired(key) ? fallback : preferences.getBoolean(key, fallback);
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    public <T> T get(@NonNull String key, T fallback) {
+        return get(key, fallback, (Class<T>) null);
+    }
+
+    public <T> T get(@NonNull String key, T fallback, Class<T> type) {
+        checkForExceptions(key, fallback, type);
+
+        long start = startTimer();
+        T value = isExpired(key) ? fallback : getValue(key, fallback, getInstanceType(fallback, type));
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    private <T> T getValue(String key, T fallback, Class<T> instanceType) {
+        if(String.class.isAssignableFrom(instanceType)) {
+            // We assume a null fallback is a string because the other primitive types cannot be null
+            return (T) preferences.getString(key, (String) fallback);
+        }
+        if(Integer.class.isAssignableFrom(instanceType)) {
+            return (T) (Integer) preferences.getInt(key, (Integer) fallback);
+        }
+        if(Boolean.class.isAssignableFrom(instanceType)) {
+            return (T) (Boolean) preferences.getBoolean(key, (Boolean) fallback);
+        }
+        if(Long.class.isAssignableFrom(instanceType)) {
+            // Reminder: if using hardcoded numbers we specify that is a literal long value (ex 0L or 0l)
+            return (T) (Long) preferences.getLong(key, (Long) fallback);
+        }
+        if(Float.class.isAssignableFrom(instanceType)) {
+            // Reminder: if using hardcoded numbers we specify that is a literal float value (ex 0F or 0f)
+            return (T) (Float) preferences.getFloat(key, (Float) fallback);
+        }
+        if(Set.class.isAssignableFrom(instanceType)) {
+            // We need to create a new set from the current set so it has a different memory address (https://stackoverflow.com/a/14034804/6754511)
+            return (T) new HashSet<>(preferences.getStringSet(key, (Set<String>) fallback));
+        }
+
+        return getCustomObject(key, fallback, instanceType);
+    }
+
+    private <T> T getCustomObject(String key, T fallback, Class<T> instanceType) {
+        // Retrieve a custom non-primitive object as JSON string
+        if(!contains(key)) {
+            // No record exists for this key - return their fallback object
+            return fallback;
+        }
+
+        if(List.class.isAssignableFrom(instanceType)) {
+            throw new IllegalArgumentException("Please use getList() instead of get() when retrieving a list of stored objects.");
+        }
+
+        return readObject(key, instanceType);
+    }
+
+    private <T> T readObject(String key, Type type) {
+        return readObject(null, key, preferences.getString(key, null), type);
+    }
+
+    /**
+     * Decodes a stored custom object.  Values is the snapshot it was read from, or null when it was read from the
+     * preferences.  Snapshots skip the object cache so their reads never wait on its lock.
+     */
+    <T> T readObject(Map<String, ?> values, String key, String objectAsJson, Type type) {
+        try {
+            if(SegmentedCollections.isManifest(objectAsJson)) {
+                // Assembled from its parts on every read - replacing a map entry leaves the manifest unchanged, so it
+                // can't key the object cache
+                return fromJsonTree(collections.readTree(values, key, objectAsJson), type);
+            }
+            if(objectCache != null && values == null) {
+                return getCachedObject(key, objectAsJson, type);
+            }
+            return decodeObject(objectAsJson, type);
+        }
+        catch(JsonSyntaxException e) {
+            throw new IllegalArgumentException("The object stored at the specified key is not an instance of " + typeName(type), e);
+        }
+    }
+
+    private <T> T getCachedObject(String key, String objectAsJson, Type type) {
+        boolean copyOnRead = objectCache.getMode() == ObjectCacheMode.COPY_ON_READ;
+        Object cached = objectCache.get(key, type, objectAsJson);
+
+        if(cached == null) {
+            // Copies are decoded from the parsed JSON tree so each read skips the string parsing
+            cached = copyOnRead ? parseTree(objectAsJson) : decodeObject(objectAsJson, type);
+            objectCache.put(key, type, objectAsJson, cached);
+        }
+
+        if(copyOnRead) {
+            return fromJsonTree((JsonElement) cached, type);
+        }
+        return (T) cached;
+    }
+
+    /**
+     * Reads a PreferenceKey.  The key already knows how its value is stored, so nothing about the type is looked up.
+     */
+    <T> T read(PreferenceKey<T> key) {
+        long start = startTimer();
+        T value = isExpired(key.getName()) ? key.getFallback() : key.read(this);
+        recordRead(PreferenceOperation.GET, key.getName(), start);
+        return value;
+    }
+
+    <T> void write(PreferenceKey<T> key, T value) {
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key.getName());
+        int size = key.write(this, editor, value);
+        finishWrite(editor, PreferenceOperation.PUT, key.getName(), size, start);
+    }
+
+    /**
+     * Reads every key in one pass over a snapshot of the store, so a screen that needs many values pays for one
+     * consistent read instead of one per key.  Custom objects are decoded on several threads once there are at least
+     * PreferenceOptions.setParallelDecodeThreshold() of them.
+     */
+    public PreferenceValues getMany(@NonNull PreferenceKey<?>... keys) {
+        if(keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null");
+        }
+
+        long start = startTimer();
+        PreferenceSnapshot snapshot = snapshot();
+        final Map<String, ?> values = snapshot.stored;
+        Map<PreferenceKey<?>, Object> results = new HashMap<>();
+        List<PreferenceKey<?>> objectKeys = new ArrayList<>();
+        for(PreferenceKey<?> key : keys) {
+            if(key == null) {
+                throw new IllegalArgumentException("Keys cannot be null");
+            }
+
+            Object stored = values.get(key.getName());
+            // Checked against the expiry times in the snapshot, which match its values
+            if(stored == null || snapshot.isExpired(key.getName())) {
+                results.put(key, key.getFallback());
+            }
+            else if(key instanceof PreferenceKey.ObjectKey) {
+                // Left until every cheap value is read, so they can be decoded together
+                objectKeys.add(key);
+            }
+            else {
+                results.put(key, key.decode(this, values, stored));
+            }
+        }
+
+        if(parallelDecodeThreshold > 0 && objectKeys.size() >= parallelDecodeThreshold) {
+            List<Callable<Object>> tasks = new ArrayList<>(objectKeys.size());
+            for(final PreferenceKey<?> key : objectKeys) {
+                tasks.add(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return key.decode(PreferenceStore.this, values, values.get(key.getName()));
+                    }
+                });
+            }
+            List<Object> decoded = ParallelDecoder.invokeAll(tasks);
+            for(int i = 0; i < objectKeys.size(); i++) {
+                results.put(objectKeys.get(i), decoded.get(i));
+            }
+        }
+        else {
+            for(PreferenceKey<?> key : objectKeys) {
+                results.put(key, key.decode(this, values, values.get(key.getName())));
+            }
+        }
+
+        recordRead(PreferenceOperation.GET_MANY, null, start);
+        return new PreferenceValues(results);
+    }
+
+    /**
+     * Stores a value of a generic type such as Map&lt;String, List&lt;User&gt;&gt;, which a Class cannot describe.
+     */
+    public <T> void put(@NonNull String key, T value, @NonNull TypeToken<T> type) {
+        put(key, value, checkType(type).getType());
+    }
+
+    /**
+     * Stores a value of the given type, which may be a Class or a generic type such as one from
+     * TypeToken.getParameterized().
+     */
+    public void put(@NonNull String key, Object value, @NonNull Type type) {
+        if(checkType(type) instanceof Class) {
+            put(key, value, (Class<Object>) type);
+            return;
+        }
+
+        checkKey(key);
+        long start = startTimer();
+        SharedPreferences.Editor editor = newEditor();
+        collections.removeParts(editor, key);
+        String encoded = encodeValue(value, type);
+        editor.putString(key, encoded);
+        finishWrite(editor, PreferenceOperation.PUT, key, encoded.length(), start);
+    }
+
+    /**
+     * Reads a value of a generic type such as Map&lt;String, List&lt;User&gt;&gt; with its type parameters intact.
+     */
+    public <T> T get(@NonNull String key, T fallback, @NonNull TypeToken<T> type) {
+        return get(key, fallback, checkType(type).getType());
+    }
+
+    /**
+     * Reads a value of the given type, which may be a Class or a generic type such as one from
+     * TypeToken.getParameterized().  The adapter for each generic type is resolved once and reused.
+     */
+    public <T> T get(@NonNull String key, T fallback, @NonNull Type type) {
+        if(checkType(type) instanceof Class) {
+            return get(key, fallback, (Class<T>) type);
+        }
+
+        checkKey(key);
+        long start = startTimer();
+        T value = contains(key) ? this.<T>readObject(key, type) : fallback;
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    private static <T> T checkType(T type) {
+        if(type == null) {
+            throw new IllegalArgumentException("Type cannot be null");
+        }
+        return type;
+    }
+
+    public <T> List<T> getList(String key, List<T> fallback, Class<T[]> type) {
+        long start = startTimer();
+        List<T> value = getListValue(key, fallback, type);
+        recordRead(PreferenceOperation.GET_LIST, key, start);
+        return value;
+    }
+
+    private <T> List<T> getListValue(String key, List<T> fallback, Class<T[]> type) {
+        if(!contains(key)) {
+            // No record exists for this key - return their fallback object
+            return fallback;
+        }
+
+        // Elements are decoded straight into the result list instead of going through a T[] first
+        String objectAsJson = preferences.getString(key, null);
+        return readList(null, key, objectAsJson, (Class<T>) type.getComponentType());
+    }
+
+    static <T> List<T> toList(ListCursor<T> cursor) {
+        if(cursor.isNull()) {
+            return null;
+        }
+
+        List<T> result = new ArrayList<>();
+        while(cursor.hasNext()) {
+            result.add(cursor.next());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a cursor that decodes the stored list one element at a time.  A missing key or null list produces an
+     * empty cursor.
+     */
+    public <T> ListCursor<T> getListCursor(@NonNull String key, @NonNull Class<T> type) {
+        checkKey(key);
+        long start = startTimer();
+        ListCursor<T> cursor = openCursor(null, key, isExpired(key) ? null : preferences.getString(key, null), type);
+        recordRead(PreferenceOperation.GET_LIST, key, start);
+        return cursor;
+    }
+
+    // The collection updates below read and rewrite only the parts of a collection they touch.  They hold the
+    // collections lock from the read to the save so two threads updating one collection can't lose a change.
+
+    /**
+     * Adds the element to the end of the stored list, rewriting only the list's last segment.  A list stored with
+     * putList() is split into segments on its first update; getList() and getListCursor() read either layout.
+     */
+    public <T> void appendToList(@NonNull String key, T element) {
+        checkKey(key);
+        long start = startTimer();
+        synchronized(collections) {
+            SharedPreferences.Editor editor = newEditor();
+            int size = collections.append(editor, key, gson.toJsonTree(element));
+            finishWrite(editor, PreferenceOperation.PUT, key, size, start);
+        }
+    }
+
+    /**
+     * Removes the first element of the stored list that serializes the same as the given one and returns true if
+     * one was found.  Only the segment that held it is rewritten.
+     */
+    public <T> boolean removeFromList(@NonNull String key, T element) {
+        checkKey(key);
+        long start = startTimer();
+        synchronized(collections) {
+            SharedPreferences.Editor editor = newEditor();
+            if(!collections.remove(editor, key, gson.toJsonTree(element))) {
+                return false;
+            }
+            finishWrite(editor, PreferenceOperation.REMOVE, key, 0, start);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of elements in the stored list, or 0 when nothing is stored.  A segmented list is counted
+     * without decoding any element.
+     */
+    public int getListSize(@NonNull String key) {
+        checkKey(key);
+        long start = startTimer();
+        int size = isExpired(key) ? 0 : collections.size(key, SegmentedCollections.LIST);
+        recordRead(PreferenceOperation.GET, key, start);
+        return size;
+    }
+
+    /**
+     * Returns the string set stored at the key, or an empty set when there is none or it has expired.
+     */
+    private Set<String> readStoredSet(String key) {
+        if(isExpired(key)) {
+            return Collections.emptySet();
+        }
+
+        try {
+            return preferences.getStringSet(key, Collections.<String>emptySet());
+        }
+        catch(ClassCastException e) {
+            throw new IllegalArgumentException("The object stored at the specified key is not a set", e);
+        }
+    }
+
+    /**
+     * Adds the value to the stored string set and returns true if it wasn't already there.  An expired set counts as
+     * empty, and the updated set no longer expires.
+     */
+    public boolean addToSet(@NonNull String key, String value) {
+        checkKey(key);
+        long start = startTimer();
+        synchronized(collections) {
+            Set<String> stored = readStoredSet(key);
+            if(stored.contains(value)) {
+                return false;
+            }
+
+            // Sets stay in SharedPreferences' own format, so there is nothing to encode - only the copy is new
+            Set<String> updated = new HashSet<>(stored);
+            updated.add(value);
+            SharedPreferences.Editor editor = newEditor();
+            editor.putStringSet(key, updated);
+            finishWrite(editor, PreferenceOperation.PUT, key, sizeOf(updated), start);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the value from the stored string set and returns true if it was there.  An expired set counts as empty.
+     */
+    public boolean removeFromSet(@NonNull String key, String value) {
+        checkKey(key);
+        long start = startTimer();
+        synchronized(collections) {
+            Set<String> stored = readStoredSet(key);
+            if(!stored.contains(value)) {
+                return false;
+            }
+
+            Set<String> updated = new HashSet<>(stored);
+            updated.remove(value);
+            SharedPreferences.Editor editor = newEditor();
+            editor.putStringSet(key, updated);
+            finishWrite(editor, PreferenceOperation.REMOVE, key, sizeOf(updated), start);
+            return true;
+        }
+    }
+
+    /**
+     * Stores the value under entryKey in the map stored at the key, writing only that entry and the map's manifest.
+     * No other entry is re-encoded, but the manifest lists every entry key, so it grows with the map.  A map stored
+     * with put() is split into entries on its first update; get() reads either layout.
+     */
+    public void putMapEntry(@NonNull String key, @NonNull String entryKey, Object value) {
+        checkKey(key);
+        checkEntryKey(entryKey);
+        long start = startTimer();
+        synchronized(collections) {
+            SharedPreferences.Editor editor = newEditor();
+            int size = collections.putEntry(editor, key, entryKey, value, value == null ? Object.class : value.getClass());
+            finishWrite(editor, PreferenceOperation.PUT, key, size, start);
+        }
+    }
+
+    /**
+     * Removes entryKey from the map stored at the key and returns true if the map held it.
+     */
+    public boolean removeMapEntry(@NonNull String key, @NonNull String entryKey) {
+        checkKey(key);
+        checkEntryKey(entryKey);
+        long start = startTimer();
+        synchronized(collections) {
+            SharedPreferences.Editor editor = newEditor();
+            if(!collections.removeEntry(editor, key, entryKey)) {
+                return false;
+            }
+            finishWrite(editor, PreferenceOperation.REMOVE, key, 0, start);
+            return true;
+        }
+    }
+
+    /**
+     * Reads a single entry of the map stored at the key, decoding only that entry when the map is segmented.
+     */
+    public <T> T getMapEntry(@NonNull String key, @NonNull String entryKey, T fallback, Class<T> type) {
+        checkForExceptions(key, fallback, type);
+        checkEntryKey(entryKey);
+        long start = startTimer();
+        Class<T> instanceType = getInstanceType(fallback, type);
+        JsonElement entry = isExpired(key) ? null : collections.readEntry(key, entryKey);
+        T value;
+        try {
+            value = entry == null ? fallback : this.<T>fromJsonTree(entry, instanceType);
+        }
+        catch(JsonSyntaxException e) {
+            throw new IllegalArgumentException("The object stored at the specified key is not an instance of " + typeName(instanceType), e);
+        }
+        recordRead(PreferenceOperation.GET, key, start);
+        return value;
+    }
+
+    /**
+     * Returns the number of entries in the stored map, or 0 when nothing is stored.  A segmented map is counted
+     * without decoding any entry.
+     */
+    public int getMapSize(@NonNull String key) {
+        checkKey(key);
+        long start = startTimer();
+        int size = isExpired(key) ? 0 : collections.size(key, SegmentedCollections.MAP);
+        recordRead(PreferenceOperation.GET, key, start);
+        return size;
+    }
+
+    private static void checkEntryKey(String entryKey) {
+        if(entryKey == null) {
+            throw new IllegalArgumentException("Entry key cannot be null");
+        }
+    }
+
+    // The async calls check their arguments on the caller's thread and do the encoding, decoding and commit on the
+    // async executor
+
+    public <T> Future<Void> putAsync(@NonNull String key, T value) {
+        return putAsync(key, value, null, null);
+    }
+
+    public <T> Future<Void> putAsync(@NonNull String key, T value, Class<T> type) {
+        return putAsync(key, value, type, null);
+    }
+
+    /**
+     * Stores the value on the async executor.  The callback, which may be null, is told once the write is done.
+     */
+    public <T> Future<Void> putAsync(@NonNull final String key, final T value, final Class<T> type, PreferenceCallback<Void> callback) {
+        checkForExceptions(key, value, type);
+        return asyncExecutor.submit(key, new Callable<Void>() {
+            @Override
+            public Void call() {
+                put(key, value, type);
+                return null;
+            }
+        }, callback);
+    }
+
+    public <T> Future<T> getAsync(@NonNull String key, T fallback) {
+        return getAsync(key, fallback, null, null);
+    }
+
+    public <T> Future<T> getAsync(@NonNull String key, T fallback, Class<T> type) {
+        return getAsync(key, fallback, type, null);
+    }
+
+    /**
+     * Reads the value on the async executor.  The callback, which may be null, receives the value or the error that
+     * get() would have thrown.
+     */
+    public <T> Future<T> getAsync(@NonNull final String key, final T fallback, final Class<T> type, PreferenceCallback<T> callback) {
+        checkForExceptions(key, fallback, type);
+        return asyncExecutor.submit(key, new Callable<T>() {
+            @Override
+            public T call() {
+                return get(key, fallback, type);
+            }
+        }, callback);
+    }
+
+    public <T> Future<List<T>> getListAsync(@NonNull String key, List<T> fallback, Class<T[]> type) {
+        return getListAsync(key, fallback, type, null);
+    }
+
+    /**
+     * Reads and decodes the stored list on the async executor.  The callback, which may be null, receives the list or
+     * the error that getList() would have thrown.
+     */
+    public <T> Future<List<T>> getListAsync(@NonNull final String key, final List<T> fallback, final Class<T[]> type, PreferenceCallback<List<T>> callback) {
+        checkKey(key);
+        return asyncExecutor.submit(key, new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return getList(key, fallback, type);
+            }
+        }, callback);
+    }
+
+    /**
+     * Calls the observer with the new value each time the key changes.  See observe(Collection, ...).
+     */
+    public <T> PreferenceSubscription observe(@NonNull String key, T fallback, Class<T> type, @NonNull PreferenceObserver<T> observer) {
+        checkForExceptions(key, fallback, type);
+        return subscribe(Collections.singleton(key), null, fallback, type, observer);
+    }
+
+    /**
+     * Calls the observer with the new value of any of the keys when it changes.  A burst of writes to a key within
+     * the change window is delivered once, with the value stored when the window closes.  Calls are made on the
+     * change executor, and the observer is only held weakly.
+     */
+    public <T> PreferenceSubscription observe(@NonNull Collection<String> keys, T fallback, Class<T> type, @NonNull PreferenceObserver<T> observer) {
+        if(keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null");
+        }
+        for(String key : keys) {
+            checkForExceptions(key, fallback, type);
+        }
+        return subscribe(new HashSet<>(keys), null, fallback, type, observer);
+    }
+
+    /**
+     * Calls the observer with the new value of every key starting with the prefix when it changes.  Every value under
+     * the prefix must be readable as the given type.
+     */
+    public <T> PreferenceSubscription observePrefix(@NonNull String prefix, T fallback, Class<T> type, @NonNull PreferenceObserver<T> observer) {
+        if(prefix == null) {
+            throw new IllegalArgumentException("Prefix cannot be null");
+        }
+        checkForExceptions(prefix, fallback, type);
+        return subscribe(null, prefix, fallback, type, observer);
+    }
+
+    private <T> PreferenceSubscription subscribe(Set<String> keys, String prefix, T fallback, Class<T> type, PreferenceObserver<T> observer) {
+        if(observer == null) {
+            throw new IllegalArgumentException("Observer cannot be null");
+        }
+        return getChangeDispatcher().subscribe(keys, prefix, fallback, getInstanceType(fallback, type), observer);
+    }
+
+    private synchronized ChangeDispatcher getChangeDispatcher() {
+        if(changeDispatcher == null) {
+            changeDispatcher = new ChangeDispatcher(this, changeExecutor, changeWindowMillis);
+            // Like the object cache, the store's field is what keeps the weakly held listener registered
+            preferences.registerOnSharedPreferenceChangeListener(changeDispatcher);
+        }
+        return changeDispatcher;
+    }
+}
@@ -0,0 +1,15 @@
+package com.simplymadeapps.preferencehelper;
+
+/**
+ * Returned by PreferenceHelper.observe().  The observer is only held weakly, so keep a reference to it for as long
+ * as it should be called.
+ */
+public interface PreferenceSubscription {
+
+    /**
+     * Stops delivering changes.  A delivery that has already started still finishes.
+     */
+    void cancel();
+
+    boolean isCancelled();
+}
@@ -0,0 +1,36 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.support.annotation.NonNull;
+
+import java.util.Map;
+
+/**
+ * The values read by one PreferenceStore.getMany() call.  Every value was read from the same snapshot of the store,
+ * so no write made during the call can show up in some values and not others.
+ */
+public class PreferenceValues {
+
+    private final Map<PreferenceKey<?>, Object> values;
+
+    PreferenceValues(Map<PreferenceKey<?>, Object> values) {
+        this.values = values;
+    }
+
+    /**
+     * Returns the value read for the key, or its fallback when the store didn't hold one.
+     */
+    public <T> T get(@NonNull PreferenceKey<T> key) {
+        if(!values.containsKey(key)) {
+            throw new IllegalArgumentException("The key was not read by getMany()");
+        }
+        return (T) values.get(key);
+    }
+
+    public boolean contains(PreferenceKey<?> key) {
+        return values.containsKey(key);
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,584 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Lists and maps stored across several keys so a change only re-encodes the part it touches.  The collection's own key
+ * holds a manifest with its size and the name of every part, which every change rewrites along with the part.  List
+ * elements live in segments of up to segmentSize elements at "key#s&lt;id&gt;" and each map entry lives at
+ * "key#e&lt;entry key&gt;", with any '%', '#' or ',' in the entry key escaped so no two collections' parts can share a
+ * key.  Parts are only ever found through their manifest.  Every part goes through the store's codec and compression
+ * like any other value.
+ * <p>
+ * A list stored with putList() or a map stored with put() is converted to this layout the first time it is changed
+ * here.  Mutations only stage their changes on the editor they are given; the store saves them.
+ */
+class SegmentedCollections {
+
+    static final String TAG = "#seg1:";
+    static final String SEGMENT_SEPARATOR = "#s";
+    static final String ENTRY_SEPARATOR = "#e";
+
+    static final char LIST = 'L';
+    static final char MAP = 'M';
+
+    private final PreferenceStore store;
+    private final int segmentSize;
+
+    SegmentedCollections(PreferenceStore store, int segmentSize) {
+        this.store = store;
+        this.segmentSize = segmentSize;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    static boolean isManifest(String stored) {
+        return stored != null && stored.startsWith(TAG);
+    }
+
+    static String segmentKey(String key, int id) {
+        return key + SEGMENT_SEPARATOR + id;
+    }
+
+    static String entryKey(String key, String entryKey) {
+        return key + ENTRY_SEPARATOR + escape(entryKey);
+    }
+
+    /**
+     * Returns true when the manifest of a collection in the store lists the key as one of its segments or entries.
+     * Only the keys the part could belong to are read, so a user key that merely looks like a part is never one.
+     */
+    boolean isStoredPart(String key) {
+        return isStoredPart(null, key);
+    }
+
+    /**
+     * Like isStoredPart(key), reading the manifests from values, a snapshot of the store, unless it is null.
+     */
+    boolean isStoredPart(Map<String, ?> values, String key) {
+        for(int i = key.indexOf('#'); i >= 0; i = key.indexOf('#', i + 1)) {
+            if(key.startsWith(SEGMENT_SEPARATOR, i) || key.startsWith(ENTRY_SEPARATOR, i)) {
+                String owner = key.substring(0, i);
+                Object manifest = values == null ? readStoredString(owner) : values.get(owner);
+                if(partKeys(owner, manifest).contains(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static String escape(String entryKey) {
+        StringBuilder builder = new StringBuilder(entryKey.length());
+        for(int i = 0; i < entryKey.length(); i++) {
+            char c = entryKey.charAt(i);
+            if(c == '%' || c == '#' || c == ',') {
+                builder.append('%').append(Integer.toHexString(c).toUpperCase());
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    static String unescape(String escaped) {
+        StringBuilder builder = new StringBuilder(escaped.length());
+        for(int i = 0; i < escaped.length(); i++) {
+            char c = escaped.charAt(i);
+            if(c == '%') {
+                builder.append((char) Integer.parseInt(escaped.substring(i + 1, i + 3), 16));
+                i += 2;
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the key of every segment or entry of the collection whose manifest is stored at the key.  Any other
+     * value, or a corrupt manifest, has no parts.
+     */
+    static List<String> partKeys(String key, Object stored) {
+        List<String> parts = new ArrayList<>();
+        if(!(stored instanceof String) || !isManifest((String) stored)) {
+            return parts;
+        }
+
+        Manifest manifest;
+        try {
+            manifest = Manifest.parse((String) stored);
+        }
+        catch(IllegalArgumentException e) {
+            // Reading the collection reports it
+            return parts;
+        }
+        for(int[] segment : manifest.segments) {
+            parts.add(segmentKey(key, segment[0]));
+        }
+        for(String entryKey : manifest.entries) {
+            parts.add(entryKey(key, entryKey));
+        }
+        return parts;
+    }
+
+    /**
+     * Returns the key of every segment and entry of every collection in values, a snapshot of the store.
+     */
+    static Set<String> partKeys(Map<String, ?> values) {
+        Set<String> parts = new HashSet<>();
+        for(Map.Entry<String, ?> entry : values.entrySet()) {
+            parts.addAll(partKeys(entry.getKey(), entry.getValue()));
+        }
+        return parts;
+    }
+
+    /**
+     * The kind and size of a collection and the parts it is made of: for lists the id and element count of each
+     * segment in order, for maps the escaped key of each entry.  Written as
+     * "#seg1:&lt;kind&gt;,&lt;size&gt;,&lt;next id&gt;,&lt;id&gt;:&lt;count&gt;,..." or
+     * "#seg1:&lt;kind&gt;,&lt;size&gt;,&lt;next id&gt;,&lt;entry key&gt;,...".
+     */
+    static class Manifest {
+
+        final char kind;
+        int size;
+        int nextId;
+        final List<int[]> segments = new ArrayList<>();
+        final Set<String> entries = new LinkedHashSet<>();
+        // The segments of a list that was converted on this editor, which aren't in the preferences yet
+        Map<Integer, JsonArray> stagedSegments;
+
+        Manifest(char kind) {
+            this.kind = kind;
+        }
+
+        static Manifest parse(String stored) {
+            try {
+                // Keep trailing empty fields - an empty entry key is allowed
+                String[] fields = stored.substring(TAG.length()).split(",", -1);
+                Manifest manifest = new Manifest(fields[0].charAt(0));
+                manifest.size = Integer.parseInt(fields[1]);
+                manifest.nextId = Integer.parseInt(fields[2]);
+                for(int i = 3; i < fields.length; i++) {
+                    if(manifest.kind == MAP) {
+                        manifest.entries.add(unescape(fields[i]));
+                        continue;
+                    }
+                    int split = fields[i].indexOf(':');
+                    manifest.segments.add(new int[] {
+                            Integer.parseInt(fields[i].substring(0, split)),
+                            Integer.parseInt(fields[i].substring(split + 1))
+                    });
+                }
+                return manifest;
+            }
+            catch(RuntimeException e) {
+                throw new IllegalArgumentException("The collection stored at the specified key is corrupt: " + stored, e);
+            }
+        }
+
+        String format() {
+            StringBuilder builder = new StringBuilder(TAG).append(kind).append(',').append(size).append(',').append(nextId);
+            for(int[] segment : segments) {
+                builder.append(',').append(segment[0]).append(':').append(segment[1]);
+            }
+            for(String entryKey : entries) {
+                builder.append(',').append(escape(entryKey));
+            }
+            return builder.toString();
+        }
+    }
+
+    private static IllegalArgumentException notA(char kind, Exception cause) {
+        return new IllegalArgumentException("The object stored at the specified key is not a " + (kind == LIST ? "list" : "map"), cause);
+    }
+
+    private String readStored(String key, char kind) {
+        try {
+            return store.preferences.getString(key, null);
+        }
+        catch(ClassCastException e) {
+            // A primitive or string set is stored at the key
+            throw notA(kind, e);
+        }
+    }
+
+    /**
+     * Returns the manifest stored at the key, or null when it holds a collection stored the ordinary way or nothing.
+     */
+    private Manifest readManifest(String key, char kind) {
+        String stored = readStored(key, kind);
+        if(!isManifest(stored)) {
+            return null;
+        }
+
+        Manifest manifest = Manifest.parse(stored);
+        if(manifest.kind != kind) {
+            throw notA(kind, null);
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the array or object stored the ordinary way at the key, or null when nothing or null is stored.
+     */
+    private JsonElement readPlain(String key, char kind) {
+        String stored = readStored(key, kind);
+        if(stored == null) {
+            return null;
+        }
+
+        JsonElement tree;
+        try {
+            tree = store.parseTree(stored);
+        }
+        catch(RuntimeException e) {
+            throw notA(kind, e);
+        }
+        if(tree.isJsonNull()) {
+            return null;
+        }
+        if(kind == LIST ? !tree.isJsonArray() : !tree.isJsonObject()) {
+            throw notA(kind, null);
+        }
+        return tree;
+    }
+
+    private int writeManifest(SharedPreferences.Editor editor, String key, Manifest manifest) {
+        String formatted = manifest.format();
+        editor.putString(key, formatted);
+        return formatted.length();
+    }
+
+    /**
+     * Returns the number of elements or entries without decoding them.  A collection stored the ordinary way is
+     * parsed to count it.
+     */
+    int size(String key, char kind) {
+        Manifest manifest = readManifest(key, kind);
+        if(manifest != null) {
+            return manifest.size;
+        }
+
+        JsonElement tree = readPlain(key, kind);
+        if(tree == null) {
+            return 0;
+        }
+        return kind == LIST ? tree.getAsJsonArray().size() : tree.getAsJsonObject().size();
+    }
+
+    /**
+     * Returns the whole collection described by the stored manifest, assembled from its parts.  The parts are read
+     * from values, a snapshot of the store, or from the preferences when values is null.
+     */
+    JsonElement readTree(Map<String, ?> values, String key, String stored) {
+        Manifest manifest = Manifest.parse(stored);
+        if(manifest.kind == LIST) {
+            JsonArray array = new JsonArray();
+            Iterator<JsonElement> elements = elements(values, key, manifest);
+            while(elements.hasNext()) {
+                array.add(elements.next());
+            }
+            return array;
+        }
+
+        JsonObject object = new JsonObject();
+        for(String entryKey : manifest.entries) {
+            String part = entryKey(key, entryKey);
+            String entry = values != null ? (String) values.get(part) : store.preferences.getString(part, null);
+            object.add(entryKey, entry == null ? null : store.parseTree(entry));
+        }
+        return object;
+    }
+
+    /**
+     * Stages the removal of every segment or entry of a collection stored at the key.  Nothing is staged for any
+     * other value.
+     */
+    void removeParts(SharedPreferences.Editor editor, String key) {
+        for(String part : partKeys(key, readStoredString(key))) {
+            editor.remove(part);
+        }
+    }
+
+    /**
+     * Returns the string stored at the key, or null when it holds nothing or another type.
+     */
+    private String readStoredString(String key) {
+        try {
+            return store.preferences.getString(key, null);
+        }
+        catch(ClassCastException e) {
+            return null;
+        }
+    }
+
+    // Lists
+
+    /**
+     * Returns the list's manifest, staging the conversion of a list stored with putList() into segments first.  A
+     * missing key or null list produces an empty manifest.
+     */
+    private Manifest loadList(SharedPreferences.Editor editor, String key) {
+        Manifest manifest = readManifest(key, LIST);
+        if(manifest != null) {
+            return manifest;
+        }
+
+        manifest = new Manifest(LIST);
+        manifest.stagedSegments = new HashMap<>();
+        JsonElement tree = readPlain(key, LIST);
+        if(tree == null) {
+            return manifest;
+        }
+
+        JsonArray segment = new JsonArray();
+        for(JsonElement element : tree.getAsJsonArray()) {
+            if(segment.size() == segmentSize) {
+                addSegment(editor, key, manifest, segment);
+                segment = new JsonArray();
+            }
+            segment.add(element);
+        }
+        if(segment.size() > 0) {
+            addSegment(editor, key, manifest, segment);
+        }
+        return manifest;
+    }
+
+    private int addSegment(SharedPreferences.Editor editor, String key, Manifest manifest, JsonArray elements) {
+        int id = manifest.nextId++;
+        manifest.segments.add(new int[] { id, elements.size() });
+        manifest.size += elements.size();
+        if(manifest.stagedSegments != null) {
+            manifest.stagedSegments.put(id, elements);
+        }
+        return writeSegment(editor, key, id, elements);
+    }
+
+    private int writeSegment(SharedPreferences.Editor editor, String key, int id, JsonArray elements) {
+        String encoded = store.encodeObject(elements, JsonArray.class);
+        editor.putString(segmentKey(key, id), encoded);
+        return encoded.length();
+    }
+
+    private JsonArray readSegment(String key, Manifest manifest, int id) {
+        if(manifest.stagedSegments != null && manifest.stagedSegments.containsKey(id)) {
+            return manifest.stagedSegments.get(id);
+        }
+        return readSegment(null, key, id);
+    }
+
+    private JsonArray readSegment(Map<String, ?> values, String key, int id) {
+        String part = segmentKey(key, id);
+        String stored = values != null ? (String) values.get(part) : store.preferences.getString(part, null);
+        if(stored == null) {
+            throw new JsonSyntaxException("List segment " + id + " is missing");
+        }
+
+        JsonElement tree = store.parseTree(stored);
+        if(!tree.isJsonArray()) {
+            throw new JsonSyntaxException("List segment " + id + " is not an array");
+        }
+        return tree.getAsJsonArray();
+    }
+
+    /**
+     * Stages the element at the end of the list and returns the number of characters written.  Only the last
+     * segment is read and rewritten, or a new one is started when it is full.
+     */
+    int append(SharedPreferences.Editor editor, String key, JsonElement element) {
+        Manifest manifest = loadList(editor, key);
+
+        int[] last = manifest.segments.isEmpty() ? null : manifest.segments.get(manifest.segments.size() - 1);
+        int written;
+        if(last != null && last[1] < segmentSize) {
+            JsonArray segment = readSegment(key, manifest, last[0]);
+            segment.add(element);
+            last[1]++;
+            manifest.size++;
+            written = writeSegment(editor, key, last[0], segment);
+        }
+        else {
+            JsonArray segment = new JsonArray();
+            segment.add(element);
+            written = addSegment(editor, key, manifest, segment);
+        }
+        return written + writeManifest(editor, key, manifest);
+    }
+
+    /**
+     * Stages the removal of the first element equal to the given one and returns true if one was found.  Segments
+     * are read in order until it turns up and only that segment is rewritten.
+     */
+    boolean remove(SharedPreferences.Editor editor, String key, JsonElement element) {
+        Manifest manifest = loadList(editor, key);
+
+        for(int i = 0; i < manifest.segments.size(); i++) {
+            int[] segment = manifest.segments.get(i);
+            JsonArray elements = readSegment(key, manifest, segment[0]);
+            int index = indexOf(elements, element);
+            if(index < 0) {
+                continue;
+            }
+
+            elements.remove(index);
+            segment[1]--;
+            manifest.size--;
+            if(segment[1] == 0) {
+                editor.remove(segmentKey(key, segment[0]));
+                manifest.segments.remove(i);
+            }
+            else {
+                writeSegment(editor, key, segment[0], elements);
+            }
+            writeManifest(editor, key, manifest);
+            return true;
+        }
+        return false;
+    }
+
+    private static int indexOf(JsonArray elements, JsonElement element) {
+        for(int i = 0; i < elements.size(); i++) {
+            if(elements.get(i).equals(element)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the elements of the list described by the stored manifest, reading one segment at a time from values
+     * or, when values is null, from the preferences.
+     */
+    Iterator<JsonElement> elements(Map<String, ?> values, String key, String stored) {
+        Manifest manifest = Manifest.parse(stored);
+        if(manifest.kind != LIST) {
+            throw notA(LIST, null);
+        }
+        return elements(values, key, manifest);
+    }
+
+    private Iterator<JsonElement> elements(final Map<String, ?> values, final String key, Manifest manifest) {
+        final List<int[]> segments = manifest.segments;
+        return new Iterator<JsonElement>() {
+
+            private int next;
+            private Iterator<JsonElement> current;
+
+            @Override
+            public boolean hasNext() {
+                while(current == null || !current.hasNext()) {
+                    if(next == segments.size()) {
+                        return false;
+                    }
+                    current = readSegment(values, key, segments.get(next++)[0]).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public JsonElement next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // Maps
+
+    /**
+     * Returns the map's manifest, staging the conversion of a map stored with put() into entries first.  A missing
+     * key or null map produces an empty manifest.
+     */
+    private Manifest loadMap(SharedPreferences.Editor editor, String key) {
+        Manifest manifest = readManifest(key, MAP);
+        if(manifest != null) {
+            return manifest;
+        }
+
+        manifest = new Manifest(MAP);
+        JsonElement tree = readPlain(key, MAP);
+        if(tree == null) {
+            return manifest;
+        }
+
+        for(Map.Entry<String, JsonElement> entry : tree.getAsJsonObject().entrySet()) {
+            editor.putString(entryKey(key, entry.getKey()), store.encodeObject(entry.getValue(), JsonElement.class));
+            manifest.entries.add(entry.getKey());
+            manifest.size++;
+        }
+        return manifest;
+    }
+
+    /**
+     * Stages the entry and returns the number of characters written.  Only the entry and the manifest are written.
+     */
+    int putEntry(SharedPreferences.Editor editor, String key, String entryKey, Object value, Type type) {
+        Manifest manifest = loadMap(editor, key);
+        if(manifest.entries.add(entryKey)) {
+            manifest.size++;
+        }
+
+        String encoded = store.encodeObject(value, type);
+        editor.putString(entryKey(key, entryKey), encoded);
+        return encoded.length() + writeManifest(editor, key, manifest);
+    }
+
+    /**
+     * Stages the removal of the entry and returns true if the map held it.
+     */
+    boolean removeEntry(SharedPreferences.Editor editor, String key, String entryKey) {
+        Manifest manifest = loadMap(editor, key);
+        if(!manifest.entries.remove(entryKey)) {
+            return false;
+        }
+
+        editor.remove(entryKey(key, entryKey));
+        manifest.size--;
+        writeManifest(editor, key, manifest);
+        return true;
+    }
+
+    /**
+     * Returns the entry's value as a tree, or null when the map doesn't hold it.
+     */
+    JsonElement readEntry(String key, String entryKey) {
+        Manifest manifest = readManifest(key, MAP);
+        if(manifest != null) {
+            String stored = manifest.entries.contains(entryKey) ? store.preferences.getString(entryKey(key, entryKey), null) : null;
+            return stored == null ? null : store.parseTree(stored);
+        }
+
+        JsonElement tree = readPlain(key, MAP);
+        return tree == null ? null : tree.getAsJsonObject().get(entryKey);
+    }
+}
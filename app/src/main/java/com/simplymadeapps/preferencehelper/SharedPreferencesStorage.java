@@ -0,0 +1,19 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The default storage: Android's XML backed SharedPreferences.
+ */
+public class SharedPreferencesStorage implements PreferenceStorage {
+
+    @Override
+    public SharedPreferences open(Context context, String name) {
+        if(name == null) {
+            return PreferenceManager.getDefaultSharedPreferences(context);
+        }
+        return context.getSharedPreferences(name, Context.MODE_PRIVATE);
+    }
+}
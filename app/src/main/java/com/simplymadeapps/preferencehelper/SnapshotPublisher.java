@@ -0,0 +1,55 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the latest snapshot of a store.  Writes only bump a counter, and a new snapshot is copied the next time
+ * one is asked for, so a burst of writes costs one copy and every reader in between shares the same snapshot.
+ */
+class SnapshotPublisher implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private final PreferenceStore store;
+    private final AtomicLong version = new AtomicLong();
+    private volatile PreferenceSnapshot current;
+
+    SnapshotPublisher(PreferenceStore store) {
+        this.store = store;
+    }
+
+    PreferenceSnapshot get() {
+        PreferenceSnapshot snapshot = current;
+        if(snapshot != null && snapshot.version == version.get()) {
+            return snapshot;
+        }
+
+        synchronized(this) {
+            // Read the count before copying, so a write that lands during the copy makes this snapshot stale
+            long latest = version.get();
+            snapshot = current;
+            if(snapshot == null || snapshot.version != latest) {
+                // Holding the spilled files keeps a sweep from deleting one this snapshot can still read
+                SpilloverFiles spillover = store.spillover;
+                Map<String, ?> stored = spillover == null ? store.preferences.getAll() : spillover.holdAll(store.preferences);
+                snapshot = new PreferenceSnapshot(store, stored, latest);
+                current = snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Marks the current snapshot as out of date.  Never blocks, so writers don't wait on readers.
+     */
+    void invalidate() {
+        version.incrementAndGet();
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // Catches writes made directly through SharedPreferences - the store's own writes invalidate as they save
+        invalidate();
+    }
+}
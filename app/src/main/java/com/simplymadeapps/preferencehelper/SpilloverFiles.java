@@ -0,0 +1,254 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import com.google.gson.JsonSyntaxException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Moves stored values at or above a size threshold into files of their own and stores a "#spill1:" reference to the
+ * file in their place.  Every write gets a new file, so a reference names exactly one value and can key the object
+ * cache like any other stored string.  Referenced values are read back whether or not spilling is turned on.
+ * <p>
+ * A replaced file is only retired, and deleted by a later sweep once a commit has put its replacement on disk and no
+ * live snapshot still holds its reference, so a crash before an applied or coalesced write reaches the disk never
+ * leaves the old value pointing at a missing file.  The first sweep also deletes the files no stored value references,
+ * such as a file spilled just before a crash.
+ */
+class SpilloverFiles {
+
+    static final String TAG = "#spill1:";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final int threshold;
+    // References spilled or about to be replaced in this process, which the orphan sweep leaves alone
+    private final Set<String> known = new HashSet<>();
+    // Replaced references mapped to the mark they were retired at, -1 when their replacement is already on disk
+    private final Map<String, Long> retired = new HashMap<>();
+    private final List<Hold> holds = new ArrayList<>();
+    private long marks;
+    private boolean orphansSwept;
+
+    /**
+     * A threshold of 0 turns spilling off.
+     */
+    SpilloverFiles(File directory, int threshold) {
+        this.directory = directory;
+        this.threshold = threshold;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    static boolean isSpilled(String stored) {
+        return stored != null && stored.startsWith(TAG);
+    }
+
+    /**
+     * Returns the value to store: a reference to a new file holding the value when spilling is on and the value is at
+     * least the threshold, otherwise the value itself.  The file is synced before the reference is returned, so a
+     * saved reference never points at a partly written file.
+     */
+    String spill(String value) {
+        if(threshold == 0 || value.length() < threshold) {
+            return value;
+        }
+
+        File file = new File(directory, UUID.randomUUID().toString());
+        try {
+            write(file, value.getBytes(UTF_8));
+        }
+        catch(IOException e) {
+            // Storing the value in the store itself is always safe
+            file.delete();
+            return value;
+        }
+        String reference = TAG + file.getName();
+        synchronized(this) {
+            known.add(reference);
+        }
+        return reference;
+    }
+
+    private void write(File file, byte[] bytes) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory.getPath());
+        }
+
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+            output.getFD().sync();
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Returns the value a reference points at and any other value unchanged.  Throws JsonSyntaxException when the
+     * file can't be read, the same as a corrupt value.
+     */
+    String load(String stored) {
+        if(!isSpilled(stored)) {
+            return stored;
+        }
+
+        File file = fileOf(stored);
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                byte[] bytes = new byte[(int) input.length()];
+                input.readFully(bytes);
+                return new String(bytes, UTF_8);
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch(IOException e) {
+            throw new JsonSyntaxException("Unable to read spilled value " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Deletes the file a reference points at.
+     */
+    synchronized void delete(String reference) {
+        fileOf(reference).delete();
+        known.remove(reference);
+        retired.remove(reference);
+    }
+
+    /**
+     * Keeps a stored reference from being swept as an orphan while a write replaces it.
+     */
+    synchronized void track(String reference) {
+        known.add(reference);
+    }
+
+    /**
+     * Returns a mark to take before a commit starts and pass to sweep() once it is on disk.
+     */
+    synchronized long mark() {
+        return ++marks;
+    }
+
+    /**
+     * Retires a reference a saved write replaced.  Its file is deleted by the first sweep with a later mark, or the
+     * next sweep when the write is already on disk.
+     */
+    synchronized void retire(String reference, boolean onDisk) {
+        retired.put(reference, onDisk ? -1 : marks);
+    }
+
+    /**
+     * Returns every value in the preferences and keeps the files their references point at until the returned map is
+     * garbage collected.  Snapshots copy the store with this, so a sweep can't delete a file one of them still reads.
+     */
+    synchronized Map<String, ?> holdAll(SharedPreferences preferences) {
+        Map<String, ?> values = preferences.getAll();
+        Set<String> references = referencesIn(values);
+        if(!references.isEmpty()) {
+            holds.add(new Hold(values, references));
+        }
+        return values;
+    }
+
+    /**
+     * Deletes the files retired before the mark, now that a commit taken after it has put their replacements on disk,
+     * unless the preferences or a live snapshot still reference them.  The first sweep also deletes every file in the
+     * directory nothing references, which a crash between spilling a value and saving its reference leaves behind.
+     */
+    synchronized void sweep(long mark, SharedPreferences preferences) {
+        List<String> replaced = new ArrayList<>();
+        for(Map.Entry<String, Long> entry : retired.entrySet()) {
+            if(entry.getValue() < mark) {
+                replaced.add(entry.getKey());
+            }
+        }
+        if(replaced.isEmpty() && orphansSwept) {
+            return;
+        }
+
+        Set<String> referenced = referencesIn(preferences.getAll());
+        referenced.addAll(held());
+        for(String reference : replaced) {
+            if(!referenced.contains(reference)) {
+                delete(reference);
+            }
+        }
+
+        if(!orphansSwept) {
+            orphansSwept = true;
+            String[] names = directory.list();
+            for(int i = 0; names != null && i < names.length; i++) {
+                String reference = TAG + names[i];
+                if(!referenced.contains(reference) && !known.contains(reference) && !retired.containsKey(reference)) {
+                    delete(reference);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the references held by snapshots that are still reachable, dropping the holds of collected ones.
+     */
+    private Set<String> held() {
+        Set<String> references = new HashSet<>();
+        for(Iterator<Hold> iterator = holds.iterator(); iterator.hasNext(); ) {
+            Hold hold = iterator.next();
+            if(hold.get() == null) {
+                iterator.remove();
+            }
+            else {
+                references.addAll(hold.references);
+            }
+        }
+        return references;
+    }
+
+    private static Set<String> referencesIn(Map<String, ?> values) {
+        Set<String> references = new HashSet<>();
+        for(Object value : values.values()) {
+            if(value instanceof String && isSpilled((String) value)) {
+                references.add((String) value);
+            }
+        }
+        return references;
+    }
+
+    private File fileOf(String reference) {
+        return new File(directory, reference.substring(TAG.length()));
+    }
+
+    /**
+     * The references a copy of the store held when it was taken, kept until the copy is garbage collected.
+     */
+    private static class Hold extends WeakReference<Object> {
+
+        final Set<String> references;
+
+        Hold(Object values, Set<String> references) {
+            super(values);
+            this.references = references;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SharedPreferences.Editor that collects changes in memory and hands them to write() on commit() or apply().
+ * Shared by the SharedPreferences implementations in this library.
+ */
+abstract class StagingEditor implements SharedPreferences.Editor {
+
+    // Marks a key that was removed (or set to null, which SharedPreferences treats the same way)
+    static final Object REMOVED = new Object();
+
+    private final Map<String, Object> changes = new HashMap<>();
+    private boolean clear;
+
+    /**
+     * Writes the staged changes.  Following SharedPreferences, a clear is applied before the other changes.
+     */
+    abstract boolean write(Map<String, Object> changes, boolean clear, boolean waitForDisk);
+
+    private synchronized SharedPreferences.Editor stage(String key, Object value) {
+        changes.put(key, value == null ? REMOVED : value);
+        return this;
+    }
+
+    @Override
+    public SharedPreferences.Editor putString(String key, String value) {
+        return stage(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+        return stage(key, values == null ? null : new HashSet<>(values));
+    }
+
+    @Override
+    public SharedPreferences.Editor putInt(String key, int value) {
+        return stage(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putLong(String key, long value) {
+        return stage(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putFloat(String key, float value) {
+        return stage(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor putBoolean(String key, boolean value) {
+        return stage(key, value);
+    }
+
+    @Override
+    public SharedPreferences.Editor remove(String key) {
+        return stage(key, REMOVED);
+    }
+
+    @Override
+    public synchronized SharedPreferences.Editor clear() {
+        clear = true;
+        return this;
+    }
+
+    @Override
+    public boolean commit() {
+        return writeStaged(true);
+    }
+
+    @Override
+    public void apply() {
+        writeStaged(false);
+    }
+
+    private boolean writeStaged(boolean waitForDisk) {
+        Map<String, Object> staged;
+        boolean stagedClear;
+        synchronized(this) {
+            staged = new HashMap<>(changes);
+            stagedClear = clear;
+            changes.clear();
+            clear = false;
+        }
+        return write(staged, stagedClear, waitForDisk);
+    }
+
+    /**
+     * Copies a staged value onto a regular SharedPreferences editor.
+     */
+    static void putValue(SharedPreferences.Editor editor, String key, Object value) {
+        if(value == REMOVED) {
+            editor.remove(key);
+        }
+        else if(value instanceof String) {
+            editor.putString(key, (String) value);
+        }
+        else if(value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        }
+        else if(value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        }
+        else if(value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        }
+        else if(value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        }
+        else {
+            editor.putStringSet(key, (Set<String>) value);
+        }
+    }
+}
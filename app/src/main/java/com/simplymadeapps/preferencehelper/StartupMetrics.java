@@ -0,0 +1,54 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing for a store opened with PreferenceHelper.initAsync(): how long the background load took and how long callers
+ * were blocked waiting for it.
+ */
+public final class StartupMetrics {
+
+    private volatile long loadTimeNanos = -1;
+    private final AtomicLong blockedTimeNanos = new AtomicLong();
+    private final AtomicInteger blockedCalls = new AtomicInteger();
+
+    StartupMetrics() { }
+
+    void recordLoad(long nanos) {
+        loadTimeNanos = nanos;
+    }
+
+    void recordBlocked(long nanos) {
+        blockedTimeNanos.addAndGet(nanos);
+        blockedCalls.incrementAndGet();
+    }
+
+    /**
+     * Returns how long the store took to open and parse on the background thread, or -1 if it is still loading.
+     */
+    public long getLoadTimeNanos() {
+        return loadTimeNanos;
+    }
+
+    /**
+     * Returns the total time callers spent waiting for the store to finish loading.
+     */
+    public long getBlockedTimeNanos() {
+        return blockedTimeNanos.get();
+    }
+
+    /**
+     * Returns the number of calls that had to wait for the store to finish loading.
+     */
+    public int getBlockedCalls() {
+        return blockedCalls.get();
+    }
+
+    @Override
+    public String toString() {
+        return "StartupMetrics{loadTimeNanos=" + loadTimeNanos +
+                ", blockedTimeNanos=" + blockedTimeNanos.get() +
+                ", blockedCalls=" + blockedCalls.get() + "}";
+    }
+}
@@ -0,0 +1,83 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Type adapters resolved once per generic Type.  Gson canonicalizes a parameterized type into a new TypeToken on every
+ * lookup, so reads through the Type overloads keep the resolved adapter here instead.
+ */
+class TypeAdapterCache {
+
+    private final Gson gson;
+    private final Map<Type, TypeAdapter<?>> adapters = new ConcurrentHashMap<>();
+
+    TypeAdapterCache(Gson gson) {
+        this.gson = gson;
+    }
+
+    <T> TypeAdapter<T> get(Type type) {
+        TypeAdapter<?> adapter = adapters.get(type);
+        if(adapter == null) {
+            // Two threads may both resolve it - Gson hands back the same adapter either way
+            adapter = gson.getAdapter(TypeToken.get(type));
+            adapters.put(type, adapter);
+        }
+        return (TypeAdapter<T>) adapter;
+    }
+
+    int size() {
+        return adapters.size();
+    }
+
+    /**
+     * Reads the JSON the same way Gson.fromJson(String, Type) does: leniently, with an empty document read as null.
+     */
+    <T> T fromJson(String json, Type type) {
+        TypeAdapter<T> adapter = get(type);
+        JsonReader reader = gson.newJsonReader(new StringReader(json));
+        reader.setLenient(true);
+        try {
+            reader.peek();
+        }
+        catch(EOFException e) {
+            return null;
+        }
+        catch(IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+
+        try {
+            T value = adapter.read(reader);
+            if(reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            return value;
+        }
+        catch(IOException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    <T> T fromJsonTree(JsonElement tree, Type type) {
+        try {
+            return this.<T>get(type).fromJsonTree(tree);
+        }
+        catch(IllegalStateException e) {
+            // A tree of the wrong shape, reported the way Gson.fromJson(JsonElement, Type) reports it
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Converts custom objects and lists to the string stored in SharedPreferences.  Objects are first converted to a
+ * Gson JSON tree, so type adapters registered on the Gson instance still apply.
+ * <p>
+ * Every encoded value is prefixed with the codec's tag.  Values without a recognized tag are read as plain JSON, so
+ * values written before a codec was configured stay readable.
+ */
+public interface ValueCodec {
+
+    /**
+     * Returns the marker written in front of every encoded value, such as "#b1:".  Tags must start with '#', which
+     * never starts a JSON value, and should include a version number so the format can change later.
+     */
+    String getTag();
+
+    /**
+     * Encodes a JSON tree.  The result must not include the tag.
+     */
+    String encode(JsonElement tree);
+
+    /**
+     * Decodes a value produced by encode(), with the tag already removed.  Throws JsonSyntaxException when the value
+     * is malformed.
+     */
+    JsonElement decode(String encoded);
+}
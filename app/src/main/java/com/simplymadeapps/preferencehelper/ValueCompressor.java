@@ -0,0 +1,106 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.JsonSyntaxException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIPs stored values at or above a size threshold and stores them as Base64 text behind a "#gz1:" marker.  Marked
+ * values are recognized and inflated on read whether or not compression is turned on.
+ */
+class ValueCompressor {
+
+    static final String TAG = "#gz1:";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int threshold;
+    private final CompressionStats stats = new CompressionStats();
+
+    /**
+     * A threshold of 0 turns compression off.
+     */
+    ValueCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    CompressionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the value to store: the compressed form when compression is on, the value is at least the threshold and
+     * compressing it saves space, otherwise the value itself.  Values that are not stored compressed after an attempt
+     * are counted as skipped.
+     */
+    String compress(String value) {
+        if(threshold == 0 || value.length() < threshold) {
+            return value;
+        }
+
+        long start = System.nanoTime();
+        String result;
+        try {
+            byte[] compressed = gzip(value.getBytes(UTF_8));
+            result = TAG + Base64Encoding.encode(compressed, compressed.length);
+        }
+        catch(IOException e) {
+            // Storing the value uncompressed is always safe
+            result = value;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if(result.length() >= value.length()) {
+            stats.recordSkipped(elapsed);
+            return value;
+        }
+        stats.recordCompressed(value.length(), result.length(), elapsed);
+        return result;
+    }
+
+    /**
+     * Returns the original value for a compressed one and any other value unchanged.  Throws JsonSyntaxException when
+     * a compressed value is corrupt.
+     */
+    String decompress(String stored) {
+        if(stored == null || !stored.startsWith(TAG)) {
+            return stored;
+        }
+
+        long start = System.nanoTime();
+        String value;
+        try {
+            value = new String(gunzip(Base64Encoding.decode(stored, TAG.length())), UTF_8);
+        }
+        catch(IOException | IllegalArgumentException e) {
+            throw new JsonSyntaxException("Corrupt compressed value", e);
+        }
+        stats.recordDecompressed(System.nanoTime() - start);
+        return value;
+    }
+
+    byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 32);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+        byte[] buffer = new byte[8192];
+        int read;
+        while((read = gzip.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        gzip.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,156 @@
+package com.simplymadeapps.preferencehelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only file holding the writes a CoalescingPreferences has staged but not yet flushed.  Each write is
+ * appended and synced before it returns, so it survives a crash, and records are discarded once the preferences they
+ * were flushed to are on disk.
+ * <p>
+ * Records use the MappedFilePreferences layout, [int length][payload][long CRC32].  Replay stops at the first record
+ * that is cut short or fails its checksum, so a write torn by a crash is dropped as a whole.  Replaying a record that
+ * was already flushed is harmless because the records after it are replayed too.
+ */
+class WriteJournal {
+
+    private static final int RECORD_OVERHEAD = 4 + 8;
+
+    private final File file;
+    private final Map<String, Object> recovered = new HashMap<>();
+    private boolean recoveredClear;
+    private RandomAccessFile randomAccessFile;
+    private long length;
+    // Positions count every byte ever appended, so flushes can discard up to a position taken before a later append
+    private long discarded;
+
+    WriteJournal(File file) throws IOException {
+        this.file = file;
+        File parent = file.getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent.getPath());
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        replay();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the writes found in the journal when it was opened, merged in order with removed keys marked
+     * StagingEditor.REMOVED.
+     */
+    Map<String, Object> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * True when a recovered write cleared the preferences before the recovered values were written.
+     */
+    boolean isRecoveredClear() {
+        return recoveredClear;
+    }
+
+    private void replay() throws IOException {
+        long length = randomAccessFile.length();
+        long position = 0;
+
+        while(position + RECORD_OVERHEAD <= length) {
+            randomAccessFile.seek(position);
+            int size = randomAccessFile.readInt();
+            if(size <= 0 || position + RECORD_OVERHEAD + size > length) {
+                break;
+            }
+
+            byte[] payload = new byte[size];
+            randomAccessFile.readFully(payload);
+            if(MappedFilePreferences.checksum(payload) != randomAccessFile.readLong()) {
+                break;
+            }
+
+            Map<String, Object> changes = new HashMap<>();
+            if(MappedFilePreferences.decode(payload, changes)) {
+                recovered.clear();
+                recoveredClear = true;
+            }
+            recovered.putAll(changes);
+            position += RECORD_OVERHEAD + size;
+        }
+
+        // Cut off a torn record so the next append follows the last good one
+        randomAccessFile.setLength(position);
+        this.length = position;
+    }
+
+    /**
+     * Appends the write and waits for it to reach the disk.
+     */
+    synchronized void append(Map<String, Object> changes, boolean clear) throws IOException {
+        byte[] payload = MappedFilePreferences.encode(changes, clear);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + payload.length);
+        record.putInt(payload.length);
+        record.put(payload);
+        record.putLong(MappedFilePreferences.checksum(payload));
+
+        randomAccessFile.seek(length);
+        randomAccessFile.write(record.array());
+        randomAccessFile.getChannel().force(false);
+        length += record.capacity();
+    }
+
+    /**
+     * Returns the position after the last record appended so far.
+     */
+    synchronized long getPosition() {
+        return discarded + length;
+    }
+
+    /**
+     * Drops every record before the position.  Records appended after it are kept.
+     */
+    synchronized void discard(long position) throws IOException {
+        long drop = position - discarded;
+        if(drop <= 0) {
+            return;
+        }
+
+        if(drop < length) {
+            byte[] kept = new byte[(int) (length - drop)];
+            randomAccessFile.seek(drop);
+            randomAccessFile.readFully(kept);
+
+            // Written beside the journal and renamed over it, so a crash leaves one whole journal or the other
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                stream.write(kept);
+                stream.getFD().sync();
+            }
+            finally {
+                stream.close();
+            }
+
+            randomAccessFile.close();
+            boolean renamed = temp.renameTo(file);
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if(!renamed) {
+                temp.delete();
+                throw new IOException("Unable to replace " + file.getPath());
+            }
+            length = kept.length;
+        }
+        else {
+            randomAccessFile.setLength(0);
+            length = 0;
+        }
+        discarded = position;
+    }
+}
@@ -0,0 +1,91 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Controls how PreferenceHelper writes staged changes to disk.
+ *
+ * COMMIT writes synchronously on the calling thread (the original behavior), APPLY hands the write off to
+ * SharedPreferences.apply(), and COALESCE groups every write made within a time or count window into a single flush.
+ * A journaled COALESCE policy also appends each write to a journal file first, so writes still waiting for a flush
+ * survive a crash.
+ */
+public final class WritePolicy {
+
+    public enum Mode {
+        COMMIT,
+        APPLY,
+        COALESCE
+    }
+
+    private final Mode mode;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final File journalDirectory;
+
+    private WritePolicy(Mode mode, long windowMillis, int maxBatchSize, File journalDirectory) {
+        this.mode = mode;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.journalDirectory = journalDirectory;
+    }
+
+    public static WritePolicy commit() {
+        return new WritePolicy(Mode.COMMIT, 0, 1, null);
+    }
+
+    public static WritePolicy apply() {
+        return new WritePolicy(Mode.APPLY, 0, 1, null);
+    }
+
+    /**
+     * Writes are held in memory (and are immediately visible to reads) until windowMillis has passed since the first
+     * pending write or maxBatchSize writes are pending, whichever comes first.
+     */
+    public static WritePolicy coalesce(long windowMillis, int maxBatchSize) {
+        if(windowMillis < 0) {
+            throw new IllegalArgumentException("The coalescing window cannot be negative");
+        }
+
+        if(maxBatchSize < 1) {
+            throw new IllegalArgumentException("The coalescing batch size must be at least 1");
+        }
+
+        return new WritePolicy(Mode.COALESCE, windowMillis, maxBatchSize, null);
+    }
+
+    /**
+     * Coalesces writes like coalesce(), and also appends each write to a journal file in the directory (such as
+     * Context.getNoBackupFilesDir()) before it returns.  An append costs far less than rewriting the store, and
+     * writes that were journaled but not yet flushed are replayed when the store is next opened.
+     */
+    public static WritePolicy journaled(long windowMillis, int maxBatchSize, @NonNull File directory) {
+        if(directory == null) {
+            throw new IllegalArgumentException("The journal directory cannot be null");
+        }
+
+        WritePolicy policy = coalesce(windowMillis, maxBatchSize);
+        return new WritePolicy(Mode.COALESCE, policy.windowMillis, policy.maxBatchSize, directory);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns the directory journaled writes are kept in, or null when writes aren't journaled.
+     */
+    public File getJournalDirectory() {
+        return journalDirectory;
+    }
+}
@@ -0,0 +1,307 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(Enclosed.class)
+public class AsyncExecutorTests {
+
+    // Holds submitted tasks until the test runs them, standing in for the I/O threads
+    static class ManualExecutor implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<>();
+        int rejectAfter = Integer.MAX_VALUE;
+
+        @Override
+        public void execute(Runnable runnable) {
+            if(tasks.size() >= rejectAfter) {
+                throw new RejectedExecutionException("Shut down");
+            }
+            tasks.add(runnable);
+        }
+
+        void run(int index) {
+            tasks.get(index).run();
+        }
+    }
+
+    static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    public static class OrderingTests {
+
+        ManualExecutor executor = new ManualExecutor();
+
+        @Test
+        public void test_isOrdered() {
+            Assert.assertTrue(new AsyncExecutor(executor, true).isOrdered());
+            Assert.assertFalse(new AsyncExecutor(executor, false).isOrdered());
+        }
+
+        @Test
+        public void test_unordered() {
+            AsyncExecutor async = new AsyncExecutor(executor, false);
+
+            async.submit("key", value("a"), null);
+            async.submit("key", value("b"), null);
+
+            // Both calls go straight to the executor
+            Assert.assertEquals(executor.tasks.size(), 2);
+        }
+
+        @Test
+        public void test_ordered_sameKey() throws Exception {
+            AsyncExecutor async = new AsyncExecutor(executor, true);
+
+            Future<String> first = async.submit("key", value("a"), null);
+            Future<String> second = async.submit("key", value("b"), null);
+            Assert.assertEquals(executor.tasks.size(), 1);
+
+            executor.run(0);
+
+            Assert.assertEquals(first.get(), "a");
+            Assert.assertFalse(second.isDone());
+            Assert.assertEquals(executor.tasks.size(), 2);
+
+            executor.run(1);
+
+            Assert.assertEquals(second.get(), "b");
+        }
+
+        @Test
+        public void test_ordered_differentKeys() {
+            AsyncExecutor async = new AsyncExecutor(executor, true);
+
+            async.submit("one", value("a"), null);
+            async.submit("two", value("b"), null);
+
+            Assert.assertEquals(executor.tasks.size(), 2);
+        }
+
+        @Test
+        public void test_ordered_keyReleased() {
+            AsyncExecutor async = new AsyncExecutor(executor, true);
+            async.submit("key", value("a"), null);
+            executor.run(0);
+
+            async.submit("key", value("b"), null);
+
+            // Nothing was running for the key, so the new call is dispatched straight away
+            Assert.assertEquals(executor.tasks.size(), 2);
+        }
+
+        @Test
+        public void test_ordered_cancelledWhileQueued() throws Exception {
+            AsyncExecutor async = new AsyncExecutor(executor, true);
+            async.submit("key", value("a"), null);
+            Future<String> second = async.submit("key", value("b"), null);
+            Future<String> third = async.submit("key", value("c"), null);
+            second.cancel(false);
+
+            executor.run(0);
+            executor.run(1);
+
+            Assert.assertTrue(second.isCancelled());
+            Assert.assertEquals(executor.tasks.size(), 3);
+
+            executor.run(2);
+
+            Assert.assertEquals(third.get(), "c");
+        }
+    }
+
+    public static class CallbackTests {
+
+        ManualExecutor executor = new ManualExecutor();
+        AsyncExecutor async = new AsyncExecutor(executor, true);
+
+        @Test
+        public void test_success() {
+            PreferenceCallback<String> callback = mock(PreferenceCallback.class);
+            async.submit("key", value("a"), callback);
+
+            executor.run(0);
+
+            verify(callback, times(1)).onSuccess("a");
+        }
+
+        @Test
+        public void test_error() throws Exception {
+            final IllegalArgumentException error = new IllegalArgumentException("Bad value");
+            PreferenceCallback<String> callback = mock(PreferenceCallback.class);
+            Future<String> future = async.submit("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw error;
+                }
+            }, callback);
+
+            executor.run(0);
+
+            verify(callback, times(1)).onError(error);
+            try {
+                future.get();
+                Assert.fail();
+            }
+            catch(ExecutionException e) {
+                Assert.assertEquals(e.getCause(), error);
+            }
+        }
+
+        @Test
+        public void test_error_noCallback() {
+            Future<String> future = async.submit("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw new IllegalStateException();
+                }
+            }, null);
+
+            executor.run(0);
+
+            Assert.assertTrue(future.isDone());
+        }
+
+        @Test
+        public void test_callbackThrows_nextCallRuns() {
+            PreferenceCallback<String> callback = new PreferenceCallback<String>() {
+                @Override
+                public void onSuccess(String value) {
+                    throw new IllegalStateException("Callback failed");
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                }
+            };
+            Future<String> first = async.submit("key", value("a"), callback);
+            async.submit("key", value("b"), null);
+
+            try {
+                executor.run(0);
+                Assert.fail();
+            }
+            catch(IllegalStateException e) {
+                // The callback's failure still reaches the I/O thread
+            }
+
+            Assert.assertTrue(first.isDone());
+            Assert.assertEquals(executor.tasks.size(), 2);
+        }
+
+        @Test
+        public void test_cancelled() {
+            PreferenceCallback<String> callback = mock(PreferenceCallback.class);
+            async.submit("key", value("a"), callback).cancel(false);
+
+            executor.run(0);
+
+            verifyZeroInteractions(callback);
+        }
+    }
+
+    public static class RejectionTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        ManualExecutor executor = new ManualExecutor();
+
+        @Test
+        public void test_unordered() {
+            executor.rejectAfter = 0;
+            expectedException.expect(RejectedExecutionException.class);
+
+            new AsyncExecutor(executor, false).submit("key", value("a"), null);
+        }
+
+        @Test
+        public void test_ordered_releasesKey() {
+            executor.rejectAfter = 0;
+            AsyncExecutor async = new AsyncExecutor(executor, true);
+            try {
+                async.submit("key", value("a"), null);
+                Assert.fail();
+            }
+            catch(RejectedExecutionException e) {
+                // Expected
+            }
+
+            executor.rejectAfter = Integer.MAX_VALUE;
+            async.submit("key", value("b"), null);
+
+            Assert.assertEquals(executor.tasks.size(), 1);
+        }
+
+        @Test
+        public void test_ordered_cancelsQueued() {
+            executor.rejectAfter = 1;
+            AsyncExecutor async = new AsyncExecutor(executor, true);
+            async.submit("key", value("a"), null);
+            Future<String> second = async.submit("key", value("b"), null);
+            Future<String> third = async.submit("key", value("c"), null);
+
+            // The executor shuts down after the first call, so the next one is rejected on the I/O thread
+            executor.run(0);
+
+            // The calls queued behind it can never run, so they are cancelled rather than left waiting forever
+            Assert.assertTrue(second.isCancelled());
+            Assert.assertTrue(third.isCancelled());
+        }
+
+        @Test
+        public void test_ordered_rejectedNextReleasesKey() {
+            executor.rejectAfter = 1;
+            AsyncExecutor async = new AsyncExecutor(executor, true);
+            async.submit("key", value("a"), null);
+            async.submit("key", value("b"), null);
+            executor.run(0);
+
+            executor.rejectAfter = Integer.MAX_VALUE;
+            async.submit("key", value("c"), null);
+
+            Assert.assertEquals(executor.tasks.size(), 2);
+        }
+    }
+
+    public static class SharedExecutorTests {
+
+        @Test
+        public void test_sharedExecutor() throws Exception {
+            AsyncExecutor async = new AsyncExecutor(null, true);
+
+            Future<String> future = async.submit("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }, null);
+
+            Assert.assertEquals(future.get(), "PreferenceHelper-io");
+            Assert.assertSame(AsyncExecutor.getSharedExecutor(), AsyncExecutor.getSharedExecutor());
+        }
+    }
+}
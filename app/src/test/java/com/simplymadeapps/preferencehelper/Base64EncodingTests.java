@@ -0,0 +1,84 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+@RunWith(Enclosed.class)
+public class Base64EncodingTests {
+
+    public static class EncodeTests {
+
+        @Test
+        public void test_knownValues() {
+            Charset ascii = Charset.forName("US-ASCII");
+
+            Assert.assertEquals(Base64Encoding.encode(new byte[0], 0), "");
+            Assert.assertEquals(Base64Encoding.encode("f".getBytes(ascii), 1), "Zg");
+            Assert.assertEquals(Base64Encoding.encode("fo".getBytes(ascii), 2), "Zm8");
+            Assert.assertEquals(Base64Encoding.encode("foo".getBytes(ascii), 3), "Zm9v");
+            Assert.assertEquals(Base64Encoding.encode("foobar".getBytes(ascii), 6), "Zm9vYmFy");
+            Assert.assertEquals(Base64Encoding.encode(new byte[] { (byte) 0xFB, (byte) 0xFF }, 2), "+/8");
+        }
+
+        @Test
+        public void test_length() {
+            // Only the first length bytes are encoded
+            Assert.assertEquals(Base64Encoding.encode(new byte[] { 'f', 'o', 'o', 'b' }, 3), "Zm9v");
+        }
+    }
+
+    public static class DecodeTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_roundTrip() {
+            Random random = new Random(42);
+            for(int length = 0; length < 64; length++) {
+                byte[] bytes = new byte[length];
+                random.nextBytes(bytes);
+
+                byte[] result = Base64Encoding.decode(Base64Encoding.encode(bytes, length), 0);
+
+                Assert.assertArrayEquals(result, bytes);
+            }
+        }
+
+        @Test
+        public void test_offset() {
+            Assert.assertArrayEquals(Base64Encoding.decode("#b1:Zm9v", 4), new byte[] { 'f', 'o', 'o' });
+        }
+
+        @Test
+        public void test_invalidCharacter() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Invalid Base64 character '='");
+
+            Base64Encoding.decode("Zg==", 0);
+        }
+
+        @Test
+        public void test_nonAsciiCharacter() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Invalid Base64 character");
+
+            Base64Encoding.decode("Zm\u00e9v", 0);
+        }
+
+        @Test
+        public void test_invalidLength() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Invalid Base64 length");
+
+            Base64Encoding.decode("Zm9vY", 0);
+        }
+    }
+}
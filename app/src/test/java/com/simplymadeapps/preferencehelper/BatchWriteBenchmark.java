@@ -0,0 +1,59 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing a group of values with a commit() per put() against a single PreferenceBatch commit.  The
+ * in-memory SharedPreferences has no disk cost, so on a device the gap is wider than reported here.
+ * Run with: ./gradlew :app:benchmark -Pjmh="BatchWriteBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchWriteBenchmark {
+
+    @Param({"10", "100"})
+    public int writes;
+
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        PreferenceHelper.defaultStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        keys = new String[writes];
+        for(int i = 0; i < writes; i++) {
+            keys[i] = "key" + i;
+        }
+    }
+
+    @Benchmark
+    public void commitEach() {
+        for(int i = 0; i < writes; i++) {
+            PreferenceHelper.put(keys[i], i);
+        }
+    }
+
+    @Benchmark
+    public boolean batchCommit() {
+        PreferenceBatch batch = PreferenceHelper.edit();
+        for(int i = 0; i < writes; i++) {
+            batch.put(keys[i], i);
+        }
+        return batch.commit();
+    }
+}
@@ -0,0 +1,181 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(Enclosed.class)
+public class BinaryValueCodecTests {
+
+    static JsonElement roundTrip(JsonElement tree) {
+        BinaryValueCodec codec = new BinaryValueCodec();
+        return codec.decode(codec.encode(tree));
+    }
+
+    static String encode(int... bytes) {
+        byte[] raw = new byte[bytes.length];
+        for(int i = 0; i < bytes.length; i++) {
+            raw[i] = (byte) bytes[i];
+        }
+        return Base64Encoding.encode(raw, raw.length);
+    }
+
+    public static class RoundTripTests {
+
+        @Test
+        public void test_tag() {
+            Assert.assertEquals(new BinaryValueCodec().getTag(), "#b1:");
+        }
+
+        @Test
+        public void test_nested() {
+            JsonElement tree = JsonParser.parseString("{\"name\":\"caf\u00e9\",\"empty\":\"\",\"ok\":true,\"off\":false,\"none\":null," +
+                    "\"list\":[1,[],{}],\"child\":{\"name\":\"inner\"}}");
+
+            Assert.assertEquals(roundTrip(tree), tree);
+        }
+
+        @Test
+        public void test_integers() {
+            long[] values = { 0, 1, -1, 63, -64, 64, 300, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+            for(long value : values) {
+                JsonElement result = roundTrip(new JsonPrimitive(value));
+
+                Assert.assertEquals(result.getAsLong(), value);
+            }
+        }
+
+        @Test
+        public void test_decimals() {
+            Assert.assertEquals(roundTrip(new JsonPrimitive(1.5)).getAsDouble(), 1.5, 0);
+            Assert.assertEquals(roundTrip(JsonParser.parseString("12345678901234567890")).getAsString(), "12345678901234567890");
+            Assert.assertEquals(roundTrip(JsonParser.parseString("1e3")).getAsInt(), 1000);
+            Assert.assertTrue(Double.isNaN(roundTrip(new JsonPrimitive(Double.NaN)).getAsDouble()));
+        }
+
+        @Test
+        public void test_null() {
+            Assert.assertEquals(roundTrip(JsonNull.INSTANCE), JsonNull.INSTANCE);
+            Assert.assertEquals(roundTrip(null), JsonNull.INSTANCE);
+        }
+
+        @Test
+        public void test_repeatedNames() {
+            List<Record> records = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                records.add(new Record(i));
+            }
+            Gson gson = new GsonBuilder().create();
+            JsonElement tree = gson.toJsonTree(records);
+
+            String encoded = new BinaryValueCodec().encode(tree);
+
+            Assert.assertEquals(roundTrip(tree), tree);
+            // Field names are only written once, which more than pays for the Base64 wrapping
+            Assert.assertTrue(encoded.length() < gson.toJson(records).length());
+        }
+
+        @Test
+        public void test_largeValue() {
+            StringBuilder builder = new StringBuilder();
+            for(int i = 0; i < 10000; i++) {
+                builder.append("value ");
+            }
+            JsonElement tree = new JsonPrimitive(builder.toString());
+
+            Assert.assertEquals(roundTrip(tree), tree);
+        }
+    }
+
+    static class Record {
+        String identifier;
+        String description;
+        int count;
+
+        Record(int index) {
+            identifier = "record-" + index;
+            description = "Record number " + index;
+            count = index;
+        }
+    }
+
+    public static class CorruptionTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        BinaryValueCodec codec = new BinaryValueCodec();
+
+        @Test
+        public void test_invalidBase64() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Corrupt binary value");
+
+            codec.decode("!!!!");
+        }
+
+        @Test
+        public void test_empty() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Corrupt binary value");
+
+            codec.decode("");
+        }
+
+        @Test
+        public void test_unknownType() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Unknown binary value type 9");
+
+            codec.decode(encode(9));
+        }
+
+        @Test
+        public void test_trailingData() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Binary value was not fully consumed");
+
+            codec.decode(encode(0, 0));
+        }
+
+        @Test
+        public void test_lengthTooLarge() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Corrupt binary value");
+
+            // A string claiming 10 bytes with only 1 left
+            codec.decode(encode(5, 10, 'a'));
+        }
+
+        @Test
+        public void test_badNameReference() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Corrupt binary value");
+
+            // An object with one field whose name refers to name #0 before any name was written
+            codec.decode(encode(7, 1, 1, 0));
+        }
+
+        @Test
+        public void test_varintTooLong() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Corrupt binary value");
+
+            codec.decode(encode(3, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01));
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(Enclosed.class)
+public class ChangeDispatcherTests {
+
+    // Records every delivered change as "key=value"
+    static class RecordingObserver<T> implements PreferenceObserver<T> {
+
+        final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void onChanged(String key, T value) {
+            changes.add(key + "=" + value);
+        }
+    }
+
+    public static class DeliveryTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        AsyncExecutorTests.ManualExecutor executor;
+        ChangeDispatcher dispatcher;
+        RecordingObserver<Integer> observer;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions());
+            executor = new AsyncExecutorTests.ManualExecutor();
+            dispatcher = new ChangeDispatcher(store, executor, 0);
+            preferences.registerOnSharedPreferenceChangeListener(dispatcher);
+            observer = new RecordingObserver<>();
+        }
+
+        @Test
+        public void test_key() {
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+
+            store.putInt("count", 1);
+            store.putInt("other", 2);
+            Assert.assertEquals(executor.tasks.size(), 1);
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("count=1"));
+        }
+
+        @Test
+        public void test_burst() {
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+
+            for(int i = 1; i <= 100; i++) {
+                store.putInt("count", i);
+            }
+            // Every write after the first joins the delivery that is already waiting
+            Assert.assertEquals(executor.tasks.size(), 1);
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("count=100"));
+        }
+
+        @Test
+        public void test_afterDelivery() {
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+            store.putInt("count", 1);
+            executor.run(0);
+
+            store.putInt("count", 2);
+            executor.run(1);
+
+            Assert.assertEquals(observer.changes.size(), 2);
+            Assert.assertEquals(observer.changes.get(1), "count=2");
+        }
+
+        @Test
+        public void test_keys() {
+            dispatcher.subscribe(new HashSet<>(Arrays.asList("a", "b")), null, 0, Integer.class, observer);
+
+            store.putInt("a", 1);
+            store.putInt("b", 2);
+            store.putInt("c", 3);
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes.size(), 2);
+            Assert.assertTrue(observer.changes.contains("a=1"));
+            Assert.assertTrue(observer.changes.contains("b=2"));
+        }
+
+        @Test
+        public void test_removed() {
+            store.putInt("count", 1);
+            dispatcher.subscribe(Collections.singleton("count"), null, -1, Integer.class, observer);
+
+            store.remove("count");
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("count=-1"));
+        }
+
+        @Test
+        public void test_clear() {
+            dispatcher.subscribe(Collections.singleton("count"), null, -1, Integer.class, observer);
+
+            store.clear();
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("count=-1"));
+        }
+
+        @Test
+        public void test_prefix() {
+            dispatcher.subscribe(null, "user.", 0, Integer.class, observer);
+
+            store.putInt("user.age", 30);
+            store.putInt("session.age", 5);
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("user.age=30"));
+        }
+
+        @Test
+        public void test_prefix_clear() {
+            store.putInt("user.existing", 1);
+            dispatcher.subscribe(null, "user.", 0, Integer.class, observer);
+            store.putInt("user.added", 2);
+            executor.run(0);
+            store.putInt("user.removed", 3);
+            store.remove("user.removed");
+            executor.run(1);
+            observer.changes.clear();
+
+            store.clear();
+            executor.run(2);
+
+            // Keys present when the subscription started or written since are reported, removed ones are not
+            Assert.assertEquals(observer.changes.size(), 2);
+            Assert.assertTrue(observer.changes.contains("user.existing=0"));
+            Assert.assertTrue(observer.changes.contains("user.added=0"));
+        }
+
+        @Test
+        public void test_prefix_skipsStoreKeys() {
+            RecordingObserver<String> strings = new RecordingObserver<>();
+            dispatcher.subscribe(null, "q", null, String.class, strings);
+
+            store.appendToList("q", 1);
+            store.putMapEntry("qmap", "a", 2);
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes.size(), 0);
+            Assert.assertEquals(strings.changes.size(), 2);
+            Assert.assertTrue(strings.changes.contains("q=#seg1:L,1,1,0:1"));
+            Assert.assertTrue(strings.changes.contains("qmap=#seg1:M,1,0,a"));
+        }
+
+        @Test
+        public void test_prefix_storeKeysRemoved() {
+            RecordingObserver<String> strings = new RecordingObserver<>();
+            store.appendToList("q", 1);
+            store.putMapEntry("qmap", "a", 2);
+            dispatcher.subscribe(null, "q", null, String.class, strings);
+
+            store.remove("q");
+            store.removeMapEntry("qmap", "a");
+            executor.run(0);
+
+            Assert.assertEquals(strings.changes.size(), 2);
+            Assert.assertTrue(strings.changes.contains("q=null"));
+            Assert.assertTrue(strings.changes.contains("qmap=#seg1:M,0,0"));
+        }
+
+        @Test
+        public void test_prefix_userKeysLikeStoreKeys() {
+            RecordingObserver<String> strings = new RecordingObserver<>();
+            dispatcher.subscribe(null, "news", null, String.class, strings);
+
+            store.putString("news#events", "a");
+            store.putString("news#s1", "b");
+            store.putString("news.plain", "c");
+            executor.run(0);
+
+            Assert.assertEquals(strings.changes, Arrays.asList("news#events=a", "news#s1=b", "news.plain=c"));
+
+            store.remove("news#events");
+            executor.run(1);
+
+            Assert.assertEquals(strings.changes.get(3), "news#events=null");
+        }
+
+        @Test
+        public void test_prefix_skipsExpiryKeys() {
+            store = new PreferenceStore(null, preferences, new PreferenceOptions().setExpiryEnabled(true));
+            RecordingObserver<UserTest> users = new RecordingObserver<>();
+            dispatcher.subscribe(null, "user.", null, UserTest.class, users);
+
+            store.put("user.a", new UserTest("Jane"), 60000);
+            executor.run(0);
+
+            Assert.assertEquals(users.changes, Collections.singletonList("user.a=Jane"));
+        }
+
+        @Test
+        public void test_keys_storeKeysByName() {
+            dispatcher.subscribe(Collections.singleton("a#s0"), null, 0, Integer.class, observer);
+
+            store.putInt("a#s0", 1);
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("a#s0=1"));
+        }
+
+        @Test
+        public void test_failingKey_othersDelivered() {
+            dispatcher.subscribe(null, "user.", 0, Integer.class, observer);
+            store.putString("user.name", "Jane");
+            store.putInt("user.age", 30);
+
+            try {
+                executor.run(0);
+                Assert.fail("Expected a ClassCastException");
+            }
+            catch(ClassCastException e) {
+                // The string can't be read as an Integer
+            }
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("user.age=30"));
+        }
+
+        @Test
+        public void test_failingObserver_othersDelivered() {
+            Executor inPlace = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+            dispatcher = new ChangeDispatcher(store, inPlace, 0);
+            preferences.registerOnSharedPreferenceChangeListener(dispatcher);
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, new PreferenceObserver<Integer>() {
+                @Override
+                public void onChanged(String key, Integer value) {
+                    throw new IllegalStateException("Observer failed");
+                }
+            });
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+
+            try {
+                store.putInt("count", 1);
+                Assert.fail("Expected an IllegalStateException");
+            }
+            catch(IllegalStateException e) {
+                Assert.assertEquals(e.getMessage(), "Observer failed");
+            }
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("count=1"));
+        }
+
+        @Test
+        public void test_clear_nothingObserved() {
+            dispatcher.subscribe(null, "user.", 0, Integer.class, observer);
+
+            store.clear();
+
+            Assert.assertTrue(executor.tasks.isEmpty());
+        }
+
+        @Test
+        public void test_customObject() {
+            RecordingObserver<UserTest> users = new RecordingObserver<>();
+            dispatcher.subscribe(Collections.singleton("user"), null, null, UserTest.class, users);
+
+            store.put("user", new UserTest("Jane"));
+            executor.run(0);
+
+            Assert.assertEquals(users.changes, Collections.singletonList("user=Jane"));
+        }
+    }
+
+    static class UserTest {
+        String name;
+
+        UserTest(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static class SubscriptionTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        AsyncExecutorTests.ManualExecutor executor;
+        ChangeDispatcher dispatcher;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions());
+            executor = new AsyncExecutorTests.ManualExecutor();
+            dispatcher = new ChangeDispatcher(store, executor, 0);
+            preferences.registerOnSharedPreferenceChangeListener(dispatcher);
+        }
+
+        @Test
+        public void test_cancel() {
+            RecordingObserver<Integer> observer = new RecordingObserver<>();
+            PreferenceSubscription subscription = dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+
+            subscription.cancel();
+            store.putInt("count", 1);
+
+            Assert.assertTrue(subscription.isCancelled());
+            Assert.assertEquals(dispatcher.size(), 0);
+            Assert.assertTrue(executor.tasks.isEmpty());
+        }
+
+        @Test
+        public void test_cancel_whileWaiting() {
+            RecordingObserver<Integer> observer = new RecordingObserver<>();
+            PreferenceSubscription subscription = dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+            store.putInt("count", 1);
+
+            subscription.cancel();
+            executor.run(0);
+
+            Assert.assertTrue(observer.changes.isEmpty());
+        }
+
+        @Test
+        public void test_released() {
+            // The observer is only reachable through the subscription's weak reference
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, new RecordingObserver<Integer>());
+            for(int i = 0; i < 10 && dispatcher.size() > 0; i++) {
+                System.gc();
+                store.putInt("count", i);
+            }
+
+            Assert.assertEquals(dispatcher.size(), 0);
+        }
+
+        @Test
+        public void test_released_whileWaiting() {
+            RecordingObserver<Integer> observer = new RecordingObserver<>();
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+            store.putInt("count", 1);
+            observer = null;
+
+            for(int i = 0; i < 10 && dispatcher.size() > 0; i++) {
+                System.gc();
+                executor.run(0);
+            }
+
+            Assert.assertEquals(dispatcher.size(), 0);
+        }
+    }
+
+    public static class WindowTests {
+
+        @Test
+        public void test_window() {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions());
+            AsyncExecutorTests.ManualExecutor executor = new AsyncExecutorTests.ManualExecutor();
+            ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+            ChangeDispatcher dispatcher = new ChangeDispatcher(store, executor, 250, scheduler);
+            preferences.registerOnSharedPreferenceChangeListener(dispatcher);
+            RecordingObserver<Integer> observer = new RecordingObserver<>();
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+
+            store.putInt("count", 1);
+            store.putInt("count", 2);
+
+            ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+            verify(scheduler, times(1)).schedule(timer.capture(), eq(250L), eq(TimeUnit.MILLISECONDS));
+            Assert.assertTrue(executor.tasks.isEmpty());
+
+            // The window closing hands the delivery to the change executor
+            timer.getValue().run();
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("count=2"));
+        }
+
+        @Test
+        public void test_sharedScheduler() throws Exception {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions());
+            ChangeDispatcher dispatcher = new ChangeDispatcher(store, null, 1);
+            preferences.registerOnSharedPreferenceChangeListener(dispatcher);
+            final CountDownLatch delivered = new CountDownLatch(1);
+            PreferenceObserver<Integer> observer = new PreferenceObserver<Integer>() {
+                @Override
+                public void onChanged(String key, Integer value) {
+                    delivered.countDown();
+                }
+            };
+            dispatcher.subscribe(Collections.singleton("count"), null, 0, Integer.class, observer);
+
+            store.putInt("count", 1);
+
+            // Delivered through the shared timer and the async pool
+            Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(Enclosed.class)
+public class CoalescingPreferencesTests {
+
+    public static class ReadTests {
+
+        SharedPreferences delegate;
+        CoalescingPreferences preferences;
+
+        @Before
+        public void beforeTest() {
+            delegate = mock(SharedPreferences.class);
+            ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+            preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler);
+        }
+
+        @Test
+        public void test_read_notPending() {
+            doReturn("stored").when(delegate).getString("key", "fallback");
+            doReturn(5).when(delegate).getInt("key", 0);
+            doReturn(true).when(delegate).contains("key");
+
+            Assert.assertEquals(preferences.getString("key", "fallback"), "stored");
+            Assert.assertEquals(preferences.getInt("key", 0), 5);
+            Assert.assertTrue(preferences.contains("key"));
+        }
+
+        @Test
+        public void test_read_pending() {
+            Set<String> set = new HashSet<>();
+            set.add("entry");
+            preferences.edit()
+                    .putString("string", "value")
+                    .putInt("int", 1)
+                    .putLong("long", 2L)
+                    .putFloat("float", 3F)
+                    .putBoolean("boolean", true)
+                    .putStringSet("set", set)
+                    .apply();
+
+            Assert.assertEquals(preferences.getString("string", null), "value");
+            Assert.assertEquals(preferences.getInt("int", 0), 1);
+            Assert.assertEquals(preferences.getLong("long", 0L), 2L);
+            Assert.assertEquals(preferences.getFloat("float", 0F), 3F, 0);
+            Assert.assertTrue(preferences.getBoolean("boolean", false));
+            Assert.assertEquals(preferences.getStringSet("set", null), set);
+            Assert.assertTrue(preferences.contains("string"));
+            verify(delegate, times(0)).getString(anyString(), anyString());
+        }
+
+        @Test
+        public void test_read_pendingSetIsCopied() {
+            Set<String> set = new HashSet<>();
+            set.add("entry");
+            preferences.edit().putStringSet("set", set).apply();
+
+            preferences.getStringSet("set", null).add("changed");
+            ((Set<String>) preferences.getAll().get("set")).add("changed");
+
+            Assert.assertEquals(preferences.getStringSet("set", null), set);
+        }
+
+        @Test
+        public void test_read_pendingRemove() {
+            doReturn(true).when(delegate).contains("key");
+            preferences.edit().remove("key").commit();
+
+            Assert.assertEquals(preferences.getString("key", "fallback"), "fallback");
+            Assert.assertEquals(preferences.getInt("key", 7), 7);
+            Assert.assertFalse(preferences.contains("key"));
+        }
+
+        @Test
+        public void test_read_pendingNullString() {
+            preferences.edit().putString("key", null).apply();
+
+            Assert.assertFalse(preferences.contains("key"));
+        }
+
+        @Test
+        public void test_read_pendingClear() {
+            doReturn(true).when(delegate).contains("key");
+            preferences.edit().clear().putInt("other", 1).apply();
+
+            Assert.assertFalse(preferences.contains("key"));
+            Assert.assertTrue(preferences.getBoolean("key", true));
+            Assert.assertEquals(preferences.getInt("other", 0), 1);
+        }
+
+        @Test
+        public void test_getAll() {
+            Map<String, Object> stored = new HashMap<>();
+            stored.put("stored", 1);
+            stored.put("removed", 2);
+            doReturn(stored).when(delegate).getAll();
+            preferences.edit().putInt("pending", 3).remove("removed").apply();
+
+            Map<String, ?> result = preferences.getAll();
+
+            Assert.assertEquals(result.size(), 2);
+            Assert.assertEquals(result.get("stored"), 1);
+            Assert.assertEquals(result.get("pending"), 3);
+        }
+
+        @Test
+        public void test_getAll_pendingClear() {
+            Map<String, Object> stored = new HashMap<>();
+            stored.put("stored", 1);
+            doReturn(stored).when(delegate).getAll();
+            preferences.edit().clear().apply();
+
+            Map<String, ?> result = preferences.getAll();
+
+            Assert.assertTrue(result.isEmpty());
+        }
+
+        @Test
+        public void test_listeners() {
+            SharedPreferences.OnSharedPreferenceChangeListener listener = mock(SharedPreferences.OnSharedPreferenceChangeListener.class);
+
+            preferences.registerOnSharedPreferenceChangeListener(listener);
+            preferences.unregisterOnSharedPreferenceChangeListener(listener);
+
+            verify(delegate, times(1)).registerOnSharedPreferenceChangeListener(listener);
+            verify(delegate, times(1)).unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    public static class FlushTests {
+
+        SharedPreferences delegate;
+        SharedPreferences.Editor delegateEditor;
+        ScheduledExecutorService scheduler;
+        ScheduledFuture future;
+
+        @Before
+        public void beforeTest() {
+            delegate = mock(SharedPreferences.class);
+            delegateEditor = mock(SharedPreferences.Editor.class);
+            scheduler = mock(ScheduledExecutorService.class);
+            future = mock(ScheduledFuture.class);
+            doReturn(delegateEditor).when(delegate).edit();
+            doReturn(future).when(scheduler).schedule(any(Runnable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        }
+
+        @Test
+        public void test_firstWrite_schedulesFlush() {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler);
+
+            preferences.edit().putInt("first", 1).apply();
+            preferences.edit().putInt("second", 2).apply();
+
+            verify(scheduler, times(1)).schedule(any(Runnable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+            verify(delegate, times(0)).edit();
+        }
+
+        @Test
+        public void test_batchFull_flushes() {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 2), scheduler);
+
+            preferences.edit().putInt("first", 1).apply();
+            preferences.edit().putString("second", "value").apply();
+
+            verify(delegate, times(1)).edit();
+            verify(delegateEditor, times(1)).putInt("first", 1);
+            verify(delegateEditor, times(1)).putString("second", "value");
+            verify(delegateEditor, times(1)).apply();
+            verify(future, times(1)).cancel(false);
+        }
+
+        @Test
+        public void test_flush_writesAllTypes() {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler);
+            Set<String> set = new HashSet<>();
+            preferences.edit()
+                    .clear()
+                    .putString("string", "value")
+                    .putInt("int", 1)
+                    .putLong("long", 2L)
+                    .putFloat("float", 3F)
+                    .putBoolean("boolean", true)
+                    .putStringSet("set", set)
+                    .remove("removed")
+                    .apply();
+
+            preferences.flush();
+
+            verify(delegateEditor, times(1)).clear();
+            verify(delegateEditor, times(1)).putString("string", "value");
+            verify(delegateEditor, times(1)).putInt("int", 1);
+            verify(delegateEditor, times(1)).putLong("long", 2L);
+            verify(delegateEditor, times(1)).putFloat("float", 3F);
+            verify(delegateEditor, times(1)).putBoolean("boolean", true);
+            verify(delegateEditor, times(1)).putStringSet("set", set);
+            verify(delegateEditor, times(1)).remove("removed");
+            verify(delegateEditor, times(1)).apply();
+        }
+
+        @Test
+        public void test_flush_recordsMetrics() {
+            CoalescingPreferences preferences = new CoalescingPreferences(new InMemorySharedPreferences(), WritePolicy.coalesce(60000, 100), CoalescingPreferences.getSharedScheduler());
+            MetricsRecorder metrics = new MetricsRecorder(null, null);
+            preferences.setMetrics(metrics);
+            preferences.edit()
+                    .putString("string", "value")
+                    .putInt("int", 1)
+                    .putStringSet("set", new HashSet<>(Arrays.asList("ab", null)))
+                    .remove("removed")
+                    .apply();
+
+            preferences.flush();
+
+            OperationStats flushes = metrics.snapshot().getTotal(PreferenceOperation.FLUSH);
+            Assert.assertEquals(flushes.getCount(), 1);
+            Assert.assertEquals(flushes.getTotalSize(), "value".length() + "ab".length());
+            Assert.assertTrue(flushes.getTotalCommitNanos() <= flushes.getTotalTimeNanos());
+        }
+
+        @Test
+        public void test_flushAndWait_readsDuringCommit() throws Exception {
+            final CountDownLatch committing = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            InMemorySharedPreferences slow = new InMemorySharedPreferences() {
+                @Override
+                protected void beforeCommit() {
+                    committing.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch(InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            final CoalescingPreferences preferences = new CoalescingPreferences(slow, WritePolicy.coalesce(60000, 100), CoalescingPreferences.getSharedScheduler());
+            preferences.edit().clear().putString("key", "new").apply();
+            Thread flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    preferences.flushAndWait();
+                }
+            });
+            flusher.start();
+            Assert.assertTrue(committing.await(5, TimeUnit.SECONDS));
+
+            // The commit is waiting for the disk, but reads still see its changes without waiting for it
+            Assert.assertEquals(preferences.getString("key", null), "new");
+            Assert.assertEquals(preferences.getAll(), Collections.singletonMap("key", "new"));
+            Assert.assertFalse(preferences.contains("other"));
+            preferences.edit().putString("key", "newer").putString("other", "value").apply();
+            // Applying during the commit could be overwritten by it, so the flush waits for the next window
+            preferences.flush();
+            Assert.assertEquals(preferences.getString("key", null), "newer");
+            Assert.assertFalse(slow.contains("key"));
+
+            release.countDown();
+            flusher.join(5000);
+            Assert.assertEquals(slow.getString("key", null), "new");
+            Assert.assertTrue(preferences.flushAndWait());
+            Assert.assertEquals(slow.getString("key", null), "newer");
+            Assert.assertEquals(slow.getString("other", null), "value");
+        }
+
+        @Test
+        public void test_flush_nothingPending() {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler);
+
+            preferences.flush();
+
+            verify(delegate, times(0)).edit();
+        }
+
+        @Test
+        public void test_flushAndWait() {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler);
+            doReturn(true).when(delegateEditor).commit();
+            preferences.edit().putInt("key", 1).apply();
+
+            boolean result = preferences.flushAndWait();
+
+            Assert.assertTrue(result);
+            verify(delegateEditor, times(1)).putInt("key", 1);
+            verify(delegateEditor, times(1)).commit();
+            verify(delegateEditor, times(0)).apply();
+        }
+
+        @Test
+        public void test_flushAndWait_nothingPending() {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler);
+            doReturn(true).when(delegateEditor).commit();
+
+            boolean result = preferences.flushAndWait();
+
+            // We still commit so the caller waits for any earlier apply() to finish
+            Assert.assertTrue(result);
+            verify(delegateEditor, times(1)).commit();
+        }
+    }
+
+    public static class JournalTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        File file;
+        InMemorySharedPreferences delegate;
+        ScheduledExecutorService scheduler;
+
+        @Before
+        public void beforeTest() {
+            file = new File(folder.getRoot(), "store.journal");
+            delegate = new InMemorySharedPreferences();
+            scheduler = mock(ScheduledExecutorService.class);
+        }
+
+        @Test
+        public void test_sharedScheduler() throws Exception {
+            WriteJournal journal = new WriteJournal(file);
+
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), journal);
+
+            Assert.assertSame(preferences.getJournal(), journal);
+            Assert.assertNull(new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler).getJournal());
+        }
+
+        @Test
+        public void test_write_journaledBeforeFlush() throws Exception {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+
+            boolean result = preferences.edit().putInt("key", 1).commit();
+            preferences.edit().putString("other", "value").apply();
+
+            Assert.assertTrue(result);
+            Assert.assertFalse(delegate.contains("key"));
+            Map<String, Object> recovered = new WriteJournal(file).getRecovered();
+            Assert.assertEquals(recovered.size(), 2);
+            Assert.assertEquals(recovered.get("key"), 1);
+            Assert.assertEquals(recovered.get("other"), "value");
+        }
+
+        @Test
+        public void test_write_journalFails() throws Exception {
+            WriteJournal journal = new WriteJournal(file) {
+                @Override
+                synchronized void append(Map<String, Object> changes, boolean clear) throws IOException {
+                    throw new IOException("Disk full");
+                }
+            };
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, journal);
+
+            boolean result = preferences.edit().putInt("key", 1).commit();
+
+            // The write is still staged and written by the next flush
+            Assert.assertFalse(result);
+            Assert.assertEquals(preferences.getInt("key", 0), 1);
+            Assert.assertTrue(preferences.flushAndWait());
+            Assert.assertEquals(delegate.getInt("key", 0), 1);
+        }
+
+        @Test
+        public void test_flushAndWait_discardsJournal() throws Exception {
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+            preferences.edit().putInt("key", 1).apply();
+
+            boolean result = preferences.flushAndWait();
+
+            Assert.assertTrue(result);
+            Assert.assertEquals(delegate.getInt("key", 0), 1);
+            // The commit that writes the changes is the one that waits for the disk
+            Assert.assertEquals(delegate.getCommitCount(), 1);
+            Assert.assertEquals(file.length(), 0);
+        }
+
+        @Test
+        public void test_flush_writesOnJournalExecutor() throws Exception {
+            AsyncExecutorTests.ManualExecutor journalExecutor = new AsyncExecutorTests.ManualExecutor();
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file), journalExecutor);
+            preferences.edit().putInt("key", 1).apply();
+
+            preferences.flush();
+            // Neither the caller nor the flush timer's thread waits for the disk
+            Assert.assertFalse(delegate.contains("key"));
+            Assert.assertEquals(journalExecutor.tasks.size(), 1);
+            journalExecutor.run(0);
+
+            Assert.assertEquals(delegate.getInt("key", 0), 1);
+            Assert.assertEquals(delegate.getCommitCount(), 1);
+            Assert.assertEquals(file.length(), 0);
+        }
+
+        @Test
+        public void test_flush_nothingPendingWithJournal() throws Exception {
+            AsyncExecutorTests.ManualExecutor journalExecutor = new AsyncExecutorTests.ManualExecutor();
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file), journalExecutor);
+
+            preferences.flush();
+
+            Assert.assertTrue(journalExecutor.tasks.isEmpty());
+        }
+
+        @Test
+        public void test_flushAndWait_commitFails() throws Exception {
+            SharedPreferences failing = mock(SharedPreferences.class);
+            SharedPreferences.Editor failingEditor = mock(SharedPreferences.Editor.class);
+            doReturn(failingEditor).when(failing).edit();
+            doReturn(false).when(failingEditor).commit();
+            CoalescingPreferences preferences = new CoalescingPreferences(failing, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+            preferences.edit().putInt("key", 1).apply();
+
+            boolean result = preferences.flushAndWait();
+
+            // The write may not be on disk, so it stays in the journal
+            Assert.assertFalse(result);
+            Assert.assertEquals(new WriteJournal(file).getRecovered().get("key"), 1);
+        }
+
+        @Test
+        public void test_flushAndWait_discardFails() throws Exception {
+            WriteJournal journal = new WriteJournal(file) {
+                @Override
+                synchronized void discard(long position) throws IOException {
+                    throw new IOException("Disk full");
+                }
+            };
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, journal);
+            preferences.edit().putInt("key", 1).apply();
+
+            boolean result = preferences.flushAndWait();
+
+            Assert.assertTrue(result);
+            Assert.assertEquals(delegate.getInt("key", 0), 1);
+            Assert.assertEquals(new WriteJournal(file).getRecovered().get("key"), 1);
+        }
+
+        @Test
+        public void test_recovered_nothingToRecover() throws Exception {
+            new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+
+            verify(scheduler, times(0)).schedule(any(Runnable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        }
+
+        @Test
+        public void test_recovered_stagedAfterCrash() throws Exception {
+            delegate.edit().putInt("flushed", 1).putInt("removed", 2).commit();
+            CoalescingPreferences crashed = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+            crashed.edit().putInt("pending", 3).remove("removed").apply();
+
+            // The process dies before the flush, so the journal is all that is left of the pending writes
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+
+            Assert.assertEquals(preferences.getInt("pending", 0), 3);
+            Assert.assertFalse(preferences.contains("removed"));
+            Assert.assertFalse(delegate.contains("pending"));
+            verify(scheduler, times(2)).schedule(any(Runnable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+
+            Assert.assertTrue(preferences.flushAndWait());
+            Assert.assertEquals(delegate.getInt("flushed", 0), 1);
+            Assert.assertEquals(delegate.getInt("pending", 0), 3);
+            Assert.assertFalse(delegate.contains("removed"));
+            Assert.assertEquals(file.length(), 0);
+        }
+
+        @Test
+        public void test_recovered_clearOnly() throws Exception {
+            delegate.edit().putInt("flushed", 1).commit();
+            CoalescingPreferences crashed = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+            crashed.edit().clear().apply();
+
+            CoalescingPreferences preferences = new CoalescingPreferences(delegate, WritePolicy.coalesce(1000, 100), scheduler, new WriteJournal(file));
+
+            Assert.assertFalse(preferences.contains("flushed"));
+            Assert.assertTrue(preferences.flushAndWait());
+            Assert.assertTrue(delegate.getAll().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Stress tests that hammer a store from several threads at once and check nothing was lost or mixed up.
+ */
+@RunWith(Enclosed.class)
+public class ConcurrencyTests {
+
+    static final int THREADS = 8;
+    static final int WRITES = 500;
+
+    interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Starts every worker at the same moment and rethrows the first failure.
+     */
+    static void runConcurrently(final Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for(int i = 0; i < THREADS; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        worker.run(thread);
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for(Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static class StoreTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Test
+        public void test_concurrentPuts_commit() throws Exception {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            final PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions());
+
+            runConcurrently(new Worker() {
+                @Override
+                public void run(int thread) {
+                    for(int i = 0; i < WRITES; i++) {
+                        store.putInt("key-" + thread + "-" + i, i);
+                    }
+                }
+            });
+
+            // Every write committed exactly its own change
+            Assert.assertEquals(preferences.getCommitCount(), THREADS * WRITES);
+            Assert.assertEquals(preferences.getAll().size(), THREADS * WRITES);
+            for(int thread = 0; thread < THREADS; thread++) {
+                for(int i = 0; i < WRITES; i++) {
+                    Assert.assertEquals(store.getInt("key-" + thread + "-" + i, -1), i);
+                }
+            }
+        }
+
+        @Test
+        public void test_concurrentPuts_apply() throws Exception {
+            final PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setWritePolicy(WritePolicy.apply()));
+
+            runConcurrently(new Worker() {
+                @Override
+                public void run(int thread) {
+                    for(int i = 0; i < WRITES; i++) {
+                        store.putString("key-" + thread + "-" + i, "value-" + i);
+                    }
+                }
+            });
+
+            for(int thread = 0; thread < THREADS; thread++) {
+                for(int i = 0; i < WRITES; i++) {
+                    Assert.assertEquals(store.getString("key-" + thread + "-" + i, null), "value-" + i);
+                }
+            }
+        }
+
+        @Test
+        public void test_concurrentPuts_coalesce() throws Exception {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            final PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions().setWritePolicy(WritePolicy.coalesce(5, 50)));
+
+            runConcurrently(new Worker() {
+                @Override
+                public void run(int thread) {
+                    for(int i = 0; i < WRITES; i++) {
+                        store.putLong("key-" + thread + "-" + i, i);
+                    }
+                }
+            });
+            store.flushAndWait();
+
+            Assert.assertEquals(preferences.getAll().size(), THREADS * WRITES);
+            Assert.assertTrue(preferences.getCommitCount() < THREADS * WRITES);
+        }
+
+        @Test
+        public void test_readYourWrites() throws Exception {
+            PreferenceOptions options = new PreferenceOptions()
+                    .setObjectCache(THREADS, ObjectCacheMode.COPY_ON_READ)
+                    .setMetricsEnabled(true);
+            final PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), options);
+
+            runConcurrently(new Worker() {
+                @Override
+                public void run(int thread) {
+                    String key = "object-" + thread;
+                    for(int i = 0; i < WRITES; i++) {
+                        UUID value = UUID.randomUUID();
+                        store.put(key, value);
+                        Assert.assertEquals(store.get(key, null, UUID.class), value);
+                    }
+                }
+            });
+
+            Assert.assertEquals(store.getMetrics().getTotal(PreferenceOperation.PUT).getCount(), THREADS * WRITES);
+            Assert.assertEquals(store.getMetrics().getTotal(PreferenceOperation.GET).getCount(), THREADS * WRITES);
+        }
+
+        @Test
+        public void test_concurrentPuts_mappedFile() throws Exception {
+            File file = new File(folder.getRoot(), "store.log");
+            final PreferenceStore store = new PreferenceStore(null, new MappedFilePreferences(file), new PreferenceOptions());
+
+            runConcurrently(new Worker() {
+                @Override
+                public void run(int thread) {
+                    for(int i = 0; i < WRITES; i++) {
+                        store.putInt("key-" + thread + "-" + i, i);
+                    }
+                }
+            });
+
+            // Every record made it into the log
+            Assert.assertEquals(new MappedFilePreferences(file).getAll().size(), THREADS * WRITES);
+        }
+    }
+
+    public static class InitTests {
+
+        Context context;
+        PreferenceStorage storage;
+
+        @Before
+        public void beforeTest() {
+            context = mock(Context.class);
+            storage = mock(PreferenceStorage.class);
+            doReturn(new InMemorySharedPreferences()).when(storage).open(context, null);
+            PreferenceHelper.defaultStore = null;
+        }
+
+        @After
+        public void afterTest() {
+            PreferenceHelper.defaultStore = null;
+            PreferenceHelper.defaultOptions = null;
+            PreferenceHelper.context = null;
+        }
+
+        @Test
+        public void test_concurrentInit() throws Exception {
+            final PreferenceOptions options = new PreferenceOptions().setStorage(storage);
+            final PreferenceStore[] seen = new PreferenceStore[THREADS];
+
+            runConcurrently(new Worker() {
+                @Override
+                public void run(int thread) {
+                    PreferenceHelper.init(context, options);
+                    seen[thread] = PreferenceHelper.defaultStore;
+                    PreferenceHelper.putInt("thread-" + thread, thread);
+                }
+            });
+
+            verify(storage, times(1)).open(context, null);
+            for(PreferenceStore store : seen) {
+                Assert.assertSame(store, PreferenceHelper.defaultStore);
+            }
+            for(int thread = 0; thread < THREADS; thread++) {
+                Assert.assertEquals(PreferenceHelper.getInt("thread-" + thread, -1), thread);
+            }
+        }
+    }
+}
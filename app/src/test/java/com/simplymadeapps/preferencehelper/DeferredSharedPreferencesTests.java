@@ -0,0 +1,259 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(Enclosed.class)
+public class DeferredSharedPreferencesTests {
+
+    // Holds the load task until the test runs it, standing in for the background thread
+    static class ManualExecutor implements Executor {
+
+        Runnable task;
+
+        @Override
+        public void execute(Runnable runnable) {
+            task = runnable;
+        }
+
+        void run() {
+            task.run();
+        }
+    }
+
+    static Callable<SharedPreferences> loader(final SharedPreferences preferences) {
+        return new Callable<SharedPreferences>() {
+            @Override
+            public SharedPreferences call() {
+                return preferences;
+            }
+        };
+    }
+
+    public static class LoadTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        SharedPreferences delegate;
+        ManualExecutor executor;
+        DeferredSharedPreferences preferences;
+
+        @Before
+        public void beforeTest() {
+            delegate = mock(SharedPreferences.class);
+            executor = new ManualExecutor();
+            preferences = new DeferredSharedPreferences(loader(delegate), executor);
+        }
+
+        @Test
+        public void test_notLoaded() {
+            Assert.assertFalse(preferences.isLoaded());
+            Assert.assertEquals(preferences.getStartupMetrics().getLoadTimeNanos(), -1);
+            verify(delegate, times(0)).contains("");
+        }
+
+        @Test
+        public void test_loaded() {
+            executor.run();
+
+            Assert.assertTrue(preferences.isLoaded());
+            Assert.assertTrue(preferences.getStartupMetrics().getLoadTimeNanos() >= 0);
+            Assert.assertEquals(preferences.getDelegate(), delegate);
+            Assert.assertEquals(preferences.getStartupMetrics().getBlockedCalls(), 0);
+            // The loading thread waits for the file to be parsed
+            verify(delegate, times(1)).contains("");
+        }
+
+        @Test
+        public void test_readBlocksUntilLoaded() throws Exception {
+            doReturn("value").when(delegate).getString("key", null);
+            Thread loader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    }
+                    catch(InterruptedException e) {
+                        return;
+                    }
+                    executor.run();
+                }
+            });
+            loader.start();
+
+            String result = preferences.getString("key", null);
+            loader.join();
+
+            Assert.assertEquals(result, "value");
+            Assert.assertEquals(preferences.getStartupMetrics().getBlockedCalls(), 1);
+            Assert.assertTrue(preferences.getStartupMetrics().getBlockedTimeNanos() > 0);
+        }
+
+        @Test
+        public void test_loadFailed() {
+            IOException cause = new IOException("disk");
+            preferences = new DeferredSharedPreferences(new Callable<SharedPreferences>() {
+                @Override
+                public SharedPreferences call() throws Exception {
+                    throw cause;
+                }
+            }, executor);
+            executor.run();
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("Unable to load preferences");
+            expectedException.expectCause(instanceOf(IOException.class));
+
+            preferences.contains("key");
+        }
+
+        @Test
+        public void test_interrupted() {
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("Interrupted while waiting for the preferences to load");
+            Thread.currentThread().interrupt();
+
+            try {
+                preferences.contains("key");
+            }
+            finally {
+                Assert.assertTrue(Thread.interrupted());
+            }
+        }
+
+        @Test
+        public void test_sharedExecutor() throws Exception {
+            DeferredSharedPreferences shared = new DeferredSharedPreferences(loader(delegate));
+            doReturn(true).when(delegate).contains("key");
+
+            Assert.assertTrue(shared.contains("key"));
+            Assert.assertTrue(shared.isLoaded());
+        }
+    }
+
+    public static class DelegateTests {
+
+        SharedPreferences delegate;
+        DeferredSharedPreferences preferences;
+
+        @Before
+        public void beforeTest() {
+            delegate = mock(SharedPreferences.class);
+            ManualExecutor executor = new ManualExecutor();
+            preferences = new DeferredSharedPreferences(loader(delegate), executor);
+            executor.run();
+        }
+
+        @Test
+        public void test_reads() {
+            Set<String> set = new HashSet<>();
+            doReturn(new java.util.HashMap<String, Object>()).when(delegate).getAll();
+            doReturn("value").when(delegate).getString("string", null);
+            doReturn(set).when(delegate).getStringSet("set", null);
+            doReturn(1).when(delegate).getInt("int", 0);
+            doReturn(2L).when(delegate).getLong("long", 0L);
+            doReturn(3F).when(delegate).getFloat("float", 0F);
+            doReturn(true).when(delegate).getBoolean("boolean", false);
+            doReturn(true).when(delegate).contains("key");
+
+            Assert.assertTrue(preferences.getAll().isEmpty());
+            Assert.assertEquals(preferences.getString("string", null), "value");
+            Assert.assertEquals(preferences.getStringSet("set", null), set);
+            Assert.assertEquals(preferences.getInt("int", 0), 1);
+            Assert.assertEquals(preferences.getLong("long", 0L), 2L);
+            Assert.assertEquals(preferences.getFloat("float", 0F), 3F, 0);
+            Assert.assertTrue(preferences.getBoolean("boolean", false));
+            Assert.assertTrue(preferences.contains("key"));
+        }
+
+        @Test
+        public void test_listenersAfterLoad() {
+            SharedPreferences.OnSharedPreferenceChangeListener listener = mock(SharedPreferences.OnSharedPreferenceChangeListener.class);
+
+            preferences.registerOnSharedPreferenceChangeListener(listener);
+            preferences.unregisterOnSharedPreferenceChangeListener(listener);
+
+            verify(delegate, times(1)).registerOnSharedPreferenceChangeListener(listener);
+            verify(delegate, times(1)).unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    public static class PendingListenerTests {
+
+        @Test
+        public void test_listenersBeforeLoad() {
+            SharedPreferences delegate = mock(SharedPreferences.class);
+            ManualExecutor executor = new ManualExecutor();
+            DeferredSharedPreferences preferences = new DeferredSharedPreferences(loader(delegate), executor);
+            SharedPreferences.OnSharedPreferenceChangeListener kept = mock(SharedPreferences.OnSharedPreferenceChangeListener.class);
+            SharedPreferences.OnSharedPreferenceChangeListener removed = mock(SharedPreferences.OnSharedPreferenceChangeListener.class);
+
+            preferences.registerOnSharedPreferenceChangeListener(kept);
+            preferences.registerOnSharedPreferenceChangeListener(removed);
+            preferences.unregisterOnSharedPreferenceChangeListener(removed);
+            executor.run();
+
+            verify(delegate, times(1)).registerOnSharedPreferenceChangeListener(kept);
+            verify(delegate, times(0)).registerOnSharedPreferenceChangeListener(removed);
+            verify(delegate, times(0)).unregisterOnSharedPreferenceChangeListener(removed);
+        }
+    }
+
+    public static class EditorTests {
+
+        InMemorySharedPreferences delegate;
+        ManualExecutor executor;
+        DeferredSharedPreferences preferences;
+
+        @Before
+        public void beforeTest() {
+            delegate = new InMemorySharedPreferences();
+            executor = new ManualExecutor();
+            preferences = new DeferredSharedPreferences(loader(delegate), executor);
+        }
+
+        @Test
+        public void test_editBeforeLoad() {
+            SharedPreferences.Editor editor = preferences.edit();
+            editor.putString("key", "value");
+
+            executor.run();
+            boolean result = editor.commit();
+
+            Assert.assertTrue(result);
+            Assert.assertEquals(delegate.getString("key", null), "value");
+            Assert.assertEquals(delegate.getCommitCount(), 1);
+        }
+
+        @Test
+        public void test_apply() {
+            executor.run();
+            delegate.edit().putInt("removed", 1).putInt("cleared", 2).commit();
+
+            preferences.edit().clear().putInt("kept", 3).remove("removed").apply();
+
+            Assert.assertFalse(delegate.contains("cleared"));
+            Assert.assertFalse(delegate.contains("removed"));
+            Assert.assertEquals(delegate.getInt("kept", 0), 3);
+        }
+    }
+}
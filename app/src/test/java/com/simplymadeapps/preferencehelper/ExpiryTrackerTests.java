@@ -0,0 +1,326 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(Enclosed.class)
+public class ExpiryTrackerTests {
+
+    /**
+     * A tracker whose clock only moves when the test moves it.
+     */
+    static class ClockTracker extends ExpiryTracker {
+
+        long now = 1000;
+
+        ClockTracker(PreferenceStore store, long byteBudget) {
+            super(store, byteBudget);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    static PreferenceStore newStore(long byteBudget) {
+        PreferenceOptions options = new PreferenceOptions().setExpiryEnabled(true).setExpirySweepIntervalMillis(0);
+        PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), options);
+        store.expiry = new ClockTracker(store, byteBudget);
+        return store;
+    }
+
+    public static class TrackTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        ClockTracker tracker;
+
+        @Before
+        public void beforeTest() {
+            store = newStore(0);
+            preferences = (InMemorySharedPreferences) store.preferences;
+            tracker = (ClockTracker) store.expiry;
+        }
+
+        @Test
+        public void test_expiryKey() {
+            Assert.assertEquals(ExpiryTracker.expiryKey("key"), "#ttl:key");
+        }
+
+        @Test
+        public void test_track() {
+            SharedPreferences.Editor editor = preferences.edit();
+            tracker.track(editor, "key", 500);
+            editor.commit();
+
+            Assert.assertEquals(preferences.getLong("#ttl:key", 0), 1500);
+            Assert.assertTrue(tracker.isTracked("key"));
+            Assert.assertTrue(tracker.isTracked(null));
+            Assert.assertFalse(tracker.isTracked("other"));
+            Assert.assertEquals(tracker.size(), 1);
+        }
+
+        @Test
+        public void test_isTracked_none() {
+            Assert.assertFalse(tracker.isTracked(null));
+        }
+
+        @Test
+        public void test_isExpired() {
+            SharedPreferences.Editor editor = preferences.edit();
+            tracker.track(editor, "key", 500);
+
+            Assert.assertFalse(tracker.isExpired("key"));
+            Assert.assertFalse(tracker.isExpired("other"));
+            tracker.now = 1500;
+            Assert.assertTrue(tracker.isExpired("key"));
+        }
+
+        @Test
+        public void test_load() {
+            preferences.edit().putString("key", "value").putLong("#ttl:key", 1500).putString("#ttl:text", "not a time").commit();
+            ExpiryTracker loaded = new ClockTracker(store, 0);
+
+            Assert.assertTrue(loaded.isTracked("key"));
+            Assert.assertFalse(loaded.isTracked("text"));
+            Assert.assertEquals(loaded.size(), 1);
+        }
+
+        @Test
+        public void test_load_once() {
+            Assert.assertEquals(tracker.size(), 0);
+            preferences.edit().putLong("#ttl:key", 1500).commit();
+
+            // Later writes are tracked as they are made, not by scanning again
+            Assert.assertEquals(tracker.size(), 0);
+        }
+
+        @Test
+        public void test_forget() {
+            SharedPreferences.Editor editor = preferences.edit();
+            tracker.track(editor, "key", 500);
+            editor.commit();
+
+            editor = preferences.edit();
+            tracker.forget(editor, "key");
+            tracker.forget(editor, "other");
+            editor.commit();
+
+            Assert.assertFalse(tracker.isTracked("key"));
+            Assert.assertFalse(preferences.contains("#ttl:key"));
+        }
+
+        @Test
+        public void test_forget_all() {
+            SharedPreferences.Editor editor = preferences.edit();
+            tracker.track(editor, "a", 500);
+            tracker.track(editor, "b", 500);
+
+            tracker.forget(editor, null);
+
+            Assert.assertEquals(tracker.size(), 0);
+        }
+    }
+
+    public static class EvictTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        ClockTracker tracker;
+
+        @Before
+        public void beforeTest() {
+            store = newStore(0);
+            preferences = (InMemorySharedPreferences) store.preferences;
+            tracker = (ClockTracker) store.expiry;
+        }
+
+        @Test
+        public void test_expired() {
+            store.put("old", "value", 100);
+            store.put("new", "value", 1000);
+            store.putString("permanent", "value");
+            tracker.now = 1100;
+
+            SharedPreferences.Editor editor = preferences.edit();
+            List<String> evicted = tracker.evict(editor);
+            editor.commit();
+
+            Assert.assertEquals(evicted, Collections.singletonList("old"));
+            Assert.assertFalse(preferences.contains("old"));
+            Assert.assertFalse(preferences.contains("#ttl:old"));
+            Assert.assertTrue(preferences.contains("new"));
+            Assert.assertTrue(preferences.contains("permanent"));
+            Assert.assertFalse(tracker.isTracked("old"));
+        }
+
+        @Test
+        public void test_nothingExpired() {
+            store.put("key", "value", 100);
+
+            Assert.assertTrue(tracker.evict(preferences.edit()).isEmpty());
+            Assert.assertTrue(tracker.isTracked("key"));
+        }
+
+        @Test
+        public void test_segmentedList() {
+            store.put("key", Arrays.asList(0), 100);
+            store.expiry = null;
+            store.appendToList("key", 1);
+            store.expiry = tracker;
+            tracker.now = 1100;
+
+            SharedPreferences.Editor editor = preferences.edit();
+            tracker.evict(editor);
+            editor.commit();
+
+            Assert.assertEquals(preferences.getAll().size(), 0);
+        }
+    }
+
+    public static class BudgetTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        ClockTracker tracker;
+
+        @Before
+        public void beforeTest() {
+            // "a" + "12345" + "#ttl:a" + "1100" is 16 characters, so the budget holds two keys with a TTL
+            store = newStore(32);
+            preferences = (InMemorySharedPreferences) store.preferences;
+            tracker = (ClockTracker) store.expiry;
+        }
+
+        @Test
+        public void test_underBudget() {
+            store.put("a", "12345", 100);
+            store.put("b", "12345", 100);
+
+            Assert.assertTrue(tracker.evict(preferences.edit()).isEmpty());
+        }
+
+        @Test
+        public void test_leastRecentlyUsed() {
+            store.put("a", "12345", 100);
+            tracker.now = 1001;
+            store.put("b", "12345", 100);
+            tracker.now = 1002;
+            store.put("c", "12345", 100);
+            tracker.now = 1003;
+            store.getString("a", null);
+
+            SharedPreferences.Editor editor = preferences.edit();
+            List<String> evicted = tracker.evict(editor);
+            editor.commit();
+
+            Assert.assertEquals(evicted, Collections.singletonList("b"));
+            Assert.assertTrue(preferences.contains("a"));
+            Assert.assertTrue(preferences.contains("c"));
+        }
+
+        @Test
+        public void test_expiredCountTowardsBudget() {
+            store.put("a", "12345", 10);
+            store.put("b", "12345", 100);
+            store.put("c", "12345", 100);
+            tracker.now = 1050;
+
+            // Removing the expired key brings the store back under budget
+            Assert.assertEquals(tracker.evict(preferences.edit()), Collections.singletonList("a"));
+        }
+
+        @Test
+        public void test_permanentValuesKept() {
+            store.putString("settings", "a value that is longer than the whole budget");
+            store.put("a", "12345", 100);
+
+            SharedPreferences.Editor editor = preferences.edit();
+            Assert.assertEquals(tracker.evict(editor), Collections.singletonList("a"));
+            editor.commit();
+
+            // Still over budget, but only values with a TTL are ever removed
+            Assert.assertTrue(tracker.evict(preferences.edit()).isEmpty());
+            Assert.assertTrue(preferences.contains("settings"));
+        }
+
+        @Test
+        public void test_untouchedKeysFirst() {
+            store.put("a", "12345", 100);
+            store.put("b", "12345", 100);
+            store.put("c", "12345", 100);
+            // A tracker loaded after a restart has no access times yet
+            ClockTracker reloaded = new ClockTracker(store, 32);
+            reloaded.now = 1050;
+            reloaded.isExpired("a");
+            reloaded.isExpired("b");
+
+            Assert.assertEquals(reloaded.evict(preferences.edit()), Collections.singletonList("c"));
+        }
+
+        @Test
+        public void test_setsAndNumbers() {
+            store.put("set", new HashSet<>(Arrays.asList("12", "34")), 100);
+            store.put("int", 12345, 100);
+            store.put("long", 1L, 100);
+
+            // 19 characters for the set, 20 for the int and 18 for the long - any two bring the 57 under budget
+            Assert.assertEquals(tracker.evict(preferences.edit()).size(), 2);
+        }
+    }
+
+    public static class SweepTests {
+
+        @Test
+        public void test_startSweeping() throws Exception {
+            PreferenceStore store = newStore(0);
+            ClockTracker tracker = (ClockTracker) store.expiry;
+            store.put("key", "value", 100);
+            tracker.now = 1100;
+            ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+            Executor direct = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+
+            tracker.startSweeping(scheduler, direct, 1);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(store.preferences.contains("key") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+
+            Assert.assertFalse(store.preferences.contains("key"));
+        }
+
+        @Test
+        public void test_storeCollected() {
+            ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+            ExpiryTracker.SweepTask task = new ExpiryTracker.SweepTask(null, null);
+            task.future = scheduler.schedule(task, 1, TimeUnit.HOURS);
+
+            task.run();
+            scheduler.shutdownNow();
+
+            Assert.assertTrue(task.future.isCancelled());
+        }
+    }
+}
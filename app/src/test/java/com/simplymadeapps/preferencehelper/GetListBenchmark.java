@@ -0,0 +1,85 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a stored list through an intermediate array (the old getList() implementation) against the
+ * streaming getList() and a cursor scan.
+ * Run with: ./gradlew :app:benchmark -Pjmh="GetListBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetListBenchmark {
+
+    public static class Record {
+        String id;
+        String name;
+        int count;
+
+        Record(int index) {
+            id = "record-" + index;
+            name = "Record number " + index;
+            count = index;
+        }
+    }
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private Gson gson;
+    private String json;
+
+    @Setup
+    public void setup() {
+        gson = new Gson();
+        PreferenceHelper.defaultStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        PreferenceHelper.defaultStore.gson = gson;
+
+        List<Record> records = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            records.add(new Record(i));
+        }
+        PreferenceHelper.putList("records", records);
+        json = PreferenceHelper.getString("records", null);
+    }
+
+    @Benchmark
+    public List<Record> arrayCopy_getList() {
+        Record[] fromJson = gson.fromJson(json, Record[].class);
+        return new ArrayList<>(Arrays.asList(fromJson));
+    }
+
+    @Benchmark
+    public List<Record> streaming_getList() {
+        return PreferenceHelper.getList("records", null, Record[].class);
+    }
+
+    @Benchmark
+    public void cursor_scan(Blackhole blackhole) {
+        for(Record record : PreferenceHelper.getListCursor("records", Record.class)) {
+            blackhole.consume(record);
+        }
+    }
+}
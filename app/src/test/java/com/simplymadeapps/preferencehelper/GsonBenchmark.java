@@ -0,0 +1,66 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the custom object round trip with a Gson allocated per call against the shared instance.
+ * Run with: ./gradlew :app:benchmark -Pjmh="GsonBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonBenchmark {
+
+    public static class User {
+        String name = "John Doe";
+        String email = "john@example.com";
+        int loginCount = 42;
+        long lastLogin = 1700000000000L;
+        boolean admin = true;
+    }
+
+    private Gson sharedGson;
+    private User user;
+
+    @Setup
+    public void setup() {
+        sharedGson = new Gson();
+        user = new User();
+        PreferenceHelper.defaultStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        PreferenceHelper.defaultStore.gson = sharedGson;
+    }
+
+    @Benchmark
+    public User roundTrip_newGsonPerCall() {
+        String json = new Gson().toJson(user, User.class);
+        return new Gson().fromJson(json, User.class);
+    }
+
+    @Benchmark
+    public User roundTrip_sharedGson() {
+        String json = sharedGson.toJson(user, User.class);
+        return sharedGson.fromJson(json, User.class);
+    }
+
+    @Benchmark
+    public User helper_putAndGet() {
+        PreferenceHelper.put("user", user);
+        return PreferenceHelper.get("user", null, User.class);
+    }
+}
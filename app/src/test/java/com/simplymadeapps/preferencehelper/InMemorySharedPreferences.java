@@ -0,0 +1,177 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Plain JVM SharedPreferences stand-in used by the benchmarks and tests that need real read/write behavior.
+ */
+public class InMemorySharedPreferences implements SharedPreferences {
+
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> values = new HashMap<>();
+    private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private int commitCount;
+
+    public synchronized int getCommitCount() {
+        return commitCount;
+    }
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<>(values);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        return values.containsKey(key) ? (String) values.get(key) : defValue;
+    }
+
+    @Override
+    public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+        return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        return values.containsKey(key) ? (Long) values.get(key) : defValue;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        return values.containsKey(key) ? (Float) values.get(key) : defValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new InMemoryEditor();
+    }
+
+    /**
+     * Called by every commit() and apply() before the changes are stored, for tests that need a slow disk.
+     */
+    protected void beforeCommit() {
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private class InMemoryEditor implements Editor {
+
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        private Editor stage(String key, Object value) {
+            changes.put(key, value == null ? REMOVED : value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            return stage(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return stage(key, values == null ? null : new HashSet<>(values));
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return stage(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return stage(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return stage(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return stage(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return stage(key, REMOVED);
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            beforeCommit();
+            Set<String> changedKeys;
+            synchronized(InMemorySharedPreferences.this) {
+                commitCount++;
+                if(clear) {
+                    values.clear();
+                }
+                for(Map.Entry<String, Object> entry : changes.entrySet()) {
+                    if(entry.getValue() == REMOVED) {
+                        values.remove(entry.getKey());
+                    }
+                    else {
+                        values.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                changedKeys = new HashSet<>(changes.keySet());
+                if(clear) {
+                    // Like Android 11 and later, a clear is reported with a null key
+                    changedKeys.add(null);
+                }
+                changes.clear();
+                clear = false;
+            }
+
+            for(String key : changedKeys) {
+                for(OnSharedPreferenceChangeListener listener : listeners) {
+                    listener.onSharedPreferenceChanged(InMemorySharedPreferences.this, key);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of putList() and getList() for lists of small records at several sizes.
+ * Run with: ./gradlew :app:benchmark -Pjmh="ListBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListBenchmark {
+
+    public static class Record {
+        String id;
+        String name;
+        int count;
+
+        Record(int index) {
+            id = "record-" + index;
+            name = "Record number " + index;
+            count = index;
+        }
+    }
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private List<Record> records;
+
+    @Setup
+    public void setup() {
+        PreferenceHelper.defaultStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        records = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            records.add(new Record(i));
+        }
+        PreferenceHelper.putList("records", records);
+    }
+
+    @Benchmark
+    public void putList() {
+        PreferenceHelper.putList("records", records);
+    }
+
+    @Benchmark
+    public List<Record> getList() {
+        return PreferenceHelper.getList("records", null, Record[].class);
+    }
+}
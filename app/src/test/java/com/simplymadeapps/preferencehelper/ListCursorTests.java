@@ -0,0 +1,231 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+@RunWith(Enclosed.class)
+public class ListCursorTests {
+
+    public static class ConstructorTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_nullJson() {
+            ListCursor<String> cursor = new ListCursor<>(new Gson(), null, String.class);
+
+            Assert.assertTrue(cursor.isNull());
+            Assert.assertFalse(cursor.hasNext());
+        }
+
+        @Test
+        public void test_storedNull() {
+            ListCursor<String> cursor = new ListCursor<>(new Gson(), "null", String.class);
+
+            Assert.assertTrue(cursor.isNull());
+        }
+
+        @Test
+        public void test_emptyDocument() {
+            ListCursor<String> cursor = new ListCursor<>(new Gson(), "", String.class);
+
+            Assert.assertTrue(cursor.isNull());
+        }
+
+        @Test
+        public void test_emptyList() {
+            ListCursor<String> cursor = new ListCursor<>(new Gson(), "[]", String.class);
+
+            Assert.assertFalse(cursor.isNull());
+            Assert.assertFalse(cursor.hasNext());
+        }
+
+        @Test
+        public void test_notAList() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a String[]");
+
+            new ListCursor<>(new Gson(), "{}", String.class);
+        }
+
+        @Test
+        public void test_malformed() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a String[]");
+            expectedException.expectCause(instanceOf(MalformedJsonException.class));
+
+            new ListCursor<>(new Gson(), "}", String.class);
+        }
+    }
+
+    public static class CodecTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        BinaryValueCodec codec = new BinaryValueCodec();
+
+        String encode(String json) {
+            return codec.encode(JsonParser.parseString(json));
+        }
+
+        @Test
+        public void test_storedNull() {
+            ListCursor<String> cursor = new ListCursor<>(new Gson(), codec, encode("null"), String.class);
+
+            Assert.assertTrue(cursor.isNull());
+            Assert.assertFalse(cursor.hasNext());
+        }
+
+        @Test
+        public void test_next() throws Exception {
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), codec, encode("[1, 2]"), Integer.class);
+
+            Assert.assertEquals(cursor.next(), (Integer) 1);
+            Assert.assertEquals(cursor.next(), (Integer) 2);
+            Assert.assertFalse(cursor.hasNext());
+            cursor.close();
+        }
+
+        @Test
+        public void test_notAList() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a String[]");
+            expectedException.expectCause(instanceOf(JsonSyntaxException.class));
+
+            new ListCursor<>(new Gson(), codec, encode("{}"), String.class);
+        }
+
+        @Test
+        public void test_corrupt() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a String[]");
+            expectedException.expectCause(instanceOf(JsonSyntaxException.class));
+
+            new ListCursor<>(new Gson(), codec, "!", String.class);
+        }
+
+        @Test
+        public void test_next_invalidElement() {
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), codec, encode("[{}]"), Integer.class);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a Integer[]");
+
+            cursor.next();
+        }
+    }
+
+    public static class ElementsTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_next() throws Exception {
+            Iterator<JsonElement> elements = JsonParser.parseString("[1, 2]").getAsJsonArray().iterator();
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), Integer.class, elements);
+
+            Assert.assertFalse(cursor.isNull());
+            Assert.assertEquals(cursor.next(), (Integer) 1);
+            Assert.assertEquals(cursor.next(), (Integer) 2);
+            Assert.assertFalse(cursor.hasNext());
+            cursor.close();
+        }
+
+        @Test
+        public void test_hasNext_failure() {
+            Iterator<JsonElement> elements = mock(Iterator.class);
+            doThrow(new JsonSyntaxException("List segment 0 is missing")).when(elements).hasNext();
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), Integer.class, elements);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a Integer[]");
+            expectedException.expectCause(instanceOf(JsonSyntaxException.class));
+
+            cursor.hasNext();
+        }
+    }
+
+    public static class IterationTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_next() {
+            ListCursor<String> cursor = new ListCursor<>(new Gson(), "[\"first\", null, \"third\"]", String.class);
+
+            Assert.assertEquals(cursor.iterator(), cursor);
+            Assert.assertEquals(cursor.next(), "first");
+            Assert.assertNull(cursor.next());
+            Assert.assertTrue(cursor.hasNext());
+            Assert.assertEquals(cursor.next(), "third");
+            Assert.assertFalse(cursor.hasNext());
+            Assert.assertFalse(cursor.hasNext());
+        }
+
+        @Test
+        public void test_next_exhausted() {
+            ListCursor<String> cursor = new ListCursor<>(new Gson(), "[]", String.class);
+            expectedException.expect(NoSuchElementException.class);
+
+            cursor.next();
+        }
+
+        @Test
+        public void test_next_invalidElement() {
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), "[{}]", Integer.class);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a Integer[]");
+
+            cursor.next();
+        }
+
+        @Test
+        public void test_hasNext_trailingData() {
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), "[] 1", Integer.class);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a Integer[]");
+
+            cursor.hasNext();
+        }
+
+        @Test
+        public void test_remove() {
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), "[1]", Integer.class);
+            expectedException.expect(UnsupportedOperationException.class);
+            expectedException.expectMessage("Stored lists cannot be modified through a cursor");
+
+            cursor.remove();
+        }
+
+        @Test
+        public void test_close() throws Exception {
+            ListCursor<Integer> nullCursor = new ListCursor<>(new Gson(), null, Integer.class);
+            ListCursor<Integer> cursor = new ListCursor<>(new Gson(), "[1]", Integer.class);
+
+            nullCursor.close();
+            cursor.close();
+
+            expectedException.expect(IllegalArgumentException.class);
+            cursor.hasNext();
+        }
+    }
+}
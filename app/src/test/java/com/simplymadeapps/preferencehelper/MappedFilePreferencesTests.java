@@ -0,0 +1,254 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(Enclosed.class)
+public class MappedFilePreferencesTests {
+
+    public static class ReadWriteTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        File file;
+        MappedFilePreferences preferences;
+
+        @Before
+        public void beforeTest() throws Exception {
+            file = new File(folder.getRoot(), "nested/store.kv");
+            preferences = new MappedFilePreferences(file);
+        }
+
+        @Test
+        public void test_newFile() {
+            Assert.assertTrue(file.exists());
+            Assert.assertEquals(preferences.getFile(), file);
+            Assert.assertTrue(preferences.getAll().isEmpty());
+        }
+
+        @Test
+        public void test_fallbacks() {
+            Set<String> fallbackSet = new HashSet<>();
+
+            Assert.assertEquals(preferences.getString("key", "fallback"), "fallback");
+            Assert.assertEquals(preferences.getInt("key", 1), 1);
+            Assert.assertEquals(preferences.getLong("key", 2L), 2L);
+            Assert.assertEquals(preferences.getFloat("key", 3F), 3F, 0);
+            Assert.assertTrue(preferences.getBoolean("key", true));
+            Assert.assertEquals(preferences.getStringSet("key", fallbackSet), fallbackSet);
+            Assert.assertFalse(preferences.contains("key"));
+        }
+
+        @Test
+        public void test_commit_allTypes() {
+            Set<String> set = new HashSet<>();
+            set.add("entry");
+
+            boolean result = preferences.edit()
+                    .putString("string", "value \u00e9")
+                    .putInt("int", 1)
+                    .putLong("long", 2L)
+                    .putFloat("float", 3F)
+                    .putBoolean("boolean", true)
+                    .putStringSet("set", set)
+                    .commit();
+
+            Assert.assertTrue(result);
+            Assert.assertEquals(preferences.getString("string", null), "value \u00e9");
+            Assert.assertEquals(preferences.getInt("int", 0), 1);
+            Assert.assertEquals(preferences.getLong("long", 0L), 2L);
+            Assert.assertEquals(preferences.getFloat("float", 0F), 3F, 0);
+            Assert.assertTrue(preferences.getBoolean("boolean", false));
+            Assert.assertEquals(preferences.getStringSet("set", null), set);
+            Assert.assertTrue(preferences.contains("string"));
+        }
+
+        @Test
+        public void test_reopen() {
+            preferences.edit().putString("string", "value").putInt("int", 1).commit();
+            preferences.edit().putInt("int", 2).remove("string").apply();
+
+            MappedFilePreferences reopened = new MappedFilePreferences(file);
+
+            Map<String, ?> all = reopened.getAll();
+            Assert.assertEquals(all.size(), 1);
+            Assert.assertEquals(all.get("int"), 2);
+        }
+
+        @Test
+        public void test_clear() {
+            preferences.edit().putInt("old", 1).commit();
+
+            preferences.edit().putInt("new", 2).clear().commit();
+
+            Assert.assertFalse(preferences.contains("old"));
+            Assert.assertTrue(preferences.contains("new"));
+            Assert.assertFalse(new MappedFilePreferences(file).contains("old"));
+        }
+
+        @Test
+        public void test_putNull_removes() {
+            preferences.edit().putString("key", "value").commit();
+
+            preferences.edit().putString("key", null).commit();
+
+            Assert.assertFalse(preferences.contains("key"));
+        }
+
+        @Test
+        public void test_growsPastInitialCapacity() {
+            StringBuilder builder = new StringBuilder();
+            for(int i = 0; i < MappedFilePreferences.MIN_CAPACITY * 2; i++) {
+                builder.append('a');
+            }
+
+            preferences.edit().putString("large", builder.toString()).commit();
+
+            Assert.assertEquals(new MappedFilePreferences(file).getString("large", null), builder.toString());
+        }
+
+        @Test
+        public void test_appendsOnlyChanges() {
+            preferences.edit().putString("large", "abcdefghijklmnopqrstuvwxyz").commit();
+            int before = preferences.getWritePosition();
+
+            preferences.edit().putInt("counter", 1).commit();
+
+            // One record holding just the counter: length, op, key length, key, value, checksum
+            Assert.assertEquals(preferences.getWritePosition() - before, 4 + 1 + 4 + 7 + 4 + 8);
+        }
+    }
+
+    public static class CompactTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Test
+        public void test_compactsWhenLogDoubles() {
+            File file = new File(folder.getRoot(), "store.kv");
+            MappedFilePreferences preferences = new MappedFilePreferences(file);
+
+            for(int i = 0; i < 10000; i++) {
+                preferences.edit().putInt("counter", i).apply();
+            }
+
+            Assert.assertTrue(preferences.getWritePosition() < MappedFilePreferences.MIN_COMPACT_SIZE);
+            Assert.assertEquals(new MappedFilePreferences(file).getInt("counter", 0), 9999);
+            Assert.assertFalse(new File(folder.getRoot(), "store.kv.tmp").exists());
+        }
+
+        @Test
+        public void test_compact() throws Exception {
+            File file = new File(folder.getRoot(), "store.kv");
+            MappedFilePreferences preferences = new MappedFilePreferences(file);
+            preferences.edit().putString("key", "first").commit();
+            preferences.edit().putString("key", "second").commit();
+            int before = preferences.getWritePosition();
+
+            preferences.compact();
+
+            Assert.assertTrue(preferences.getWritePosition() < before);
+            preferences.edit().putInt("after", 1).commit();
+            MappedFilePreferences reopened = new MappedFilePreferences(file);
+            Assert.assertEquals(reopened.getString("key", null), "second");
+            Assert.assertEquals(reopened.getInt("after", 0), 1);
+        }
+    }
+
+    public static class RecoveryTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_tornRecordIgnored() throws Exception {
+            File file = new File(folder.getRoot(), "store.kv");
+            MappedFilePreferences preferences = new MappedFilePreferences(file);
+            preferences.edit().putInt("kept", 1).commit();
+            int end = preferences.getWritePosition();
+
+            // Simulate a crash part way through the next record
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.seek(end);
+            randomAccessFile.writeInt(50);
+            randomAccessFile.write(new byte[] {1, 2, 3});
+            randomAccessFile.close();
+
+            MappedFilePreferences reopened = new MappedFilePreferences(file);
+            reopened.edit().putInt("next", 2).commit();
+
+            MappedFilePreferences recovered = new MappedFilePreferences(file);
+            Assert.assertEquals(recovered.getAll().size(), 2);
+            Assert.assertEquals(recovered.getInt("kept", 0), 1);
+            Assert.assertEquals(recovered.getInt("next", 0), 2);
+        }
+
+        @Test
+        public void test_notAPreferenceFile() throws Exception {
+            File file = new File(folder.getRoot(), "other.kv");
+            FileOutputStream stream = new FileOutputStream(file);
+            stream.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+            stream.close();
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("Unable to open preference file " + file.getPath());
+
+            new MappedFilePreferences(file);
+        }
+
+        @Test
+        public void test_unableToCreateDirectory() throws Exception {
+            File blocker = folder.newFile();
+            File file = new File(blocker, "directory/store.kv");
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("Unable to open preference file " + file.getPath());
+
+            new MappedFilePreferences(file);
+        }
+    }
+
+    public static class ListenerTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Test
+        public void test_listeners() {
+            MappedFilePreferences preferences = new MappedFilePreferences(new File(folder.getRoot(), "store.kv"));
+            SharedPreferences.OnSharedPreferenceChangeListener listener = mock(SharedPreferences.OnSharedPreferenceChangeListener.class);
+            preferences.registerOnSharedPreferenceChangeListener(listener);
+
+            preferences.edit().putInt("key", 1).commit();
+            preferences.edit().clear().commit();
+            preferences.unregisterOnSharedPreferenceChangeListener(listener);
+            preferences.edit().putInt("other", 1).commit();
+
+            verify(listener, times(1)).onSharedPreferenceChanged(preferences, "key");
+            verify(listener, times(1)).onSharedPreferenceChanged(preferences, null);
+            verify(listener, times(0)).onSharedPreferenceChanged(preferences, "other");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the operation metrics add to the cheapest calls, with metrics off and on.
+ * Run with: ./gradlew :app:benchmark -Pjmh="MetricsBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private PreferenceStore disabledStore;
+    private PreferenceStore enabledStore;
+
+    @Setup
+    public void setup() {
+        disabledStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        enabledStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setMetricsEnabled(true));
+        disabledStore.putInt("int", 123456);
+        enabledStore.putInt("int", 123456);
+    }
+
+    @Benchmark
+    public int disabled_getInt() {
+        return disabledStore.getInt("int", 0);
+    }
+
+    @Benchmark
+    public int enabled_getInt() {
+        return enabledStore.getInt("int", 0);
+    }
+
+    @Benchmark
+    public void disabled_putInt() {
+        disabledStore.putInt("int", 123456);
+    }
+
+    @Benchmark
+    public void enabled_putInt() {
+        enabledStore.putInt("int", 123456);
+    }
+}
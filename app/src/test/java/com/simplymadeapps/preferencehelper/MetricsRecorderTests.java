@@ -0,0 +1,124 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(Enclosed.class)
+public class MetricsRecorderTests {
+
+    public static class RecordTests {
+
+        @Test
+        public void test_record() {
+            MetricsRecorder recorder = new MetricsRecorder("store", null);
+            recorder.record(PreferenceOperation.PUT, "key", 100, 10, 50);
+            recorder.record(PreferenceOperation.PUT, "key", 200, 20, 60);
+            recorder.record(PreferenceOperation.PUT, "other", 300, 30, 70);
+
+            MetricsSnapshot snapshot = recorder.snapshot();
+
+            Assert.assertEquals(snapshot.getKeys().size(), 2);
+            Assert.assertTrue(snapshot.getKeys().contains("key"));
+            Assert.assertEquals(snapshot.getStats("key", PreferenceOperation.PUT).getCount(), 2);
+            Assert.assertEquals(snapshot.getStats("key", PreferenceOperation.PUT).getTotalSize(), 30);
+            Assert.assertEquals(snapshot.getTotal(PreferenceOperation.PUT).getCount(), 3);
+            Assert.assertEquals(snapshot.getTotal(PreferenceOperation.PUT).getTotalCommitNanos(), 180);
+        }
+
+        @Test
+        public void test_record_unusedOperation() {
+            MetricsRecorder recorder = new MetricsRecorder("store", null);
+            recorder.record(PreferenceOperation.GET, "key", 100, 0, 0);
+
+            MetricsSnapshot snapshot = recorder.snapshot();
+
+            Assert.assertNull(snapshot.getStats("key", PreferenceOperation.PUT));
+            Assert.assertNull(snapshot.getStats("missing", PreferenceOperation.GET));
+            Assert.assertNull(snapshot.getTotal(PreferenceOperation.PUT));
+        }
+
+        @Test
+        public void test_record_noKey() {
+            MetricsRecorder recorder = new MetricsRecorder("store", null);
+            recorder.record(PreferenceOperation.CLEAR, null, 100, 0, 50);
+
+            MetricsSnapshot snapshot = recorder.snapshot();
+
+            Assert.assertEquals(snapshot.getKeys(), Collections.<String>emptySet());
+            Assert.assertEquals(snapshot.getTotal(PreferenceOperation.CLEAR).getCount(), 1);
+        }
+
+        @Test
+        public void test_record_listener() {
+            PreferenceMetricsListener listener = mock(PreferenceMetricsListener.class);
+            MetricsRecorder recorder = new MetricsRecorder("store", listener);
+
+            recorder.record(PreferenceOperation.REMOVE, "key", 100, 0, 50);
+
+            verify(listener, times(1)).onOperation("store", PreferenceOperation.REMOVE, "key", 100, 0, 50);
+        }
+
+        @Test
+        public void test_recordBatch() {
+            MetricsRecorder recorder = new MetricsRecorder("store", null);
+            Map<String, Integer> sizes = new HashMap<>();
+            sizes.put("a", 10);
+            sizes.put("b", 0);
+
+            recorder.recordBatch(PreferenceOperation.BATCH_COMMIT, sizes, 100, 50);
+
+            MetricsSnapshot snapshot = recorder.snapshot();
+            Assert.assertEquals(snapshot.getTotal(PreferenceOperation.BATCH_COMMIT).getCount(), 1);
+            Assert.assertEquals(snapshot.getTotal(PreferenceOperation.BATCH_COMMIT).getTotalSize(), 10);
+            Assert.assertEquals(snapshot.getTotal(PreferenceOperation.BATCH_COMMIT).getTotalCommitNanos(), 50);
+            Assert.assertEquals(snapshot.getStats("a", PreferenceOperation.BATCH_COMMIT).getTotalSize(), 10);
+            Assert.assertEquals(snapshot.getStats("b", PreferenceOperation.BATCH_COMMIT).getCount(), 1);
+        }
+
+        @Test
+        public void test_recordBatch_listener() {
+            PreferenceMetricsListener listener = mock(PreferenceMetricsListener.class);
+            MetricsRecorder recorder = new MetricsRecorder("store", listener);
+
+            recorder.recordBatch(PreferenceOperation.BATCH_APPLY, Collections.singletonMap("key", 5), 100, 50);
+
+            verify(listener, times(1)).onOperation("store", PreferenceOperation.BATCH_APPLY, null, 100, 5, 50);
+        }
+
+        @Test
+        public void test_snapshotIsCopy() {
+            MetricsRecorder recorder = new MetricsRecorder(null, null);
+            MetricsSnapshot snapshot = recorder.snapshot();
+
+            recorder.record(PreferenceOperation.GET, "key", 100, 0, 0);
+
+            Assert.assertTrue(snapshot.getKeys().isEmpty());
+            Assert.assertNull(snapshot.getTotal(PreferenceOperation.GET));
+        }
+    }
+
+    public static class ResetTests {
+
+        @Test
+        public void test_reset() {
+            MetricsRecorder recorder = new MetricsRecorder(null, null);
+            recorder.record(PreferenceOperation.GET, "key", 100, 0, 0);
+
+            recorder.reset();
+
+            MetricsSnapshot snapshot = recorder.snapshot();
+            Assert.assertTrue(snapshot.getKeys().isEmpty());
+            Assert.assertNull(snapshot.getTotal(PreferenceOperation.GET));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(Enclosed.class)
+public class ObjectCacheTests {
+
+    public static class GetPutTests {
+
+        ObjectCache cache;
+
+        @Before
+        public void beforeTest() {
+            cache = new ObjectCache(2, ObjectCacheMode.SHARED);
+        }
+
+        @Test
+        public void test_get_miss() {
+            Assert.assertNull(cache.get("key", UUID.class, "json"));
+        }
+
+        @Test
+        public void test_get_hit() {
+            UUID value = UUID.randomUUID();
+            cache.put("key", UUID.class, "json", value);
+
+            Assert.assertEquals(cache.get("key", UUID.class, "json"), value);
+            Assert.assertEquals(cache.getMode(), ObjectCacheMode.SHARED);
+        }
+
+        @Test
+        public void test_get_equalJsonDifferentInstance() {
+            UUID value = UUID.randomUUID();
+            cache.put("key", UUID.class, "json", value);
+
+            Assert.assertEquals(cache.get("key", UUID.class, new String("json")), value);
+        }
+
+        @Test
+        public void test_get_staleJson() {
+            cache.put("key", UUID.class, "json", UUID.randomUUID());
+
+            Assert.assertNull(cache.get("key", UUID.class, "changed"));
+        }
+
+        @Test
+        public void test_get_nullJson() {
+            cache.put("key", UUID.class, null, UUID.randomUUID());
+
+            Assert.assertNull(cache.get("key", UUID.class, "json"));
+        }
+
+        @Test
+        public void test_get_differentType() {
+            cache.put("key", UUID.class, "json", UUID.randomUUID());
+
+            Assert.assertNull(cache.get("key", String.class, "json"));
+        }
+
+        @Test
+        public void test_put_null() {
+            cache.put("key", UUID.class, "json", null);
+
+            Assert.assertEquals(cache.size(), 0);
+        }
+
+        @Test
+        public void test_put_evictsLeastRecentlyUsed() {
+            cache.put("first", UUID.class, "json", UUID.randomUUID());
+            cache.put("second", UUID.class, "json", UUID.randomUUID());
+            cache.get("first", UUID.class, "json");
+
+            cache.put("third", UUID.class, "json", UUID.randomUUID());
+
+            Assert.assertEquals(cache.size(), 2);
+            Assert.assertNotNull(cache.get("first", UUID.class, "json"));
+            Assert.assertNull(cache.get("second", UUID.class, "json"));
+            Assert.assertNotNull(cache.get("third", UUID.class, "json"));
+        }
+    }
+
+    public static class InvalidateTests {
+
+        ObjectCache cache;
+
+        @Before
+        public void beforeTest() {
+            cache = new ObjectCache(10, ObjectCacheMode.COPY_ON_READ);
+            cache.put("key", UUID.class, "json", UUID.randomUUID());
+            cache.put("key", String.class, "json", "value");
+            cache.put("other", UUID.class, "json", UUID.randomUUID());
+        }
+
+        @Test
+        public void test_invalidate() {
+            cache.invalidate("key");
+
+            Assert.assertEquals(cache.size(), 1);
+            Assert.assertNotNull(cache.get("other", UUID.class, "json"));
+        }
+
+        @Test
+        public void test_clear() {
+            cache.clear();
+
+            Assert.assertEquals(cache.size(), 0);
+        }
+
+        @Test
+        public void test_onSharedPreferenceChanged_key() {
+            cache.onSharedPreferenceChanged(mock(SharedPreferences.class), "key");
+
+            Assert.assertEquals(cache.size(), 1);
+        }
+
+        @Test
+        public void test_onSharedPreferenceChanged_cleared() {
+            cache.onSharedPreferenceChanged(mock(SharedPreferences.class), null);
+
+            Assert.assertEquals(cache.size(), 0);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+@RunWith(Enclosed.class)
+public class OperationStatsTests {
+
+    public static class RecorderTests {
+
+        @Test
+        public void test_empty() {
+            OperationStats stats = new OperationStats.Recorder().snapshot();
+
+            Assert.assertEquals(stats.getCount(), 0);
+            Assert.assertEquals(stats.getAverageTimeNanos(), 0);
+            Assert.assertArrayEquals(stats.getHistogram(), new long[OperationStats.getBucketCount()]);
+        }
+
+        @Test
+        public void test_record() {
+            OperationStats.Recorder recorder = new OperationStats.Recorder();
+            recorder.record(500, 10, 100);
+            recorder.record(1500, 30, 50);
+
+            OperationStats stats = recorder.snapshot();
+
+            Assert.assertEquals(stats.getCount(), 2);
+            Assert.assertEquals(stats.getTotalTimeNanos(), 2000);
+            Assert.assertEquals(stats.getMaxTimeNanos(), 1500);
+            Assert.assertEquals(stats.getAverageTimeNanos(), 1000);
+            Assert.assertEquals(stats.getTotalSize(), 40);
+            Assert.assertEquals(stats.getMaxSize(), 30);
+            Assert.assertEquals(stats.getTotalCommitNanos(), 150);
+            Assert.assertEquals(stats.getMaxCommitNanos(), 100);
+        }
+
+        @Test
+        public void test_histogram() {
+            OperationStats.Recorder recorder = new OperationStats.Recorder();
+            recorder.record(0, 0, 0);
+            recorder.record(999, 0, 0);
+            recorder.record(1000, 0, 0);
+            recorder.record(5000000, 0, 0);
+            recorder.record(Long.MAX_VALUE - 1, 0, 0);
+
+            long[] histogram = recorder.snapshot().getHistogram();
+
+            Assert.assertArrayEquals(histogram, new long[] { 2, 1, 0, 0, 1, 0, 1 });
+        }
+
+        @Test
+        public void test_snapshotIsCopy() {
+            OperationStats.Recorder recorder = new OperationStats.Recorder();
+            OperationStats stats = recorder.snapshot();
+            recorder.record(500, 0, 0);
+            stats.getHistogram()[0] = 10;
+
+            Assert.assertEquals(stats.getCount(), 0);
+            Assert.assertEquals(stats.getHistogram()[0], 0);
+        }
+    }
+
+    public static class BucketTests {
+
+        @Test
+        public void test_bounds() {
+            Assert.assertEquals(OperationStats.getBucketCount(), 7);
+            Assert.assertEquals(OperationStats.getBucketUpperBoundNanos(0), 1000);
+            Assert.assertEquals(OperationStats.getBucketUpperBoundNanos(3), 1000000);
+            Assert.assertEquals(OperationStats.getBucketUpperBoundNanos(6), Long.MAX_VALUE);
+        }
+
+        @Test
+        public void test_toString() {
+            OperationStats.Recorder recorder = new OperationStats.Recorder();
+            recorder.record(500, 10, 100);
+
+            Assert.assertEquals(recorder.snapshot().toString(), "OperationStats{count=1, totalTimeNanos=500, maxTimeNanos=500, " +
+                    "histogram=[1, 0, 0, 0, 0, 0, 0], totalSize=10, maxSize=10, totalCommitNanos=100, maxCommitNanos=100}");
+        }
+    }
+}
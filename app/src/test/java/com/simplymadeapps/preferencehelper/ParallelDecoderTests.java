@@ -0,0 +1,184 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(Enclosed.class)
+public class ParallelDecoderTests {
+
+    static Callable<String> task(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    public static class InvokeAllTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_sharedExecutor() {
+            ExecutorService executor = ParallelDecoder.getSharedExecutor();
+
+            Assert.assertSame(ParallelDecoder.getSharedExecutor(), executor);
+        }
+
+        @Test
+        public void test_invokeAll_inOrder() {
+            List<Callable<String>> tasks = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                tasks.add(task("value" + i));
+                expected.add("value" + i);
+            }
+
+            List<String> results = ParallelDecoder.invokeAll(tasks);
+
+            Assert.assertEquals(results, expected);
+        }
+
+        @Test
+        public void test_invokeAll_rejected() {
+            Executor rejecting = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    throw new RejectedExecutionException();
+                }
+            };
+
+            List<String> results = ParallelDecoder.invokeAll(rejecting, Arrays.asList(task("first"), task("second")));
+
+            // The calling thread decodes every task the executor wouldn't take
+            Assert.assertEquals(results, Arrays.asList("first", "second"));
+        }
+
+        @Test
+        public void test_invokeAll_runtimeException() {
+            Callable<String> failing = new Callable<String>() {
+                @Override
+                public String call() {
+                    throw new IllegalArgumentException("Bad value");
+                }
+            };
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Bad value");
+
+            ParallelDecoder.invokeAll(Arrays.asList(task("first"), failing));
+        }
+
+        @Test
+        public void test_invokeAll_checkedException() {
+            Callable<String> failing = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new Exception("Bad value");
+                }
+            };
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("Unable to decode a value");
+
+            ParallelDecoder.invokeAll(Arrays.asList(failing));
+        }
+
+        @Test
+        public void test_invokeAll_interrupted() {
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicBoolean started = new AtomicBoolean();
+            Callable<String> blocking = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    started.set(true);
+                    release.await();
+                    return "value";
+                }
+            };
+            // Waits until the task is running on its own thread, so the calling thread has to wait for it
+            Executor executor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    new Thread(command).start();
+                    while(!started.get()) {
+                        Thread.yield();
+                    }
+                }
+            };
+
+            Thread.currentThread().interrupt();
+            try {
+                ParallelDecoder.invokeAll(executor, Arrays.asList(blocking));
+                Assert.fail();
+            }
+            catch(IllegalStateException e) {
+                Assert.assertEquals(e.getMessage(), "Interrupted while waiting for values to decode");
+                Assert.assertTrue(Thread.interrupted());
+            }
+            finally {
+                release.countDown();
+            }
+        }
+    }
+
+    public static class SplitArrayTests {
+
+        @Test
+        public void test_splitArray() {
+            String json = " [1, {\"a\": [2, 3], \"b\": \"x,]}\"}, [4, [5]], \"say \\\"hi, there\\\"\", 'single, ]', null]";
+
+            List<String> chunks = ParallelDecoder.splitArray(json, json.length());
+
+            Assert.assertEquals(chunks, Arrays.asList(
+                    "[1]",
+                    "[ {\"a\": [2, 3], \"b\": \"x,]}\"}]",
+                    "[ [4, [5]]]",
+                    "[ \"say \\\"hi, there\\\"\"]",
+                    "[ 'single, ]']",
+                    "[ null]"));
+        }
+
+        @Test
+        public void test_splitArray_chunkSize() {
+            List<String> chunks = ParallelDecoder.splitArray("[1,2,3,4,5,6,7,8]", 2);
+
+            // Each piece is cut at the first comma after it reaches its share of the text
+            Assert.assertEquals(chunks, Arrays.asList("[1,2,3,4,5]", "[6,7,8]"));
+        }
+
+        @Test
+        public void test_splitArray_notSplit() {
+            Assert.assertNull(ParallelDecoder.splitArray("", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("  ", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("null", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("{\"a\": 1, \"b\": 2}", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("[1]", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("[1, 2", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("[1, 2] 3", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("[1, 2, ]", 8));
+            Assert.assertNull(ParallelDecoder.splitArray("[1, 2}", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("[1, /* 2, */ 3]", 4));
+            Assert.assertNull(ParallelDecoder.splitArray("[1, 2 # 3\n]", 4));
+        }
+
+        @Test
+        public void test_splitArray_trailingWhitespace() {
+            Assert.assertEquals(ParallelDecoder.splitArray("[1,2] \n", 8), Arrays.asList("[1]", "[2]"));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a large stored list on the calling thread against splitting it and decoding the pieces on pools
+ * of 1 to 8 threads, plus the calling thread.  The speedup levels off at the number of cores on the machine.
+ * Run with: ./gradlew :app:benchmark -Pjmh="ParallelListBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelListBenchmark {
+
+    public static class Record {
+        String id;
+        String name;
+        int count;
+
+        Record(int index) {
+            id = "record-" + index;
+            name = "Record number " + index;
+            count = index;
+        }
+    }
+
+    @Param({"10000", "50000"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private PreferenceStore store;
+    private ExecutorService executor;
+    private String json;
+
+    @Setup
+    public void setup() {
+        store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        executor = Executors.newFixedThreadPool(threads);
+
+        List<Record> records = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            records.add(new Record(i));
+        }
+        store.putList("records", records);
+        json = store.getString("records", null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public List<Record> sequential_getList() {
+        return store.getList("records", null, Record[].class);
+    }
+
+    @Benchmark
+    public List<Record> parallel_getList() {
+        return store.readListInParallel(json, Record.class, executor, threads + 1);
+    }
+}
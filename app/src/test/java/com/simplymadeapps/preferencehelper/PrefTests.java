@@ -0,0 +1,348 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests the accessors the processor generates for the interface below, which is compiled with the processor on the
+ * test annotation processor path.
+ */
+@RunWith(Enclosed.class)
+public class PrefTests {
+
+    interface Settings {
+
+        @Pref(name = "launch_count", defaultValue = "3")
+        int launchCount();
+
+        @Pref(defaultValue = "-5")
+        long lastSync();
+
+        @Pref(defaultValue = "1.5")
+        float scale();
+
+        @Pref(defaultValue = "true")
+        boolean enabled();
+
+        @Pref(defaultValue = "guest \"user\"")
+        String userName();
+
+        @Pref
+        String token();
+
+        @Pref
+        Set<String> tags();
+
+        @Pref(defaultValue = "LIGHT")
+        Theme theme();
+
+        @Pref
+        Account account();
+
+        @Pref
+        List<Account> friends();
+
+        @Pref
+        Map<String, List<Integer>> scores();
+    }
+
+    enum Theme {
+        LIGHT,
+        @SerializedName("night")
+        DARK
+    }
+
+    static class Profile {
+        String bio;
+    }
+
+    static class Entity {
+        long id;
+    }
+
+    static class Account extends Entity {
+        @SerializedName(value = "display_name", alternate = "name")
+        String displayName;
+        int age;
+        float rating;
+        double balance;
+        boolean verified;
+        Boolean admin;
+        Theme theme;
+        Profile profile;
+        List<String> emails;
+        Set<Theme> themes;
+        Map<String, Profile> links;
+        transient String password;
+        static String ignored = "static";
+    }
+
+    static Account newAccount() {
+        Account account = new Account();
+        account.id = 7;
+        account.displayName = "Ada";
+        account.age = 36;
+        account.rating = 1.1f;
+        account.balance = 2.5;
+        account.verified = true;
+        account.admin = false;
+        account.theme = Theme.DARK;
+        account.profile = new Profile();
+        account.profile.bio = "bio";
+        account.emails = Arrays.asList("a@example.com", null);
+        account.themes = new HashSet<>(Collections.singletonList(Theme.LIGHT));
+        account.links = new LinkedHashMap<>();
+        account.links.put("home", account.profile);
+        account.links.put("work", null);
+        account.password = "secret";
+        return account;
+    }
+
+    public static class AccessorTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        PrefTests_Settings_Preferences settings;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions());
+            settings = new PrefTests_Settings_Preferences(store);
+        }
+
+        @Test
+        public void test_fallbacks() {
+            Assert.assertEquals(settings.launchCount(), 3);
+            Assert.assertEquals(settings.lastSync(), -5L);
+            Assert.assertEquals(settings.scale(), 1.5f, 0);
+            Assert.assertTrue(settings.enabled());
+            Assert.assertEquals(settings.userName(), "guest \"user\"");
+            Assert.assertNull(settings.token());
+            Assert.assertNull(settings.tags());
+            Assert.assertEquals(settings.theme(), Theme.LIGHT);
+            Assert.assertNull(settings.account());
+            Assert.assertNull(settings.friends());
+            Assert.assertNull(settings.scores());
+        }
+
+        @Test
+        public void test_keys() {
+            Assert.assertEquals(PrefTests_Settings_Preferences.LAUNCH_COUNT.getName(), "launch_count");
+            Assert.assertEquals(PrefTests_Settings_Preferences.LAST_SYNC.getName(), "lastSync");
+        }
+
+        @Test
+        public void test_primitives() {
+            settings.putLaunchCount(4);
+            settings.putLastSync(5L);
+            settings.putScale(6f);
+            settings.putEnabled(false);
+            settings.putUserName("name");
+            settings.putTags(new HashSet<>(Arrays.asList("a", "b")));
+
+            Assert.assertEquals(settings.launchCount(), 4);
+            Assert.assertEquals(settings.lastSync(), 5L);
+            Assert.assertEquals(settings.scale(), 6f, 0);
+            Assert.assertFalse(settings.enabled());
+            Assert.assertEquals(settings.userName(), "name");
+            Assert.assertEquals(settings.tags(), new HashSet<>(Arrays.asList("a", "b")));
+            // Stored the same way as the store's own methods
+            Assert.assertEquals(store.getInt("launch_count", 0), 4);
+            Assert.assertEquals(preferences.getStringSet("tags", null), new HashSet<>(Arrays.asList("a", "b")));
+        }
+
+        @Test
+        public void test_object() {
+            Account account = newAccount();
+
+            settings.putAccount(account);
+
+            // Written exactly as Gson's reflection writes it, so either can read the other's values
+            Assert.assertEquals(preferences.getString("account", null), new Gson().toJson(account));
+            assertAccount(settings.account());
+        }
+
+        @Test
+        public void test_object_writtenByGson() {
+            store.put("account", newAccount());
+
+            assertAccount(settings.account());
+        }
+
+        @Test
+        public void test_object_nulls() {
+            preferences.edit().putString("account", "{\"name\":\"Ada\",\"age\":null,\"admin\":null,\"theme\":\"unknown\",\"emails\":null,\"extra\":[1]}").commit();
+
+            Account account = settings.account();
+
+            Assert.assertEquals(account.displayName, "Ada");
+            Assert.assertEquals(account.age, 0);
+            Assert.assertNull(account.admin);
+            Assert.assertNull(account.theme);
+            Assert.assertNull(account.emails);
+        }
+
+        @Test
+        public void test_object_lenient() {
+            preferences.edit().putString("account", "{\"display_name\":true,\"verified\":\"true\",\"age\":\"36\"}").commit();
+
+            Account account = settings.account();
+
+            Assert.assertEquals(account.displayName, "true");
+            Assert.assertTrue(account.verified);
+            Assert.assertEquals(account.age, 36);
+        }
+
+        @Test
+        public void test_nullObject() {
+            settings.putAccount(newAccount());
+
+            settings.putAccount(null);
+
+            Assert.assertEquals(preferences.getString("account", null), "null");
+            Assert.assertNull(settings.account());
+        }
+
+        @Test
+        public void test_list() {
+            settings.putFriends(Arrays.asList(newAccount(), null));
+
+            List<Account> friends = settings.friends();
+
+            Assert.assertEquals(friends.size(), 2);
+            assertAccount(friends.get(0));
+            Assert.assertNull(friends.get(1));
+            Assert.assertEquals(store.getList("friends", null, Account[].class).size(), 2);
+        }
+
+        @Test
+        public void test_map() {
+            Map<String, List<Integer>> scores = new HashMap<>();
+            scores.put("ada", Arrays.asList(1, null, 3));
+            scores.put("bob", null);
+
+            settings.putScores(scores);
+
+            Assert.assertEquals(settings.scores(), Collections.singletonMap("ada", Arrays.asList(1, null, 3)));
+        }
+
+        @Test
+        public void test_nullList() {
+            settings.putFriends(null);
+
+            Assert.assertNull(settings.friends());
+        }
+
+        @Test
+        public void test_enum() {
+            settings.putTheme(Theme.DARK);
+
+            Assert.assertEquals(preferences.getString("theme", null), "\"night\"");
+            Assert.assertEquals(settings.theme(), Theme.DARK);
+        }
+
+        @Test
+        public void test_remove() {
+            settings.putLaunchCount(4);
+            settings.putAccount(newAccount());
+
+            settings.removeLaunchCount();
+            settings.removeAccount();
+
+            Assert.assertTrue(preferences.getAll().isEmpty());
+        }
+
+        @Test
+        public void test_getMany() {
+            settings.putAccount(newAccount());
+
+            PreferenceValues values = store.getMany(PrefTests_Settings_Preferences.ACCOUNT, PrefTests_Settings_Preferences.FRIENDS);
+
+            assertAccount(values.get(PrefTests_Settings_Preferences.ACCOUNT));
+            Assert.assertNull(values.get(PrefTests_Settings_Preferences.FRIENDS));
+        }
+
+        @Test
+        public void test_wrongType() {
+            store.putString("account", "text");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key can't be read by the key's adapter");
+
+            settings.account();
+        }
+
+        @Test
+        public void test_nullStore() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Store cannot be null");
+
+            new PrefTests_Settings_Preferences(null);
+        }
+
+        static void assertAccount(Account account) {
+            Assert.assertEquals(account.id, 7);
+            Assert.assertEquals(account.displayName, "Ada");
+            Assert.assertEquals(account.age, 36);
+            Assert.assertEquals(account.rating, 1.1f, 0);
+            Assert.assertEquals(account.balance, 2.5, 0);
+            Assert.assertTrue(account.verified);
+            Assert.assertFalse(account.admin);
+            Assert.assertEquals(account.theme, Theme.DARK);
+            Assert.assertEquals(account.profile.bio, "bio");
+            Assert.assertEquals(account.emails, Arrays.asList("a@example.com", null));
+            Assert.assertEquals(account.themes, Collections.singleton(Theme.LIGHT));
+            Assert.assertEquals(account.links.keySet(), Collections.singleton("home"));
+            Assert.assertEquals(account.links.get("home").bio, "bio");
+            Assert.assertNull(account.password);
+        }
+    }
+
+    public static class DefaultStoreTests {
+
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+            PreferenceHelper.defaultStore = store;
+        }
+
+        @After
+        public void afterTest() {
+            PreferenceHelper.defaultStore = null;
+        }
+
+        @Test
+        public void test_defaultStore() {
+            PrefTests_Settings_Preferences settings = new PrefTests_Settings_Preferences();
+
+            settings.putLaunchCount(settings.launchCount() + 1);
+
+            Assert.assertEquals(store.getInt("launch_count", 0), 4);
+            settings.removeLaunchCount();
+            Assert.assertFalse(store.contains("launch_count"));
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(Enclosed.class)
+public class PreferenceBatchTests {
+
+    public static class PutTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        SharedPreferences.Editor editor;
+        PreferenceStore store;
+        PreferenceBatch batch;
+
+        @Before
+        public void beforeTest() {
+            store = PreferenceStoreTests.newStore();
+            editor = mock(SharedPreferences.Editor.class);
+            doReturn(editor).when(store.preferences).edit();
+            batch = new PreferenceBatch(store);
+        }
+
+        @Test
+        public void test_put_stagesWithoutWriting() {
+            PreferenceBatch result = batch.put("string", "value").put("int", 1).put("null", null, String.class);
+
+            Assert.assertEquals(result, batch);
+            verify(editor, times(1)).putString("string", "value");
+            verify(editor, times(1)).putInt("int", 1);
+            verify(editor, times(1)).putString("null", null);
+            verify(editor, times(0)).commit();
+            verify(editor, times(0)).apply();
+        }
+
+        @Test
+        public void test_put_checkForExceptions() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            batch.put(null, "value");
+        }
+
+        @Test
+        public void test_putList() {
+            List<String> list = new ArrayList<>();
+            list.add("entry");
+
+            batch.putList("key", list);
+
+            verify(editor, times(1)).putString("key", "[\"entry\"]");
+        }
+
+        @Test
+        public void test_remove() {
+            batch.remove("key");
+
+            verify(editor, times(1)).remove("key");
+        }
+
+        @Test
+        public void test_clear() {
+            batch.clear();
+
+            verify(editor, times(1)).clear();
+        }
+
+        @Test
+        public void test_invalidatesCache() {
+            ObjectCache cache = mock(ObjectCache.class);
+            store.objectCache = cache;
+
+            batch.put("put", "value").remove("removed").clear();
+
+            verify(cache, times(1)).invalidate("put");
+            verify(cache, times(1)).invalidate("removed");
+            verify(cache, times(1)).clear();
+        }
+    }
+
+    public static class CollectionTests {
+
+        @Test
+        public void test_remove_removesParts() {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions().setListSegmentSize(1));
+            store.appendToList("list", 1);
+            store.appendToList("list", 2);
+            store.putMapEntry("map", "a", 1);
+
+            store.edit().remove("list").remove("map").commit();
+
+            Assert.assertTrue(preferences.getAll().isEmpty());
+        }
+
+        @Test
+        public void test_put_replacesParts() {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions().setListSegmentSize(1));
+            store.appendToList("list", 1);
+            store.appendToList("list", 2);
+
+            store.edit().putList("list", new ArrayList<>()).commit();
+
+            Assert.assertEquals(preferences.getAll().size(), 1);
+            Assert.assertEquals(store.getListSize("list"), 0);
+        }
+    }
+
+    public static class ExpiryTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            store = ExpiryTrackerTests.newStore(0);
+            preferences = (InMemorySharedPreferences) store.preferences;
+            store.put("a", "value", 100);
+            store.put("b", "value", 100);
+        }
+
+        @Test
+        public void test_put_makesPermanent() {
+            store.edit().put("a", "new").put("other", "value").commit();
+
+            Assert.assertFalse(store.expiry.isTracked("a"));
+            Assert.assertFalse(preferences.contains("#ttl:a"));
+            Assert.assertTrue(store.expiry.isTracked("b"));
+        }
+
+        @Test
+        public void test_remove() {
+            store.edit().remove("a").commit();
+
+            Assert.assertFalse(preferences.contains("#ttl:a"));
+            Assert.assertFalse(store.expiry.isTracked("a"));
+        }
+
+        @Test
+        public void test_clear() {
+            store.edit().clear().commit();
+
+            Assert.assertTrue(preferences.getAll().isEmpty());
+            Assert.assertFalse(store.expiry.isTracked(null));
+        }
+
+        @Test
+        public void test_disabled() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+
+            store.edit().put("a", "value").remove("b").clear().commit();
+
+            Assert.assertNull(store.expiry);
+        }
+    }
+
+    public static class WriteTests {
+
+        SharedPreferences preferences;
+        SharedPreferences.Editor editor;
+        PreferenceBatch batch;
+
+        @Before
+        public void beforeTest() {
+            preferences = mock(SharedPreferences.class);
+            editor = mock(SharedPreferences.Editor.class);
+            doReturn(editor).when(preferences).edit();
+            batch = new PreferenceBatch(new PreferenceStore(null, preferences, new PreferenceOptions()));
+        }
+
+        @Test
+        public void test_commit() {
+            doReturn(true).when(editor).commit();
+
+            boolean result = batch.commit();
+
+            Assert.assertTrue(result);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_apply() {
+            batch.apply();
+
+            verify(editor, times(1)).apply();
+        }
+
+        @Test
+        public void test_rollback() {
+            SharedPreferences.Editor freshEditor = mock(SharedPreferences.Editor.class);
+            batch.remove("key");
+            doReturn(freshEditor).when(preferences).edit();
+
+            batch.rollback();
+            batch.commit();
+
+            verify(editor, times(0)).commit();
+            verify(freshEditor, times(1)).commit();
+            verify(freshEditor, times(0)).remove(anyString());
+        }
+    }
+}
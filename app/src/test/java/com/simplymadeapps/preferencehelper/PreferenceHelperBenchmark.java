@@ -0,0 +1,129 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of put() and get() through the PreferenceHelper facade for every supported value type, against the
+ * in-memory SharedPreferences.  Run with -prof gc to see the allocation rate of each path.
+ * Run with: ./gradlew :app:benchmark -Pjmh="PreferenceHelperBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreferenceHelperBenchmark {
+
+    public static class User {
+        String name = "John Doe";
+        String email = "john@example.com";
+        int loginCount = 42;
+        long lastLogin = 1700000000000L;
+        boolean admin = true;
+    }
+
+    private User user;
+    private Set<String> set;
+
+    @Setup
+    public void setup() {
+        PreferenceHelper.defaultStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        user = new User();
+        set = new HashSet<>();
+        for(int i = 0; i < 10; i++) {
+            set.add("entry" + i);
+        }
+
+        PreferenceHelper.put("string", "value");
+        PreferenceHelper.put("int", 123456);
+        PreferenceHelper.put("long", 123456789L);
+        PreferenceHelper.put("float", 1234.5F);
+        PreferenceHelper.put("boolean", true);
+        PreferenceHelper.put("set", set);
+        PreferenceHelper.put("user", user);
+    }
+
+    @Benchmark
+    public void put_string() {
+        PreferenceHelper.put("string", "value");
+    }
+
+    @Benchmark
+    public String get_string() {
+        return PreferenceHelper.get("string", "");
+    }
+
+    @Benchmark
+    public void put_int() {
+        PreferenceHelper.put("int", 123456);
+    }
+
+    @Benchmark
+    public int get_int() {
+        return PreferenceHelper.get("int", 0);
+    }
+
+    @Benchmark
+    public void put_long() {
+        PreferenceHelper.put("long", 123456789L);
+    }
+
+    @Benchmark
+    public long get_long() {
+        return PreferenceHelper.get("long", 0L);
+    }
+
+    @Benchmark
+    public void put_float() {
+        PreferenceHelper.put("float", 1234.5F);
+    }
+
+    @Benchmark
+    public float get_float() {
+        return PreferenceHelper.get("float", 0F);
+    }
+
+    @Benchmark
+    public void put_boolean() {
+        PreferenceHelper.put("boolean", true);
+    }
+
+    @Benchmark
+    public boolean get_boolean() {
+        return PreferenceHelper.get("boolean", false);
+    }
+
+    @Benchmark
+    public void put_stringSet() {
+        PreferenceHelper.put("set", set);
+    }
+
+    @Benchmark
+    public Set<String> get_stringSet() {
+        return PreferenceHelper.get("set", null, Set.class);
+    }
+
+    @Benchmark
+    public void put_customObject() {
+        PreferenceHelper.put("user", user);
+    }
+
+    @Benchmark
+    public User get_customObject() {
+        return PreferenceHelper.get("user", null, User.class);
+    }
+}
@@ -4,44 +4,34 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.reflect.Whitebox;
 
+import java.io.File;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
-import static org.hamcrest.CoreMatchers.is;
-import static org.mockito.Matchers.anyBoolean;
-import static org.mockito.Matchers.anyFloat;
-import static org.mockito.Matchers.anyInt;
-import static org.mockito.Matchers.anyLong;
-import static org.mockito.Matchers.anySet;
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.powermock.api.mockito.PowerMockito.doNothing;
 import static org.powermock.api.mockito.PowerMockito.doReturn;
-import static org.powermock.api.mockito.PowerMockito.doThrow;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
-import static org.powermock.api.mockito.PowerMockito.spy;
-import static org.powermock.api.mockito.PowerMockito.verifyPrivate;
 import static org.powermock.api.mockito.PowerMockito.when;
-import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @RunWith(Enclosed.class)
 public class PreferenceHelperTests {
@@ -49,588 +39,689 @@ public class PreferenceHelperTests {
     @PrepareForTest({PreferenceManager.class})
     public static class InitTests extends PowerMockTest {
 
+        @After
+        public void afterTest() {
+            PreferenceHelper.defaultStore = null;
+            PreferenceHelper.defaultOptions = null;
+            PreferenceHelper.context = null;
+        }
+
         @Test
-        public void test_init_nullPreferences() {
-            PreferenceHelper.preferences = null;
-            PreferenceHelper.editor = mock(SharedPreferences.Editor.class);
+        public void test_init_nullStore() {
+            PreferenceHelper.defaultStore = null;
             Context context = mock(Context.class);
             SharedPreferences preferences = mock(SharedPreferences.class);
-            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
             mockStatic(PreferenceManager.class);
             when(PreferenceManager.getDefaultSharedPreferences(context)).thenReturn(preferences);
-            doReturn(editor).when(preferences).edit();
 
             PreferenceHelper.init(context);
 
-            Assert.assertEquals(PreferenceHelper.preferences, preferences);
-            Assert.assertEquals(PreferenceHelper.editor, editor);
+            Assert.assertNull(PreferenceHelper.defaultStore.getName());
+            Assert.assertEquals(PreferenceHelper.defaultStore.preferences, preferences);
+            Assert.assertEquals(PreferenceHelper.context, context);
         }
 
         @Test
-        public void test_init_nullEditor() {
-            PreferenceHelper.preferences = mock(SharedPreferences.class);
-            PreferenceHelper.editor = null;
+        public void test_init_notNull() {
+            PreferenceStore store = mock(PreferenceStore.class);
+            PreferenceHelper.defaultStore = store;
             Context context = mock(Context.class);
-            SharedPreferences preferences = mock(SharedPreferences.class);
-            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
-            mockStatic(PreferenceManager.class);
-            when(PreferenceManager.getDefaultSharedPreferences(context)).thenReturn(preferences);
-            doReturn(editor).when(preferences).edit();
 
             PreferenceHelper.init(context);
 
-            Assert.assertEquals(PreferenceHelper.preferences, preferences);
-            Assert.assertEquals(PreferenceHelper.editor, editor);
+            Assert.assertEquals(PreferenceHelper.defaultStore, store);
+            Assert.assertNull(PreferenceHelper.context);
         }
 
         @Test
-        public void test_init_notNull() {
-            SharedPreferences preferences = mock(SharedPreferences.class);
-            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
-            PreferenceHelper.preferences = preferences;
-            PreferenceHelper.editor = editor;
+        public void test_init_options() {
+            PreferenceHelper.defaultStore = null;
             Context context = mock(Context.class);
+            SharedPreferences preferences = mock(SharedPreferences.class);
+            PreferenceStorage storage = mock(PreferenceStorage.class);
+            doReturn(preferences).when(storage).open(context, null);
+            WritePolicy policy = WritePolicy.apply();
+            PreferenceOptions options = new PreferenceOptions().setStorage(storage).setWritePolicy(policy);
 
-            PreferenceHelper.init(context);
+            PreferenceHelper.init(context, options);
 
-            Assert.assertEquals(PreferenceHelper.preferences, preferences);
-            Assert.assertEquals(PreferenceHelper.editor, editor);
+            Assert.assertEquals(PreferenceHelper.defaultStore.preferences, preferences);
+            Assert.assertEquals(PreferenceHelper.defaultStore.writePolicy, policy);
+            Assert.assertEquals(PreferenceHelper.defaultOptions, options);
         }
-    }
-
-    @PrepareForTest({PreferenceManager.class})
-    public static class ContainsTests extends PowerMockTest {
 
         @Test
-        public void test_contains() {
-            SharedPreferences preferences = mock(SharedPreferences.class);
-            PreferenceHelper.preferences = preferences;
-            doReturn(true).when(preferences).contains("key");
+        public void test_init_keepsApplicationContext() {
+            PreferenceHelper.defaultStore = null;
+            Context context = mock(Context.class);
+            Context applicationContext = mock(Context.class);
+            doReturn(applicationContext).when(context).getApplicationContext();
+            PreferenceStorage storage = mock(PreferenceStorage.class);
+            doReturn(mock(SharedPreferences.class)).when(storage).open(context, null);
 
-            boolean result = PreferenceHelper.contains("key");
+            PreferenceHelper.init(context, new PreferenceOptions().setStorage(storage));
 
-            Assert.assertTrue(result);
+            Assert.assertEquals(PreferenceHelper.context, applicationContext);
         }
     }
 
-    public static class RemoveTests {
+    public static class InitAsyncTests {
 
-        @Test
-        public void test_remove() {
-            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
-            PreferenceHelper.editor = editor;
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
 
-            PreferenceHelper.remove("key");
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        Context context;
+        PreferenceStorage storage;
+        InMemorySharedPreferences preferences;
 
-            verify(editor, times(1)).remove("key");
-            verify(editor, times(1)).commit();
+        @Before
+        public void beforeTest() {
+            context = mock(Context.class);
+            storage = mock(PreferenceStorage.class);
+            preferences = new InMemorySharedPreferences();
+            doReturn(preferences).when(storage).open(context, null);
+            doReturn(new InMemorySharedPreferences()).when(storage).open(context, "session");
+            PreferenceHelper.defaultStore = null;
         }
-    }
 
-    public static class ClearTests {
+        @After
+        public void afterTest() {
+            PreferenceHelper.defaultStore = null;
+            PreferenceHelper.defaultOptions = null;
+            PreferenceHelper.context = null;
+            PreferenceHelper.stores.clear();
+        }
 
         @Test
-        public void test_clear() {
-            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
-            PreferenceHelper.editor = editor;
+        public void test_initAsync() {
+            preferences.edit().putString("key", "value").commit();
 
-            PreferenceHelper.clear();
+            PreferenceHelper.initAsync(context, new PreferenceOptions().setStorage(storage));
 
-            verify(editor, times(1)).clear();
-            verify(editor, times(1)).commit();
+            Assert.assertEquals(PreferenceHelper.getString("key", null), "value");
+            Assert.assertTrue(PreferenceHelper.isLoaded());
+            Assert.assertTrue(PreferenceHelper.getStartupMetrics().getLoadTimeNanos() >= 0);
         }
-    }
-
-    public static class IsTypePrimitiveTests {
 
         @Test
-        public void test_integer() throws Exception {
-            boolean result = Whitebox.invokeMethod(PreferenceHelper.class, "isTypePrimitive", Integer.class);
+        public void test_initAsync_namedStores() {
+            PreferenceHelper.initAsync(context, new PreferenceOptions().setStorage(storage), "session");
+            PreferenceStore session = PreferenceHelper.stores.get("session");
 
-            Assert.assertTrue(result);
+            Assert.assertNotNull(session.getStartupMetrics());
+            Assert.assertSame(PreferenceHelper.store("session"), session);
+            session.putInt("counter", 1);
+            Assert.assertEquals(session.getInt("counter", 0), 1);
         }
 
         @Test
-        public void test_boolean() throws Exception {
-            boolean result = Whitebox.invokeMethod(PreferenceHelper.class, "isTypePrimitive", Boolean.class);
+        public void test_openDeferred_writePolicyAppliedByLoader() {
+            File journal = new File(folder.getRoot(), "default.journal");
+            DeferredSharedPreferencesTests.ManualExecutor executor = new DeferredSharedPreferencesTests.ManualExecutor();
+            PreferenceOptions options = new PreferenceOptions().setStorage(storage).setWritePolicy(WritePolicy.journaled(100, 10, folder.getRoot()));
+
+            DeferredSharedPreferences deferred = (DeferredSharedPreferences) PreferenceHelper.openDeferred(context, options, null, executor);
 
-            Assert.assertTrue(result);
+            // The journal is opened and replayed on the loading thread, not the caller's
+            Assert.assertFalse(journal.exists());
+            executor.run();
+            Assert.assertTrue(journal.exists());
+            CoalescingPreferences loaded = (CoalescingPreferences) deferred.getDelegate();
+            Assert.assertSame(loaded.getDelegate(), preferences);
+            Assert.assertEquals(loaded.getJournal().getFile(), journal);
         }
 
         @Test
-        public void test_float() throws Exception {
-            boolean result = Whitebox.invokeMethod(PreferenceHelper.class, "isTypePrimitive", Float.class);
+        public void test_initAsync_alreadyInitialized() {
+            PreferenceStore store = mock(PreferenceStore.class);
+            PreferenceStore session = mock(PreferenceStore.class);
+            PreferenceHelper.defaultStore = store;
+            PreferenceHelper.context = context;
+            PreferenceHelper.stores.put("session", session);
+
+            PreferenceHelper.initAsync(context, new PreferenceOptions().setStorage(storage), "session");
 
-            Assert.assertTrue(result);
+            Assert.assertSame(PreferenceHelper.defaultStore, store);
+            Assert.assertSame(PreferenceHelper.stores.get("session"), session);
+            verify(storage, times(0)).open(context, null);
         }
 
         @Test
-        public void test_long() throws Exception {
-            boolean result = Whitebox.invokeMethod(PreferenceHelper.class, "isTypePrimitive", Long.class);
+        public void test_initAsync_defaultOptions() {
+            PreferenceHelper.initAsync(context);
 
-            Assert.assertTrue(result);
+            Assert.assertNotNull(PreferenceHelper.defaultStore);
+            Assert.assertNotNull(PreferenceHelper.defaultOptions);
         }
 
         @Test
-        public void test_string() throws Exception {
-            boolean result = Whitebox.invokeMethod(PreferenceHelper.class, "isTypePrimitive", String.class);
+        public void test_initAsync_nameNull() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Store name cannot be null");
 
-            Assert.assertFalse(result);
+            PreferenceHelper.initAsync(context, new PreferenceOptions().setStorage(storage), (String) null);
         }
     }
 
-    public static class CheckForExceptionsTests {
-
-        @Before
-        public void beforeTest() {
-            PreferenceHelper.preferences = mock(SharedPreferences.class);
-            PreferenceHelper.editor = mock(SharedPreferences.Editor.class);
-        }
+    public static class StoreTests {
 
         @Rule
         public ExpectedException expectedException = ExpectedException.none();
 
-        @Test
-        public void check_preferencesNull() throws Exception {
-            expectedException.expect(IllegalStateException.class);
-            expectedException.expectMessage("You must call PreferenceHelper.init() before any other PreferenceHelper methods");
-            PreferenceHelper.preferences = null;
+        Context context;
+        PreferenceStorage storage;
+
+        @Before
+        public void beforeTest() {
+            context = mock(Context.class);
+            storage = mock(PreferenceStorage.class);
+            doReturn(mock(SharedPreferences.class)).when(storage).open(context, null);
+            doReturn(new InMemorySharedPreferences()).when(storage).open(context, "session");
+            doReturn(new InMemorySharedPreferences()).when(storage).open(context, "config");
+            PreferenceHelper.defaultStore = null;
+            PreferenceHelper.init(context, new PreferenceOptions().setStorage(storage));
+        }
 
-            Whitebox.invokeMethod(PreferenceHelper.class, "checkForExceptions", "key", "value", String.class);
+        @After
+        public void afterTest() {
+            PreferenceHelper.defaultStore = null;
+            PreferenceHelper.defaultOptions = null;
+            PreferenceHelper.context = null;
+            PreferenceHelper.stores.clear();
         }
 
         @Test
-        public void check_editorNull() throws Exception {
-            expectedException.expect(IllegalStateException.class);
-            expectedException.expectMessage("You must call PreferenceHelper.init() before any other PreferenceHelper methods");
-            PreferenceHelper.editor = null;
+        public void test_store_opensNamedFile() {
+            PreferenceStore store = PreferenceHelper.store("session");
 
-            Whitebox.invokeMethod(PreferenceHelper.class, "checkForExceptions", "key", "value", String.class);
+            Assert.assertEquals(store.getName(), "session");
+            Assert.assertEquals(store.writePolicy.getMode(), WritePolicy.Mode.COMMIT);
+            verify(storage, times(1)).open(context, "session");
         }
 
         @Test
-        public void check_keyNull() throws Exception {
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("Key cannot be null");
+        public void test_store_sameInstance() {
+            PreferenceStore first = PreferenceHelper.store("session");
+            PreferenceStore second = PreferenceHelper.store("session", new PreferenceOptions().setWritePolicy(WritePolicy.apply()));
 
-            Whitebox.invokeMethod(PreferenceHelper.class, "checkForExceptions", (String) null, "value", String.class);
+            Assert.assertSame(first, second);
+            Assert.assertEquals(second.writePolicy.getMode(), WritePolicy.Mode.COMMIT);
+            verify(storage, times(1)).open(context, "session");
         }
 
         @Test
-        public void check_valueAndType_null() throws Exception {
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("You must specify the object type when storing or retrieving a null value using put(String key, T value, Class<T> type) or get(String key, T fallback, Class<T> type)");
+        public void test_store_isolated() {
+            PreferenceStore session = PreferenceHelper.store("session");
+            PreferenceStore config = PreferenceHelper.store("config");
 
-            Whitebox.invokeMethod(PreferenceHelper.class, "checkForExceptions", "key", null, null);
+            session.putInt("counter", 5);
+
+            Assert.assertNotSame(session, config);
+            Assert.assertEquals(session.getInt("counter", 0), 5);
+            Assert.assertFalse(config.contains("counter"));
         }
 
         @Test
-        public void check_value_notNull() throws Exception {
-            Whitebox.invokeMethod(PreferenceHelper.class, "checkForExceptions", "key", "value", null);
+        public void test_store_options() {
+            PreferenceStorage sessionStorage = mock(PreferenceStorage.class);
+            doReturn(new InMemorySharedPreferences()).when(sessionStorage).open(context, "session");
+            WritePolicy policy = WritePolicy.apply();
+
+            PreferenceStore store = PreferenceHelper.store("session", new PreferenceOptions().setStorage(sessionStorage).setWritePolicy(policy));
 
-            // expectedException handles assertion
+            Assert.assertEquals(store.writePolicy, policy);
+            verify(sessionStorage, times(1)).open(context, "session");
+            verify(storage, times(0)).open(context, "session");
         }
 
         @Test
-        public void check_valueNull_typeNotPrimitive() throws Exception {
-            Whitebox.invokeMethod(PreferenceHelper.class, "checkForExceptions", "key", null, String.class);
+        public void test_store_nameNull() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Store name cannot be null");
 
-            // expectedException handles assertion
+            PreferenceHelper.store(null);
         }
 
         @Test
-        public void check_valueNull_typePrimitive() throws Exception {
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("Null primitive types (boolean, int, long, float) are invalid");
+        public void test_store_notInitialized() {
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("You must call PreferenceHelper.init() before any other PreferenceHelper methods");
+            PreferenceHelper.defaultStore = null;
 
-            Whitebox.invokeMethod(PreferenceHelper.class, "checkForExceptions", "key", null, Integer.class);
+            PreferenceHelper.store("session");
         }
     }
 
-    public static class GetInstanceTypeTests {
+    public static class NotInitializedTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Before
+        public void beforeTest() {
+            PreferenceHelper.defaultStore = null;
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("You must call PreferenceHelper.init() before any other PreferenceHelper methods");
+        }
 
         @Test
-        public void test_valueNull() throws Exception {
-            Class result = Whitebox.invokeMethod(PreferenceHelper.class, "getInstanceType", (String) null, String.class);
+        public void test_edit() {
+            PreferenceHelper.edit();
+        }
 
-            Assert.assertEquals(result, String.class);
+        @Test
+        public void test_put() {
+            PreferenceHelper.put("key", "value");
         }
 
         @Test
-        public void test_valueExists() throws Exception {
-            Class result = Whitebox.invokeMethod(PreferenceHelper.class, "getInstanceType", true, null);
+        public void test_getInt() {
+            PreferenceHelper.getInt("key", 0);
+        }
 
-            Assert.assertEquals(result, Boolean.class);
+        @Test
+        public void test_contains() {
+            PreferenceHelper.contains("key");
         }
     }
 
-    @PrepareForTest({PreferenceHelper.class, Gson.class})
-    public static class PutTests extends PowerMockTest {
+    public static class DelegationTests {
 
-        @Rule
-        public ExpectedException expectedException = ExpectedException.none();
+        PreferenceStore store;
 
         @Before
         public void beforeTest() {
-            PreferenceHelper.preferences = mock(SharedPreferences.class);
-            PreferenceHelper.editor = mock(SharedPreferences.Editor.class);
+            store = mock(PreferenceStore.class);
+            PreferenceHelper.defaultStore = store;
         }
 
-        @Test
-        public void test_put_checkForExceptions() {
-            // We are unable to verify on static private methods
-            // We will assert it is called by putting in data that would call out to checkForExceptions() method
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("Key cannot be null");
+        @After
+        public void afterTest() {
+            PreferenceHelper.defaultStore = null;
+        }
 
-            PreferenceHelper.put(null, "string");
+        @Test
+        public void test_isLoaded() {
+            doReturn(true).when(store).isLoaded();
 
-            verify(PreferenceHelper.editor, times(0)).commit();
+            Assert.assertTrue(PreferenceHelper.isLoaded());
         }
 
         @Test
-        public void test_put_getInstanceType() {
-            // We are unable to verify on static private methods
-            // We will assert it is called by putting in data that would call out to getInstanceType() method
+        public void test_getStartupMetrics() {
+            StartupMetrics metrics = new StartupMetrics();
+            doReturn(metrics).when(store).getStartupMetrics();
 
-            PreferenceHelper.put("key", null, String.class);
-
-            verify(PreferenceHelper.editor, times(1)).putString("key", null);
-            verify(PreferenceHelper.editor, times(1)).commit();
+            Assert.assertEquals(PreferenceHelper.getStartupMetrics(), metrics);
         }
 
         @Test
-        public void test_put_String() {
-            PreferenceHelper.put("key", "string");
+        public void test_getCompressionStats() {
+            CompressionStats stats = new CompressionStats();
+            doReturn(stats).when(store).getCompressionStats();
 
-            verify(PreferenceHelper.editor, times(1)).putString("key", "string");
-            verify(PreferenceHelper.editor, times(1)).commit();
+            Assert.assertEquals(PreferenceHelper.getCompressionStats(), stats);
         }
 
         @Test
-        public void test_put_int() {
-            PreferenceHelper.put("key", 1);
+        public void test_getMetrics() {
+            MetricsSnapshot snapshot = new MetricsRecorder(null, null).snapshot();
+            doReturn(snapshot).when(store).getMetrics();
 
-            verify(PreferenceHelper.editor, times(1)).putInt("key", 1);
-            verify(PreferenceHelper.editor, times(1)).commit();
+            Assert.assertEquals(PreferenceHelper.getMetrics(), snapshot);
         }
 
         @Test
-        public void test_put_boolean() {
-            PreferenceHelper.put("key", false);
+        public void test_resetMetrics() {
+            PreferenceHelper.resetMetrics();
 
-            verify(PreferenceHelper.editor, times(1)).putBoolean("key", false);
-            verify(PreferenceHelper.editor, times(1)).commit();
+            verify(store, times(1)).resetMetrics();
         }
 
         @Test
-        public void test_put_long() {
-            PreferenceHelper.put("key", 1000L);
+        public void test_flush() {
+            PreferenceHelper.flush();
 
-            verify(PreferenceHelper.editor, times(1)).putLong("key", 1000L);
-            verify(PreferenceHelper.editor, times(1)).commit();
+            verify(store, times(1)).flush();
         }
 
         @Test
-        public void test_put_float() {
-            PreferenceHelper.put("key", 5.999F);
+        public void test_flushAndWait() {
+            doReturn(true).when(store).flushAndWait();
 
-            verify(PreferenceHelper.editor, times(1)).putFloat("key", 5.999F);
-            verify(PreferenceHelper.editor, times(1)).commit();
+            Assert.assertTrue(PreferenceHelper.flushAndWait());
         }
 
         @Test
-        public void test_put_set() {
-            Set<String> set = new HashSet<>();
-            set.add("entry1");
+        public void test_edit() {
+            PreferenceBatch batch = mock(PreferenceBatch.class);
+            doReturn(batch).when(store).edit();
+
+            Assert.assertEquals(PreferenceHelper.edit(), batch);
+        }
 
-            PreferenceHelper.put("key", set);
+        @Test
+        public void test_contains() {
+            doReturn(true).when(store).contains("key");
 
-            verify(PreferenceHelper.editor, times(1)).putStringSet("key", set);
-            verify(PreferenceHelper.editor, times(1)).commit();
+            Assert.assertTrue(PreferenceHelper.contains("key"));
         }
 
         @Test
-        public void test_put_custom() throws Exception {
-            UUID uuid = UUID.randomUUID();
-            Gson gson = mock(Gson.class);
-            whenNew(Gson.class).withNoArguments().thenReturn(gson);
-            doReturn("json").when(gson).toJson(uuid, UUID.class);
+        public void test_remove() {
+            PreferenceHelper.remove("key");
 
-            PreferenceHelper.put("key", uuid);
+            verify(store, times(1)).remove("key");
+        }
+
+        @Test
+        public void test_clear() {
+            PreferenceHelper.clear();
 
-            verify(PreferenceHelper.editor, times(1)).putString("key", "json");
-            verify(PreferenceHelper.editor, times(1)).commit();
+            verify(store, times(1)).clear();
         }
-    }
 
-    @PrepareForTest({PreferenceHelper.class})
-    public static class PutListTests extends PowerMockTest {
+        @Test
+        public void test_put() {
+            PreferenceHelper.put("key", "value");
+            PreferenceHelper.put("null", null, String.class);
+
+            verify(store, times(1)).put("key", "value");
+            verify(store, times(1)).put("null", null, String.class);
+        }
 
         @Test
-        public void test_putList() throws Exception {
-            spy(PreferenceHelper.class);
+        public void test_putList() {
             List<UUID> list = new ArrayList<>();
-            doNothing().when(PreferenceHelper.class, "put", "key", list, List.class);
 
             PreferenceHelper.putList("key", list);
 
-            verifyPrivate(PreferenceHelper.class, times(1)).invoke("put", "key", list, List.class);
+            verify(store, times(1)).putList("key", list);
         }
-    }
 
-    @PrepareForTest({PreferenceHelper.class})
-    public static class GetTests extends PowerMockTest {
-
-        @Rule
-        public ExpectedException expectedException = ExpectedException.none();
+        @Test
+        public void test_typedPuts() {
+            PreferenceHelper.putString("string", "value");
+            PreferenceHelper.putInt("int", 1);
+            PreferenceHelper.putLong("long", 2L);
+            PreferenceHelper.putFloat("float", 3F);
+            PreferenceHelper.putBoolean("boolean", true);
 
-        @Before
-        public void beforeTest() {
-            PreferenceHelper.preferences = mock(SharedPreferences.class);
-            PreferenceHelper.editor = mock(SharedPreferences.Editor.class);
+            verify(store, times(1)).putString("string", "value");
+            verify(store, times(1)).putInt("int", 1);
+            verify(store, times(1)).putLong("long", 2L);
+            verify(store, times(1)).putFloat("float", 3F);
+            verify(store, times(1)).putBoolean("boolean", true);
         }
 
         @Test
-        public void test_get_checkForExceptions() {
-            // We are unable to verify on static private methods
-            // We will assert it is called by putting in data that would call out to checkForExceptions() method
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("Key cannot be null");
-
-            PreferenceHelper.get(null, "string");
+        public void test_typedGets() {
+            doReturn("value").when(store).getString("string", null);
+            doReturn(1).when(store).getInt("int", 0);
+            doReturn(2L).when(store).getLong("long", 0L);
+            doReturn(3F).when(store).getFloat("float", 0F);
+            doReturn(true).when(store).getBoolean("boolean", false);
 
-            verify(PreferenceHelper.preferences, times(0)).getString(anyString(), anyString());
-            verify(PreferenceHelper.preferences, times(0)).getInt(anyString(), anyInt());
-            verify(PreferenceHelper.preferences, times(0)).getBoolean(anyString(), anyBoolean());
-            verify(PreferenceHelper.preferences, times(0)).getLong(anyString(), anyLong());
-            verify(PreferenceHelper.preferences, times(0)).getFloat(anyString(), anyFloat());
-            verify(PreferenceHelper.preferences, times(0)).getStringSet(anyString(), anySet());
+            Assert.assertEquals(PreferenceHelper.getString("string", null), "value");
+            Assert.assertEquals(PreferenceHelper.getInt("int", 0), 1);
+            Assert.assertEquals(PreferenceHelper.getLong("long", 0L), 2L);
+            Assert.assertEquals(PreferenceHelper.getFloat("float", 0F), 3F, 0);
+            Assert.assertTrue(PreferenceHelper.getBoolean("boolean", false));
         }
 
         @Test
-        public void test_get_getInstanceType() {
-            // We are unable to verify on static private methods
-            // We will assert it is called by putting in data that would call out to getInstanceType() method
-            doReturn("result").when(PreferenceHelper.preferences).getString("key", null);
+        public void test_get() {
+            doReturn("value").when(store).get("key", "fallback");
+            doReturn("typed").when(store).get("typed", null, String.class);
 
-            String result = PreferenceHelper.get("key", null, String.class);
-
-            Assert.assertEquals(result, "result");
+            Assert.assertEquals(PreferenceHelper.get("key", "fallback"), "value");
+            Assert.assertEquals(PreferenceHelper.get("typed", null, String.class), "typed");
         }
 
         @Test
-        public void test_get_String() {
-            doReturn("result").when(PreferenceHelper.preferences).getString("key", "fallback");
-
-            String result = PreferenceHelper.get("key", "fallback");
+        public void test_getList() {
+            List<UUID> list = new ArrayList<>();
+            doReturn(list).when(store).getList("key", null, UUID[].class);
 
-            Assert.assertEquals(result, "result");
+            Assert.assertEquals(PreferenceHelper.getList("key", null, UUID[].class), list);
         }
 
         @Test
-        public void test_get_int() {
-            doReturn(1).when(PreferenceHelper.preferences).getInt("key", 0);
-
-            int result = PreferenceHelper.get("key", 0);
+        public void test_getListCursor() {
+            ListCursor<UUID> cursor = mock(ListCursor.class);
+            doReturn(cursor).when(store).getListCursor("key", UUID.class);
 
-            Assert.assertEquals(result, 1);
+            Assert.assertEquals(PreferenceHelper.getListCursor("key", UUID.class), cursor);
         }
 
         @Test
-        public void test_get_boolean() {
-            doReturn(true).when(PreferenceHelper.preferences).getBoolean("key", false);
+        public void test_snapshot() {
+            PreferenceSnapshot snapshot = mock(PreferenceSnapshot.class);
+            doReturn(snapshot).when(store).snapshot();
 
-            boolean result = PreferenceHelper.get("key", false);
+            Assert.assertEquals(PreferenceHelper.snapshot(), snapshot);
+        }
+
+        @Test
+        public void test_getMany() {
+            PreferenceKey<Integer> key = PreferenceKey.ofInt("key", 0);
+            PreferenceValues values = mock(PreferenceValues.class);
+            doReturn(values).when(store).getMany(key);
 
-            Assert.assertEquals(result, true);
+            Assert.assertEquals(PreferenceHelper.getMany(key), values);
         }
 
         @Test
-        public void test_get_long() {
-            doReturn(100L).when(PreferenceHelper.preferences).getLong("key", 25L);
+        public void test_putWithTtl() {
+            PreferenceHelper.put("key", "value", 1000);
 
-            long result = PreferenceHelper.get("key", 25L);
+            verify(store, times(1)).put("key", "value", 1000);
+        }
+
+        @Test
+        public void test_sweepExpired() {
+            doReturn(2).when(store).sweepExpired();
 
-            Assert.assertEquals(result, 100L);
+            Assert.assertEquals(PreferenceHelper.sweepExpired(), 2);
         }
 
         @Test
-        public void test_get_float() {
-            doReturn(7.75F).when(PreferenceHelper.preferences).getFloat("key", 0.5F);
+        public void test_appendToList() {
+            PreferenceHelper.appendToList("key", "value");
 
-            float result = PreferenceHelper.get("key", 0.5F);
+            verify(store, times(1)).appendToList("key", "value");
+        }
 
-            Assert.assertEquals(result, 7.75F, 0);
+        @Test
+        public void test_removeFromList() {
+            doReturn(true).when(store).removeFromList("key", "value");
+
+            Assert.assertTrue(PreferenceHelper.removeFromList("key", "value"));
         }
 
         @Test
-        public void test_get_set() {
-            Set<String> fallback = new HashSet<>();
-            fallback.add("fallback1");
-            Set<String> expected = new HashSet<>();
-            expected.add("entry1");
-            expected.add("entry2");
-            doReturn(expected).when(PreferenceHelper.preferences).getStringSet("key", fallback);
+        public void test_getListSize() {
+            doReturn(3).when(store).getListSize("key");
+
+            Assert.assertEquals(PreferenceHelper.getListSize("key"), 3);
+        }
 
-            Set<String> result = PreferenceHelper.get("key", fallback);
+        @Test
+        public void test_addToSet() {
+            doReturn(true).when(store).addToSet("key", "value");
 
-            // We want to assert that we did not get the expected list but a duplicate/identical list with a different memory address
-            Assert.assertEquals(result == expected, false);
-            Assert.assertEquals(result.size(), 2);
-            Iterator<String> iterator = result.iterator();
-            Assert.assertEquals(iterator.next(), "entry1");
-            Assert.assertEquals(iterator.next(), "entry2");
-            Assert.assertEquals(iterator.hasNext(), false);
+            Assert.assertTrue(PreferenceHelper.addToSet("key", "value"));
         }
 
         @Test
-        public void test_get_customObject() throws Exception {
-            spy(PreferenceHelper.class);
-            UUID fallback = UUID.randomUUID();
-            UUID storedObject = UUID.randomUUID();
-            doReturn(storedObject).when(PreferenceHelper.class, "getCustomObject", "key", fallback, UUID.class);
+        public void test_removeFromSet() {
+            doReturn(true).when(store).removeFromSet("key", "value");
 
-            UUID result = PreferenceHelper.get("key", fallback);
+            Assert.assertTrue(PreferenceHelper.removeFromSet("key", "value"));
+        }
+
+        @Test
+        public void test_putMapEntry() {
+            PreferenceHelper.putMapEntry("key", "entry", "value");
 
-            Assert.assertEquals(storedObject, result);
+            verify(store, times(1)).putMapEntry("key", "entry", "value");
         }
-    }
 
-    @PrepareForTest({PreferenceHelper.class, Gson.class, JsonSyntaxException.class})
-    public static class GetCustomObjectTests extends PowerMockTest {
+        @Test
+        public void test_removeMapEntry() {
+            doReturn(true).when(store).removeMapEntry("key", "entry");
 
-        @Rule
-        public ExpectedException expectedException = ExpectedException.none();
+            Assert.assertTrue(PreferenceHelper.removeMapEntry("key", "entry"));
+        }
 
-        UUID fallback;
-        Gson gson;
-        String key;
+        @Test
+        public void test_getMapEntry() {
+            doReturn("value").when(store).getMapEntry("key", "entry", null, String.class);
 
-        @Before
-        public void beforeTest() throws Exception {
-            PreferenceHelper.preferences = mock(SharedPreferences.class);
-            key = "key";
-            fallback = UUID.randomUUID();
-            gson = mock(Gson.class);
-            whenNew(Gson.class).withNoArguments().thenReturn(gson);
+            Assert.assertEquals(PreferenceHelper.getMapEntry("key", "entry", null, String.class), "value");
         }
 
         @Test
-        public void test_getCustomObject_fallback() throws Exception {
-            doReturn(false).when(PreferenceHelper.preferences).contains(key);
+        public void test_getMapSize() {
+            doReturn(2).when(store).getMapSize("key");
 
-            UUID result = Whitebox.invokeMethod(PreferenceHelper.class, "getCustomObject", key, fallback, UUID.class);
+            Assert.assertEquals(PreferenceHelper.getMapSize("key"), 2);
+        }
+
+        @Test
+        public void test_putAsync() {
+            Future<Void> future = mock(Future.class);
+            doReturn(future).when(store).putAsync("key", "value");
 
-            Assert.assertEquals(result, fallback);
+            Assert.assertEquals(PreferenceHelper.putAsync("key", "value"), future);
         }
 
         @Test
-        public void test_getCustomObject_exists_withListException() throws Exception {
-            doReturn(true).when(PreferenceHelper.preferences).contains(key);
-            List<UUID> listFallback = new ArrayList<>();
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("Please use getList() instead of get() when retrieving a list of stored objects.");
+        public void test_putAsync_type() {
+            Future<Void> future = mock(Future.class);
+            doReturn(future).when(store).putAsync("key", "value", String.class);
 
-            UUID result = Whitebox.invokeMethod(PreferenceHelper.class, "getCustomObject", key, listFallback, listFallback.getClass());
+            Assert.assertEquals(PreferenceHelper.putAsync("key", "value", String.class), future);
+        }
 
-            // Assertion handled via expectedException
+        @Test
+        public void test_putAsync_callback() {
+            Future<Void> future = mock(Future.class);
+            PreferenceCallback<Void> callback = mock(PreferenceCallback.class);
+            doReturn(future).when(store).putAsync("key", "value", String.class, callback);
+
+            Assert.assertEquals(PreferenceHelper.putAsync("key", "value", String.class, callback), future);
         }
 
         @Test
-        public void test_getCustomObject_exists_noException() throws Exception {
-            doReturn(true).when(PreferenceHelper.preferences).contains(key);
-            doReturn("json").when(PreferenceHelper.preferences).getString(key, null);
-            UUID storedUUID = UUID.randomUUID();
-            doReturn(storedUUID).when(gson).fromJson("json", UUID.class);
+        public void test_getAsync() {
+            Future<String> future = mock(Future.class);
+            doReturn(future).when(store).getAsync("key", "fallback");
+
+            Assert.assertEquals(PreferenceHelper.getAsync("key", "fallback"), future);
+        }
 
-            UUID result = Whitebox.invokeMethod(PreferenceHelper.class, "getCustomObject", key, fallback, UUID.class);
+        @Test
+        public void test_getAsync_type() {
+            Future<String> future = mock(Future.class);
+            doReturn(future).when(store).getAsync("key", null, String.class);
 
-            Assert.assertEquals(result, storedUUID);
+            Assert.assertEquals(PreferenceHelper.getAsync("key", null, String.class), future);
         }
 
         @Test
-        public void test_getCustomObject_exists_withJsonException() throws Exception {
-            doReturn(true).when(PreferenceHelper.preferences).contains(key);
-            doReturn("json").when(PreferenceHelper.preferences).getString(key, null);
-            JsonSyntaxException jsonSyntaxException = mock(JsonSyntaxException.class);
-            doThrow(jsonSyntaxException).when(gson).fromJson("json", UUID.class);
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
-            expectedException.expectCause(is(jsonSyntaxException));
+        public void test_getAsync_callback() {
+            Future<String> future = mock(Future.class);
+            PreferenceCallback<String> callback = mock(PreferenceCallback.class);
+            doReturn(future).when(store).getAsync("key", null, String.class, callback);
 
-            UUID result = Whitebox.invokeMethod(PreferenceHelper.class, "getCustomObject", key, fallback, UUID.class);
+            Assert.assertEquals(PreferenceHelper.getAsync("key", null, String.class, callback), future);
+        }
+
+        @Test
+        public void test_getListAsync() {
+            Future<List<UUID>> future = mock(Future.class);
+            doReturn(future).when(store).getListAsync("key", null, UUID[].class);
 
-            // Assertion handled via expectedException
+            Assert.assertEquals(PreferenceHelper.getListAsync("key", null, UUID[].class), future);
         }
-    }
 
-    @PrepareForTest({PreferenceHelper.class, Gson.class, RuntimeException.class})
-    public static class GetListTests extends PowerMockTest {
+        @Test
+        public void test_getListAsync_callback() {
+            Future<List<UUID>> future = mock(Future.class);
+            PreferenceCallback<List<UUID>> callback = mock(PreferenceCallback.class);
+            doReturn(future).when(store).getListAsync("key", null, UUID[].class, callback);
 
-        @Rule
-        public ExpectedException expectedException = ExpectedException.none();
+            Assert.assertEquals(PreferenceHelper.getListAsync("key", null, UUID[].class, callback), future);
+        }
 
-        List<UUID> fallback;
-        Gson gson;
-        String key;
+        @Test
+        public void test_observe() {
+            PreferenceSubscription subscription = mock(PreferenceSubscription.class);
+            PreferenceObserver<String> observer = mock(PreferenceObserver.class);
+            doReturn(subscription).when(store).observe("key", null, String.class, observer);
 
-        @Before
-        public void beforeTest() throws Exception {
-            PreferenceHelper.preferences = mock(SharedPreferences.class);
-            key = "key";
-            fallback = new ArrayList<>();
-            gson = mock(Gson.class);
-            whenNew(Gson.class).withNoArguments().thenReturn(gson);
+            Assert.assertEquals(PreferenceHelper.observe("key", null, String.class, observer), subscription);
         }
 
         @Test
-        public void test_getList_fallback() {
-            doReturn(false).when(PreferenceHelper.preferences).contains(key);
+        public void test_observe_keys() {
+            PreferenceSubscription subscription = mock(PreferenceSubscription.class);
+            PreferenceObserver<String> observer = mock(PreferenceObserver.class);
+            List<String> keys = new ArrayList<>();
+            doReturn(subscription).when(store).observe(keys, null, String.class, observer);
 
-            List<UUID> result = PreferenceHelper.getList(key, fallback, UUID[].class);
+            Assert.assertEquals(PreferenceHelper.observe(keys, null, String.class, observer), subscription);
+        }
+
+        @Test
+        public void test_observePrefix() {
+            PreferenceSubscription subscription = mock(PreferenceSubscription.class);
+            PreferenceObserver<String> observer = mock(PreferenceObserver.class);
+            doReturn(subscription).when(store).observePrefix("user.", null, String.class, observer);
 
-            Assert.assertEquals(result, fallback);
+            Assert.assertEquals(PreferenceHelper.observePrefix("user.", null, String.class, observer), subscription);
         }
 
         @Test
-        public void test_getList_noException_null() {
-            doReturn(true).when(PreferenceHelper.preferences).contains(key);
-            doReturn("json").when(PreferenceHelper.preferences).getString(key, null);
-            UUID[] fromJson = null;
-            doReturn(fromJson).when(gson).fromJson("json", UUID[].class);
+        public void test_put_typeToken() {
+            TypeToken<Map<String, UUID>> type = new TypeToken<Map<String, UUID>>() {};
+            Map<String, UUID> value = new HashMap<>();
 
-            List<UUID> result = PreferenceHelper.getList(key, fallback, UUID[].class);
+            PreferenceHelper.put("key", value, type);
 
-            Assert.assertNull(result);
+            verify(store, times(1)).put("key", value, type);
         }
 
         @Test
-        public void test_getList_noException_notNull() {
-            doReturn(true).when(PreferenceHelper.preferences).contains(key);
-            doReturn("json").when(PreferenceHelper.preferences).getString(key, null);
-            UUID[] fromJson = new UUID[] {UUID.randomUUID()};
-            doReturn(fromJson).when(gson).fromJson("json", UUID[].class);
+        public void test_put_type() {
+            Type type = new TypeToken<Map<String, UUID>>() {}.getType();
+            Map<String, UUID> value = new HashMap<>();
 
-            List<UUID> result = PreferenceHelper.getList(key, fallback, UUID[].class);
+            PreferenceHelper.put("key", value, type);
 
-            Assert.assertEquals(result.size(), 1);
-            Assert.assertEquals(result.get(0), fromJson[0]);
+            verify(store, times(1)).put("key", (Object) value, type);
         }
 
         @Test
-        public void test_getList_exception() {
-            doReturn(true).when(PreferenceHelper.preferences).contains(key);
-            doReturn("invalid json").when(PreferenceHelper.preferences).getString(key, null);
-            RuntimeException runtimeException = mock(RuntimeException.class);
-            doThrow(runtimeException).when(gson).fromJson("invalid json", UUID[].class);
-            expectedException.expect(IllegalArgumentException.class);
-            expectedException.expectMessage("The object stored at the specified key is not a UUID[]");
-            expectedException.expectCause(is(runtimeException));
+        public void test_get_typeToken() {
+            TypeToken<Map<String, UUID>> type = new TypeToken<Map<String, UUID>>() {};
+            Map<String, UUID> value = new HashMap<>();
+            doReturn(value).when(store).get("key", null, type);
+
+            Assert.assertEquals(PreferenceHelper.get("key", null, type), value);
+        }
 
-            List<UUID> result = PreferenceHelper.getList(key, fallback, UUID[].class);
+        @Test
+        public void test_get_type() {
+            Type type = new TypeToken<Map<String, UUID>>() {}.getType();
+            Map<String, UUID> value = new HashMap<>();
+            doReturn(value).when(store).get("key", null, type);
 
-            // Assertion handled via expectedException
+            Assert.assertEquals(PreferenceHelper.get("key", null, type), value);
         }
     }
 }
@@ -0,0 +1,358 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+@RunWith(Enclosed.class)
+public class PreferenceKeyTests {
+
+    public static class FactoryTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_typedFactories() {
+            Assert.assertThat(PreferenceKey.ofString("key", null), instanceOf(PreferenceKey.StringKey.class));
+            Assert.assertThat(PreferenceKey.ofInt("key", 0), instanceOf(PreferenceKey.IntKey.class));
+            Assert.assertThat(PreferenceKey.ofLong("key", 0L), instanceOf(PreferenceKey.LongKey.class));
+            Assert.assertThat(PreferenceKey.ofFloat("key", 0f), instanceOf(PreferenceKey.FloatKey.class));
+            Assert.assertThat(PreferenceKey.ofBoolean("key", false), instanceOf(PreferenceKey.BooleanKey.class));
+            Assert.assertThat(PreferenceKey.ofStringSet("key", null), instanceOf(PreferenceKey.StringSetKey.class));
+        }
+
+        @Test
+        public void test_of_class() {
+            Assert.assertThat(PreferenceKey.of("key", "text", String.class), instanceOf(PreferenceKey.StringKey.class));
+            Assert.assertThat(PreferenceKey.of("key", 1, Integer.class), instanceOf(PreferenceKey.IntKey.class));
+            Assert.assertThat(PreferenceKey.of("key", 1L, Long.class), instanceOf(PreferenceKey.LongKey.class));
+            Assert.assertThat(PreferenceKey.of("key", 1f, Float.class), instanceOf(PreferenceKey.FloatKey.class));
+            Assert.assertThat(PreferenceKey.of("key", true, Boolean.class), instanceOf(PreferenceKey.BooleanKey.class));
+            Assert.assertThat(PreferenceKey.of("key", null, HashSet.class), instanceOf(PreferenceKey.StringSetKey.class));
+            Assert.assertThat(PreferenceKey.of("key", null, UUID.class), instanceOf(PreferenceKey.ObjectKey.class));
+        }
+
+        @Test
+        public void test_of_typeToken() {
+            PreferenceKey<Map<String, UUID>> key = PreferenceKey.of("key", null, new TypeToken<Map<String, UUID>>() {});
+
+            Assert.assertEquals(((PreferenceKey.ObjectKey<?>) key).getType(), new TypeToken<Map<String, UUID>>() {}.getType());
+            Assert.assertThat(PreferenceKey.of("key", 0, new TypeToken<Integer>() {}), instanceOf(PreferenceKey.IntKey.class));
+        }
+
+        @Test
+        public void test_nameAndFallback() {
+            PreferenceKey<Integer> key = PreferenceKey.ofInt("launch_count", 3);
+
+            Assert.assertEquals(key.getName(), "launch_count");
+            Assert.assertEquals(key.getFallback(), Integer.valueOf(3));
+        }
+
+        @Test
+        public void test_nullName() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            PreferenceKey.ofInt(null, 0);
+        }
+
+        @Test
+        public void test_of_nullType() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Type cannot be null");
+
+            PreferenceKey.of("key", null, (Class<String>) null);
+        }
+
+        @Test
+        public void test_of_nullTypeToken() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Type cannot be null");
+
+            PreferenceKey.of("key", null, (TypeToken<String>) null);
+        }
+
+        @Test
+        public void test_of_adapter() {
+            PreferenceKey<UUID> key = PreferenceKey.of("key", null, new Gson().getAdapter(UUID.class));
+
+            Assert.assertThat(key, instanceOf(PreferenceKey.AdapterKey.class));
+            Assert.assertNull(key.getFallback());
+        }
+
+        @Test
+        public void test_of_nullAdapter() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Adapter cannot be null");
+
+            PreferenceKey.of("key", null, (TypeAdapter<String>) null);
+        }
+
+        @Test
+        public void test_of_adapter_nullName() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            PreferenceKey.of(null, null, new Gson().getAdapter(UUID.class));
+        }
+
+        @Test
+        public void test_of_nullPrimitive() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Null primitive types (boolean, int, long, float) are invalid");
+
+            PreferenceKey.of("key", null, Integer.class);
+        }
+
+        @Test
+        public void test_of_list() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Use a TypeToken such as new TypeToken<List<User>>() {} for a key that holds a list");
+
+            PreferenceKey.of("key", null, List.class);
+        }
+    }
+
+    public static class AccessorTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions());
+        }
+
+        @Test
+        public void test_fallbacks() {
+            Assert.assertEquals(PreferenceKey.ofString("string", "fallback").get(store), "fallback");
+            Assert.assertEquals(PreferenceKey.ofInt("int", 1).get(store), Integer.valueOf(1));
+            Assert.assertEquals(PreferenceKey.ofLong("long", 2L).get(store), Long.valueOf(2L));
+            Assert.assertEquals(PreferenceKey.ofFloat("float", 3f).get(store), 3f, 0);
+            Assert.assertTrue(PreferenceKey.ofBoolean("boolean", true).get(store));
+            Assert.assertNull(PreferenceKey.ofStringSet("set", null).get(store));
+            Assert.assertNull(PreferenceKey.of("object", null, UUID.class).get(store));
+        }
+
+        @Test
+        public void test_putAndGet() {
+            PreferenceKey<String> string = PreferenceKey.ofString("string", null);
+            PreferenceKey<Integer> integer = PreferenceKey.ofInt("int", 0);
+            PreferenceKey<Long> longKey = PreferenceKey.ofLong("long", 0L);
+            PreferenceKey<Float> floatKey = PreferenceKey.ofFloat("float", 0f);
+            PreferenceKey<Boolean> booleanKey = PreferenceKey.ofBoolean("boolean", false);
+
+            string.put(store, "text");
+            integer.put(store, 1);
+            longKey.put(store, 2L);
+            floatKey.put(store, 3f);
+            booleanKey.put(store, true);
+
+            Assert.assertEquals(string.get(store), "text");
+            Assert.assertEquals(integer.get(store), Integer.valueOf(1));
+            Assert.assertEquals(longKey.get(store), Long.valueOf(2L));
+            Assert.assertEquals(floatKey.get(store), 3f, 0);
+            Assert.assertTrue(booleanKey.get(store));
+            // Stored the same way as the store's own put(), so either can read the other's values
+            Assert.assertEquals(store.getInt("int", 0), 1);
+            Assert.assertEquals(store.get("string", null, String.class), "text");
+        }
+
+        @Test
+        public void test_nullString() {
+            PreferenceKey<String> key = PreferenceKey.ofString("string", "fallback");
+
+            key.put(store, null);
+
+            Assert.assertEquals(key.get(store), "fallback");
+        }
+
+        @Test
+        public void test_stringSet() {
+            PreferenceKey<Set<String>> key = PreferenceKey.ofStringSet("set", Collections.<String>emptySet());
+            Set<String> set = new HashSet<>(Arrays.asList("a", null));
+            key.put(store, set);
+
+            Set<String> result = key.get(store);
+            result.add("b");
+
+            Assert.assertEquals(key.get(store), set);
+        }
+
+        @Test
+        public void test_nullStringSet() {
+            PreferenceKey<Set<String>> key = PreferenceKey.ofStringSet("set", null);
+
+            key.put(store, null);
+
+            Assert.assertNull(key.get(store));
+        }
+
+        @Test
+        public void test_object() {
+            PreferenceKey<UUID> key = PreferenceKey.of("object", null, UUID.class);
+            UUID id = UUID.randomUUID();
+
+            key.put(store, id);
+
+            Assert.assertEquals(key.get(store), id);
+            Assert.assertEquals(store.get("object", null, UUID.class), id);
+        }
+
+        @Test
+        public void test_genericObject() {
+            PreferenceKey<List<UUID>> key = PreferenceKey.of("list", Collections.<UUID>emptyList(), new TypeToken<List<UUID>>() {});
+            List<UUID> ids = Arrays.asList(UUID.randomUUID(), UUID.randomUUID());
+
+            key.put(store, ids);
+
+            Assert.assertEquals(key.get(store), ids);
+            Assert.assertEquals(store.getList("list", null, UUID[].class), ids);
+        }
+
+        @Test
+        public void test_object_replacesParts() {
+            store = new PreferenceStore(null, preferences, new PreferenceOptions().setListSegmentSize(1));
+            store.appendToList("list", UUID.randomUUID());
+            store.appendToList("list", UUID.randomUUID());
+
+            PreferenceKey.of("list", null, new TypeToken<List<UUID>>() {}).put(store, Collections.<UUID>emptyList());
+
+            Assert.assertEquals(preferences.getAll().size(), 1);
+        }
+
+        @Test
+        public void test_object_wrongType() {
+            store.putString("object", "text");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+
+            PreferenceKey.of("object", null, UUID.class).get(store);
+        }
+
+        @Test
+        public void test_nullPrimitive() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Null primitive types (boolean, int, long, float) are invalid");
+
+            PreferenceKey.ofInt("int", 0).put(store, null);
+        }
+
+        @Test
+        public void test_remove() {
+            PreferenceKey<Integer> key = PreferenceKey.ofInt("int", 0);
+            key.put(store, 1);
+
+            key.remove(store);
+
+            Assert.assertFalse(store.contains("int"));
+        }
+    }
+
+    public static class StoreIntegrationTests {
+
+        @Test
+        public void test_metrics() {
+            PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setMetricsEnabled(true));
+            PreferenceKey<String> key = PreferenceKey.ofString("key", null);
+
+            key.put(store, "value");
+            key.get(store);
+
+            Assert.assertEquals(store.getMetrics().getStats("key", PreferenceOperation.PUT).getTotalSize(), 5);
+            Assert.assertEquals(store.getMetrics().getStats("key", PreferenceOperation.GET).getCount(), 1);
+        }
+
+        @Test
+        public void test_expired() {
+            PreferenceStore store = ExpiryTrackerTests.newStore(0);
+            store.put("key", 5, 100);
+            ((ExpiryTrackerTests.ClockTracker) store.expiry).now = 1100;
+
+            Assert.assertEquals(PreferenceKey.ofInt("key", 0).get(store), Integer.valueOf(0));
+        }
+
+        @Test
+        public void test_objectCache() {
+            PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setObjectCache(10, ObjectCacheMode.SHARED));
+            PreferenceKey<UUID> key = PreferenceKey.of("key", null, UUID.class);
+            key.put(store, UUID.randomUUID());
+
+            Assert.assertSame(key.get(store), key.get(store));
+        }
+
+        @Test
+        public void test_snapshotInvalidated() {
+            PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+            PreferenceSnapshot before = store.snapshot();
+
+            PreferenceKey.ofInt("key", 0).put(store, 1);
+
+            Assert.assertEquals(store.snapshot().getInt("key", 0), 1);
+            Assert.assertEquals(before.getInt("key", 0), 0);
+        }
+    }
+
+    public static class DefaultStoreTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+            PreferenceHelper.defaultStore = store;
+        }
+
+        @After
+        public void afterTest() {
+            PreferenceHelper.defaultStore = null;
+        }
+
+        @Test
+        public void test_defaultStore() {
+            PreferenceKey<Integer> key = PreferenceKey.ofInt("launch_count", 0);
+
+            key.put(key.get() + 1);
+
+            Assert.assertEquals(store.getInt("launch_count", 0), 1);
+            key.remove();
+            Assert.assertFalse(store.contains("launch_count"));
+        }
+
+        @Test
+        public void test_notInitialized() {
+            PreferenceHelper.defaultStore = null;
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("You must call PreferenceHelper.init() before any other PreferenceHelper methods");
+
+            PreferenceKey.ofInt("key", 0).get();
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.GsonBuilder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+@RunWith(Enclosed.class)
+public class PreferenceOptionsTests {
+
+    public static class WritePolicyTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertEquals(options.getWritePolicy().getMode(), WritePolicy.Mode.COMMIT);
+        }
+
+        @Test
+        public void test_set() {
+            WritePolicy policy = WritePolicy.apply();
+
+            PreferenceOptions options = new PreferenceOptions().setWritePolicy(policy);
+
+            Assert.assertEquals(options.getWritePolicy(), policy);
+        }
+
+        @Test
+        public void test_set_null() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Write policy cannot be null");
+
+            new PreferenceOptions().setWritePolicy(null);
+        }
+    }
+
+    public static class GsonBuilderTests {
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertNull(options.getGsonBuilder());
+        }
+
+        @Test
+        public void test_set() {
+            GsonBuilder builder = new GsonBuilder();
+
+            PreferenceOptions options = new PreferenceOptions().setGsonBuilder(builder);
+
+            Assert.assertEquals(options.getGsonBuilder(), builder);
+        }
+    }
+
+    public static class ObjectCacheTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertEquals(options.getObjectCacheSize(), 0);
+            Assert.assertEquals(options.getObjectCacheMode(), ObjectCacheMode.COPY_ON_READ);
+        }
+
+        @Test
+        public void test_set() {
+            PreferenceOptions options = new PreferenceOptions().setObjectCache(50, ObjectCacheMode.SHARED);
+
+            Assert.assertEquals(options.getObjectCacheSize(), 50);
+            Assert.assertEquals(options.getObjectCacheMode(), ObjectCacheMode.SHARED);
+        }
+
+        @Test
+        public void test_set_invalidSize() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object cache must hold at least 1 entry");
+
+            new PreferenceOptions().setObjectCache(0, ObjectCacheMode.SHARED);
+        }
+
+        @Test
+        public void test_set_nullMode() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Object cache mode cannot be null");
+
+            new PreferenceOptions().setObjectCache(10, null);
+        }
+    }
+
+    public static class StorageTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertTrue(options.getStorage() instanceof SharedPreferencesStorage);
+        }
+
+        @Test
+        public void test_set() {
+            PreferenceStorage storage = new MappedFileStorage();
+
+            PreferenceOptions options = new PreferenceOptions().setStorage(storage);
+
+            Assert.assertEquals(options.getStorage(), storage);
+        }
+
+        @Test
+        public void test_set_null() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Storage cannot be null");
+
+            new PreferenceOptions().setStorage(null);
+        }
+    }
+
+    public static class ValueCodecTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            Assert.assertNull(new PreferenceOptions().getValueCodec());
+        }
+
+        @Test
+        public void test_set() {
+            ValueCodec codec = new BinaryValueCodec();
+
+            PreferenceOptions options = new PreferenceOptions().setValueCodec(codec);
+
+            Assert.assertEquals(options.getValueCodec(), codec);
+        }
+
+        @Test
+        public void test_set_null() {
+            PreferenceOptions options = new PreferenceOptions().setValueCodec(new BinaryValueCodec()).setValueCodec(null);
+
+            Assert.assertNull(options.getValueCodec());
+        }
+
+        @Test
+        public void test_set_invalidTag() {
+            ValueCodec codec = mock(ValueCodec.class);
+            doReturn("b1:").when(codec).getTag();
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Value codec tags must start with '#'");
+
+            new PreferenceOptions().setValueCodec(codec);
+        }
+
+        @Test
+        public void test_set_nullTag() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Value codec tags must start with '#'");
+
+            new PreferenceOptions().setValueCodec(mock(ValueCodec.class));
+        }
+    }
+
+    public static class CompressionTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            Assert.assertEquals(new PreferenceOptions().getCompressionThreshold(), 0);
+        }
+
+        @Test
+        public void test_set() {
+            PreferenceOptions options = new PreferenceOptions().setCompressionThreshold(4096);
+
+            Assert.assertEquals(options.getCompressionThreshold(), 4096);
+        }
+
+        @Test
+        public void test_set_negative() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Compression threshold cannot be negative");
+
+            new PreferenceOptions().setCompressionThreshold(-1);
+        }
+    }
+
+    public static class MetricsTests {
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertFalse(options.isMetricsEnabled());
+            Assert.assertNull(options.getMetricsListener());
+        }
+
+        @Test
+        public void test_setEnabled() {
+            PreferenceOptions options = new PreferenceOptions().setMetricsEnabled(true);
+
+            Assert.assertTrue(options.isMetricsEnabled());
+        }
+
+        @Test
+        public void test_setListener() {
+            PreferenceMetricsListener listener = mock(PreferenceMetricsListener.class);
+
+            PreferenceOptions options = new PreferenceOptions().setMetricsListener(listener);
+
+            Assert.assertTrue(options.isMetricsEnabled());
+            Assert.assertEquals(options.getMetricsListener(), listener);
+        }
+    }
+
+    public static class AsyncTests {
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertNull(options.getAsyncExecutor());
+            Assert.assertTrue(options.isAsyncKeyOrdering());
+        }
+
+        @Test
+        public void test_setExecutor() {
+            Executor executor = mock(Executor.class);
+
+            PreferenceOptions options = new PreferenceOptions().setAsyncExecutor(executor);
+
+            Assert.assertEquals(options.getAsyncExecutor(), executor);
+        }
+
+        @Test
+        public void test_setKeyOrdering() {
+            PreferenceOptions options = new PreferenceOptions().setAsyncKeyOrdering(false);
+
+            Assert.assertFalse(options.isAsyncKeyOrdering());
+        }
+    }
+
+    public static class ChangeTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertNull(options.getChangeExecutor());
+            Assert.assertEquals(options.getChangeWindowMillis(), 50);
+        }
+
+        @Test
+        public void test_setExecutor() {
+            Executor executor = mock(Executor.class);
+
+            PreferenceOptions options = new PreferenceOptions().setChangeExecutor(executor);
+
+            Assert.assertEquals(options.getChangeExecutor(), executor);
+        }
+
+        @Test
+        public void test_setWindow() {
+            PreferenceOptions options = new PreferenceOptions().setChangeWindowMillis(0);
+
+            Assert.assertEquals(options.getChangeWindowMillis(), 0);
+        }
+
+        @Test
+        public void test_setWindow_negative() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Change window cannot be negative");
+
+            new PreferenceOptions().setChangeWindowMillis(-1);
+        }
+    }
+
+    public static class CollectionTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            Assert.assertEquals(new PreferenceOptions().getListSegmentSize(), 64);
+        }
+
+        @Test
+        public void test_setListSegmentSize() {
+            PreferenceOptions options = new PreferenceOptions().setListSegmentSize(8);
+            PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), options);
+
+            Assert.assertEquals(options.getListSegmentSize(), 8);
+            Assert.assertEquals(store.collections.getSegmentSize(), 8);
+        }
+
+        @Test
+        public void test_setListSegmentSize_tooSmall() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("List segments must hold at least 1 element");
+
+            new PreferenceOptions().setListSegmentSize(0);
+        }
+    }
+
+    public static class ExpiryTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_defaults() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertFalse(options.isExpiryEnabled());
+            Assert.assertEquals(options.getExpirySweepIntervalMillis(), 60000);
+            Assert.assertEquals(options.getExpiryByteBudget(), 0);
+            Assert.assertNull(new PreferenceStore(null, new InMemorySharedPreferences(), options).expiry);
+        }
+
+        @Test
+        public void test_setExpiryEnabled() {
+            PreferenceOptions options = new PreferenceOptions().setExpiryEnabled(true).setExpirySweepIntervalMillis(0).setExpiryByteBudget(100);
+            PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), options);
+
+            Assert.assertTrue(options.isExpiryEnabled());
+            Assert.assertEquals(options.getExpirySweepIntervalMillis(), 0);
+            Assert.assertEquals(store.expiry.getByteBudget(), 100);
+        }
+
+        @Test
+        public void test_setExpirySweepIntervalMillis_negative() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Sweep interval cannot be negative");
+
+            new PreferenceOptions().setExpirySweepIntervalMillis(-1);
+        }
+
+        @Test
+        public void test_setExpiryByteBudget_negative() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Byte budget cannot be negative");
+
+            new PreferenceOptions().setExpiryByteBudget(-1);
+        }
+    }
+
+    public static class ParallelDecodeTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            Assert.assertEquals(new PreferenceOptions().getParallelDecodeThreshold(), 0);
+        }
+
+        @Test
+        public void test_setParallelDecodeThreshold() {
+            PreferenceOptions options = new PreferenceOptions().setParallelDecodeThreshold(16);
+
+            Assert.assertEquals(options.getParallelDecodeThreshold(), 16);
+        }
+
+        @Test
+        public void test_setParallelDecodeThreshold_negative() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Parallel decode threshold cannot be negative");
+
+            new PreferenceOptions().setParallelDecodeThreshold(-1);
+        }
+
+        @Test
+        public void test_setParallelListThreshold() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertEquals(options.getParallelListThreshold(), 0);
+            Assert.assertEquals(options.setParallelListThreshold(100000).getParallelListThreshold(), 100000);
+        }
+
+        @Test
+        public void test_setParallelListThreshold_negative() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Parallel list threshold cannot be negative");
+
+            new PreferenceOptions().setParallelListThreshold(-1);
+        }
+    }
+
+    public static class SpilloverTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_default() {
+            PreferenceOptions options = new PreferenceOptions();
+
+            Assert.assertNull(options.getSpilloverDirectory());
+            Assert.assertEquals(options.getSpilloverThreshold(), 0);
+        }
+
+        @Test
+        public void test_setSpillover() {
+            File directory = new File("spillover");
+            PreferenceOptions options = new PreferenceOptions().setSpillover(directory, 4096);
+
+            Assert.assertEquals(options.getSpilloverDirectory(), directory);
+            Assert.assertEquals(options.getSpilloverThreshold(), 4096);
+        }
+
+        @Test
+        public void test_setSpillover_nullDirectory() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The spillover directory cannot be null");
+
+            new PreferenceOptions().setSpillover(null, 4096);
+        }
+
+        @Test
+        public void test_setSpillover_negative() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Spillover threshold cannot be negative");
+
+            new PreferenceOptions().setSpillover(new File("spillover"), -1);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+@RunWith(Enclosed.class)
+public class PreferenceSnapshotTests {
+
+    public static class TypedAccessorTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        }
+
+        @Test
+        public void test_values() {
+            store.putString("string", "text");
+            store.putInt("int", 1);
+            store.putLong("long", 2L);
+            store.putFloat("float", 3f);
+            store.putBoolean("boolean", true);
+
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertEquals(snapshot.getString("string", null), "text");
+            Assert.assertEquals(snapshot.getInt("int", 0), 1);
+            Assert.assertEquals(snapshot.getLong("long", 0L), 2L);
+            Assert.assertEquals(snapshot.getFloat("float", 0f), 3f, 0);
+            Assert.assertTrue(snapshot.getBoolean("boolean", false));
+        }
+
+        @Test
+        public void test_fallbacks() {
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertEquals(snapshot.getString("string", "fallback"), "fallback");
+            Assert.assertEquals(snapshot.getInt("int", 4), 4);
+            Assert.assertEquals(snapshot.getLong("long", 5L), 5L);
+            Assert.assertEquals(snapshot.getFloat("float", 6f), 6f, 0);
+            Assert.assertTrue(snapshot.getBoolean("boolean", true));
+        }
+
+        @Test
+        public void test_wrongType() {
+            store.putString("key", "text");
+            expectedException.expect(ClassCastException.class);
+
+            store.snapshot().getInt("key", 0);
+        }
+
+        @Test
+        public void test_getAll() {
+            store.putInt("a", 1);
+            store.putString("b", "text");
+
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertEquals(snapshot.size(), 2);
+            Assert.assertTrue(snapshot.contains("a"));
+            Assert.assertFalse(snapshot.contains("c"));
+            Assert.assertEquals(snapshot.getAll().get("a"), 1);
+        }
+
+        @Test
+        public void test_getAll_withoutCollectionParts() {
+            store.appendToList("list", 1);
+            store.putMapEntry("map", "a", 2);
+
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertEquals(snapshot.getAll().keySet(), new HashSet<>(Arrays.asList("list", "map")));
+            Assert.assertFalse(snapshot.contains("list#s0"));
+            Assert.assertNull(snapshot.getString("map#ea", null));
+            Assert.assertEquals(snapshot.get("map", null, Map.class).size(), 1);
+        }
+
+        @Test
+        public void test_getAll_builtOnce() {
+            final int[] scans = new int[1];
+            Map<String, Object> stored = new HashMap<String, Object>() {
+                @Override
+                public Set<Map.Entry<String, Object>> entrySet() {
+                    scans[0]++;
+                    return super.entrySet();
+                }
+            };
+            stored.put("a", 1);
+            PreferenceSnapshot snapshot = new PreferenceSnapshot(store, stored, 0);
+
+            // Single reads look the key up without filtering the whole copy
+            Assert.assertEquals(snapshot.getInt("a", 0), 1);
+            Assert.assertTrue(snapshot.contains("a"));
+            Assert.assertEquals(scans[0], 0);
+
+            Map<String, ?> all = snapshot.getAll();
+            int builtAfter = scans[0];
+
+            Assert.assertSame(snapshot.getAll(), all);
+            Assert.assertEquals(scans[0], builtAfter);
+        }
+
+        @Test
+        public void test_getAll_unmodifiable() {
+            expectedException.expect(UnsupportedOperationException.class);
+
+            store.snapshot().getAll().clear();
+        }
+    }
+
+    public static class GetTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        }
+
+        @Test
+        public void test_primitives() {
+            store.put("string", "text");
+            store.put("int", 1);
+            store.put("boolean", true);
+
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertEquals(snapshot.get("string", "fallback"), "text");
+            Assert.assertEquals(snapshot.get("int", 0), Integer.valueOf(1));
+            Assert.assertEquals(snapshot.get("boolean", false), Boolean.TRUE);
+            Assert.assertEquals(snapshot.get("missing", 7), Integer.valueOf(7));
+            Assert.assertNull(snapshot.get("missing", null, String.class));
+        }
+
+        @Test
+        public void test_set() {
+            Set<String> set = new HashSet<>(Arrays.asList("a", "b"));
+            store.put("key", set);
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Set<String> result = snapshot.get("key", null, Set.class);
+            result.add("c");
+
+            // Each read is a copy, so changing one doesn't change the snapshot
+            Assert.assertEquals(snapshot.get("key", null, Set.class), set);
+        }
+
+        @Test
+        public void test_customObject() {
+            UUID id = UUID.randomUUID();
+            store.put("key", id);
+
+            Assert.assertEquals(store.snapshot().get("key", null, UUID.class), id);
+        }
+
+        @Test
+        public void test_customObject_freshCopies() {
+            store.put("key", Collections.singletonMap("a", 1), new TypeToken<Map<String, Integer>>() {});
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertNotSame(snapshot.get("key", null, HashMap.class), snapshot.get("key", null, HashMap.class));
+        }
+
+        @Test
+        public void test_customObject_skipsObjectCache() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setObjectCache(10, ObjectCacheMode.SHARED));
+            store.put("key", UUID.randomUUID());
+
+            store.snapshot().get("key", null, UUID.class);
+
+            Assert.assertEquals(store.objectCache.size(), 0);
+        }
+
+        @Test
+        public void test_customObject_wrongType() {
+            store.putString("key", "text");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+
+            store.snapshot().get("key", null, UUID.class);
+        }
+
+        @Test
+        public void test_list() {
+            store.putList("key", Arrays.asList(1, 2));
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Please use getList() instead of get() when retrieving a list of stored objects.");
+
+            store.snapshot().get("key", null, List.class);
+        }
+
+        @Test
+        public void test_nullKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.snapshot().get(null, "fallback");
+        }
+
+        @Test
+        public void test_segmentedMap() {
+            store.putMapEntry("key", "a", 1);
+            PreferenceSnapshot snapshot = store.snapshot();
+            store.putMapEntry("key", "b", 2);
+
+            // The entries come from the snapshot, not the store
+            Map<String, Integer> map = snapshot.get("key", null, HashMap.class);
+            Assert.assertEquals(map.size(), 1);
+        }
+    }
+
+    public static class GetListTests {
+
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setListSegmentSize(2));
+        }
+
+        @Test
+        public void test_getList() {
+            store.putList("key", Arrays.asList("a", "b"));
+            store.putList("null", null);
+
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertEquals(snapshot.getList("key", null, String[].class), Arrays.asList("a", "b"));
+            Assert.assertNull(snapshot.getList("null", Collections.<String>emptyList(), String[].class));
+            Assert.assertEquals(snapshot.getList("missing", Collections.singletonList("x"), String[].class), Collections.singletonList("x"));
+        }
+
+        @Test
+        public void test_segmentedList() {
+            for(int i = 0; i < 3; i++) {
+                store.appendToList("key", i);
+            }
+            PreferenceSnapshot snapshot = store.snapshot();
+            store.appendToList("key", 3);
+            store.removeFromList("key", 0);
+
+            Assert.assertEquals(snapshot.getList("key", null, Integer[].class), Arrays.asList(0, 1, 2));
+        }
+    }
+
+    public static class ExpiryTests {
+
+        PreferenceStore store;
+        ExpiryTrackerTests.ClockTracker tracker;
+
+        @Before
+        public void beforeTest() {
+            store = ExpiryTrackerTests.newStore(0);
+            tracker = (ExpiryTrackerTests.ClockTracker) store.expiry;
+        }
+
+        @Test
+        public void test_expired() {
+            store.put("token", "abc", 100L);
+            store.put("user", new ChangeDispatcherTests.UserTest("Jane"), 100L);
+            store.putInt("count", 1);
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            tracker.now += 100;
+
+            Assert.assertFalse(snapshot.contains("token"));
+            Assert.assertNull(snapshot.getString("token", null));
+            Assert.assertNull(snapshot.get("user", null, ChangeDispatcherTests.UserTest.class));
+            Assert.assertEquals(snapshot.getAll().keySet(), Collections.singleton("count"));
+            Assert.assertEquals(snapshot.size(), 1);
+        }
+
+        @Test
+        public void test_notExpired() {
+            store.put("token", "abc", 100L);
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            tracker.now += 99;
+
+            Assert.assertTrue(snapshot.contains("token"));
+            Assert.assertEquals(snapshot.getString("token", null), "abc");
+            // The expiry time is bookkeeping, not a value
+            Assert.assertEquals(snapshot.getAll().keySet(), Collections.singleton("token"));
+            Assert.assertFalse(snapshot.contains("#ttl:token"));
+        }
+
+        @Test
+        public void test_keepsOwnExpiryTime() {
+            store.put("token", "abc", 100L);
+            PreferenceSnapshot snapshot = store.snapshot();
+            // Rewritten without a TTL after the snapshot was taken
+            store.putString("token", "def");
+
+            tracker.now += 100;
+
+            Assert.assertFalse(snapshot.contains("token"));
+            Assert.assertEquals(store.snapshot().getString("token", null), "def");
+        }
+
+        @Test
+        public void test_userKeyLikeOldExpiryKey() {
+            store.putString("foo", "hello");
+            store.putLong("foo#ttl", 5L);
+
+            Assert.assertEquals(store.snapshot().getAll().keySet(), new HashSet<>(Arrays.asList("foo", "foo#ttl")));
+            Assert.assertEquals(store.snapshot().getString("foo", null), "hello");
+            Assert.assertEquals(store.snapshot().getLong("foo#ttl", 0), 5L);
+
+            PreferenceStore reopened = new PreferenceStore(null, store.preferences, new PreferenceOptions().setExpiryEnabled(true));
+            Assert.assertEquals(reopened.getString("foo", null), "hello");
+        }
+    }
+}
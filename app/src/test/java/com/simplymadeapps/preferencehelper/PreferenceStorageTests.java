@@ -0,0 +1,80 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+
+import java.io.File;
+
+import static org.powermock.api.mockito.PowerMockito.doReturn;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(Enclosed.class)
+public class PreferenceStorageTests {
+
+    @PrepareForTest({PreferenceManager.class})
+    public static class SharedPreferencesStorageTests extends PowerMockTest {
+
+        @Test
+        public void test_open_default() {
+            Context context = mock(Context.class);
+            SharedPreferences preferences = mock(SharedPreferences.class);
+            mockStatic(PreferenceManager.class);
+            when(PreferenceManager.getDefaultSharedPreferences(context)).thenReturn(preferences);
+
+            SharedPreferences result = new SharedPreferencesStorage().open(context, null);
+
+            Assert.assertEquals(result, preferences);
+        }
+
+        @Test
+        public void test_open_named() {
+            Context context = mock(Context.class);
+            SharedPreferences preferences = mock(SharedPreferences.class);
+            doReturn(preferences).when(context).getSharedPreferences("session", Context.MODE_PRIVATE);
+
+            SharedPreferences result = new SharedPreferencesStorage().open(context, "session");
+
+            Assert.assertEquals(result, preferences);
+        }
+    }
+
+    public static class MappedFileStorageTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Test
+        public void test_open_default() {
+            Context context = mock(Context.class);
+            doReturn(folder.getRoot()).when(context).getFilesDir();
+            doReturn("com.example").when(context).getPackageName();
+
+            SharedPreferences result = new MappedFileStorage().open(context, null);
+
+            Assert.assertEquals(((MappedFilePreferences) result).getFile(), new File(folder.getRoot(), "preferencehelper/com.example_preferences.kv"));
+        }
+
+        @Test
+        public void test_open_named_reusesInstance() {
+            Context context = mock(Context.class);
+            doReturn(folder.getRoot()).when(context).getFilesDir();
+
+            SharedPreferences first = new MappedFileStorage().open(context, "session");
+            SharedPreferences second = new MappedFileStorage().open(context, "session");
+
+            Assert.assertSame(first, second);
+            Assert.assertEquals(((MappedFilePreferences) first).getFile(), new File(folder.getRoot(), "preferencehelper/session.kv"));
+        }
+    }
+}
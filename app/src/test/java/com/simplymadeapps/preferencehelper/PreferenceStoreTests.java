@@ -0,0 +1,3181 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.reflect.Whitebox;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anySet;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.doNothing;
+import static org.powermock.api.mockito.PowerMockito.doReturn;
+import static org.powermock.api.mockito.PowerMockito.doThrow;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.spy;
+
+@RunWith(Enclosed.class)
+public class PreferenceStoreTests {
+
+    static PreferenceStore newStore() {
+        PreferenceStore store = new PreferenceStore(null, mock(SharedPreferences.class), new PreferenceOptions());
+        mockEditor(store);
+        return store;
+    }
+
+    /**
+     * Makes the store's mock preferences hand out the returned editor, so every write stages its change on it.
+     */
+    static SharedPreferences.Editor mockEditor(PreferenceStore store) {
+        SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+        doReturn(editor).when(store.preferences).edit();
+        return editor;
+    }
+
+    public static class ConstructorTests {
+
+        SharedPreferences preferences;
+        SharedPreferences.Editor editor;
+
+        @Before
+        public void beforeTest() {
+            preferences = mock(SharedPreferences.class);
+            editor = mock(SharedPreferences.Editor.class);
+            doReturn(editor).when(preferences).edit();
+        }
+
+        @Test
+        public void test_defaults() {
+            PreferenceStore store = new PreferenceStore("session", preferences, new PreferenceOptions());
+
+            Assert.assertEquals(store.getName(), "session");
+            Assert.assertEquals(store.preferences, preferences);
+            // Editors are created per write, not up front
+            verify(preferences, times(0)).edit();
+            Assert.assertEquals(store.writePolicy.getMode(), WritePolicy.Mode.COMMIT);
+            Assert.assertSame(store.gson, PreferenceStore.DEFAULT_GSON);
+            Assert.assertNull(store.objectCache);
+        }
+
+        @Test
+        public void test_coalesce() {
+            WritePolicy policy = WritePolicy.coalesce(100, 10);
+
+            PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions().setWritePolicy(policy));
+
+            Assert.assertTrue(store.preferences instanceof CoalescingPreferences);
+            Assert.assertEquals(((CoalescingPreferences) store.preferences).getDelegate(), preferences);
+            Assert.assertTrue(store.preferences.edit() instanceof CoalescingPreferences.Editor);
+            Assert.assertEquals(store.writePolicy, policy);
+        }
+
+        @Test
+        public void test_gsonBuilder() {
+            GsonBuilder builder = new GsonBuilder().serializeNulls();
+
+            PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions().setGsonBuilder(builder));
+
+            Assert.assertNotSame(store.gson, PreferenceStore.DEFAULT_GSON);
+            Assert.assertTrue(store.gson.serializeNulls());
+        }
+
+        @Test
+        public void test_objectCache() {
+            PreferenceStore store = new PreferenceStore(null, preferences, new PreferenceOptions().setObjectCache(10, ObjectCacheMode.SHARED));
+
+            Assert.assertNotNull(store.objectCache);
+            Assert.assertEquals(store.objectCache.getMode(), ObjectCacheMode.SHARED);
+            verify(preferences, times(1)).registerOnSharedPreferenceChangeListener(store.objectCache);
+        }
+    }
+
+    public static class JournalTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_journaled() {
+            File directory = folder.getRoot();
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+
+            PreferenceStore defaultStore = new PreferenceStore(null, preferences, new PreferenceOptions().setWritePolicy(WritePolicy.journaled(100, 10, directory)));
+            PreferenceStore namedStore = new PreferenceStore("session", preferences, new PreferenceOptions().setWritePolicy(WritePolicy.journaled(100, 10, directory)));
+
+            Assert.assertEquals(((CoalescingPreferences) defaultStore.preferences).getJournal().getFile(), new File(directory, "default.journal"));
+            Assert.assertEquals(((CoalescingPreferences) namedStore.preferences).getJournal().getFile(), new File(directory, "store_session.journal"));
+        }
+
+        @Test
+        public void test_notJournaled() {
+            PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setWritePolicy(WritePolicy.coalesce(100, 10)));
+
+            Assert.assertNull(((CoalescingPreferences) store.preferences).getJournal());
+        }
+
+        @Test
+        public void test_replayedWhenReopened() {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            PreferenceOptions options = new PreferenceOptions().setWritePolicy(WritePolicy.journaled(60000, 100, folder.getRoot()));
+            PreferenceStore crashed = new PreferenceStore("session", preferences, options);
+            crashed.put("key", "value");
+
+            PreferenceStore store = new PreferenceStore("session", preferences, options);
+
+            Assert.assertEquals(store.getString("key", null), "value");
+            Assert.assertTrue(store.flushAndWait());
+            Assert.assertEquals(preferences.getString("key", null), "value");
+        }
+
+        @Test
+        public void test_unableToOpenJournal() throws Exception {
+            File blocker = folder.newFile();
+            File file = new File(new File(blocker, "journals"), "default.journal");
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("Unable to open journal " + file.getPath());
+
+            PreferenceStore.openJournal(new File(blocker, "journals"), null);
+        }
+    }
+
+    public static class LoadTests {
+
+        @Test
+        public void test_synchronous() {
+            PreferenceStore store = newStore();
+
+            Assert.assertTrue(store.isLoaded());
+            Assert.assertNull(store.getStartupMetrics());
+        }
+
+        @Test
+        public void test_deferred() {
+            DeferredSharedPreferencesTests.ManualExecutor executor = new DeferredSharedPreferencesTests.ManualExecutor();
+            DeferredSharedPreferences deferred = new DeferredSharedPreferences(DeferredSharedPreferencesTests.loader(new InMemorySharedPreferences()), executor);
+
+            PreferenceStore store = new PreferenceStore(null, deferred, new PreferenceOptions().setWritePolicy(WritePolicy.coalesce(100, 10)));
+
+            Assert.assertFalse(store.isLoaded());
+            Assert.assertEquals(store.getStartupMetrics(), deferred.getStartupMetrics());
+            executor.run();
+            Assert.assertTrue(store.isLoaded());
+        }
+    }
+
+    public static class FlushTests {
+
+        PreferenceStore store = newStore();
+
+        @Test
+        public void test_flush_coalescing() {
+            CoalescingPreferences preferences = mock(CoalescingPreferences.class);
+            store.preferences = preferences;
+
+            store.flush();
+
+            verify(preferences, times(1)).flush();
+        }
+
+        @Test
+        public void test_flush_notCoalescing() {
+            SharedPreferences preferences = mock(SharedPreferences.class);
+            store.preferences = preferences;
+            SharedPreferences.Editor editor = mockEditor(store);
+
+            store.flush();
+
+            verify(editor, times(0)).commit();
+            verify(editor, times(0)).apply();
+        }
+
+        @Test
+        public void test_flushAndWait_coalescing() {
+            CoalescingPreferences preferences = mock(CoalescingPreferences.class);
+            store.preferences = preferences;
+            doReturn(true).when(preferences).flushAndWait();
+
+            boolean result = store.flushAndWait();
+
+            Assert.assertTrue(result);
+            verify(preferences, times(1)).flushAndWait();
+        }
+
+        @Test
+        public void test_flush_deferred() {
+            DeferredSharedPreferencesTests.ManualExecutor executor = new DeferredSharedPreferencesTests.ManualExecutor();
+            InMemorySharedPreferences delegate = new InMemorySharedPreferences();
+            PreferenceOptions options = new PreferenceOptions().setWritePolicy(WritePolicy.coalesce(100000, 100));
+            SharedPreferences coalescing = PreferenceStore.applyWritePolicy(delegate, options.getWritePolicy(), null);
+            store = new PreferenceStore(null, new DeferredSharedPreferences(DeferredSharedPreferencesTests.loader(coalescing), executor), options);
+            executor.run();
+            store.putString("first", "value");
+            store.putString("second", "value");
+
+            store.flush();
+            Assert.assertTrue(store.flushAndWait());
+
+            // The writes are held by the loaded preferences until the flush
+            Assert.assertEquals(delegate.getString("first", null), "value");
+            Assert.assertEquals(delegate.getString("second", null), "value");
+        }
+
+        @Test
+        public void test_flushAndWait_deferredNotCoalescing() {
+            DeferredSharedPreferencesTests.ManualExecutor executor = new DeferredSharedPreferencesTests.ManualExecutor();
+            store = new PreferenceStore(null, new DeferredSharedPreferences(DeferredSharedPreferencesTests.loader(new InMemorySharedPreferences()), executor), new PreferenceOptions());
+            executor.run();
+
+            Assert.assertNull(store.getCoalescing());
+            Assert.assertTrue(store.flushAndWait());
+        }
+
+        @Test
+        public void test_flushAndWait_notCoalescing() {
+            store.preferences = mock(SharedPreferences.class);
+            SharedPreferences.Editor editor = mockEditor(store);
+            doReturn(true).when(editor).commit();
+
+            boolean result = store.flushAndWait();
+
+            Assert.assertTrue(result);
+            verify(editor, times(1)).commit();
+        }
+    }
+
+    public static class SaveTests {
+
+        PreferenceStore store = newStore();
+
+        @Test
+        public void test_save_commit() throws Exception {
+            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+
+            Whitebox.invokeMethod(store, "save", editor);
+
+            verify(editor, times(1)).commit();
+            verify(editor, times(0)).apply();
+        }
+
+        @Test
+        public void test_save_apply() throws Exception {
+            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+            store.writePolicy = WritePolicy.apply();
+
+            Whitebox.invokeMethod(store, "save", editor);
+
+            verify(editor, times(0)).commit();
+            verify(editor, times(1)).apply();
+        }
+
+        @Test
+        public void test_save_coalesce() throws Exception {
+            SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+            store.writePolicy = WritePolicy.coalesce(100, 10);
+
+            Whitebox.invokeMethod(store, "save", editor);
+
+            verify(editor, times(0)).commit();
+            verify(editor, times(1)).apply();
+        }
+    }
+
+    public static class EditTests {
+
+        PreferenceStore store = newStore();
+
+        @Test
+        public void test_edit() {
+            SharedPreferences preferences = mock(SharedPreferences.class);
+            SharedPreferences.Editor batchEditor = mock(SharedPreferences.Editor.class);
+            store.preferences = preferences;
+            doReturn(batchEditor).when(preferences).edit();
+
+            PreferenceBatch result = store.edit();
+            result.remove("key").commit();
+
+            verify(batchEditor, times(1)).remove("key");
+            verify(batchEditor, times(1)).commit();
+        }
+    }
+
+    @PrepareForTest({PreferenceManager.class})
+    public static class ContainsTests extends PowerMockTest {
+
+        PreferenceStore store = newStore();
+
+        @Test
+        public void test_contains() {
+            SharedPreferences preferences = mock(SharedPreferences.class);
+            store.preferences = preferences;
+            doReturn(true).when(preferences).contains("key");
+
+            boolean result = store.contains("key");
+
+            Assert.assertTrue(result);
+        }
+    }
+
+    public static class RemoveTests {
+
+        PreferenceStore store = newStore();
+
+        @Test
+        public void test_remove() {
+            SharedPreferences.Editor editor = mockEditor(store);
+
+            store.remove("key");
+
+            verify(editor, times(1)).remove("key");
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_remove_invalidatesCache() {
+            ObjectCache cache = mock(ObjectCache.class);
+            store.objectCache = cache;
+
+            store.remove("key");
+
+            verify(cache, times(1)).invalidate("key");
+        }
+    }
+
+    public static class ClearTests {
+
+        PreferenceStore store = newStore();
+
+        @Test
+        public void test_clear() {
+            SharedPreferences.Editor editor = mockEditor(store);
+
+            store.clear();
+
+            verify(editor, times(1)).clear();
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_clear_clearsCache() {
+            ObjectCache cache = mock(ObjectCache.class);
+            store.objectCache = cache;
+
+            store.clear();
+
+            verify(cache, times(1)).clear();
+        }
+    }
+
+    public static class IsTypePrimitiveTests {
+
+        @Test
+        public void test_integer() throws Exception {
+            boolean result = Whitebox.invokeMethod(PreferenceStore.class, "isTypePrimitive", Integer.class);
+
+            Assert.assertTrue(result);
+        }
+
+        @Test
+        public void test_boolean() throws Exception {
+            boolean result = Whitebox.invokeMethod(PreferenceStore.class, "isTypePrimitive", Boolean.class);
+
+            Assert.assertTrue(result);
+        }
+
+        @Test
+        public void test_float() throws Exception {
+            boolean result = Whitebox.invokeMethod(PreferenceStore.class, "isTypePrimitive", Float.class);
+
+            Assert.assertTrue(result);
+        }
+
+        @Test
+        public void test_long() throws Exception {
+            boolean result = Whitebox.invokeMethod(PreferenceStore.class, "isTypePrimitive", Long.class);
+
+            Assert.assertTrue(result);
+        }
+
+        @Test
+        public void test_string() throws Exception {
+            boolean result = Whitebox.invokeMethod(PreferenceStore.class, "isTypePrimitive", String.class);
+
+            Assert.assertFalse(result);
+        }
+    }
+
+    public static class CheckForExceptionsTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void check_keyNull() throws Exception {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            Whitebox.invokeMethod(PreferenceStore.class, "checkForExceptions", (String) null, "value", String.class);
+        }
+
+        @Test
+        public void check_valueAndType_null() throws Exception {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("You must specify the object type when storing or retrieving a null value using put(String key, T value, Class<T> type) or get(String key, T fallback, Class<T> type)");
+
+            Whitebox.invokeMethod(PreferenceStore.class, "checkForExceptions", "key", null, null);
+        }
+
+        @Test
+        public void check_value_notNull() throws Exception {
+            Whitebox.invokeMethod(PreferenceStore.class, "checkForExceptions", "key", "value", null);
+
+            // expectedException handles assertion
+        }
+
+        @Test
+        public void check_valueNull_typeNotPrimitive() throws Exception {
+            Whitebox.invokeMethod(PreferenceStore.class, "checkForExceptions", "key", null, String.class);
+
+            // expectedException handles assertion
+        }
+
+        @Test
+        public void check_valueNull_typePrimitive() throws Exception {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Null primitive types (boolean, int, long, float) are invalid");
+
+            Whitebox.invokeMethod(PreferenceStore.class, "checkForExceptions", "key", null, Integer.class);
+        }
+    }
+
+    public static class GetInstanceTypeTests {
+
+        @Test
+        public void test_valueNull() throws Exception {
+            Class result = Whitebox.invokeMethod(PreferenceStore.class, "getInstanceType", (String) null, String.class);
+
+            Assert.assertEquals(result, String.class);
+        }
+
+        @Test
+        public void test_valueExists() throws Exception {
+            Class result = Whitebox.invokeMethod(PreferenceStore.class, "getInstanceType", true, null);
+
+            Assert.assertEquals(result, Boolean.class);
+        }
+    }
+
+    @PrepareForTest({PreferenceStore.class, Gson.class})
+    public static class PutTests extends PowerMockTest {
+
+        PreferenceStore store = newStore();
+        SharedPreferences.Editor editor;
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Before
+        public void beforeTest() {
+            store.preferences = mock(SharedPreferences.class);
+            editor = mockEditor(store);
+        }
+
+        @Test
+        public void test_put_checkForExceptions() {
+            // We are unable to verify on static private methods
+            // We will assert it is called by putting in data that would call out to checkForExceptions() method
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.put(null, "string");
+
+            verify(editor, times(0)).commit();
+        }
+
+        @Test
+        public void test_put_getInstanceType() {
+            // We are unable to verify on static private methods
+            // We will assert it is called by putting in data that would call out to getInstanceType() method
+
+            store.put("key", null, String.class);
+
+            verify(editor, times(1)).putString("key", null);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_invalidatesCache() {
+            ObjectCache cache = mock(ObjectCache.class);
+            store.objectCache = cache;
+
+            store.put("key", "string");
+
+            verify(cache, times(1)).invalidate("key");
+        }
+
+        @Test
+        public void test_put_String() {
+            store.put("key", "string");
+
+            verify(editor, times(1)).putString("key", "string");
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_int() {
+            store.put("key", 1);
+
+            verify(editor, times(1)).putInt("key", 1);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_boolean() {
+            store.put("key", false);
+
+            verify(editor, times(1)).putBoolean("key", false);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_long() {
+            store.put("key", 1000L);
+
+            verify(editor, times(1)).putLong("key", 1000L);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_float() {
+            store.put("key", 5.999F);
+
+            verify(editor, times(1)).putFloat("key", 5.999F);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_set() {
+            Set<String> set = new HashSet<>();
+            set.add("entry1");
+
+            store.put("key", set);
+
+            verify(editor, times(1)).putStringSet("key", set);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_custom() throws Exception {
+            UUID uuid = UUID.randomUUID();
+            Gson gson = mock(Gson.class);
+            store.gson = gson;
+            doReturn("json").when(gson).toJson(uuid, UUID.class);
+
+            store.put("key", uuid);
+
+            verify(editor, times(1)).putString("key", "json");
+            verify(editor, times(1)).commit();
+        }
+    }
+
+    public static class PutListTests {
+
+        PreferenceStore store = spy(newStore());
+
+        @Test
+        public void test_putList() {
+            List<UUID> list = new ArrayList<>();
+            doNothing().when(store).put("key", list, List.class);
+
+            store.putList("key", list);
+
+            verify(store, times(1)).put("key", list, List.class);
+        }
+    }
+
+    public static class TypedAccessorTests {
+
+        PreferenceStore store = newStore();
+        SharedPreferences.Editor editor;
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Before
+        public void beforeTest() {
+            store.preferences = mock(SharedPreferences.class);
+            editor = mockEditor(store);
+        }
+
+        @Test
+        public void test_putString() {
+            store.putString("key", "value");
+
+            verify(editor, times(1)).putString("key", "value");
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_putInt() {
+            store.putInt("key", 1);
+
+            verify(editor, times(1)).putInt("key", 1);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_putLong() {
+            store.putLong("key", 1000L);
+
+            verify(editor, times(1)).putLong("key", 1000L);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_putFloat() {
+            store.putFloat("key", 5.5F);
+
+            verify(editor, times(1)).putFloat("key", 5.5F);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_putBoolean() {
+            store.putBoolean("key", true);
+
+            verify(editor, times(1)).putBoolean("key", true);
+            verify(editor, times(1)).commit();
+        }
+
+        @Test
+        public void test_put_invalidatesCache() {
+            ObjectCache cache = mock(ObjectCache.class);
+            store.objectCache = cache;
+
+            store.putInt("key", 1);
+
+            verify(cache, times(1)).invalidate("key");
+        }
+
+        @Test
+        public void test_put_keyNull() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.putInt(null, 1);
+        }
+
+        @Test
+        public void test_getString() {
+            doReturn("result").when(store.preferences).getString("key", "fallback");
+
+            Assert.assertEquals(store.getString("key", "fallback"), "result");
+        }
+
+        @Test
+        public void test_getInt() {
+            doReturn(1).when(store.preferences).getInt("key", 0);
+
+            Assert.assertEquals(store.getInt("key", 0), 1);
+        }
+
+        @Test
+        public void test_getLong() {
+            doReturn(100L).when(store.preferences).getLong("key", 25L);
+
+            Assert.assertEquals(store.getLong("key", 25L), 100L);
+        }
+
+        @Test
+        public void test_getFloat() {
+            doReturn(7.75F).when(store.preferences).getFloat("key", 0.5F);
+
+            Assert.assertEquals(store.getFloat("key", 0.5F), 7.75F, 0);
+        }
+
+        @Test
+        public void test_getBoolean() {
+            doReturn(true).when(store.preferences).getBoolean("key", false);
+
+            Assert.assertTrue(store.getBoolean("key", false));
+        }
+
+        @Test
+        public void test_get_keyNull() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.getInt(null, 1);
+        }
+    }
+
+    @PrepareForTest({PreferenceStore.class})
+    public static class GetTests extends PowerMockTest {
+
+        PreferenceStore store = newStore();
+        SharedPreferences.Editor editor;
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Before
+        public void beforeTest() {
+            store.preferences = mock(SharedPreferences.class);
+            editor = mockEditor(store);
+        }
+
+        @Test
+        public void test_get_checkForExceptions() {
+            // We are unable to verify on static private methods
+            // We will assert it is called by putting in data that would call out to checkForExceptions() method
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.get(null, "string");
+
+            verify(store.preferences, times(0)).getString(anyString(), anyString());
+            verify(store.preferences, times(0)).getInt(anyString(), anyInt());
+            verify(store.preferences, times(0)).getBoolean(anyString(), anyBoolean());
+            verify(store.preferences, times(0)).getLong(anyString(), anyLong());
+            verify(store.preferences, times(0)).getFloat(anyString(), anyFloat());
+            verify(store.preferences, times(0)).getStringSet(anyString(), anySet());
+        }
+
+        @Test
+        public void test_get_getInstanceType() {
+            // We are unable to verify on static private methods
+            // We will assert it is called by putting in data that would call out to getInstanceType() method
+            doReturn("result").when(store.preferences).getString("key", null);
+
+            String result = store.get("key", null, String.class);
+
+            Assert.assertEquals(result, "result");
+        }
+
+        @Test
+        public void test_get_String() {
+            doReturn("result").when(store.preferences).getString("key", "fallback");
+
+            String result = store.get("key", "fallback");
+
+            Assert.assertEquals(result, "result");
+        }
+
+        @Test
+        public void test_get_int() {
+            doReturn(1).when(store.preferences).getInt("key", 0);
+
+            int result = store.get("key", 0);
+
+            Assert.assertEquals(result, 1);
+        }
+
+        @Test
+        public void test_get_boolean() {
+            doReturn(true).when(store.preferences).getBoolean("key", false);
+
+            boolean result = store.get("key", false);
+
+            Assert.assertEquals(result, true);
+        }
+
+        @Test
+        public void test_get_long() {
+            doReturn(100L).when(store.preferences).getLong("key", 25L);
+
+            long result = store.get("key", 25L);
+
+            Assert.assertEquals(result, 100L);
+        }
+
+        @Test
+        public void test_get_float() {
+            doReturn(7.75F).when(store.preferences).getFloat("key", 0.5F);
+
+            float result = store.get("key", 0.5F);
+
+            Assert.assertEquals(result, 7.75F, 0);
+        }
+
+        @Test
+        public void test_get_set() {
+            Set<String> fallback = new HashSet<>();
+            fallback.add("fallback1");
+            Set<String> expected = new HashSet<>();
+            expected.add("entry1");
+            expected.add("entry2");
+            doReturn(expected).when(store.preferences).getStringSet("key", fallback);
+
+            Set<String> result = store.get("key", fallback);
+
+            // We want to assert that we did not get the expected list but a duplicate/identical list with a different memory address
+            Assert.assertEquals(result == expected, false);
+            Assert.assertEquals(result.size(), 2);
+            Iterator<String> iterator = result.iterator();
+            Assert.assertEquals(iterator.next(), "entry1");
+            Assert.assertEquals(iterator.next(), "entry2");
+            Assert.assertEquals(iterator.hasNext(), false);
+        }
+
+        @Test
+        public void test_get_customObject() throws Exception {
+            PreferenceStore spyStore = spy(store);
+            UUID fallback = UUID.randomUUID();
+            UUID storedObject = UUID.randomUUID();
+            doReturn(storedObject).when(spyStore, "getCustomObject", "key", fallback, UUID.class);
+
+            UUID result = spyStore.get("key", fallback);
+
+            Assert.assertEquals(storedObject, result);
+        }
+    }
+
+    @PrepareForTest({PreferenceStore.class, Gson.class, JsonSyntaxException.class})
+    public static class GetCustomObjectTests extends PowerMockTest {
+
+        PreferenceStore store = newStore();
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        UUID fallback;
+        Gson gson;
+        String key;
+
+        @Before
+        public void beforeTest() throws Exception {
+            store.preferences = mock(SharedPreferences.class);
+            key = "key";
+            fallback = UUID.randomUUID();
+            gson = mock(Gson.class);
+            store.gson = gson;
+        }
+
+        @Test
+        public void test_getCustomObject_fallback() throws Exception {
+            doReturn(false).when(store.preferences).contains(key);
+
+            UUID result = Whitebox.invokeMethod(store, "getCustomObject", key, fallback, UUID.class);
+
+            Assert.assertEquals(result, fallback);
+        }
+
+        @Test
+        public void test_getCustomObject_exists_withListException() throws Exception {
+            doReturn(true).when(store.preferences).contains(key);
+            List<UUID> listFallback = new ArrayList<>();
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Please use getList() instead of get() when retrieving a list of stored objects.");
+
+            UUID result = Whitebox.invokeMethod(store, "getCustomObject", key, listFallback, listFallback.getClass());
+
+            // Assertion handled via expectedException
+        }
+
+        @Test
+        public void test_getCustomObject_exists_noException() throws Exception {
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("json").when(store.preferences).getString(key, null);
+            UUID storedUUID = UUID.randomUUID();
+            doReturn(storedUUID).when(gson).fromJson("json", UUID.class);
+
+            UUID result = Whitebox.invokeMethod(store, "getCustomObject", key, fallback, UUID.class);
+
+            Assert.assertEquals(result, storedUUID);
+        }
+
+        @Test
+        public void test_getCustomObject_exists_withJsonException() throws Exception {
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("json").when(store.preferences).getString(key, null);
+            JsonSyntaxException jsonSyntaxException = mock(JsonSyntaxException.class);
+            doThrow(jsonSyntaxException).when(gson).fromJson("json", UUID.class);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+            expectedException.expectCause(is(jsonSyntaxException));
+
+            UUID result = Whitebox.invokeMethod(store, "getCustomObject", key, fallback, UUID.class);
+
+            // Assertion handled via expectedException
+        }
+    }
+
+    public static class GetCachedObjectTests {
+
+        PreferenceStore store = newStore();
+        SharedPreferences.Editor editor;
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        UUID stored;
+        String json;
+
+        @Before
+        public void beforeTest() {
+            store.preferences = mock(SharedPreferences.class);
+            editor = mockEditor(store);
+            stored = UUID.randomUUID();
+            json = new Gson().toJson(stored);
+            doReturn(true).when(store.preferences).contains("key");
+            doReturn(json).when(store.preferences).getString("key", null);
+        }
+
+        @Test
+        public void test_shared_returnsSameInstance() {
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.SHARED);
+
+            UUID first = store.get("key", null, UUID.class);
+            UUID second = store.get("key", null, UUID.class);
+
+            Assert.assertEquals(first, stored);
+            Assert.assertSame(first, second);
+        }
+
+        @Test
+        public void test_copyOnRead_returnsNewInstance() {
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.COPY_ON_READ);
+
+            UUID first = store.get("key", null, UUID.class);
+            UUID second = store.get("key", null, UUID.class);
+
+            Assert.assertEquals(first, stored);
+            Assert.assertEquals(second, stored);
+            Assert.assertNotSame(first, second);
+            Assert.assertEquals(store.objectCache.size(), 1);
+        }
+
+        @Test
+        public void test_storedValueChanged() {
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.SHARED);
+            store.get("key", null, UUID.class);
+            UUID changed = UUID.randomUUID();
+            doReturn(new Gson().toJson(changed)).when(store.preferences).getString("key", null);
+
+            UUID result = store.get("key", null, UUID.class);
+
+            Assert.assertEquals(result, changed);
+        }
+
+        @Test
+        public void test_invalidJson() {
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.COPY_ON_READ);
+            doReturn("{invalid").when(store.preferences).getString("key", null);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+
+            store.get("key", null, UUID.class);
+        }
+    }
+
+    public static class GetListTests {
+
+        PreferenceStore store = newStore();
+        SharedPreferences.Editor editor;
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        List<UUID> fallback;
+        String key;
+
+        @Before
+        public void beforeTest() {
+            store.preferences = mock(SharedPreferences.class);
+            editor = mockEditor(store);
+            key = "key";
+            fallback = new ArrayList<>();
+        }
+
+        @Test
+        public void test_getList_fallback() {
+            doReturn(false).when(store.preferences).contains(key);
+
+            List<UUID> result = store.getList(key, fallback, UUID[].class);
+
+            Assert.assertEquals(result, fallback);
+        }
+
+        @Test
+        public void test_getList_noException_null() {
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("null").when(store.preferences).getString(key, null);
+
+            List<UUID> result = store.getList(key, fallback, UUID[].class);
+
+            Assert.assertNull(result);
+        }
+
+        @Test
+        public void test_getList_noException_empty() {
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("").when(store.preferences).getString(key, null);
+
+            List<UUID> result = store.getList(key, fallback, UUID[].class);
+
+            Assert.assertNull(result);
+        }
+
+        @Test
+        public void test_getList_noException_notNull() {
+            UUID stored = UUID.randomUUID();
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("[\"" + stored + "\"]").when(store.preferences).getString(key, null);
+
+            List<UUID> result = store.getList(key, fallback, UUID[].class);
+
+            Assert.assertTrue(result instanceof ArrayList);
+            Assert.assertEquals(result.size(), 1);
+            Assert.assertEquals(result.get(0), stored);
+        }
+
+        @Test
+        public void test_getList_exception() {
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("invalid json").when(store.preferences).getString(key, null);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a UUID[]");
+            expectedException.expectCause(instanceOf(IllegalStateException.class));
+
+            store.getList(key, fallback, UUID[].class);
+        }
+
+        @Test
+        public void test_getList_elementException() {
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("[{\"name\": \"value\"}]").when(store.preferences).getString(key, null);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a UUID[]");
+
+            store.getList(key, fallback, UUID[].class);
+        }
+
+        @Test
+        public void test_getList_trailingData() {
+            doReturn(true).when(store.preferences).contains(key);
+            doReturn("[] []").when(store.preferences).getString(key, null);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a UUID[]");
+            expectedException.expectCause(instanceOf(JsonSyntaxException.class));
+
+            store.getList(key, fallback, UUID[].class);
+        }
+    }
+
+    public static class GetListCursorTests {
+
+        PreferenceStore store = newStore();
+        SharedPreferences.Editor editor;
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Before
+        public void beforeTest() {
+            store.preferences = mock(SharedPreferences.class);
+            editor = mockEditor(store);
+        }
+
+        @Test
+        public void test_getListCursor() {
+            doReturn("[1, 2, 3]").when(store.preferences).getString("key", null);
+            List<Integer> result = new ArrayList<>();
+
+            for(Integer value : store.getListCursor("key", Integer.class)) {
+                result.add(value);
+            }
+
+            Assert.assertEquals(result.size(), 3);
+            Assert.assertEquals(result.get(2), (Integer) 3);
+        }
+
+        @Test
+        public void test_getListCursor_missing() {
+            doReturn(null).when(store.preferences).getString("key", null);
+
+            ListCursor<Integer> cursor = store.getListCursor("key", Integer.class);
+
+            Assert.assertFalse(cursor.hasNext());
+        }
+
+        @Test
+        public void test_getListCursor_keyNull() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.getListCursor(null, Integer.class);
+        }
+    }
+
+    public static class ValueCodecTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        PreferenceStore store;
+        UUID stored;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setValueCodec(new BinaryValueCodec()));
+            stored = UUID.randomUUID();
+        }
+
+        @Test
+        public void test_put_encodesWithCodec() {
+            store.put("key", stored);
+
+            String value = store.getString("key", null);
+            Assert.assertTrue(value.startsWith(BinaryValueCodec.TAG));
+            Assert.assertEquals(store.get("key", null, UUID.class), stored);
+        }
+
+        @Test
+        public void test_get_legacyJson() {
+            store.putString("key", new Gson().toJson(stored));
+
+            Assert.assertEquals(store.get("key", null, UUID.class), stored);
+        }
+
+        @Test
+        public void test_get_binaryWithoutCodec() {
+            store.put("key", stored);
+            store.valueCodec = null;
+
+            Assert.assertEquals(store.get("key", null, UUID.class), stored);
+        }
+
+        @Test
+        public void test_get_customCodec() {
+            ValueCodec codec = mock(ValueCodec.class);
+            doReturn("#test:").when(codec).getTag();
+            doReturn("encoded").when(codec).encode(new JsonPrimitive(stored.toString()));
+            doReturn(new JsonPrimitive(stored.toString())).when(codec).decode("encoded");
+            store.valueCodec = codec;
+
+            store.put("key", stored);
+
+            Assert.assertEquals(store.getString("key", null), "#test:encoded");
+            Assert.assertEquals(store.get("key", null, UUID.class), stored);
+        }
+
+        @Test
+        public void test_get_corrupt() {
+            store.putString("key", BinaryValueCodec.TAG + "!");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+            expectedException.expectCause(instanceOf(JsonSyntaxException.class));
+
+            store.get("key", null, UUID.class);
+        }
+
+        @Test
+        public void test_get_cached() {
+            store.put("key", stored);
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.COPY_ON_READ);
+            UUID first = store.get("key", null, UUID.class);
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.SHARED);
+            UUID second = store.get("key", null, UUID.class);
+
+            Assert.assertEquals(first, stored);
+            Assert.assertEquals(second, stored);
+        }
+
+        @Test
+        public void test_getList() {
+            List<UUID> list = new ArrayList<>();
+            list.add(stored);
+            store.putList("key", list);
+            store.putList("null", null);
+
+            List<UUID> result = store.getList("key", null, UUID[].class);
+
+            Assert.assertTrue(store.getString("key", null).startsWith(BinaryValueCodec.TAG));
+            Assert.assertEquals(result, list);
+            Assert.assertNull(store.getList("null", list, UUID[].class));
+        }
+
+        @Test
+        public void test_getListCursor() {
+            List<UUID> list = new ArrayList<>();
+            list.add(stored);
+            store.putList("key", list);
+
+            ListCursor<UUID> cursor = store.getListCursor("key", UUID.class);
+
+            Assert.assertEquals(cursor.next(), stored);
+            Assert.assertFalse(cursor.hasNext());
+        }
+
+        @Test
+        public void test_getCodec() {
+            Assert.assertNull(store.getCodec(null));
+            Assert.assertNull(store.getCodec("{}"));
+            Assert.assertNull(store.getCodec("#other"));
+            Assert.assertEquals(store.getCodec(BinaryValueCodec.TAG + "AA"), store.valueCodec);
+        }
+    }
+
+    public static class CompressionTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        PreferenceStore store;
+        List<UUID> list;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setCompressionThreshold(100));
+            list = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                list.add(new UUID(0, i));
+            }
+        }
+
+        @Test
+        public void test_putList_compresses() {
+            store.putList("key", list);
+
+            Assert.assertTrue(store.getString("key", null).startsWith(ValueCompressor.TAG));
+            Assert.assertEquals(store.getCompressionStats().getCompressedValues(), 1);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+            Assert.assertEquals(store.getCompressionStats().getDecompressedValues(), 1);
+        }
+
+        @Test
+        public void test_put_belowThreshold() {
+            UUID value = UUID.randomUUID();
+
+            store.put("key", value);
+
+            Assert.assertEquals(store.getString("key", null), new Gson().toJson(value));
+            Assert.assertEquals(store.get("key", null, UUID.class), value);
+        }
+
+        @Test
+        public void test_get_compressed() {
+            Record record = new Record(list);
+            store.put("key", record);
+
+            Assert.assertTrue(store.getString("key", null).startsWith(ValueCompressor.TAG));
+            Assert.assertEquals(store.get("key", null, Record.class).values, list);
+        }
+
+        @Test
+        public void test_get_cached() {
+            store.put("key", new Record(list));
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.COPY_ON_READ);
+
+            Assert.assertEquals(store.get("key", null, Record.class).values, list);
+            Assert.assertEquals(store.get("key", null, Record.class).values, list);
+            // The decompressed value is cached, so only the first read inflates it
+            Assert.assertEquals(store.getCompressionStats().getDecompressedValues(), 1);
+        }
+
+        @Test
+        public void test_getListCursor() {
+            store.putList("key", list);
+            List<UUID> result = new ArrayList<>();
+
+            for(UUID value : store.getListCursor("key", UUID.class)) {
+                result.add(value);
+            }
+
+            Assert.assertEquals(result, list);
+        }
+
+        @Test
+        public void test_withCodec() {
+            store.valueCodec = new BinaryValueCodec();
+            store.putList("key", list);
+
+            Assert.assertTrue(store.getString("key", null).startsWith(ValueCompressor.TAG));
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_readableWhenDisabled() {
+            store.putList("key", list);
+            store.compressor = new ValueCompressor(0);
+
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_get_corrupt() {
+            store.putString("key", ValueCompressor.TAG + "AAAAAAAA");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+            expectedException.expectCause(instanceOf(JsonSyntaxException.class));
+
+            store.get("key", null, UUID.class);
+        }
+
+        @Test
+        public void test_getList_corrupt() {
+            store.putString("key", ValueCompressor.TAG + "AAAAAAAA");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a UUID[]");
+            expectedException.expectCause(instanceOf(JsonSyntaxException.class));
+
+            store.getList("key", null, UUID[].class);
+        }
+
+        static class Record {
+            List<UUID> values;
+
+            Record(List<UUID> values) {
+                this.values = values;
+            }
+        }
+    }
+
+    public static class MetricsTests {
+
+        PreferenceStore store;
+        PreferenceMetricsListener listener;
+
+        @Before
+        public void beforeTest() {
+            listener = mock(PreferenceMetricsListener.class);
+            store = new PreferenceStore("name", new InMemorySharedPreferences(), new PreferenceOptions().setMetricsListener(listener));
+        }
+
+        @Test
+        public void test_disabled() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+
+            store.put("key", "value");
+            store.resetMetrics();
+
+            Assert.assertNull(store.metrics);
+            Assert.assertNull(store.getMetrics());
+        }
+
+        @Test
+        public void test_put() {
+            store.put("key", "value");
+            store.put("object", UUID.randomUUID());
+            store.putInt("int", 1);
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.PUT).getTotalSize(), 5);
+            Assert.assertEquals(metrics.getStats("object", PreferenceOperation.PUT).getTotalSize(), store.getString("object", null).length());
+            Assert.assertEquals(metrics.getStats("int", PreferenceOperation.PUT).getTotalSize(), 0);
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.PUT).getCount(), 3);
+            verify(listener, times(1)).onOperation(eq("name"), eq(PreferenceOperation.PUT), eq("key"), anyLong(), eq(5), anyLong());
+        }
+
+        @Test
+        public void test_put_typed() {
+            store.putString("string", "value");
+            store.putString("null", null);
+            store.putLong("long", 1L);
+            store.putFloat("float", 1F);
+            store.putBoolean("boolean", true);
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("string", PreferenceOperation.PUT).getTotalSize(), 5);
+            Assert.assertEquals(metrics.getStats("null", PreferenceOperation.PUT).getTotalSize(), 0);
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.PUT).getCount(), 5);
+        }
+
+        @Test
+        public void test_put_set() {
+            Set<String> set = new HashSet<>();
+            set.add("ab");
+            set.add("cde");
+
+            store.put("set", set);
+            store.put("null", null, Set.class);
+
+            Assert.assertEquals(store.getMetrics().getStats("set", PreferenceOperation.PUT).getTotalSize(), 5);
+            Assert.assertEquals(store.getMetrics().getStats("null", PreferenceOperation.PUT).getTotalSize(), 0);
+        }
+
+        @Test
+        public void test_put_commitTime() {
+            store.put("key", "value");
+
+            OperationStats stats = store.getMetrics().getStats("key", PreferenceOperation.PUT);
+            // The commit is timed inside the whole call
+            Assert.assertEquals(stats.getCount(), 1);
+            Assert.assertTrue(stats.getTotalCommitNanos() <= stats.getTotalTimeNanos());
+        }
+
+        @Test
+        public void test_get() {
+            store.putInt("int", 1);
+            store.get("int", 0);
+            store.getString("string", null);
+            store.getInt("int", 0);
+            store.getLong("long", 0L);
+            store.getFloat("float", 0F);
+            store.getBoolean("boolean", false);
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("int", PreferenceOperation.GET).getCount(), 2);
+            Assert.assertEquals(metrics.getStats("int", PreferenceOperation.GET).getTotalCommitNanos(), 0);
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.GET).getCount(), 6);
+        }
+
+        @Test
+        public void test_getList() {
+            List<String> list = new ArrayList<>();
+            list.add("value");
+            store.putList("list", list);
+
+            store.getList("list", null, String[].class);
+            store.getList("missing", null, String[].class);
+            store.getListCursor("list", String.class);
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("list", PreferenceOperation.GET_LIST).getCount(), 2);
+            Assert.assertEquals(metrics.getStats("missing", PreferenceOperation.GET_LIST).getCount(), 1);
+        }
+
+        @Test
+        public void test_removeAndClear() {
+            store.putInt("key", 1);
+            store.remove("key");
+            store.clear();
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.REMOVE).getCount(), 1);
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.CLEAR).getCount(), 1);
+            verify(listener, times(1)).onOperation(eq("name"), eq(PreferenceOperation.CLEAR), (String) isNull(), anyLong(), eq(0), anyLong());
+        }
+
+        @Test
+        public void test_resetMetrics() {
+            store.putInt("key", 1);
+
+            store.resetMetrics();
+
+            Assert.assertTrue(store.getMetrics().getKeys().isEmpty());
+        }
+
+        @Test
+        public void test_batch() {
+            store.edit().put("a", "abc").remove("b").commit();
+            store.edit().putList("c", Collections.singletonList(1)).apply();
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.BATCH_COMMIT).getCount(), 1);
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.BATCH_COMMIT).getTotalSize(), 3);
+            Assert.assertEquals(metrics.getStats("a", PreferenceOperation.BATCH_COMMIT).getTotalSize(), 3);
+            Assert.assertEquals(metrics.getStats("b", PreferenceOperation.BATCH_COMMIT).getCount(), 1);
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.BATCH_APPLY).getTotalSize(), "[1]".length());
+            Assert.assertNull(metrics.getStats("a", PreferenceOperation.PUT));
+            verify(listener, times(1)).onOperation(eq("name"), eq(PreferenceOperation.BATCH_COMMIT), (String) isNull(), anyLong(), eq(3), anyLong());
+        }
+
+        @Test
+        public void test_batch_rollbackNotRecorded() {
+            PreferenceBatch batch = store.edit().put("a", "abc");
+            batch.rollback();
+            batch.put("b", "de").commit();
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getTotal(PreferenceOperation.BATCH_COMMIT).getTotalSize(), 2);
+            Assert.assertNull(metrics.getStats("a", PreferenceOperation.BATCH_COMMIT));
+        }
+
+        @Test
+        public void test_coalesce_flushTimed() {
+            PreferenceOptions options = new PreferenceOptions().setMetricsEnabled(true).setWritePolicy(WritePolicy.coalesce(60000, 100));
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), options);
+
+            store.putString("key", "value");
+            Assert.assertNull(store.getMetrics().getTotal(PreferenceOperation.FLUSH));
+            store.flushAndWait();
+
+            OperationStats flushes = store.getMetrics().getTotal(PreferenceOperation.FLUSH);
+            Assert.assertEquals(flushes.getCount(), 1);
+            Assert.assertEquals(flushes.getTotalSize(), 5);
+            Assert.assertTrue(flushes.getTotalCommitNanos() <= flushes.getTotalTimeNanos());
+        }
+
+        @Test
+        public void test_coalesce_deferredFlushTimed() {
+            PreferenceOptions options = new PreferenceOptions().setMetricsEnabled(true).setWritePolicy(WritePolicy.coalesce(60000, 100));
+            SharedPreferences loaded = PreferenceStore.applyWritePolicy(new InMemorySharedPreferences(), options.getWritePolicy(), null);
+            DeferredSharedPreferencesTests.ManualExecutor executor = new DeferredSharedPreferencesTests.ManualExecutor();
+            store = new PreferenceStore(null, new DeferredSharedPreferences(DeferredSharedPreferencesTests.loader(loaded), executor), options);
+            executor.run();
+
+            store.put("set", Collections.singleton("ab"));
+            store.flushAndWait();
+
+            Assert.assertEquals(store.getMetrics().getTotal(PreferenceOperation.FLUSH).getTotalSize(), 2);
+        }
+    }
+
+    public static class AsyncTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        AsyncExecutorTests.ManualExecutor executor;
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            executor = new AsyncExecutorTests.ManualExecutor();
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setAsyncExecutor(executor));
+        }
+
+        @Test
+        public void test_executor() {
+            Assert.assertTrue(store.asyncExecutor.isOrdered());
+            Assert.assertFalse(new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setAsyncKeyOrdering(false)).asyncExecutor.isOrdered());
+        }
+
+        @Test
+        public void test_putAsync() throws Exception {
+            Future<Void> future = store.putAsync("key", "value");
+            // Nothing is written on the caller's thread
+            Assert.assertFalse(store.contains("key"));
+
+            executor.run(0);
+
+            Assert.assertNull(future.get());
+            Assert.assertEquals(store.getString("key", null), "value");
+        }
+
+        @Test
+        public void test_putAsync_type() throws Exception {
+            store.putAsync("key", null, Date.class);
+
+            executor.run(0);
+
+            Assert.assertNull(store.get("key", new Date()));
+        }
+
+        @Test
+        public void test_putAsync_callback() {
+            PreferenceCallback<Void> callback = mock(PreferenceCallback.class);
+            store.putAsync("key", 1, Integer.class, callback);
+
+            executor.run(0);
+
+            verify(callback, times(1)).onSuccess(null);
+            Assert.assertEquals(store.getInt("key", 0), 1);
+        }
+
+        @Test
+        public void test_putAsync_invalid() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.putAsync(null, "value");
+        }
+
+        @Test
+        public void test_getAsync() throws Exception {
+            store.putInt("key", 5);
+
+            Future<Integer> future = store.getAsync("key", 0);
+            executor.run(0);
+
+            Assert.assertEquals((int) future.get(), 5);
+        }
+
+        @Test
+        public void test_getAsync_type() throws Exception {
+            Future<String> future = store.getAsync("key", null, String.class);
+            executor.run(0);
+
+            Assert.assertNull(future.get());
+        }
+
+        @Test
+        public void test_getAsync_afterPut() throws Exception {
+            store.putAsync("key", "value");
+            Future<String> future = store.getAsync("key", null, String.class);
+            // Calls for the same key wait their turn
+            Assert.assertEquals(executor.tasks.size(), 1);
+
+            executor.run(0);
+            executor.run(1);
+
+            Assert.assertEquals(future.get(), "value");
+        }
+
+        @Test
+        public void test_getAsync_error() throws Exception {
+            store.putString("key", "not a date");
+            PreferenceCallback<Date> callback = mock(PreferenceCallback.class);
+
+            Future<Date> future = store.getAsync("key", null, Date.class, callback);
+            executor.run(0);
+
+            verify(callback, times(1)).onError(any(IllegalArgumentException.class));
+            try {
+                future.get();
+                Assert.fail();
+            }
+            catch(ExecutionException e) {
+                Assert.assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+            }
+        }
+
+        @Test
+        public void test_getAsync_invalid() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Null primitive types (boolean, int, long, float) are invalid");
+
+            store.getAsync("key", null, Integer.class);
+        }
+
+        @Test
+        public void test_getListAsync() throws Exception {
+            List<String> list = new ArrayList<>();
+            list.add("value");
+            store.putList("key", list);
+            PreferenceCallback<List<String>> callback = mock(PreferenceCallback.class);
+
+            Future<List<String>> future = store.getListAsync("key", null, String[].class);
+            store.getListAsync("key", null, String[].class, callback);
+            executor.run(0);
+            executor.run(1);
+
+            Assert.assertEquals(future.get(), list);
+            verify(callback, times(1)).onSuccess(list);
+        }
+
+        @Test
+        public void test_getListAsync_invalid() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.getListAsync(null, null, String[].class);
+        }
+    }
+
+    public static class ObserveTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        AsyncExecutorTests.ManualExecutor executor;
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        ChangeDispatcherTests.RecordingObserver<String> observer;
+
+        @Before
+        public void beforeTest() {
+            executor = new AsyncExecutorTests.ManualExecutor();
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions().setChangeExecutor(executor).setChangeWindowMillis(0));
+            observer = new ChangeDispatcherTests.RecordingObserver<>();
+        }
+
+        @Test
+        public void test_noDispatcherUntilObserved() {
+            Assert.assertNull(store.changeDispatcher);
+        }
+
+        @Test
+        public void test_observe() {
+            PreferenceSubscription subscription = store.observe("key", null, String.class, observer);
+            store.observe("other", "none", null, observer);
+
+            store.putString("key", "value");
+            executor.run(0);
+
+            Assert.assertFalse(subscription.isCancelled());
+            Assert.assertEquals(observer.changes, Collections.singletonList("key=value"));
+            // Both subscriptions share the one registered listener
+            Assert.assertEquals(store.changeDispatcher.size(), 2);
+        }
+
+        @Test
+        public void test_observe_keys() {
+            store.observe(Arrays.asList("one", "two"), null, String.class, observer);
+
+            store.putString("two", "value");
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("two=value"));
+        }
+
+        @Test
+        public void test_observePrefix() {
+            store.observePrefix("user.", null, String.class, observer);
+
+            store.putString("user.name", "Jane");
+            executor.run(0);
+
+            Assert.assertEquals(observer.changes, Collections.singletonList("user.name=Jane"));
+        }
+
+        @Test
+        public void test_observe_nullKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.observe((String) null, null, String.class, observer);
+        }
+
+        @Test
+        public void test_observe_nullKeys() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Keys cannot be null");
+
+            store.observe((List<String>) null, null, String.class, observer);
+        }
+
+        @Test
+        public void test_observe_nullInKeys() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.observe(Arrays.asList("one", null), null, String.class, observer);
+        }
+
+        @Test
+        public void test_observe_nullPrimitive() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Null primitive types (boolean, int, long, float) are invalid");
+
+            store.observe("key", null, Integer.class, new ChangeDispatcherTests.RecordingObserver<Integer>());
+        }
+
+        @Test
+        public void test_observePrefix_nullPrefix() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Prefix cannot be null");
+
+            store.observePrefix(null, null, String.class, observer);
+        }
+
+        @Test
+        public void test_observe_nullObserver() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Observer cannot be null");
+
+            store.observe("key", null, String.class, null);
+        }
+    }
+
+    public static class GenericTypeTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        static final TypeToken<Map<String, List<UUID>>> MAP_TOKEN = new TypeToken<Map<String, List<UUID>>>() {};
+
+        PreferenceStore store;
+        Map<String, List<UUID>> value;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setMetricsEnabled(true));
+            value = new HashMap<>();
+            List<UUID> ids = new ArrayList<>();
+            ids.add(UUID.randomUUID());
+            value.put("ids", ids);
+        }
+
+        @Test
+        public void test_typeToken() {
+            store.put("key", value, MAP_TOKEN);
+
+            Map<String, List<UUID>> result = store.get("key", null, MAP_TOKEN);
+
+            Assert.assertEquals(result, value);
+            // The type parameters survive, so the elements are UUIDs rather than Gson's raw maps
+            Assert.assertThat(result.get("ids").get(0), instanceOf(UUID.class));
+            Assert.assertEquals(store.typeAdapters.size(), 1);
+        }
+
+        @Test
+        public void test_type() {
+            Type type = TypeToken.getParameterized(Map.class, String.class, TypeToken.getParameterized(List.class, UUID.class).getType()).getType();
+            store.put("key", value, type);
+
+            Map<String, List<UUID>> result = store.get("key", null, type);
+
+            Assert.assertEquals(result, value);
+        }
+
+        @Test
+        public void test_class() {
+            UUID uuid = UUID.randomUUID();
+
+            // A plain Class goes through the regular put()/get()
+            store.put("key", uuid, (Type) UUID.class);
+
+            Assert.assertEquals(store.get("key", null, (Type) UUID.class), uuid);
+            Assert.assertEquals(store.get("key", null, UUID.class), uuid);
+            Assert.assertEquals(store.typeAdapters.size(), 0);
+        }
+
+        @Test
+        public void test_primitiveType() {
+            store.put("key", 5, (Type) Integer.class);
+
+            Assert.assertEquals(store.getInt("key", 0), 5);
+            Assert.assertEquals(store.get("key", 0, (Type) Integer.class), Integer.valueOf(5));
+        }
+
+        @Test
+        public void test_list() {
+            List<UUID> ids = value.get("ids");
+            store.put("key", ids, new TypeToken<List<UUID>>() {});
+
+            Assert.assertEquals(store.get("key", null, new TypeToken<List<UUID>>() {}), ids);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), ids);
+        }
+
+        @Test
+        public void test_null() {
+            store.put("key", null, MAP_TOKEN);
+
+            Assert.assertTrue(store.contains("key"));
+            Assert.assertNull(store.get("key", value, MAP_TOKEN));
+        }
+
+        @Test
+        public void test_missing() {
+            Assert.assertEquals(store.get("missing", value, MAP_TOKEN), value);
+        }
+
+        @Test
+        public void test_metrics() {
+            store.put("key", value, MAP_TOKEN);
+            store.get("key", null, MAP_TOKEN);
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.PUT).getCount(), 1);
+            Assert.assertTrue(metrics.getStats("key", PreferenceOperation.PUT).getMaxSize() > 0);
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.GET).getCount(), 1);
+        }
+
+        @Test
+        public void test_wrongType() {
+            store.putString("key", "text");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.Map<java.lang.String, java.util.List<java.util.UUID>>");
+
+            store.get("key", null, MAP_TOKEN);
+        }
+
+        @Test
+        public void test_put_nullKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.put(null, value, MAP_TOKEN);
+        }
+
+        @Test
+        public void test_get_nullKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.get(null, null, MAP_TOKEN);
+        }
+
+        @Test
+        public void test_put_nullTypeToken() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Type cannot be null");
+
+            store.put("key", value, (TypeToken<Map<String, List<UUID>>>) null);
+        }
+
+        @Test
+        public void test_put_nullType() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Type cannot be null");
+
+            store.put("key", value, (Type) null);
+        }
+
+        @Test
+        public void test_get_nullTypeToken() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Type cannot be null");
+
+            store.get("key", null, (TypeToken<Map<String, List<UUID>>>) null);
+        }
+
+        @Test
+        public void test_get_nullType() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Type cannot be null");
+
+            store.get("key", null, (Type) null);
+        }
+
+        @Test
+        public void test_objectCache_copyOnRead() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setObjectCache(10, ObjectCacheMode.COPY_ON_READ));
+            store.put("key", value, MAP_TOKEN);
+
+            Map<String, List<UUID>> first = store.get("key", null, MAP_TOKEN);
+            Map<String, List<UUID>> second = store.get("key", null, MAP_TOKEN);
+
+            Assert.assertEquals(first, value);
+            Assert.assertNotSame(first, second);
+            Assert.assertEquals(store.objectCache.size(), 1);
+        }
+
+        @Test
+        public void test_objectCache_shared() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setObjectCache(10, ObjectCacheMode.SHARED));
+            store.put("key", value, MAP_TOKEN);
+
+            Map<String, List<UUID>> first = store.get("key", null, MAP_TOKEN);
+
+            Assert.assertSame(store.get("key", null, MAP_TOKEN), first);
+        }
+
+        @Test
+        public void test_valueCodec() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setValueCodec(new BinaryValueCodec()).setCompressionThreshold(1));
+            store.put("key", value, MAP_TOKEN);
+
+            Assert.assertEquals(store.get("key", null, MAP_TOKEN), value);
+        }
+    }
+
+    public static class CollectionTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions().setListSegmentSize(2).setMetricsEnabled(true));
+        }
+
+        @Test
+        public void test_appendToList() {
+            UUID first = UUID.randomUUID();
+            UUID second = UUID.randomUUID();
+            UUID third = UUID.randomUUID();
+
+            store.appendToList("key", first);
+            store.appendToList("key", second);
+            store.appendToList("key", third);
+
+            Assert.assertEquals(store.getList("key", null, UUID[].class), Arrays.asList(first, second, third));
+            Assert.assertEquals(store.getListSize("key"), 3);
+            Assert.assertEquals(preferences.getCommitCount(), 3);
+        }
+
+        @Test
+        public void test_appendToList_readsBack() {
+            store.putList("key", Arrays.asList("a", "b", "c"));
+            store.appendToList("key", "d");
+
+            Assert.assertEquals(store.get("key", null, new TypeToken<List<String>>() {}), Arrays.asList("a", "b", "c", "d"));
+
+            List<String> cursor = new ArrayList<>();
+            for(String value : store.getListCursor("key", String.class)) {
+                cursor.add(value);
+            }
+            Assert.assertEquals(cursor, Arrays.asList("a", "b", "c", "d"));
+        }
+
+        @Test
+        public void test_appendToList_valueCodec() {
+            store = new PreferenceStore(null, preferences, new PreferenceOptions().setListSegmentSize(2).setValueCodec(new BinaryValueCodec()).setCompressionThreshold(1));
+
+            for(int i = 0; i < 5; i++) {
+                store.appendToList("key", i);
+            }
+
+            Assert.assertTrue(preferences.getString("key#s0", null).startsWith("#"));
+            Assert.assertEquals(store.getList("key", null, Integer[].class), Arrays.asList(0, 1, 2, 3, 4));
+        }
+
+        @Test
+        public void test_removeFromList() {
+            store.putList("key", Arrays.asList("a", "b", "c"));
+
+            Assert.assertTrue(store.removeFromList("key", "b"));
+            Assert.assertFalse(store.removeFromList("key", "z"));
+
+            Assert.assertEquals(store.getList("key", null, String[].class), Arrays.asList("a", "c"));
+            Assert.assertEquals(store.getListSize("key"), 2);
+            // Nothing is written when the element isn't in the list
+            Assert.assertEquals(preferences.getCommitCount(), 2);
+        }
+
+        @Test
+        public void test_getListSize() {
+            store.putList("plain", Arrays.asList(1, 2, 3));
+
+            Assert.assertEquals(store.getListSize("plain"), 3);
+            Assert.assertEquals(store.getListSize("missing"), 0);
+        }
+
+        @Test
+        public void test_getList_invalidSegment() {
+            store.appendToList("key", "a");
+            preferences.edit().putString("key#s0", "{}").commit();
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a String[]");
+
+            store.getList("key", null, String[].class);
+        }
+
+        @Test
+        public void test_list_metrics() {
+            store.appendToList("key", "a");
+            store.removeFromList("key", "a");
+            store.getListSize("key");
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.PUT).getCount(), 1);
+            Assert.assertTrue(metrics.getStats("key", PreferenceOperation.PUT).getMaxSize() > 0);
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.REMOVE).getCount(), 1);
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.GET).getCount(), 1);
+        }
+
+        @Test
+        public void test_addToSet() {
+            Assert.assertTrue(store.addToSet("key", "a"));
+            Assert.assertTrue(store.addToSet("key", "b"));
+            Assert.assertFalse(store.addToSet("key", "a"));
+
+            Assert.assertEquals(preferences.getStringSet("key", null), new HashSet<>(Arrays.asList("a", "b")));
+            Assert.assertEquals(preferences.getCommitCount(), 2);
+        }
+
+        @Test
+        public void test_removeFromSet() {
+            store.put("key", new HashSet<>(Arrays.asList("a", "b")));
+
+            Assert.assertTrue(store.removeFromSet("key", "a"));
+            Assert.assertFalse(store.removeFromSet("key", "a"));
+            Assert.assertFalse(store.removeFromSet("missing", "a"));
+
+            Assert.assertEquals(preferences.getStringSet("key", null), Collections.singleton("b"));
+        }
+
+        @Test
+        public void test_addToSet_notASet() {
+            store.putInt("key", 1);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a set");
+
+            store.addToSet("key", "a");
+        }
+
+        @Test
+        public void test_removeFromSet_notASet() {
+            store.putString("key", "a");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a set");
+
+            store.removeFromSet("key", "a");
+        }
+
+        @Test
+        public void test_putMapEntry() {
+            UUID id = UUID.randomUUID();
+
+            store.putMapEntry("key", "id", id);
+            store.putMapEntry("key", "name", "Jane");
+            store.putMapEntry("key", "missing", null);
+
+            Assert.assertEquals(store.getMapEntry("key", "id", null, UUID.class), id);
+            Assert.assertEquals(store.getMapEntry("key", "name", null, String.class), "Jane");
+            Assert.assertNull(store.getMapEntry("key", "missing", "fallback", String.class));
+            Assert.assertEquals(store.getMapEntry("key", "other", "fallback", String.class), "fallback");
+            Assert.assertEquals(store.getMapSize("key"), 3);
+        }
+
+        @Test
+        public void test_putMapEntry_readsBack() {
+            Map<String, Integer> map = new HashMap<>();
+            map.put("a", 1);
+            store.put("key", map);
+
+            store.putMapEntry("key", "b", 2);
+
+            map.put("b", 2);
+            Assert.assertEquals(store.get("key", null, new TypeToken<Map<String, Integer>>() {}), map);
+        }
+
+        @Test
+        public void test_putMapEntry_objectCache() {
+            store = new PreferenceStore(null, preferences, new PreferenceOptions().setObjectCache(10, ObjectCacheMode.SHARED));
+            TypeToken<Map<String, Integer>> type = new TypeToken<Map<String, Integer>>() {};
+            store.putMapEntry("key", "a", 1);
+            store.get("key", null, type);
+
+            // The manifest doesn't change when an entry is replaced, so the map is never served from the cache
+            store.putMapEntry("key", "a", 2);
+
+            Assert.assertEquals(store.get("key", null, type).get("a"), Integer.valueOf(2));
+            Assert.assertEquals(store.objectCache.size(), 0);
+        }
+
+        @Test
+        public void test_removeMapEntry() {
+            store.putMapEntry("key", "a", 1);
+            store.putMapEntry("key", "b", 2);
+
+            Assert.assertTrue(store.removeMapEntry("key", "a"));
+            Assert.assertFalse(store.removeMapEntry("key", "a"));
+
+            Assert.assertEquals(store.getMapSize("key"), 1);
+            Assert.assertEquals(store.getMapEntry("key", "a", 0, Integer.class), Integer.valueOf(0));
+            Assert.assertEquals(preferences.getCommitCount(), 3);
+        }
+
+        @Test
+        public void test_getMapEntry_wrongType() {
+            store.putMapEntry("key", "a", "text");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+
+            store.getMapEntry("key", "a", null, UUID.class);
+        }
+
+        @Test
+        public void test_map_metrics() {
+            store.putMapEntry("key", "a", 1);
+            store.removeMapEntry("key", "a");
+            store.getMapEntry("key", "a", 0, Integer.class);
+            store.getMapSize("key");
+
+            MetricsSnapshot metrics = store.getMetrics();
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.PUT).getCount(), 1);
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.REMOVE).getCount(), 1);
+            Assert.assertEquals(metrics.getStats("key", PreferenceOperation.GET).getCount(), 2);
+        }
+
+        @Test
+        public void test_remove_removesParts() {
+            store.appendToList("list", 1);
+            store.appendToList("list", 2);
+            store.appendToList("list", 3);
+            store.putMapEntry("map", "a", 1);
+
+            store.remove("list");
+            store.remove("map");
+
+            Assert.assertTrue(preferences.getAll().isEmpty());
+        }
+
+        @Test
+        public void test_put_replacesParts() {
+            store.appendToList("list", 1);
+            store.appendToList("list", 2);
+            store.appendToList("list", 3);
+            store.putMapEntry("map", "a", 1);
+
+            store.putList("list", Arrays.asList(4, 5));
+            store.put("map", Collections.singletonMap("b", 2), new TypeToken<Map<String, Integer>>() {}.getType());
+
+            Assert.assertEquals(preferences.getAll().size(), 2);
+            Assert.assertEquals(store.getList("list", null, Integer[].class), Arrays.asList(4, 5));
+            Assert.assertEquals(store.getMapSize("map"), 1);
+        }
+
+        @Test
+        public void test_concurrentAppends() throws Exception {
+            final int threads = 4;
+            final int appends = 50;
+            List<Thread> writers = new ArrayList<>();
+            for(int t = 0; t < threads; t++) {
+                writers.add(new Thread() {
+                    @Override
+                    public void run() {
+                        for(int i = 0; i < appends; i++) {
+                            store.appendToList("key", i);
+                        }
+                    }
+                });
+            }
+
+            for(Thread writer : writers) {
+                writer.start();
+            }
+            for(Thread writer : writers) {
+                writer.join();
+            }
+
+            // Every read, change and save happens under the lock, so no append is lost
+            Assert.assertEquals(store.getListSize("key"), threads * appends);
+            Assert.assertEquals(store.getList("key", null, Integer[].class).size(), threads * appends);
+        }
+
+        @Test
+        public void test_nullKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.appendToList(null, "a");
+        }
+
+        @Test
+        public void test_nullEntryKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Entry key cannot be null");
+
+            store.putMapEntry("key", null, "a");
+        }
+    }
+
+    public static class SnapshotTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions());
+        }
+
+        @Test
+        public void test_snapshot() {
+            store.putInt("key", 1);
+
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            Assert.assertSame(store.snapshot(), snapshot);
+            Assert.assertEquals(snapshot.getInt("key", 0), 1);
+        }
+
+        @Test
+        public void test_snapshot_afterWrite() {
+            PreferenceSnapshot before = store.snapshot();
+
+            store.putInt("key", 1);
+            PreferenceSnapshot after = store.snapshot();
+
+            // Published as soon as the write returns, and the old snapshot keeps its values
+            Assert.assertNotSame(after, before);
+            Assert.assertFalse(before.contains("key"));
+            Assert.assertEquals(after.getInt("key", 0), 1);
+        }
+
+        @Test
+        public void test_snapshot_afterBatch() {
+            PreferenceSnapshot before = store.snapshot();
+            store.edit().put("a", 1).commit();
+            PreferenceSnapshot committed = store.snapshot();
+            store.edit().put("b", 2).apply();
+
+            Assert.assertNotSame(committed, before);
+            Assert.assertEquals(committed.getInt("a", 0), 1);
+            Assert.assertEquals(store.snapshot().getInt("b", 0), 2);
+        }
+
+        @Test
+        public void test_snapshot_externalWrite() {
+            PreferenceSnapshot before = store.snapshot();
+
+            preferences.edit().putInt("key", 1).commit();
+
+            Assert.assertNotSame(store.snapshot(), before);
+            Assert.assertEquals(store.snapshot().getInt("key", 0), 1);
+        }
+
+        @Test
+        public void test_noSnapshot() {
+            // Writes before the first snapshot have nothing to invalidate
+            store.putInt("key", 1);
+            store.edit().put("key", 2).commit();
+
+            Assert.assertNull(store.snapshots);
+        }
+    }
+
+    public static class GetManyTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        static final PreferenceKey<String> STRING = PreferenceKey.ofString("string", "fallback");
+        static final PreferenceKey<Integer> INT = PreferenceKey.ofInt("int", 0);
+        static final PreferenceKey<Long> LONG = PreferenceKey.ofLong("long", 0L);
+        static final PreferenceKey<Float> FLOAT = PreferenceKey.ofFloat("float", 0F);
+        static final PreferenceKey<Boolean> BOOLEAN = PreferenceKey.ofBoolean("boolean", false);
+        static final PreferenceKey<Set<String>> SET = PreferenceKey.ofStringSet("set", null);
+        static final PreferenceKey<UUID> OBJECT = PreferenceKey.of("object", null, UUID.class);
+        static final PreferenceKey<List<UUID>> LIST = PreferenceKey.of("list", null, new TypeToken<List<UUID>>() {});
+
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore("name", new InMemorySharedPreferences(), new PreferenceOptions().setMetricsEnabled(true));
+        }
+
+        @Test
+        public void test_getMany() {
+            Set<String> set = new HashSet<>();
+            set.add("entry");
+            UUID id = UUID.randomUUID();
+            List<UUID> list = Collections.singletonList(UUID.randomUUID());
+            store.put("string", "value");
+            store.put("int", 1);
+            store.put("long", 2L);
+            store.put("float", 3F);
+            store.put("boolean", true);
+            store.put("set", set);
+            store.put("object", id);
+            store.put("list", list, new TypeToken<List<UUID>>() {});
+
+            PreferenceValues values = store.getMany(STRING, INT, LONG, FLOAT, BOOLEAN, SET, OBJECT, LIST);
+
+            Assert.assertEquals(values.size(), 8);
+            Assert.assertEquals(values.get(STRING), "value");
+            Assert.assertEquals((int) values.get(INT), 1);
+            Assert.assertEquals((long) values.get(LONG), 2L);
+            Assert.assertEquals(values.get(FLOAT), 3F, 0);
+            Assert.assertTrue(values.get(BOOLEAN));
+            Assert.assertEquals(values.get(SET), set);
+            Assert.assertNotSame(values.get(SET), store.preferences.getStringSet("set", null));
+            Assert.assertEquals(values.get(OBJECT), id);
+            Assert.assertEquals(values.get(LIST), list);
+            Assert.assertEquals(store.getMetrics().getTotal(PreferenceOperation.GET_MANY).getCount(), 1);
+        }
+
+        @Test
+        public void test_getMany_fallbacks() {
+            PreferenceValues values = store.getMany(STRING, INT, SET, OBJECT);
+
+            Assert.assertEquals(values.get(STRING), "fallback");
+            Assert.assertEquals((int) values.get(INT), 0);
+            Assert.assertNull(values.get(SET));
+            Assert.assertNull(values.get(OBJECT));
+            Assert.assertTrue(values.contains(OBJECT));
+        }
+
+        @Test
+        public void test_getMany_expired() {
+            store = ExpiryTrackerTests.newStore(0);
+            store.put("string", "value", 100);
+            store.put("object", UUID.randomUUID(), 100);
+            ((ExpiryTrackerTests.ClockTracker) store.expiry).now = 1100;
+
+            PreferenceValues values = store.getMany(STRING, OBJECT);
+
+            Assert.assertEquals(values.get(STRING), "fallback");
+            Assert.assertNull(values.get(OBJECT));
+        }
+
+        @Test
+        public void test_getMany_snapshotExpiryTimes() {
+            store = ExpiryTrackerTests.newStore(0);
+            store.put("string", "value", 100);
+            store.snapshot();
+            // Drops the TTL from the tracker but not the snapshot, like a write landing while getMany() reads
+            store.expiry.forget(new InMemorySharedPreferences().edit(), "string");
+            ((ExpiryTrackerTests.ClockTracker) store.expiry).now = 1100;
+
+            PreferenceValues values = store.getMany(STRING);
+
+            Assert.assertEquals(values.get(STRING), "fallback");
+        }
+
+        @Test
+        public void test_getMany_segmentedMap() {
+            PreferenceKey<Map<String, Integer>> key = PreferenceKey.of("map", null, new TypeToken<Map<String, Integer>>() {});
+            store.putMapEntry("map", "a", 1);
+            store.putMapEntry("map", "b", 2);
+
+            Map<String, Integer> map = store.getMany(key).get(key);
+
+            Assert.assertEquals(map.size(), 2);
+            Assert.assertEquals((int) map.get("a"), 1);
+            Assert.assertEquals((int) map.get("b"), 2);
+        }
+
+        @Test
+        public void test_getMany_parallel() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setParallelDecodeThreshold(2));
+            List<PreferenceKey<UUID>> keys = new ArrayList<>();
+            List<UUID> ids = new ArrayList<>();
+            for(int i = 0; i < 20; i++) {
+                UUID id = UUID.randomUUID();
+                store.put("object" + i, id);
+                keys.add(PreferenceKey.of("object" + i, null, UUID.class));
+                ids.add(id);
+            }
+            keys.add(PreferenceKey.of("missing", null, UUID.class));
+
+            PreferenceValues values = store.getMany(keys.toArray(new PreferenceKey<?>[0]));
+
+            Assert.assertEquals(values.size(), 21);
+            for(int i = 0; i < 20; i++) {
+                Assert.assertEquals(values.get(keys.get(i)), ids.get(i));
+            }
+            Assert.assertNull(values.get(keys.get(20)));
+        }
+
+        @Test
+        public void test_getMany_belowParallelThreshold() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setParallelDecodeThreshold(3));
+            UUID id = UUID.randomUUID();
+            store.put("object", id);
+
+            Assert.assertEquals(store.getMany(OBJECT, STRING).get(OBJECT), id);
+        }
+
+        @Test
+        public void test_getMany_parallelWrongType() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setParallelDecodeThreshold(1));
+            store.put("object", "not a uuid");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not an instance of java.util.UUID");
+
+            store.getMany(OBJECT);
+        }
+
+        @Test
+        public void test_getMany_nullKeys() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Keys cannot be null");
+
+            store.getMany((PreferenceKey<?>[]) null);
+        }
+
+        @Test
+        public void test_getMany_nullKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Keys cannot be null");
+
+            store.getMany(STRING, null);
+        }
+
+        @Test
+        public void test_get_notRead() {
+            PreferenceValues values = store.getMany(STRING);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The key was not read by getMany()");
+
+            values.get(INT);
+        }
+    }
+
+    public static class ParallelListTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        PreferenceStore store;
+        List<UUID> ids;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setParallelListThreshold(1));
+            ids = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                ids.add(UUID.randomUUID());
+            }
+        }
+
+        @Test
+        public void test_getList() {
+            store.putList("list", ids);
+
+            Assert.assertEquals(store.getList("list", null, UUID[].class), ids);
+            Assert.assertEquals(store.snapshot().getList("list", null, UUID[].class), ids);
+        }
+
+        @Test
+        public void test_getList_belowThreshold() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setParallelListThreshold(100000));
+            store.putList("list", ids);
+
+            Assert.assertEquals(store.getList("list", null, UUID[].class), ids);
+        }
+
+        @Test
+        public void test_getList_compressed() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setParallelListThreshold(1).setCompressionThreshold(10));
+            store.putList("list", ids);
+
+            Assert.assertEquals(store.getList("list", null, UUID[].class), ids);
+        }
+
+        @Test
+        public void test_getList_corruptCompressed() {
+            store.preferences.edit().putString("list", ValueCompressor.TAG + "not base64!").commit();
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a UUID[]");
+
+            store.getList("list", null, UUID[].class);
+        }
+
+        @Test
+        public void test_getList_valueCodec() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setParallelListThreshold(1).setValueCodec(new BinaryValueCodec()));
+            store.putList("list", ids);
+
+            Assert.assertEquals(store.getList("list", null, UUID[].class), ids);
+        }
+
+        @Test
+        public void test_getList_segmented() {
+            store.putList("list", ids);
+            UUID appended = UUID.randomUUID();
+            store.appendToList("list", appended);
+            ids.add(appended);
+
+            Assert.assertEquals(store.getList("list", null, UUID[].class), ids);
+        }
+
+        @Test
+        public void test_getList_notSplit() {
+            store.putList("single", Collections.singletonList(ids.get(0)));
+            store.putList("null", null);
+
+            Assert.assertEquals(store.getList("single", null, UUID[].class), Collections.singletonList(ids.get(0)));
+            Assert.assertNull(store.getList("null", new ArrayList<UUID>(), UUID[].class));
+        }
+
+        @Test
+        public void test_getList_wrongType() {
+            store.putList("list", Arrays.asList(1, 2, 3));
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a UUID[]");
+
+            store.getList("list", null, UUID[].class);
+        }
+
+        @Test
+        public void test_readListInParallel() {
+            store.putList("list", ids);
+            String json = store.preferences.getString("list", null);
+            final List<Thread> threads = new ArrayList<>();
+            Executor executor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    Thread thread = new Thread(command);
+                    threads.add(thread);
+                    thread.start();
+                }
+            };
+
+            List<UUID> result = store.readListInParallel(json, UUID.class, executor, 2);
+
+            Assert.assertEquals(result, ids);
+            Assert.assertEquals(threads.size(), 8);
+        }
+    }
+
+    public static class ExpiryTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        ExpiryTrackerTests.ClockTracker tracker;
+
+        @Before
+        public void beforeTest() {
+            store = ExpiryTrackerTests.newStore(0);
+            preferences = (InMemorySharedPreferences) store.preferences;
+            tracker = (ExpiryTrackerTests.ClockTracker) store.expiry;
+        }
+
+        @Test
+        public void test_put() {
+            store.put("key", "value", 100);
+
+            Assert.assertEquals(store.getString("key", null), "value");
+            Assert.assertEquals(preferences.getLong("#ttl:key", 0), 1100);
+            Assert.assertTrue(tracker.isTracked("key"));
+        }
+
+        @Test
+        public void test_addToSet_expired() {
+            store.put("tags", new HashSet<>(Arrays.asList("a", "b")), 100);
+            tracker.now += 100;
+
+            Assert.assertTrue(store.addToSet("tags", "a"));
+
+            Assert.assertEquals(store.get("tags", null, Set.class), Collections.singleton("a"));
+            // Written without a TTL, the new set is permanent
+            Assert.assertFalse(tracker.isTracked("tags"));
+            Assert.assertFalse(preferences.contains("#ttl:tags"));
+        }
+
+        @Test
+        public void test_removeFromSet_expired() {
+            store.put("tags", new HashSet<>(Arrays.asList("a", "b")), 100);
+            tracker.now += 100;
+
+            Assert.assertFalse(store.removeFromSet("tags", "a"));
+
+            Assert.assertEquals(preferences.getStringSet("tags", null), new HashSet<>(Arrays.asList("a", "b")));
+            Assert.assertNull(store.get("tags", null, Set.class));
+        }
+
+        @Test
+        public void test_reservedKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Keys starting with #ttl: are reserved for expiry times");
+
+            store.putLong("#ttl:key", 5L);
+        }
+
+        @Test
+        public void test_put_nullKey() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("Key cannot be null");
+
+            store.put(null, "value", 100);
+        }
+
+        @Test
+        public void test_put_noTtl() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("TTL must be greater than 0");
+
+            store.put("key", "value", 0);
+        }
+
+        @Test
+        public void test_put_disabled() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+            expectedException.expect(IllegalStateException.class);
+            expectedException.expectMessage("Enable expiry with PreferenceOptions.setExpiryEnabled() to store values with a TTL");
+
+            store.put("key", "value", 100);
+        }
+
+        @Test
+        public void test_expiredReads() {
+            store.put("string", "value", 100);
+            store.put("int", 1, 100);
+            store.put("long", 2L, 100);
+            store.put("float", 3f, 100);
+            store.put("boolean", true, 100);
+            store.put("object", UUID.randomUUID(), 100);
+            store.put("generic", Collections.singletonMap("a", 1), 100);
+            store.put("list", Arrays.asList(1, 2), 100);
+            store.put("map", Collections.singletonMap("a", 1), 100);
+            tracker.now = 1100;
+
+            Assert.assertFalse(store.contains("string"));
+            Assert.assertEquals(store.getString("string", "fallback"), "fallback");
+            Assert.assertEquals(store.getInt("int", 4), 4);
+            Assert.assertEquals(store.getLong("long", 5L), 5L);
+            Assert.assertEquals(store.getFloat("float", 6f), 6f, 0);
+            Assert.assertFalse(store.getBoolean("boolean", false));
+            Assert.assertEquals(store.get("string", "fallback"), "fallback");
+            Assert.assertNull(store.get("object", null, UUID.class));
+            Assert.assertNull(store.get("generic", null, new TypeToken<Map<String, Integer>>() {}));
+            Assert.assertNull(store.getList("list", null, Integer[].class));
+            Assert.assertFalse(store.getListCursor("list", Integer.class).hasNext());
+            Assert.assertEquals(store.getListSize("list"), 0);
+            Assert.assertEquals(store.getMapSize("map"), 0);
+            Assert.assertEquals(store.getMapEntry("map", "a", 0, Integer.class), Integer.valueOf(0));
+
+            // Until a sweep runs the values are only hidden
+            Assert.assertTrue(preferences.contains("string"));
+        }
+
+        @Test
+        public void test_liveReads() {
+            store.put("list", Arrays.asList(1, 2), 100);
+            store.put("map", Collections.singletonMap("a", 1), 100);
+            tracker.now = 1099;
+
+            Assert.assertTrue(store.contains("list"));
+            Assert.assertEquals(store.getListSize("list"), 2);
+            Assert.assertEquals(store.getMapSize("map"), 1);
+            Assert.assertEquals(store.getMapEntry("map", "a", 0, Integer.class), Integer.valueOf(1));
+        }
+
+        @Test
+        public void test_write_makesPermanent() {
+            store.put("key", "value", 100);
+
+            store.putString("key", "new");
+            tracker.now = 1100;
+
+            Assert.assertEquals(store.getString("key", null), "new");
+            Assert.assertFalse(preferences.contains("#ttl:key"));
+            Assert.assertEquals(store.sweepExpired(), 0);
+        }
+
+        @Test
+        public void test_remove() {
+            store.put("key", "value", 100);
+
+            store.remove("key");
+
+            Assert.assertTrue(preferences.getAll().isEmpty());
+            Assert.assertFalse(tracker.isTracked("key"));
+        }
+
+        @Test
+        public void test_clear() {
+            store.put("key", "value", 100);
+
+            store.clear();
+
+            Assert.assertFalse(tracker.isTracked(null));
+        }
+
+        @Test
+        public void test_sweepExpired() {
+            store.put("a", "value", 100);
+            store.put("b", UUID.randomUUID(), 100);
+            store.put("c", "value", 200);
+            PreferenceSnapshot before = store.snapshot();
+            tracker.now = 1100;
+
+            Assert.assertEquals(store.sweepExpired(), 2);
+
+            Assert.assertEquals(preferences.getAll().keySet(), new HashSet<>(Arrays.asList("c", "#ttl:c")));
+            Assert.assertNotSame(store.snapshot(), before);
+            Assert.assertEquals(store.sweepExpired(), 0);
+        }
+
+        @Test
+        public void test_sweepExpired_disabled() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+
+            Assert.assertEquals(store.sweepExpired(), 0);
+        }
+
+        @Test
+        public void test_sweepExpired_metrics() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setExpiryEnabled(true).setExpirySweepIntervalMillis(0).setMetricsEnabled(true));
+            tracker = new ExpiryTrackerTests.ClockTracker(store, 0);
+            store.expiry = tracker;
+            store.put("a", "value", 100);
+            store.put("b", "value", 100);
+            tracker.now = 1100;
+
+            store.sweepExpired();
+
+            Assert.assertEquals(store.getMetrics().getTotal(PreferenceOperation.EVICT).getCount(), 1);
+        }
+
+        @Test
+        public void test_backgroundSweep() throws Exception {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setExpiryEnabled(true).setExpirySweepIntervalMillis(1));
+            store.put("key", "value", 1);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while(store.preferences.contains("key") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            Assert.assertTrue(store.preferences.getAll().isEmpty());
+        }
+    }
+
+    public static class SpilloverTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        PreferenceStore store;
+        File directory;
+        List<UUID> list;
+
+        @Before
+        public void beforeTest() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setSpillover(folder.getRoot(), 100));
+            directory = new File(folder.getRoot(), "default");
+            list = new ArrayList<>();
+            for(int i = 0; i < 10; i++) {
+                list.add(new UUID(0, i));
+            }
+        }
+
+        int files() {
+            String[] names = directory.list();
+            return names == null ? 0 : names.length;
+        }
+
+        @Test
+        public void test_putList_spills() {
+            store.putList("key", list);
+
+            String stored = store.getString("key", null);
+            Assert.assertTrue(stored.startsWith(SpilloverFiles.TAG));
+            Assert.assertTrue(new File(directory, stored.substring(SpilloverFiles.TAG.length())).exists());
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+            Assert.assertEquals(PreferenceStore.toList(store.getListCursor("key", UUID.class)), list);
+            Assert.assertEquals(store.snapshot().getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_put_belowThreshold() {
+            UUID value = UUID.randomUUID();
+
+            store.put("key", value);
+
+            Assert.assertEquals(store.getString("key", null), new Gson().toJson(value));
+            Assert.assertEquals(files(), 0);
+        }
+
+        @Test
+        public void test_put_stringsStayInStore() {
+            String value = new Gson().toJson(list);
+
+            store.put("key", value);
+
+            Assert.assertEquals(store.getString("key", null), value);
+            Assert.assertEquals(files(), 0);
+        }
+
+        @Test
+        public void test_get_spilled() {
+            CompressionTests.Record record = new CompressionTests.Record(list);
+            store.put("key", record);
+
+            Assert.assertEquals(store.get("key", null, CompressionTests.Record.class).values, list);
+            Assert.assertEquals(store.snapshot().get("key", null, CompressionTests.Record.class).values, list);
+        }
+
+        @Test
+        public void test_get_cached() {
+            store.put("key", new CompressionTests.Record(list));
+            store.objectCache = new ObjectCache(10, ObjectCacheMode.COPY_ON_READ);
+            Assert.assertEquals(store.get("key", null, CompressionTests.Record.class).values, list);
+
+            // The decoded value is cached against its reference, so later reads don't need the file
+            Assert.assertTrue(directory.listFiles()[0].delete());
+
+            Assert.assertEquals(store.get("key", null, CompressionTests.Record.class).values, list);
+        }
+
+        @Test
+        public void test_put_genericType() {
+            Map<String, List<UUID>> value = new HashMap<>();
+            value.put("ids", list);
+            Type type = new TypeToken<Map<String, List<UUID>>>() {}.getType();
+
+            store.put("key", value, type);
+
+            Assert.assertTrue(store.getString("key", null).startsWith(SpilloverFiles.TAG));
+            Assert.assertEquals(store.get("key", null, type), value);
+        }
+
+        @Test
+        public void test_preferenceKey() {
+            PreferenceKey<CompressionTests.Record> key = PreferenceKey.of("key", null, CompressionTests.Record.class);
+
+            key.put(store, new CompressionTests.Record(list));
+
+            Assert.assertTrue(store.getString("key", null).startsWith(SpilloverFiles.TAG));
+            Assert.assertEquals(key.get(store).values, list);
+            Assert.assertEquals(store.getMany(key).get(key).values, list);
+        }
+
+        @Test
+        public void test_compressed() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setSpillover(folder.getRoot(), 10).setCompressionThreshold(10));
+
+            store.putList("key", list);
+
+            Assert.assertEquals(files(), 1);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_parallelList() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setSpillover(folder.getRoot(), 100).setParallelListThreshold(1));
+
+            store.putList("key", list);
+
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_namedStore() {
+            store = new PreferenceStore("settings", new InMemorySharedPreferences(), new PreferenceOptions().setSpillover(folder.getRoot(), 100));
+
+            store.putList("key", list);
+
+            Assert.assertEquals(new File(folder.getRoot(), "store_settings").list().length, 1);
+        }
+
+        @Test
+        public void test_spilloverTurnedOff() {
+            store.putList("key", list);
+            InMemorySharedPreferences preferences = (InMemorySharedPreferences) store.preferences;
+
+            store = new PreferenceStore(null, preferences, new PreferenceOptions().setSpillover(folder.getRoot(), 0));
+            store.putList("other", list);
+
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+            Assert.assertFalse(store.getString("other", null).startsWith(SpilloverFiles.TAG));
+        }
+
+        @Test
+        public void test_overwrite_deletesOldFile() {
+            store.putList("key", list);
+            String first = store.getString("key", null);
+
+            store.putList("key", list);
+
+            Assert.assertFalse(store.getString("key", null).equals(first));
+            Assert.assertEquals(files(), 1);
+        }
+
+        @Test
+        public void test_overwriteWithPrimitive_deletesFile() {
+            store.putList("key", list);
+
+            store.put("key", 5);
+
+            Assert.assertEquals(files(), 0);
+        }
+
+        @Test
+        public void test_appendToList_deletesFile() {
+            store.putList("key", list);
+
+            store.appendToList("key", new UUID(1, 1));
+
+            Assert.assertEquals(files(), 0);
+            Assert.assertEquals(store.getList("key", null, UUID[].class).size(), 11);
+        }
+
+        @Test
+        public void test_remove_deletesFile() {
+            store.putList("key", list);
+            store.putList("other", list);
+
+            store.remove("key");
+
+            Assert.assertEquals(files(), 1);
+            Assert.assertEquals(store.getList("other", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_clear_deletesFiles() {
+            store.putList("first", list);
+            store.putList("second", list);
+
+            store.clear();
+
+            Assert.assertEquals(files(), 0);
+        }
+
+        @Test
+        public void test_sweepExpired_deletesFile() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setSpillover(folder.getRoot(), 100).setExpiryEnabled(true).setExpirySweepIntervalMillis(0));
+            ExpiryTrackerTests.ClockTracker tracker = new ExpiryTrackerTests.ClockTracker(store, 0);
+            store.expiry = tracker;
+            store.put("key", list, 100);
+            Assert.assertEquals(files(), 1);
+            tracker.now = 1100;
+
+            store.sweepExpired();
+
+            Assert.assertEquals(files(), 0);
+        }
+
+        @Test
+        public void test_batch_commit() {
+            store.putList("replaced", list);
+            store.putList("removed", list);
+
+            store.edit().putList("replaced", list).putList("twice", list).putList("twice", list).remove("removed").commit();
+
+            // One file each for the new "replaced" value and the last "twice" value
+            Assert.assertEquals(files(), 2);
+            Assert.assertEquals(store.getList("replaced", null, UUID[].class), list);
+            Assert.assertEquals(store.getList("twice", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_batch_apply_clear() {
+            store.putList("first", list);
+
+            store.edit().clear().putList("second", list).apply();
+
+            // An applied batch isn't on disk yet, so the file it replaced waits for the next commit
+            Assert.assertEquals(files(), 2);
+            Assert.assertEquals(store.getList("second", null, UUID[].class), list);
+
+            Assert.assertTrue(store.flushAndWait());
+
+            Assert.assertEquals(files(), 1);
+        }
+
+        @Test
+        public void test_apply_keepsFileUntilCommitted() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setSpillover(folder.getRoot(), 100).setWritePolicy(WritePolicy.apply()));
+            store.putList("key", list);
+
+            store.putList("key", list);
+
+            Assert.assertEquals(files(), 2);
+
+            store.flushAndWait();
+
+            Assert.assertEquals(files(), 1);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_coalesce_keepsFileUntilFlushed() {
+            InMemorySharedPreferences preferences = new InMemorySharedPreferences();
+            PreferenceOptions options = new PreferenceOptions().setSpillover(folder.getRoot(), 100).setWritePolicy(WritePolicy.coalesce(60000, 100));
+            store = new PreferenceStore(null, preferences, options);
+            store.putList("key", list);
+            store.flushAndWait();
+
+            store.putList("key", list);
+
+            // Reopening before the flush finds the old reference, so its file must still be there
+            Assert.assertEquals(files(), 2);
+            Assert.assertEquals(new PreferenceStore(null, preferences, new PreferenceOptions().setSpillover(folder.getRoot(), 100)).getList("key", null, UUID[].class), list);
+
+            store.flushAndWait();
+
+            Assert.assertEquals(files(), 1);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_coalesce_batchCommitKeepsFileUntilFlushed() {
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setSpillover(folder.getRoot(), 100).setWritePolicy(WritePolicy.coalesce(60000, 100)));
+            store.putList("key", list);
+
+            store.edit().putList("key", list).commit();
+
+            Assert.assertEquals(files(), 2);
+
+            store.flushAndWait();
+
+            Assert.assertEquals(files(), 1);
+        }
+
+        @Test
+        public void test_journaled_sweptByFlush() {
+            PreferenceOptions options = new PreferenceOptions().setSpillover(folder.getRoot(), 100).setWritePolicy(WritePolicy.journaled(60000, 100, new File(folder.getRoot(), "journal")));
+            store = new PreferenceStore(null, new InMemorySharedPreferences(), options);
+            store.putList("key", list);
+            store.remove("key");
+            Assert.assertEquals(files(), 1);
+
+            Assert.assertTrue(store.flushAndWait());
+
+            Assert.assertEquals(files(), 0);
+        }
+
+        @Test
+        public void test_snapshot_keepsFile() {
+            store.putList("key", list);
+            PreferenceSnapshot snapshot = store.snapshot();
+
+            store.putList("key", list);
+
+            Assert.assertEquals(files(), 2);
+            Assert.assertEquals(snapshot.getList("key", null, UUID[].class), list);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_orphans_sweptByFirstCommit() throws Exception {
+            Assert.assertTrue(directory.mkdirs());
+            Assert.assertTrue(new File(directory, "orphan").createNewFile());
+
+            store.putList("key", list);
+            store.put("other", 5);
+
+            Assert.assertFalse(new File(directory, "orphan").exists());
+            Assert.assertEquals(files(), 1);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_batch_rollback() {
+            store.putList("key", list);
+            PreferenceBatch batch = store.edit().putList("key", list).remove("key");
+
+            batch.rollback();
+            batch.commit();
+
+            Assert.assertEquals(files(), 1);
+            Assert.assertEquals(store.getList("key", null, UUID[].class), list);
+        }
+
+        @Test
+        public void test_get_missingFile() {
+            store.put("key", new CompressionTests.Record(list));
+            Assert.assertTrue(directory.listFiles()[0].delete());
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("not an instance of");
+
+            store.get("key", null, CompressionTests.Record.class);
+        }
+
+        @Test
+        public void test_getList_missingFile() {
+            store.putList("key", list);
+            Assert.assertTrue(directory.listFiles()[0].delete());
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("not a UUID[]");
+
+            store.getList("key", null, UUID[].class);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the generic get() path against the typed accessors.  Fallbacks are outside the Integer/Long box caches
+ * so the boxing shows up in the allocation rate.
+ * Run with: ./gradlew :app:benchmark -Pjmh="PrimitiveAccessorBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveAccessorBenchmark {
+
+    private int intFallback;
+    private long longFallback;
+    private float floatFallback;
+
+    @Setup
+    public void setup() {
+        PreferenceHelper.defaultStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        PreferenceHelper.defaultStore.preferences.edit()
+                .putInt("int", 123456)
+                .putLong("long", 123456789L)
+                .putFloat("float", 1234.5F)
+                .putBoolean("boolean", true)
+                .commit();
+        intFallback = 1000;
+        longFallback = 1000L;
+        floatFallback = 1000F;
+    }
+
+    @Benchmark
+    public void generic_get(Blackhole blackhole) {
+        int intValue = PreferenceHelper.get("int", intFallback);
+        long longValue = PreferenceHelper.get("long", longFallback);
+        float floatValue = PreferenceHelper.get("float", floatFallback);
+        boolean booleanValue = PreferenceHelper.get("boolean", false);
+        blackhole.consume(intValue);
+        blackhole.consume(longValue);
+        blackhole.consume(floatValue);
+        blackhole.consume(booleanValue);
+    }
+
+    @Benchmark
+    public void typed_get(Blackhole blackhole) {
+        blackhole.consume(PreferenceHelper.getInt("int", intFallback));
+        blackhole.consume(PreferenceHelper.getLong("long", longFallback));
+        blackhole.consume(PreferenceHelper.getFloat("float", floatFallback));
+        blackhole.consume(PreferenceHelper.getBoolean("boolean", false));
+    }
+}
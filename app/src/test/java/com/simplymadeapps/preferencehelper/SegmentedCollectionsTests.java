@@ -0,0 +1,667 @@
+package com.simplymadeapps.preferencehelper;
+
+import android.content.SharedPreferences;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+@RunWith(Enclosed.class)
+public class SegmentedCollectionsTests {
+
+    static PreferenceStore newStore(InMemorySharedPreferences preferences) {
+        return new PreferenceStore(null, preferences, new PreferenceOptions().setListSegmentSize(2));
+    }
+
+    public static class ManifestTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_format() {
+            SegmentedCollections.Manifest manifest = new SegmentedCollections.Manifest(SegmentedCollections.LIST);
+            manifest.size = 3;
+            manifest.nextId = 4;
+            manifest.segments.add(new int[] { 1, 2 });
+            manifest.segments.add(new int[] { 3, 1 });
+
+            Assert.assertEquals(manifest.format(), "#seg1:L,3,4,1:2,3:1");
+        }
+
+        @Test
+        public void test_parse() {
+            SegmentedCollections.Manifest manifest = SegmentedCollections.Manifest.parse("#seg1:L,3,4,1:2,3:1");
+
+            Assert.assertEquals(manifest.kind, SegmentedCollections.LIST);
+            Assert.assertEquals(manifest.size, 3);
+            Assert.assertEquals(manifest.nextId, 4);
+            Assert.assertEquals(manifest.segments.size(), 2);
+            Assert.assertEquals(manifest.segments.get(1)[0], 3);
+            Assert.assertEquals(manifest.segments.get(1)[1], 1);
+        }
+
+        @Test
+        public void test_format_map() {
+            SegmentedCollections.Manifest manifest = new SegmentedCollections.Manifest(SegmentedCollections.MAP);
+            manifest.size = 3;
+            manifest.entries.add("a");
+            manifest.entries.add("b,c#d%");
+            manifest.entries.add("");
+
+            Assert.assertEquals(manifest.format(), "#seg1:M,3,0,a,b%2Cc%23d%25,");
+        }
+
+        @Test
+        public void test_parse_map() {
+            SegmentedCollections.Manifest manifest = SegmentedCollections.Manifest.parse("#seg1:M,3,0,a,b%2Cc%23d%25,");
+
+            Assert.assertEquals(manifest.kind, SegmentedCollections.MAP);
+            Assert.assertEquals(manifest.size, 3);
+            Assert.assertTrue(manifest.segments.isEmpty());
+            Assert.assertEquals(new ArrayList<>(manifest.entries), Arrays.asList("a", "b,c#d%", ""));
+        }
+
+        @Test
+        public void test_parse_corrupt() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The collection stored at the specified key is corrupt: #seg1:L,x");
+
+            SegmentedCollections.Manifest.parse("#seg1:L,x");
+        }
+
+        @Test
+        public void test_isManifest() {
+            Assert.assertTrue(SegmentedCollections.isManifest("#seg1:L,0,0"));
+            Assert.assertFalse(SegmentedCollections.isManifest("[1,2]"));
+            Assert.assertFalse(SegmentedCollections.isManifest(null));
+        }
+
+        @Test
+        public void test_partKeys() {
+            Assert.assertEquals(SegmentedCollections.segmentKey("queue", 3), "queue#s3");
+            Assert.assertEquals(SegmentedCollections.entryKey("users", "jane"), "users#ejane");
+            Assert.assertEquals(SegmentedCollections.entryKey("users", "a#eb"), "users#ea%23eb");
+        }
+
+        @Test
+        public void test_partKeys_stored() {
+            Assert.assertEquals(SegmentedCollections.partKeys("queue", "#seg1:L,3,4,1:2,3:1"), Arrays.asList("queue#s1", "queue#s3"));
+            Assert.assertEquals(SegmentedCollections.partKeys("users", "#seg1:M,1,0,a#b"), Collections.singletonList("users#ea%23b"));
+            Assert.assertTrue(SegmentedCollections.partKeys("key", "#seg1:L,x").isEmpty());
+            Assert.assertTrue(SegmentedCollections.partKeys("key", "text").isEmpty());
+            Assert.assertTrue(SegmentedCollections.partKeys("key", 5).isEmpty());
+        }
+
+        @Test
+        public void test_partKeys_values() {
+            Map<String, Object> values = new HashMap<>();
+            values.put("queue", "#seg1:L,1,1,0:1");
+            values.put("queue#s0", "[1]");
+            values.put("users", "#seg1:M,1,0,a");
+            values.put("users#ea", "1");
+            values.put("count", 3);
+
+            Assert.assertEquals(SegmentedCollections.partKeys(values), new HashSet<>(Arrays.asList("queue#s0", "users#ea")));
+        }
+    }
+
+    public static class ListTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        SegmentedCollections collections;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = newStore(preferences);
+            collections = store.collections;
+        }
+
+        private void append(String key, int value) {
+            SharedPreferences.Editor editor = preferences.edit();
+            collections.append(editor, key, new JsonPrimitive(value));
+            editor.commit();
+        }
+
+        private boolean remove(String key, int value) {
+            SharedPreferences.Editor editor = preferences.edit();
+            boolean removed = collections.remove(editor, key, new JsonPrimitive(value));
+            editor.commit();
+            return removed;
+        }
+
+        @Test
+        public void test_append() {
+            for(int i = 1; i <= 5; i++) {
+                append("key", i);
+            }
+
+            // Full segments are never rewritten, the last one is started when the previous fills up
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:L,5,3,0:2,1:2,2:1");
+            Assert.assertEquals(preferences.getString("key#s0", null), "[1,2]");
+            Assert.assertEquals(preferences.getString("key#s1", null), "[3,4]");
+            Assert.assertEquals(preferences.getString("key#s2", null), "[5]");
+            Assert.assertEquals(collections.size("key", SegmentedCollections.LIST), 5);
+        }
+
+        @Test
+        public void test_append_returnsSize() {
+            SharedPreferences.Editor editor = preferences.edit();
+
+            int size = collections.append(editor, "key", new JsonPrimitive(1));
+
+            Assert.assertEquals(size, "[1]".length() + "#seg1:L,1,1,0:1".length());
+        }
+
+        @Test
+        public void test_append_convertsList() {
+            store.putList("key", Arrays.asList(1, 2, 3));
+
+            append("key", 4);
+            append("key", 5);
+
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:L,5,3,0:2,1:2,2:1");
+            Assert.assertEquals(store.getList("key", null, Integer[].class), Arrays.asList(1, 2, 3, 4, 5));
+        }
+
+        @Test
+        public void test_append_nullList() {
+            store.putList("key", null);
+
+            append("key", 1);
+
+            Assert.assertEquals(store.getList("key", null, Integer[].class), Collections.singletonList(1));
+        }
+
+        @Test
+        public void test_remove() {
+            for(int i = 1; i <= 5; i++) {
+                append("key", i);
+            }
+
+            Assert.assertTrue(remove("key", 3));
+
+            // Only the segment that held the element changed
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:L,4,3,0:2,1:1,2:1");
+            Assert.assertEquals(preferences.getString("key#s1", null), "[4]");
+            Assert.assertEquals(store.getList("key", null, Integer[].class), Arrays.asList(1, 2, 4, 5));
+        }
+
+        @Test
+        public void test_remove_emptiesSegment() {
+            for(int i = 1; i <= 3; i++) {
+                append("key", i);
+            }
+
+            Assert.assertTrue(remove("key", 3));
+
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:L,2,2,0:2");
+            Assert.assertFalse(preferences.contains("key#s1"));
+
+            // The next element starts a segment with a fresh id
+            append("key", 4);
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:L,3,3,0:2,2:1");
+        }
+
+        @Test
+        public void test_remove_firstMatch() {
+            append("key", 7);
+            append("key", 7);
+
+            Assert.assertTrue(remove("key", 7));
+
+            Assert.assertEquals(collections.size("key", SegmentedCollections.LIST), 1);
+        }
+
+        @Test
+        public void test_remove_notFound() {
+            append("key", 1);
+            SharedPreferences.Editor editor = preferences.edit();
+
+            Assert.assertFalse(collections.remove(editor, "key", new JsonPrimitive(2)));
+            Assert.assertFalse(collections.remove(editor, "missing", new JsonPrimitive(2)));
+        }
+
+        @Test
+        public void test_remove_convertsList() {
+            store.putList("key", Arrays.asList(1, 2, 3));
+
+            Assert.assertTrue(remove("key", 3));
+
+            // Segment ids are never reused, so the next id stays past the removed segment
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:L,2,2,0:2");
+            Assert.assertEquals(store.getList("key", null, Integer[].class), Arrays.asList(1, 2));
+        }
+
+        @Test
+        public void test_size_plainList() {
+            store.putList("key", Arrays.asList(1, 2, 3));
+            store.putList("null", null);
+
+            Assert.assertEquals(collections.size("key", SegmentedCollections.LIST), 3);
+            Assert.assertEquals(collections.size("null", SegmentedCollections.LIST), 0);
+            Assert.assertEquals(collections.size("missing", SegmentedCollections.LIST), 0);
+        }
+
+        @Test
+        public void test_size_primitive() {
+            store.putInt("key", 1);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a list");
+
+            collections.size("key", SegmentedCollections.LIST);
+        }
+
+        @Test
+        public void test_size_notJson() {
+            store.putString("key", "{");
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a list");
+
+            collections.size("key", SegmentedCollections.LIST);
+        }
+
+        @Test
+        public void test_size_notArray() {
+            store.put("key", new HashMap<String, Integer>());
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a list");
+
+            collections.size("key", SegmentedCollections.LIST);
+        }
+
+        @Test
+        public void test_size_map() {
+            store.putMapEntry("key", "a", 1);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a list");
+
+            collections.size("key", SegmentedCollections.LIST);
+        }
+
+        @Test
+        public void test_elements() {
+            for(int i = 1; i <= 3; i++) {
+                append("key", i);
+            }
+
+            Iterator<JsonElement> elements = collections.elements(null, "key", preferences.getString("key", null));
+
+            Assert.assertEquals(elements.next().getAsInt(), 1);
+            Assert.assertEquals(elements.next().getAsInt(), 2);
+            Assert.assertEquals(elements.next().getAsInt(), 3);
+            Assert.assertFalse(elements.hasNext());
+        }
+
+        @Test
+        public void test_elements_exhausted() {
+            Iterator<JsonElement> elements = collections.elements(null, "key", "#seg1:L,0,0");
+            expectedException.expect(NoSuchElementException.class);
+
+            elements.next();
+        }
+
+        @Test
+        public void test_elements_remove() {
+            Iterator<JsonElement> elements = collections.elements(null, "key", "#seg1:L,0,0");
+            expectedException.expect(UnsupportedOperationException.class);
+
+            elements.remove();
+        }
+
+        @Test
+        public void test_elements_map() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a list");
+
+            collections.elements(null, "key", "#seg1:M,0,0");
+        }
+
+        @Test
+        public void test_elements_missingSegment() {
+            Iterator<JsonElement> elements = collections.elements(null, "key", "#seg1:L,1,1,0:1");
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("List segment 0 is missing");
+
+            elements.hasNext();
+        }
+
+        @Test
+        public void test_elements_segmentNotArray() {
+            store.putString("key#s0", "{}");
+            Iterator<JsonElement> elements = collections.elements(null, "key", "#seg1:L,1,1,0:1");
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("List segment 0 is not an array");
+
+            elements.hasNext();
+        }
+
+        @Test
+        public void test_readTree() {
+            append("key", 1);
+            append("key", 2);
+            append("key", 3);
+
+            Assert.assertEquals(collections.readTree(null, "key", preferences.getString("key", null)).toString(), "[1,2,3]");
+        }
+
+        @Test
+        public void test_readTree_values() {
+            append("key", 1);
+            Map<String, ?> values = preferences.getAll();
+            append("key", 2);
+
+            // The segments come from the copied values rather than the preferences
+            Assert.assertEquals(collections.readTree(values, "key", (String) values.get("key")).toString(), "[1]");
+        }
+    }
+
+    public static class MapTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        SegmentedCollections collections;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = newStore(preferences);
+            collections = store.collections;
+        }
+
+        private void putEntry(String key, String entryKey, Object value) {
+            SharedPreferences.Editor editor = preferences.edit();
+            collections.putEntry(editor, key, entryKey, value, value.getClass());
+            editor.commit();
+        }
+
+        private boolean removeEntry(String key, String entryKey) {
+            SharedPreferences.Editor editor = preferences.edit();
+            boolean removed = collections.removeEntry(editor, key, entryKey);
+            editor.commit();
+            return removed;
+        }
+
+        @Test
+        public void test_isStoredPart() {
+            putEntry("m", "b#ec", 1);
+            putEntry("m#eb", "c", 2);
+            preferences.edit().putString("user#email", "jane@example.com").putInt("count", 3).putString("q#s1", "x").commit();
+
+            Assert.assertTrue(collections.isStoredPart("m#eb%23ec"));
+            Assert.assertTrue(collections.isStoredPart("m#eb#ec"));
+            Assert.assertFalse(collections.isStoredPart("m#eb"));
+            Assert.assertFalse(collections.isStoredPart("m#ez"));
+            Assert.assertFalse(collections.isStoredPart("user#email"));
+            Assert.assertFalse(collections.isStoredPart("count#s0"));
+            Assert.assertFalse(collections.isStoredPart("q#s1"));
+            Assert.assertFalse(collections.isStoredPart("plain"));
+        }
+
+        @Test
+        public void test_putEntry() {
+            putEntry("key", "a", 1);
+            putEntry("key", "b", "text");
+
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:M,2,0,a,b");
+            Assert.assertEquals(preferences.getString("key#ea", null), "1");
+            Assert.assertEquals(preferences.getString("key#eb", null), "\"text\"");
+        }
+
+        @Test
+        public void test_putEntry_replace() {
+            putEntry("key", "a", 1);
+            putEntry("key", "a", 2);
+
+            Assert.assertEquals(collections.size("key", SegmentedCollections.MAP), 1);
+            Assert.assertEquals(collections.readEntry("key", "a").getAsInt(), 2);
+        }
+
+        @Test
+        public void test_putEntry_returnsSize() {
+            SharedPreferences.Editor editor = preferences.edit();
+
+            int size = collections.putEntry(editor, "key", "a", 10, Integer.class);
+
+            Assert.assertEquals(size, "10".length() + "#seg1:M,1,0,a".length());
+        }
+
+        @Test
+        public void test_putEntry_convertsMap() {
+            Map<String, Integer> map = new HashMap<>();
+            map.put("a", 1);
+            map.put("b", 2);
+            store.put("key", map);
+
+            putEntry("key", "b", 3);
+            putEntry("key", "c", 4);
+
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:M,3,0,a,b,c");
+            Assert.assertEquals(preferences.getString("key#ea", null), "1");
+            Assert.assertEquals(preferences.getString("key#eb", null), "3");
+            Assert.assertEquals(preferences.getString("key#ec", null), "4");
+        }
+
+        @Test
+        public void test_putEntry_nullMap() {
+            store.put("key", null, HashMap.class);
+
+            putEntry("key", "a", 1);
+
+            Assert.assertEquals(collections.size("key", SegmentedCollections.MAP), 1);
+        }
+
+        @Test
+        public void test_removeEntry() {
+            putEntry("key", "a", 1);
+            putEntry("key", "b", 2);
+
+            Assert.assertTrue(removeEntry("key", "a"));
+
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:M,1,0,b");
+            Assert.assertFalse(preferences.contains("key#ea"));
+        }
+
+        @Test
+        public void test_removeEntry_missing() {
+            putEntry("key", "a", 1);
+
+            Assert.assertFalse(removeEntry("key", "b"));
+            Assert.assertFalse(removeEntry("missing", "a"));
+            Assert.assertEquals(collections.size("key", SegmentedCollections.MAP), 1);
+        }
+
+        @Test
+        public void test_removeEntry_convertsMap() {
+            Map<String, Integer> map = new HashMap<>();
+            map.put("a", 1);
+            map.put("b", 2);
+            store.put("key", map);
+
+            Assert.assertTrue(removeEntry("key", "a"));
+
+            Assert.assertEquals(preferences.getString("key", null), "#seg1:M,1,0,b");
+            Assert.assertFalse(preferences.contains("key#ea"));
+            Assert.assertEquals(preferences.getString("key#eb", null), "2");
+        }
+
+        @Test
+        public void test_readEntry() {
+            putEntry("key", "a", 1);
+
+            Assert.assertEquals(collections.readEntry("key", "a").getAsInt(), 1);
+            Assert.assertNull(collections.readEntry("key", "b"));
+            Assert.assertNull(collections.readEntry("missing", "a"));
+        }
+
+        @Test
+        public void test_readEntry_plainMap() {
+            store.put("key", Collections.singletonMap("a", 1));
+
+            Assert.assertEquals(collections.readEntry("key", "a").getAsInt(), 1);
+            Assert.assertNull(collections.readEntry("key", "b"));
+        }
+
+        @Test
+        public void test_size_plainMap() {
+            store.put("key", Collections.singletonMap("a", 1));
+
+            Assert.assertEquals(collections.size("key", SegmentedCollections.MAP), 1);
+            Assert.assertEquals(collections.size("missing", SegmentedCollections.MAP), 0);
+        }
+
+        @Test
+        public void test_size_list() {
+            store.appendToList("key", 1);
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a map");
+
+            collections.size("key", SegmentedCollections.MAP);
+        }
+
+        @Test
+        public void test_size_notObject() {
+            store.putList("key", Arrays.asList(1, 2));
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The object stored at the specified key is not a map");
+
+            collections.size("key", SegmentedCollections.MAP);
+        }
+
+        @Test
+        public void test_readTree() {
+            putEntry("key", "a", 1);
+            putEntry("key", "b", 2);
+            // Not one of the map's entries, only a key that shares the name
+            store.putInt("keyboard", 3);
+
+            JsonElement tree = collections.readTree(null, "key", preferences.getString("key", null));
+
+            Assert.assertEquals(tree.getAsJsonObject().size(), 2);
+            Assert.assertEquals(tree.getAsJsonObject().get("b").getAsInt(), 2);
+        }
+
+        @Test
+        public void test_entryKeysDontCollide() {
+            store.putMapEntry("m", "a", "1");
+            store.putMapEntry("m#eb", "c", "2");
+            store.putMapEntry("m", "b#ec", "3");
+
+            Assert.assertEquals(store.get("m", null, Map.class).size(), 2);
+            Assert.assertEquals(store.get("m", null, Map.class).get("b#ec"), "3");
+            Assert.assertEquals(store.get("m#eb", null, Map.class), Collections.singletonMap("c", "2"));
+        }
+
+        @Test
+        public void test_readEntry_notListed() {
+            putEntry("key", "a", 1);
+            // A key that looks like an entry but was never put through the map
+            preferences.edit().putString("key#eb", "2").commit();
+
+            Assert.assertNull(collections.readEntry("key", "b"));
+            Assert.assertFalse(store.get("key", null, Map.class).containsKey("b"));
+        }
+    }
+
+    public static class RemovePartsTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = newStore(preferences);
+        }
+
+        private void removeParts(String key) {
+            SharedPreferences.Editor editor = preferences.edit();
+            store.collections.removeParts(editor, key);
+            editor.commit();
+        }
+
+        @Test
+        public void test_list() {
+            for(int i = 1; i <= 3; i++) {
+                store.appendToList("key", i);
+            }
+
+            removeParts("key");
+
+            // Only the segments go, the manifest is removed along with the key itself
+            Assert.assertEquals(preferences.getAll().keySet(), Collections.singleton("key"));
+        }
+
+        @Test
+        public void test_map() {
+            store.putMapEntry("key", "a", 1);
+            store.putMapEntry("key", "b", 2);
+            store.putInt("other", 3);
+
+            removeParts("key");
+
+            Assert.assertEquals(preferences.getAll().size(), 2);
+            Assert.assertTrue(preferences.contains("other"));
+        }
+
+        @Test
+        public void test_otherValues() {
+            store.putInt("int", 1);
+            store.putString("string", "text");
+            store.putString("string#s0", "[]");
+
+            removeParts("int");
+            removeParts("string");
+            removeParts("missing");
+
+            Assert.assertEquals(preferences.getAll().size(), 3);
+        }
+
+        @Test
+        public void test_overwrittenByEveryWritePath() {
+            String[] keys = { "string", "int", "long", "float", "boolean", "put", "putSet", "key", "batch" };
+            for(String key : keys) {
+                for(int i = 1; i <= 3; i++) {
+                    store.appendToList(key, i);
+                }
+            }
+
+            store.putString("string", "text");
+            store.putInt("int", 1);
+            store.putLong("long", 1L);
+            store.putFloat("float", 1f);
+            store.putBoolean("boolean", true);
+            store.put("put", 5);
+            store.put("putSet", Collections.singleton("a"));
+            store.write(PreferenceKey.ofString("key", null), "text");
+            store.edit().put("batch", "text").commit();
+
+            Assert.assertEquals(preferences.getAll().keySet(), new HashSet<>(Arrays.asList(keys)));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(Enclosed.class)
+public class SnapshotPublisherTests {
+
+    public static class PublishTests {
+
+        InMemorySharedPreferences preferences;
+        PreferenceStore store;
+        SnapshotPublisher publisher;
+
+        @Before
+        public void beforeTest() {
+            preferences = new InMemorySharedPreferences();
+            store = new PreferenceStore(null, preferences, new PreferenceOptions());
+            publisher = new SnapshotPublisher(store);
+        }
+
+        @Test
+        public void test_shared() {
+            store.putInt("key", 1);
+
+            PreferenceSnapshot first = publisher.get();
+
+            Assert.assertSame(publisher.get(), first);
+            Assert.assertEquals(first.getInt("key", 0), 1);
+        }
+
+        @Test
+        public void test_invalidate() {
+            store.putInt("key", 1);
+            PreferenceSnapshot first = publisher.get();
+
+            store.putInt("key", 2);
+            publisher.invalidate();
+            PreferenceSnapshot second = publisher.get();
+
+            Assert.assertNotSame(second, first);
+            Assert.assertEquals(first.getInt("key", 0), 1);
+            Assert.assertEquals(second.getInt("key", 0), 2);
+        }
+
+        @Test
+        public void test_burst() {
+            PreferenceSnapshot first = publisher.get();
+            for(int i = 0; i < 10; i++) {
+                store.putInt("key", i);
+                publisher.invalidate();
+            }
+
+            // The writes only mark the snapshot stale - one copy is made when it is next asked for
+            PreferenceSnapshot second = publisher.get();
+            Assert.assertNotSame(second, first);
+            Assert.assertSame(publisher.get(), second);
+            Assert.assertEquals(second.getInt("key", 0), 9);
+        }
+
+        @Test
+        public void test_externalWrite() {
+            preferences.registerOnSharedPreferenceChangeListener(publisher);
+            PreferenceSnapshot first = publisher.get();
+
+            preferences.edit().putInt("key", 1).commit();
+
+            Assert.assertNotSame(publisher.get(), first);
+            Assert.assertEquals(publisher.get().getInt("key", 0), 1);
+        }
+    }
+
+    public static class ConcurrencyTests {
+
+        @Test
+        public void test_readersDuringWrites() throws Exception {
+            final PreferenceStore store = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+            store.putInt("a", 0);
+            store.putInt("b", 0);
+            final AtomicBoolean torn = new AtomicBoolean();
+            final AtomicBoolean done = new AtomicBoolean();
+
+            List<Thread> readers = new ArrayList<>();
+            for(int t = 0; t < 4; t++) {
+                readers.add(new Thread() {
+                    @Override
+                    public void run() {
+                        while(!done.get()) {
+                            // Both keys are written in one batch, so a snapshot must never show them apart
+                            PreferenceSnapshot snapshot = store.snapshot();
+                            if(snapshot.getInt("a", -1) != snapshot.getInt("b", -1)) {
+                                torn.set(true);
+                            }
+                        }
+                    }
+                });
+            }
+            for(Thread reader : readers) {
+                reader.start();
+            }
+
+            for(int i = 1; i <= 200; i++) {
+                store.edit().put("a", i).put("b", i).commit();
+            }
+            done.set(true);
+            for(Thread reader : readers) {
+                reader.join();
+            }
+
+            Assert.assertFalse(torn.get());
+            Assert.assertEquals(store.snapshot().getInt("a", 0), 200);
+        }
+    }
+}
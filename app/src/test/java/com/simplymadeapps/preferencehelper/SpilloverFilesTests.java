@@ -0,0 +1,252 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
+@RunWith(Enclosed.class)
+public class SpilloverFilesTests {
+
+    static String value(int length) {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+    public static class SpillTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Test
+        public void test_spill() {
+            File directory = new File(folder.getRoot(), "nested/store");
+            SpilloverFiles spillover = new SpilloverFiles(directory, 10);
+            String value = value(20) + "\u00e9";
+
+            String reference = spillover.spill(value);
+
+            Assert.assertTrue(SpilloverFiles.isSpilled(reference));
+            Assert.assertEquals(spillover.getDirectory(), directory);
+            Assert.assertTrue(new File(directory, reference.substring(SpilloverFiles.TAG.length())).exists());
+            Assert.assertEquals(spillover.load(reference), value);
+        }
+
+        @Test
+        public void test_spill_newFileEachTime() {
+            SpilloverFiles spillover = new SpilloverFiles(folder.getRoot(), 10);
+            String value = value(20);
+
+            Assert.assertFalse(spillover.spill(value).equals(spillover.spill(value)));
+            Assert.assertEquals(folder.getRoot().list().length, 2);
+        }
+
+        @Test
+        public void test_spill_belowThreshold() {
+            SpilloverFiles spillover = new SpilloverFiles(folder.getRoot(), 10);
+
+            Assert.assertEquals(spillover.spill(value(9)), value(9));
+            Assert.assertEquals(folder.getRoot().list().length, 0);
+        }
+
+        @Test
+        public void test_spill_off() {
+            SpilloverFiles spillover = new SpilloverFiles(folder.getRoot(), 0);
+
+            Assert.assertEquals(spillover.spill(value(100)), value(100));
+        }
+
+        @Test
+        public void test_spill_unableToCreateDirectory() throws Exception {
+            File blocker = folder.newFile();
+            SpilloverFiles spillover = new SpilloverFiles(new File(blocker, "store"), 10);
+
+            // The value is kept in the store instead
+            Assert.assertEquals(spillover.spill(value(20)), value(20));
+        }
+    }
+
+    public static class LoadTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_load_notSpilled() {
+            SpilloverFiles spillover = new SpilloverFiles(folder.getRoot(), 10);
+
+            Assert.assertNull(spillover.load(null));
+            Assert.assertEquals(spillover.load("[1, 2]"), "[1, 2]");
+            Assert.assertFalse(SpilloverFiles.isSpilled(null));
+            Assert.assertFalse(SpilloverFiles.isSpilled("[1, 2]"));
+        }
+
+        @Test
+        public void test_load_missingFile() {
+            SpilloverFiles spillover = new SpilloverFiles(folder.getRoot(), 10);
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Unable to read spilled value");
+
+            spillover.load(SpilloverFiles.TAG + "missing");
+        }
+
+        @Test
+        public void test_delete() {
+            SpilloverFiles spillover = new SpilloverFiles(folder.getRoot(), 10);
+            String reference = spillover.spill(value(20));
+
+            spillover.delete(reference);
+
+            Assert.assertEquals(folder.getRoot().list().length, 0);
+        }
+    }
+
+    public static class SweepTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        SpilloverFiles spillover;
+        InMemorySharedPreferences preferences;
+
+        @Before
+        public void beforeTest() {
+            spillover = new SpilloverFiles(folder.getRoot(), 10);
+            preferences = new InMemorySharedPreferences();
+        }
+
+        boolean exists(String reference) {
+            return new File(folder.getRoot(), reference.substring(SpilloverFiles.TAG.length())).exists();
+        }
+
+        @Test
+        public void test_sweep_retiredBeforeMark() {
+            String reference = spillover.spill(value(20));
+            spillover.retire(reference, false);
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertFalse(exists(reference));
+        }
+
+        @Test
+        public void test_sweep_retiredAfterMark() {
+            String reference = spillover.spill(value(20));
+            long mark = spillover.mark();
+            spillover.retire(reference, false);
+
+            spillover.sweep(mark, preferences);
+
+            // The commit that took the mark may have started before the replacement was saved
+            Assert.assertTrue(exists(reference));
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertFalse(exists(reference));
+        }
+
+        @Test
+        public void test_sweep_retiredOnDisk() {
+            String reference = spillover.spill(value(20));
+            long mark = spillover.mark();
+            spillover.retire(reference, true);
+
+            spillover.sweep(mark, preferences);
+
+            Assert.assertFalse(exists(reference));
+        }
+
+        @Test
+        public void test_sweep_stillStored() {
+            String reference = spillover.spill(value(20));
+            preferences.edit().putString("key", reference).commit();
+            spillover.retire(reference, false);
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertTrue(exists(reference));
+        }
+
+        @Test
+        public void test_sweep_heldBySnapshot() {
+            String reference = spillover.spill(value(20));
+            preferences.edit().putString("key", reference).commit();
+            Map<String, ?> held = spillover.holdAll(preferences);
+            preferences.edit().remove("key").commit();
+            spillover.retire(reference, false);
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertTrue(exists(reference));
+            Assert.assertEquals(held.get("key"), reference);
+        }
+
+        @Test
+        public void test_sweep_snapshotCollected() {
+            String reference = spillover.spill(value(20));
+            preferences.edit().putString("key", reference).commit();
+            WeakReference<Map<String, ?>> held = new WeakReference<Map<String, ?>>(spillover.holdAll(preferences));
+            preferences.edit().remove("key").commit();
+            spillover.retire(reference, false);
+            for(int i = 0; i < 100 && held.get() != null; i++) {
+                System.gc();
+            }
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertFalse(exists(reference));
+        }
+
+        @Test
+        public void test_sweep_orphans() throws Exception {
+            Assert.assertTrue(new File(folder.getRoot(), "orphan").createNewFile());
+            Assert.assertTrue(new File(folder.getRoot(), "stored").createNewFile());
+            Assert.assertTrue(new File(folder.getRoot(), "replacing").createNewFile());
+            preferences.edit().putString("key", SpilloverFiles.TAG + "stored").commit();
+            spillover.track(SpilloverFiles.TAG + "replacing");
+            String unsaved = spillover.spill(value(20));
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertFalse(new File(folder.getRoot(), "orphan").exists());
+            Assert.assertTrue(new File(folder.getRoot(), "stored").exists());
+            Assert.assertTrue(new File(folder.getRoot(), "replacing").exists());
+            Assert.assertTrue(exists(unsaved));
+        }
+
+        @Test
+        public void test_sweep_orphansOnlyOnce() throws Exception {
+            spillover.sweep(spillover.mark(), preferences);
+            Assert.assertTrue(new File(folder.getRoot(), "orphan").createNewFile());
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertTrue(new File(folder.getRoot(), "orphan").exists());
+        }
+
+        @Test
+        public void test_sweep_noDirectory() {
+            spillover = new SpilloverFiles(new File(folder.getRoot(), "missing"), 10);
+
+            spillover.sweep(spillover.mark(), preferences);
+
+            Assert.assertFalse(new File(folder.getRoot(), "missing").exists());
+        }
+    }
+}
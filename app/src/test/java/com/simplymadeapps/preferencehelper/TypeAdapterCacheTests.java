@@ -0,0 +1,140 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.spy;
+
+@RunWith(Enclosed.class)
+public class TypeAdapterCacheTests {
+
+    static final Type MAP_TYPE = new TypeToken<Map<String, Integer>>() {}.getType();
+
+    @PrepareForTest({TypeAdapterCache.class, Gson.class})
+    public static class GetTests extends PowerMockTest {
+
+        @Test
+        public void test_cached() {
+            Gson gson = spy(new Gson());
+            TypeAdapterCache cache = new TypeAdapterCache(gson);
+
+            TypeAdapter<Object> first = cache.get(MAP_TYPE);
+            TypeAdapter<Object> second = cache.get(new TypeToken<Map<String, Integer>>() {}.getType());
+
+            // Equal types share one entry, so Gson is only asked once
+            Assert.assertSame(first, second);
+            Assert.assertEquals(cache.size(), 1);
+            verify(gson, times(1)).getAdapter(TypeToken.get(MAP_TYPE));
+        }
+
+        @Test
+        public void test_differentTypes() {
+            TypeAdapterCache cache = new TypeAdapterCache(new Gson());
+
+            cache.get(MAP_TYPE);
+            cache.get(TypeToken.getParameterized(List.class, String.class).getType());
+
+            Assert.assertEquals(cache.size(), 2);
+        }
+    }
+
+    public static class FromJsonTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        TypeAdapterCache cache = new TypeAdapterCache(new Gson());
+
+        @Test
+        public void test_fromJson() {
+            Map<String, Integer> map = cache.fromJson("{\"a\":1}", MAP_TYPE);
+
+            Assert.assertEquals(map.get("a"), Integer.valueOf(1));
+        }
+
+        @Test
+        public void test_lenient() {
+            Map<String, Integer> map = cache.fromJson("{a:1}", MAP_TYPE);
+
+            Assert.assertEquals(map.get("a"), Integer.valueOf(1));
+        }
+
+        @Test
+        public void test_empty() {
+            Assert.assertNull(cache.fromJson("", MAP_TYPE));
+        }
+
+        @Test
+        public void test_null() {
+            Assert.assertNull(cache.fromJson("null", MAP_TYPE));
+        }
+
+        @Test
+        public void test_malformedStart() {
+            expectedException.expect(JsonSyntaxException.class);
+
+            cache.fromJson("}", MAP_TYPE);
+        }
+
+        @Test
+        public void test_malformedValue() {
+            expectedException.expect(JsonSyntaxException.class);
+
+            cache.fromJson("{\"a\":}", MAP_TYPE);
+        }
+
+        @Test
+        public void test_wrongShape() {
+            expectedException.expect(JsonSyntaxException.class);
+
+            cache.fromJson("\"text\"", MAP_TYPE);
+        }
+
+        @Test
+        public void test_notFullyConsumed() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("JSON document was not fully consumed.");
+
+            cache.fromJson("{} {}", MAP_TYPE);
+        }
+    }
+
+    public static class FromJsonTreeTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        TypeAdapterCache cache = new TypeAdapterCache(new Gson());
+
+        @Test
+        public void test_fromJsonTree() {
+            Map<String, Integer> map = cache.fromJsonTree(JsonParser.parseString("{\"a\":1}"), MAP_TYPE);
+
+            Assert.assertEquals(map.get("a"), Integer.valueOf(1));
+        }
+
+        @Test
+        public void test_wrongShape() {
+            expectedException.expect(JsonSyntaxException.class);
+
+            cache.fromJsonTree(JsonParser.parseString("\"text\""), MAP_TYPE);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares storing and reading a list of records as JSON against the binary value codec.  The stored size of each
+ * encoding is printed during setup.
+ * Run with: ./gradlew :app:benchmark -Pjmh="ValueCodecBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueCodecBenchmark {
+
+    public static class Record {
+        String id;
+        String name;
+        int count;
+
+        Record(int index) {
+            id = "record-" + index;
+            name = "Record number " + index;
+            count = index;
+        }
+    }
+
+    @Param({"10", "1000"})
+    public int size;
+
+    private List<Record> records;
+    private PreferenceStore jsonStore;
+    private PreferenceStore binaryStore;
+
+    @Setup
+    public void setup() {
+        records = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            records.add(new Record(i));
+        }
+
+        jsonStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions());
+        binaryStore = new PreferenceStore(null, new InMemorySharedPreferences(), new PreferenceOptions().setValueCodec(new BinaryValueCodec()));
+        jsonStore.putList("records", records);
+        binaryStore.putList("records", records);
+
+        System.out.println("JSON: " + jsonStore.getString("records", null).length() + " chars, binary: " +
+                binaryStore.getString("records", null).length() + " chars");
+    }
+
+    @Benchmark
+    public void json_putList() {
+        jsonStore.putList("records", records);
+    }
+
+    @Benchmark
+    public void binary_putList() {
+        binaryStore.putList("records", records);
+    }
+
+    @Benchmark
+    public List<Record> json_getList() {
+        return jsonStore.getList("records", null, Record[].class);
+    }
+
+    @Benchmark
+    public List<Record> binary_getList() {
+        return binaryStore.getList("records", null, Record[].class);
+    }
+}
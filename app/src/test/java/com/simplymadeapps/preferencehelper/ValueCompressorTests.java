@@ -0,0 +1,163 @@
+package com.simplymadeapps.preferencehelper;
+
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+@RunWith(Enclosed.class)
+public class ValueCompressorTests {
+
+    static String repetitive(int length) {
+        StringBuilder builder = new StringBuilder();
+        while(builder.length() < length) {
+            builder.append("{\"name\":\"record\",\"count\":1},");
+        }
+        return builder.substring(0, length);
+    }
+
+    public static class CompressTests {
+
+        @Test
+        public void test_disabled() {
+            ValueCompressor compressor = new ValueCompressor(0);
+            String value = repetitive(10000);
+
+            Assert.assertSame(compressor.compress(value), value);
+            Assert.assertEquals(compressor.getStats().getCompressedValues(), 0);
+        }
+
+        @Test
+        public void test_belowThreshold() {
+            ValueCompressor compressor = new ValueCompressor(1000);
+            String value = repetitive(999);
+
+            Assert.assertSame(compressor.compress(value), value);
+            Assert.assertEquals(compressor.getStats().getSkippedValues(), 0);
+        }
+
+        @Test
+        public void test_compresses() {
+            ValueCompressor compressor = new ValueCompressor(1000);
+            String value = repetitive(1000);
+
+            String result = compressor.compress(value);
+
+            CompressionStats stats = compressor.getStats();
+            Assert.assertTrue(result.startsWith(ValueCompressor.TAG));
+            Assert.assertTrue(result.length() < value.length());
+            Assert.assertEquals(stats.getCompressedValues(), 1);
+            Assert.assertEquals(stats.getOriginalSize(), 1000);
+            Assert.assertEquals(stats.getCompressedSize(), result.length());
+            Assert.assertEquals(stats.getCompressionRatio(), result.length() / 1000.0, 0);
+            Assert.assertTrue(stats.getCompressTimeNanos() > 0);
+        }
+
+        @Test
+        public void test_notSmaller() {
+            ValueCompressor compressor = new ValueCompressor(10);
+            // Random text grows once GZIP's header and the Base64 wrapping are added
+            StringBuilder builder = new StringBuilder();
+            Random random = new Random(42);
+            for(int i = 0; i < 100; i++) {
+                builder.append((char) ('!' + random.nextInt(90)));
+            }
+            String value = builder.toString();
+
+            Assert.assertSame(compressor.compress(value), value);
+            Assert.assertEquals(compressor.getStats().getCompressedValues(), 0);
+            Assert.assertEquals(compressor.getStats().getSkippedValues(), 1);
+        }
+
+        @Test
+        public void test_gzipFails() throws IOException {
+            ValueCompressor compressor = spy(new ValueCompressor(10));
+            doThrow(new IOException()).when(compressor).gzip(any(byte[].class));
+            String value = repetitive(1000);
+
+            Assert.assertSame(compressor.compress(value), value);
+            Assert.assertEquals(compressor.getStats().getSkippedValues(), 1);
+        }
+    }
+
+    public static class DecompressTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        ValueCompressor compressor = new ValueCompressor(0);
+
+        @Test
+        public void test_uncompressed() {
+            Assert.assertNull(compressor.decompress(null));
+            Assert.assertEquals(compressor.decompress("{}"), "{}");
+            Assert.assertEquals(compressor.getStats().getDecompressedValues(), 0);
+        }
+
+        @Test
+        public void test_roundTrip() {
+            // Compressed values are readable even when compression is off
+            String value = repetitive(5000) + "caf\u00e9";
+            String compressed = new ValueCompressor(1).compress(value);
+
+            Assert.assertEquals(compressor.decompress(compressed), value);
+            Assert.assertEquals(compressor.getStats().getDecompressedValues(), 1);
+            Assert.assertTrue(compressor.getStats().getDecompressTimeNanos() > 0);
+        }
+
+        @Test
+        public void test_invalidBase64() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Corrupt compressed value");
+            expectedException.expectCause(instanceOf(IllegalArgumentException.class));
+
+            compressor.decompress(ValueCompressor.TAG + "!");
+        }
+
+        @Test
+        public void test_invalidGzip() {
+            expectedException.expect(JsonSyntaxException.class);
+            expectedException.expectMessage("Corrupt compressed value");
+            expectedException.expectCause(instanceOf(ZipException.class));
+
+            compressor.decompress(ValueCompressor.TAG + "AAAAAAAA");
+        }
+    }
+
+    public static class StatsTests {
+
+        @Test
+        public void test_empty() {
+            CompressionStats stats = new CompressionStats();
+
+            Assert.assertEquals(stats.getCompressionRatio(), 1, 0);
+            Assert.assertEquals(stats.getOriginalSize(), 0);
+            Assert.assertEquals(stats.getCompressedSize(), 0);
+            Assert.assertEquals(stats.getDecompressTimeNanos(), 0);
+        }
+
+        @Test
+        public void test_toString() {
+            CompressionStats stats = new CompressionStats();
+            stats.recordCompressed(100, 25, 10);
+            stats.recordSkipped(5);
+            stats.recordDecompressed(7);
+
+            Assert.assertEquals(stats.toString(), "CompressionStats{compressedValues=1, skippedValues=1, " +
+                    "decompressedValues=1, originalSize=100, compressedSize=25, compressTimeNanos=15, decompressTimeNanos=7}");
+        }
+    }
+}
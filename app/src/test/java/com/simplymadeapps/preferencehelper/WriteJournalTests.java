@@ -0,0 +1,252 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+@RunWith(Enclosed.class)
+public class WriteJournalTests {
+
+    static Map<String, Object> changes(String key, Object value) {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put(key, value);
+        return changes;
+    }
+
+    public static class ReplayTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_newJournal() throws Exception {
+            File file = new File(folder.getRoot(), "nested/store.journal");
+
+            WriteJournal journal = new WriteJournal(file);
+
+            Assert.assertTrue(file.exists());
+            Assert.assertEquals(journal.getFile(), file);
+            Assert.assertTrue(journal.getRecovered().isEmpty());
+            Assert.assertFalse(journal.isRecoveredClear());
+            Assert.assertEquals(journal.getPosition(), 0);
+        }
+
+        @Test
+        public void test_replay() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            Set<String> set = new HashSet<>();
+            set.add("entry");
+            Map<String, Object> first = changes("string", "first");
+            first.put("int", 1);
+            first.put("long", 2L);
+            first.put("float", 3F);
+            first.put("boolean", true);
+            first.put("set", set);
+            journal.append(first, false);
+            journal.append(changes("string", "second"), false);
+            journal.append(changes("int", StagingEditor.REMOVED), false);
+
+            WriteJournal reopened = new WriteJournal(file);
+
+            Map<String, Object> recovered = reopened.getRecovered();
+            Assert.assertEquals(recovered.size(), 6);
+            Assert.assertEquals(recovered.get("string"), "second");
+            Assert.assertSame(recovered.get("int"), StagingEditor.REMOVED);
+            Assert.assertEquals(recovered.get("long"), 2L);
+            Assert.assertEquals(recovered.get("float"), 3F);
+            Assert.assertEquals(recovered.get("boolean"), true);
+            Assert.assertEquals(recovered.get("set"), set);
+            Assert.assertFalse(reopened.isRecoveredClear());
+            Assert.assertEquals(reopened.getPosition(), journal.getPosition());
+        }
+
+        @Test
+        public void test_replay_clear() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            journal.append(changes("before", 1), false);
+            journal.append(changes("after", 2), true);
+
+            WriteJournal reopened = new WriteJournal(file);
+
+            Assert.assertTrue(reopened.isRecoveredClear());
+            Assert.assertEquals(reopened.getRecovered().size(), 1);
+            Assert.assertEquals(reopened.getRecovered().get("after"), 2);
+        }
+
+        @Test
+        public void test_replay_tornRecordDropped() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            journal.append(changes("kept", 1), false);
+            long end = journal.getPosition();
+
+            // Simulate a crash part way through the next record
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.seek(end);
+            randomAccessFile.writeInt(50);
+            randomAccessFile.write(new byte[] {1, 2, 3});
+            randomAccessFile.close();
+
+            WriteJournal reopened = new WriteJournal(file);
+            reopened.append(changes("next", 2), false);
+
+            WriteJournal recovered = new WriteJournal(file);
+            Assert.assertEquals(recovered.getRecovered().size(), 2);
+            Assert.assertEquals(recovered.getRecovered().get("kept"), 1);
+            Assert.assertEquals(recovered.getRecovered().get("next"), 2);
+        }
+
+        @Test
+        public void test_replay_badChecksumDropped() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            journal.append(changes("kept", 1), false);
+            long end = journal.getPosition();
+            journal.append(changes("corrupt", 2), false);
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            int last = randomAccessFile.read();
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            randomAccessFile.write(0xFF ^ last);
+            randomAccessFile.close();
+
+            WriteJournal reopened = new WriteJournal(file);
+            Assert.assertEquals(reopened.getRecovered().size(), 1);
+            Assert.assertEquals(reopened.getRecovered().get("kept"), 1);
+            Assert.assertEquals(file.length(), end);
+        }
+
+        @Test
+        public void test_replay_emptyRecordDropped() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.writeInt(0);
+            randomAccessFile.writeLong(0);
+            randomAccessFile.close();
+
+            WriteJournal journal = new WriteJournal(file);
+
+            Assert.assertTrue(journal.getRecovered().isEmpty());
+            Assert.assertEquals(file.length(), 0);
+        }
+
+        @Test
+        public void test_unableToCreateDirectory() throws Exception {
+            File blocker = folder.newFile();
+            File file = new File(blocker, "directory/store.journal");
+            expectedException.expect(IOException.class);
+            expectedException.expectMessage("Unable to create " + file.getParent());
+
+            new WriteJournal(file);
+        }
+
+        @Test
+        public void test_unknownRecordType() throws Exception {
+            expectedException.expect(IOException.class);
+            expectedException.expectMessage("Unknown record type");
+
+            // An op of 9 followed by an empty key
+            MappedFilePreferences.decode(new byte[] {9, 0, 0, 0, 0}, new HashMap<String, Object>());
+        }
+    }
+
+    public static class DiscardTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Test
+        public void test_discard_everything() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            journal.append(changes("first", 1), false);
+            long position = journal.getPosition();
+
+            journal.discard(position);
+
+            Assert.assertEquals(file.length(), 0);
+            Assert.assertEquals(journal.getPosition(), position);
+            Assert.assertTrue(new WriteJournal(file).getRecovered().isEmpty());
+        }
+
+        @Test
+        public void test_discard_keepsLaterRecords() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            journal.append(changes("first", 1), false);
+            long position = journal.getPosition();
+            journal.append(changes("second", 2), false);
+            long end = journal.getPosition();
+
+            journal.discard(position);
+            journal.append(changes("third", 3), false);
+
+            Assert.assertEquals(journal.getPosition() - position, file.length());
+            Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+            WriteJournal reopened = new WriteJournal(file);
+            Assert.assertEquals(reopened.getRecovered().size(), 2);
+            Assert.assertEquals(reopened.getRecovered().get("second"), 2);
+            Assert.assertEquals(reopened.getRecovered().get("third"), 3);
+
+            // Positions keep counting from the first append, so a later discard still lines up
+            journal.discard(end);
+            WriteJournal trimmed = new WriteJournal(file);
+            Assert.assertEquals(trimmed.getRecovered().size(), 1);
+            Assert.assertEquals(trimmed.getRecovered().get("third"), 3);
+        }
+
+        @Test
+        public void test_discard_alreadyDiscarded() throws Exception {
+            File file = new File(folder.getRoot(), "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            journal.append(changes("first", 1), false);
+            long position = journal.getPosition();
+            journal.discard(position);
+            journal.append(changes("second", 2), false);
+
+            journal.discard(position);
+
+            Assert.assertEquals(new WriteJournal(file).getRecovered().get("second"), 2);
+        }
+
+        @Test
+        public void test_discard_unableToWriteTemp() throws Exception {
+            File directory = folder.newFolder();
+            File file = new File(directory, "store.journal");
+            WriteJournal journal = new WriteJournal(file);
+            journal.append(changes("first", 1), false);
+            long position = journal.getPosition();
+            journal.append(changes("second", 2), false);
+            // A directory in the temp file's place stops it being written
+            Assert.assertTrue(new File(file.getPath() + ".tmp").mkdir());
+
+            try {
+                journal.discard(position);
+                Assert.fail();
+            }
+            catch(IOException e) {
+                // Expected
+            }
+
+            Assert.assertEquals(new WriteJournal(file).getRecovered().size(), 2);
+        }
+    }
+}
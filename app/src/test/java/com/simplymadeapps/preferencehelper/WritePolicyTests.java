@@ -0,0 +1,88 @@
+package com.simplymadeapps.preferencehelper;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(Enclosed.class)
+public class WritePolicyTests {
+
+    public static class FactoryTests {
+
+        @Rule
+        public ExpectedException expectedException = ExpectedException.none();
+
+        @Test
+        public void test_commit() {
+            WritePolicy policy = WritePolicy.commit();
+
+            Assert.assertEquals(policy.getMode(), WritePolicy.Mode.COMMIT);
+        }
+
+        @Test
+        public void test_apply() {
+            WritePolicy policy = WritePolicy.apply();
+
+            Assert.assertEquals(policy.getMode(), WritePolicy.Mode.APPLY);
+        }
+
+        @Test
+        public void test_coalesce() {
+            WritePolicy policy = WritePolicy.coalesce(250, 20);
+
+            Assert.assertEquals(policy.getMode(), WritePolicy.Mode.COALESCE);
+            Assert.assertEquals(policy.getWindowMillis(), 250);
+            Assert.assertEquals(policy.getMaxBatchSize(), 20);
+            Assert.assertNull(policy.getJournalDirectory());
+        }
+
+        @Test
+        public void test_coalesce_negativeWindow() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The coalescing window cannot be negative");
+
+            WritePolicy.coalesce(-1, 20);
+        }
+
+        @Test
+        public void test_coalesce_invalidBatchSize() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The coalescing batch size must be at least 1");
+
+            WritePolicy.coalesce(250, 0);
+        }
+
+        @Test
+        public void test_journaled() {
+            File directory = new File("journals");
+
+            WritePolicy policy = WritePolicy.journaled(250, 20, directory);
+
+            Assert.assertEquals(policy.getMode(), WritePolicy.Mode.COALESCE);
+            Assert.assertEquals(policy.getWindowMillis(), 250);
+            Assert.assertEquals(policy.getMaxBatchSize(), 20);
+            Assert.assertEquals(policy.getJournalDirectory(), directory);
+        }
+
+        @Test
+        public void test_journaled_nullDirectory() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The journal directory cannot be null");
+
+            WritePolicy.journaled(250, 20, null);
+        }
+
+        @Test
+        public void test_journaled_invalidBatchSize() {
+            expectedException.expect(IllegalArgumentException.class);
+            expectedException.expectMessage("The coalescing batch size must be at least 1");
+
+            WritePolicy.journaled(250, 0, new File("journals"));
+        }
+    }
+}
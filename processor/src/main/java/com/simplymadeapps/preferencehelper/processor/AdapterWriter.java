@@ -0,0 +1,546 @@
+package com.simplymadeapps.preferencehelper.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Writes the code that converts values to and from JSON without reflection.  Values are converted by statements
+ * written out for their declared type, so the JSON matches what Gson's reflective adapters write for the same class:
+ * fields by name or @SerializedName, null fields left out and enums by constant name.  Enums and classes get a
+ * TypeAdapter of their own, generated next to them so package-private fields can be reached.
+ */
+class AdapterWriter {
+
+    enum Kind {
+        BOOLEAN, INT, LONG, FLOAT, DOUBLE, STRING, ENUM, OBJECT, LIST, SET, MAP
+    }
+
+    static final String ADAPTER_SUFFIX = "_PreferenceAdapter";
+    static final String UNSUPPORTED = "Only boolean, int, long, float, double, their boxed types, String, enums, classes with "
+            + "accessible fields, and Lists, Sets and Maps with String keys of those can be stored";
+
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+
+    private final Elements elements;
+    private final Types types;
+
+    // Enums and classes referenced by generated code that still need an adapter written
+    private final Set<TypeElement> pending = new LinkedHashSet<>();
+
+    AdapterWriter(Elements elements, Types types) {
+        this.elements = elements;
+        this.types = types;
+    }
+
+    /**
+     * Works out how a value of the type is converted.  Enums and classes are queued for an adapter of their own.
+     */
+    Kind kind(TypeMirror type, Element where) throws ProcessingException {
+        switch(type.getKind()) {
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case FLOAT:
+                return Kind.FLOAT;
+            case DOUBLE:
+                return Kind.DOUBLE;
+            case DECLARED:
+                return declaredKind((DeclaredType) type, where);
+            default:
+                throw new ProcessingException(UNSUPPORTED + ", not " + type, where);
+        }
+    }
+
+    private Kind declaredKind(DeclaredType type, Element where) throws ProcessingException {
+        TypeElement element = (TypeElement) type.asElement();
+        String name = element.getQualifiedName().toString();
+        switch(name) {
+            case "java.lang.Boolean":
+                return Kind.BOOLEAN;
+            case "java.lang.Integer":
+                return Kind.INT;
+            case "java.lang.Long":
+                return Kind.LONG;
+            case "java.lang.Float":
+                return Kind.FLOAT;
+            case "java.lang.Double":
+                return Kind.DOUBLE;
+            case "java.lang.String":
+                return Kind.STRING;
+            case "java.util.List":
+                checkArguments(type, where);
+                return Kind.LIST;
+            case "java.util.Set":
+                checkArguments(type, where);
+                return Kind.SET;
+            case "java.util.Map":
+                checkArguments(type, where);
+                if(!isString(type.getTypeArguments().get(0))) {
+                    throw new ProcessingException("Maps can only be stored with String keys, not " + type, where);
+                }
+                return Kind.MAP;
+            default:
+                break;
+        }
+
+        if(element.getKind() == ElementKind.ENUM) {
+            pending.add(element);
+            return Kind.ENUM;
+        }
+        if(element.getKind() == ElementKind.CLASS && !isPlatform(name)) {
+            pending.add(element);
+            return Kind.OBJECT;
+        }
+        throw new ProcessingException(UNSUPPORTED + ", not " + type, where);
+    }
+
+    private void checkArguments(DeclaredType type, Element where) throws ProcessingException {
+        if(type.getTypeArguments().isEmpty()) {
+            throw new ProcessingException("Declare the element type of " + type, where);
+        }
+        for(TypeMirror argument : type.getTypeArguments()) {
+            // Collections hold boxed values, which are the declared types handled above
+            if(argument.getKind() != TypeKind.DECLARED) {
+                throw new ProcessingException(UNSUPPORTED + ", not " + type, where);
+            }
+            kind(argument, where);
+        }
+    }
+
+    static boolean isString(TypeMirror type) {
+        return type.toString().equals("java.lang.String");
+    }
+
+    private static boolean isPlatform(String name) {
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("android.");
+    }
+
+    /**
+     * Returns the generated adapter's name, which flattens nested classes: Outer.User becomes
+     * Outer_User_PreferenceAdapter.
+     */
+    String adapterName(TypeElement element) {
+        return flatName(element) + ADAPTER_SUFFIX;
+    }
+
+    String qualifiedAdapterName(TypeElement element) {
+        return qualify(packageOf(element), adapterName(element));
+    }
+
+    String packageOf(TypeElement element) {
+        return elements.getPackageOf(element).getQualifiedName().toString();
+    }
+
+    static String flatName(TypeElement element) {
+        String name = element.getSimpleName().toString();
+        Element enclosing = element.getEnclosingElement();
+        while(enclosing instanceof TypeElement) {
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name;
+    }
+
+    static String qualify(String packageName, String simpleName) {
+        return packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    }
+
+    private String adapterOf(TypeMirror type) {
+        return qualifiedAdapterName((TypeElement) types.asElement(type)) + ".INSTANCE";
+    }
+
+    /**
+     * Writes a value that is known not to be null.
+     */
+    void write(SourceBuilder source, String value, TypeMirror type, Element where, int depth) throws ProcessingException {
+        switch(kind(type, where)) {
+            case FLOAT:
+                // Written through value(Number) like Gson, so 1.1f is written as 1.1 rather than widened to a double
+                source.line("out.value((Number) " + value + ");");
+                break;
+            case ENUM:
+            case OBJECT:
+                source.line(adapterOf(type) + ".write(out, " + value + ");");
+                break;
+            case LIST:
+            case SET:
+                TypeMirror element = argument(type, 0);
+                String item = "element" + depth;
+                source.line("out.beginArray();");
+                source.open("for(" + element + " " + item + " : " + value + ")");
+                writeNullable(source, item, element, where, depth + 1);
+                source.close();
+                source.line("out.endArray();");
+                break;
+            case MAP:
+                TypeMirror valueType = argument(type, 1);
+                String entry = "entry" + depth;
+                String entryValue = "value" + depth;
+                source.line("out.beginObject();");
+                source.open("for(java.util.Map.Entry<java.lang.String, " + valueType + "> " + entry + " : " + value + ".entrySet())");
+                source.line(valueType + " " + entryValue + " = " + entry + ".getValue();");
+                // Gson leaves out entries with null values
+                source.open("if(" + entryValue + " != null)");
+                source.line("out.name(String.valueOf(" + entry + ".getKey()));");
+                write(source, entryValue, valueType, where, depth + 1);
+                source.close();
+                source.close();
+                source.line("out.endObject();");
+                break;
+            default:
+                source.line("out.value(" + value + ");");
+                break;
+        }
+    }
+
+    private void writeNullable(SourceBuilder source, String value, TypeMirror type, Element where, int depth) throws ProcessingException {
+        source.open("if(" + value + " == null)");
+        source.line("out.nullValue();");
+        source.orElse();
+        write(source, value, type, where, depth);
+        source.close();
+    }
+
+    /**
+     * Reads a value into target when the next token is not null.
+     */
+    void read(SourceBuilder source, String target, TypeMirror type, Element where, int depth) throws ProcessingException {
+        switch(kind(type, where)) {
+            case BOOLEAN:
+                // Gson also reads booleans written as strings
+                source.line(target + " = in.peek() == JsonToken.STRING ? Boolean.parseBoolean(in.nextString()) : in.nextBoolean();");
+                break;
+            case INT:
+                source.line(target + " = in.nextInt();");
+                break;
+            case LONG:
+                source.line(target + " = in.nextLong();");
+                break;
+            case FLOAT:
+                source.line(target + " = (float) in.nextDouble();");
+                break;
+            case DOUBLE:
+                source.line(target + " = in.nextDouble();");
+                break;
+            case STRING:
+                source.line(target + " = in.peek() == JsonToken.BOOLEAN ? Boolean.toString(in.nextBoolean()) : in.nextString();");
+                break;
+            case ENUM:
+            case OBJECT:
+                source.line(target + " = " + adapterOf(type) + ".read(in);");
+                break;
+            case MAP:
+                TypeMirror valueType = argument(type, 1);
+                String map = "map" + depth;
+                String key = "key" + depth;
+                String value = "value" + depth;
+                source.line(type + " " + map + " = new java.util.LinkedHashMap<>();");
+                source.line("in.beginObject();");
+                source.open("while(in.hasNext())");
+                source.line("java.lang.String " + key + " = in.nextName();");
+                source.line(valueType + " " + value + ";");
+                readNullable(source, value, valueType, where, depth + 1);
+                source.line(map + ".put(" + key + ", " + value + ");");
+                source.close();
+                source.line("in.endObject();");
+                source.line(target + " = " + map + ";");
+                break;
+            default:
+                // Lists and sets are read into the collections Gson creates for them
+                TypeMirror element = argument(type, 0);
+                String collection = "collection" + depth;
+                String item = "element" + depth;
+                String implementation = kind(type, where) == Kind.LIST ? "java.util.ArrayList" : "java.util.LinkedHashSet";
+                source.line(type + " " + collection + " = new " + implementation + "<>();");
+                source.line("in.beginArray();");
+                source.open("while(in.hasNext())");
+                source.line(element + " " + item + ";");
+                readNullable(source, item, element, where, depth + 1);
+                source.line(collection + ".add(" + item + ");");
+                source.close();
+                source.line("in.endArray();");
+                source.line(target + " = " + collection + ";");
+                break;
+        }
+    }
+
+    /**
+     * Reads a value into target, or skips a null token.  A null is stored as null unless the target is primitive,
+     * which keeps its value the way Gson leaves primitive fields alone.
+     */
+    void readNullable(SourceBuilder source, String target, TypeMirror type, Element where, int depth) throws ProcessingException {
+        source.open("if(in.peek() == JsonToken.NULL)");
+        source.line("in.nextNull();");
+        if(!type.getKind().isPrimitive()) {
+            source.line(target + " = null;");
+        }
+        source.orElse();
+        read(source, target, type, where, depth);
+        source.close();
+    }
+
+    private static TypeMirror argument(TypeMirror type, int index) {
+        return ((DeclaredType) type).getTypeArguments().get(index);
+    }
+
+    /**
+     * Takes the next enum or class that needs an adapter, or null when every one has been written.
+     */
+    TypeElement nextPending(Set<String> written) {
+        while(!pending.isEmpty()) {
+            TypeElement element = pending.iterator().next();
+            pending.remove(element);
+            if(written.add(qualifiedAdapterName(element))) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the source of the adapter for an enum or class.
+     */
+    String writeAdapter(TypeElement element) throws ProcessingException {
+        checkAccessible(element);
+        SourceBuilder source = new SourceBuilder();
+        String type = element.getQualifiedName().toString();
+        String name = adapterName(element);
+        String packageName = packageOf(element);
+
+        source.line("// Generated by PreferenceProcessor from " + type + ", do not edit");
+        if(!packageName.isEmpty()) {
+            source.line("package " + packageName + ";");
+        }
+        source.blank();
+        source.line("import com.google.gson.TypeAdapter;");
+        source.line("import com.google.gson.stream.JsonReader;");
+        source.line("import com.google.gson.stream.JsonToken;");
+        source.line("import com.google.gson.stream.JsonWriter;");
+        source.blank();
+        source.line("import java.io.IOException;");
+        source.blank();
+        source.open("public final class " + name + " extends TypeAdapter<" + type + ">");
+        source.blank();
+        source.line("public static final " + name + " INSTANCE = new " + name + "();");
+        source.blank();
+        source.line("@Override");
+        source.open("public void write(JsonWriter out, " + type + " value) throws IOException");
+        source.open("if(value == null)");
+        source.line("out.nullValue();");
+        source.line("return;");
+        source.close();
+        if(element.getKind() == ElementKind.ENUM) {
+            writeEnum(source, element);
+        }
+        else {
+            writeObject(source, element);
+        }
+        source.close();
+        source.close();
+        return source.toString();
+    }
+
+    private void writeEnum(SourceBuilder source, TypeElement element) {
+        List<VariableElement> constants = new ArrayList<>();
+        for(VariableElement field : ElementFilter.fieldsIn(element.getEnclosedElements())) {
+            if(field.getKind() == ElementKind.ENUM_CONSTANT) {
+                constants.add(field);
+            }
+        }
+
+        source.open("switch(value)");
+        for(VariableElement constant : constants) {
+            source.line("case " + constant.getSimpleName() + ":");
+            source.line("    out.value(" + PreferenceProcessor.literal(jsonNames(constant).get(0)) + ");");
+            source.line("    break;");
+        }
+        source.close();
+        source.close();
+        source.blank();
+        source.line("@Override");
+        source.open("public " + element.getQualifiedName() + " read(JsonReader in) throws IOException");
+        readNull(source);
+        source.open("switch(in.nextString())");
+        for(VariableElement constant : constants) {
+            for(String jsonName : jsonNames(constant)) {
+                source.line("case " + PreferenceProcessor.literal(jsonName) + ":");
+            }
+            source.line("    return " + element.getQualifiedName() + "." + constant.getSimpleName() + ";");
+        }
+        source.line("default:");
+        // Gson reads a constant it doesn't know as null
+        source.line("    return null;");
+        source.close();
+    }
+
+    private void writeObject(SourceBuilder source, TypeElement element) throws ProcessingException {
+        List<VariableElement> fields = fieldsOf(element);
+        DeclaredType type = (DeclaredType) element.asType();
+
+        source.line("out.beginObject();");
+        for(VariableElement field : fields) {
+            TypeMirror fieldType = types.asMemberOf(type, field);
+            String value = "value." + field.getSimpleName();
+            if(fieldType.getKind().isPrimitive()) {
+                source.line("out.name(" + PreferenceProcessor.literal(jsonNames(field).get(0)) + ");");
+                write(source, value, fieldType, field, 0);
+            }
+            else {
+                // Gson leaves out null fields
+                source.open("if(" + value + " != null)");
+                source.line("out.name(" + PreferenceProcessor.literal(jsonNames(field).get(0)) + ");");
+                write(source, value, fieldType, field, 0);
+                source.close();
+            }
+        }
+        source.line("out.endObject();");
+        source.close();
+        source.blank();
+        source.line("@Override");
+        source.open("public " + element.getQualifiedName() + " read(JsonReader in) throws IOException");
+        readNull(source);
+        source.line(element.getQualifiedName() + " value = new " + element.getQualifiedName() + "();");
+        source.line("in.beginObject();");
+        source.open("while(in.hasNext())");
+        source.open("switch(in.nextName())");
+        for(VariableElement field : fields) {
+            // Each case is a block of its own so the locals of one field's case can't clash with another's
+            List<String> jsonNames = jsonNames(field);
+            for(String jsonName : jsonNames.subList(0, jsonNames.size() - 1)) {
+                source.line("case " + PreferenceProcessor.literal(jsonName) + ":");
+            }
+            source.open("case " + PreferenceProcessor.literal(jsonNames.get(jsonNames.size() - 1)) + ":");
+            readNullable(source, "value." + field.getSimpleName(), types.asMemberOf(type, field), field, 0);
+            source.line("break;");
+            source.close();
+        }
+        source.line("default:");
+        source.line("    in.skipValue();");
+        source.line("    break;");
+        source.close();
+        source.close();
+        source.line("in.endObject();");
+        source.line("return value;");
+    }
+
+    private static void readNull(SourceBuilder source) {
+        source.open("if(in.peek() == JsonToken.NULL)");
+        source.line("in.nextNull();");
+        source.line("return null;");
+        source.close();
+    }
+
+    private void checkAccessible(TypeElement element) throws ProcessingException {
+        for(Element type = element; type instanceof TypeElement; type = type.getEnclosingElement()) {
+            if(type.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new ProcessingException(element + " can't be stored because generated code can't reach a private class", element);
+            }
+        }
+        if(element.getKind() == ElementKind.ENUM) {
+            return;
+        }
+
+        if(element.getNestingKind() == NestingKind.MEMBER && !element.getModifiers().contains(Modifier.STATIC)) {
+            throw new ProcessingException(element + " can't be stored because it is an inner class - make it static", element);
+        }
+        if(element.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new ProcessingException(element + " can't be stored because it is abstract", element);
+        }
+        if(!element.getTypeParameters().isEmpty()) {
+            throw new ProcessingException(element + " can't be stored because it has type parameters", element);
+        }
+        for(ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements())) {
+            if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return;
+            }
+        }
+        throw new ProcessingException(element + " needs a constructor without parameters that isn't private", element);
+    }
+
+    /**
+     * Returns the fields Gson would convert, the class's own first and then each superclass's.
+     */
+    private List<VariableElement> fieldsOf(TypeElement element) throws ProcessingException {
+        List<VariableElement> fields = new ArrayList<>();
+        Map<String, VariableElement> byName = new HashMap<>();
+        String packageName = packageOf(element);
+
+        TypeElement declaring = element;
+        while(declaring != null && !declaring.getQualifiedName().contentEquals("java.lang.Object")) {
+            if(isPlatform(declaring.getQualifiedName().toString())) {
+                throw new ProcessingException(element + " can't be stored because it extends " + declaring, element);
+            }
+            for(VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if(modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if(modifiers.contains(Modifier.PRIVATE) || (!modifiers.contains(Modifier.PUBLIC) && !packageOf(declaring).equals(packageName))) {
+                    throw new ProcessingException("Field " + field.getSimpleName() + " of " + declaring
+                            + " must be visible to " + adapterName(element) + " to be set without reflection", field);
+                }
+                if(modifiers.contains(Modifier.FINAL)) {
+                    throw new ProcessingException("Field " + field.getSimpleName() + " of " + declaring
+                            + " can't be set without reflection because it is final", field);
+                }
+                for(String jsonName : jsonNames(field)) {
+                    VariableElement previous = byName.put(jsonName, field);
+                    if(previous != null) {
+                        throw new ProcessingException(element + " declares multiple JSON fields named " + jsonName, field);
+                    }
+                }
+                fields.add(field);
+            }
+            TypeMirror superclass = declaring.getSuperclass();
+            declaring = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the name the field or enum constant is written with, followed by any alternates it is also read from.
+     */
+    private static List<String> jsonNames(Element element) {
+        for(AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if(((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(SERIALIZED_NAME)) {
+                List<String> names = new ArrayList<>();
+                for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet()) {
+                    if(value.getKey().getSimpleName().contentEquals("value")) {
+                        names.add(0, (String) value.getValue().getValue());
+                    }
+                    else if(value.getKey().getSimpleName().contentEquals("alternate")) {
+                        for(Object alternate : (List<?>) value.getValue().getValue()) {
+                            names.add((String) ((AnnotationValue) alternate).getValue());
+                        }
+                    }
+                }
+                return names;
+            }
+        }
+        return Collections.singletonList(element.getSimpleName().toString());
+    }
+}
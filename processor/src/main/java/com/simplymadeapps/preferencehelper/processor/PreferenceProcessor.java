@@ -0,0 +1,428 @@
+package com.simplymadeapps.preferencehelper.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates an accessor class for every interface with @Pref methods.  For an interface Settings it writes
+ * Settings_Preferences, which implements the interface and adds put and remove methods for every key.  Each key is a
+ * PreferenceKey constant, so values go straight to the matching SharedPreferences call, and custom types are converted
+ * by TypeAdapters generated alongside them instead of by Gson's reflection.
+ */
+public class PreferenceProcessor extends AbstractProcessor {
+
+    static final String PREF = "com.simplymadeapps.preferencehelper.Pref";
+    static final String ACCESSOR_SUFFIX = "_Preferences";
+
+    private static final String RESERVED_PREFIX = "#ttl:";
+
+    // Adapters written in earlier rounds, which another interface may use again
+    private final Set<String> written = new HashSet<>();
+
+    private Messager messager;
+    private AdapterWriter adapters;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(PREF);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        messager = processingEnv.getMessager();
+        adapters = new AdapterWriter(processingEnv.getElementUtils(), processingEnv.getTypeUtils());
+
+        Set<TypeElement> interfaces = new LinkedHashSet<>();
+        for(TypeElement annotation : annotations) {
+            for(Element method : roundEnv.getElementsAnnotatedWith(annotation)) {
+                Element enclosing = method.getEnclosingElement();
+                if(enclosing.getKind() != ElementKind.INTERFACE) {
+                    error(new ProcessingException("@Pref methods must be declared in an interface", method));
+                }
+                else if(!method.getModifiers().contains(Modifier.ABSTRACT)) {
+                    error(new ProcessingException("@Pref methods can't be default or static methods", method));
+                }
+                else {
+                    interfaces.add((TypeElement) enclosing);
+                }
+            }
+        }
+
+        for(TypeElement type : interfaces) {
+            try {
+                writeSource(AdapterWriter.qualify(adapters.packageOf(type), accessorName(type)), writeAccessor(type), type);
+            }
+            catch(ProcessingException e) {
+                error(e);
+            }
+        }
+
+        for(TypeElement type = adapters.nextPending(written); type != null; type = adapters.nextPending(written)) {
+            try {
+                writeSource(adapters.qualifiedAdapterName(type), adapters.writeAdapter(type), type);
+            }
+            catch(ProcessingException e) {
+                error(e);
+            }
+        }
+        return true;
+    }
+
+    private void error(ProcessingException e) {
+        messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.getElement());
+    }
+
+    private void writeSource(String name, String source, Element origin) throws ProcessingException {
+        try(Writer writer = processingEnv.getFiler().createSourceFile(name, origin).openWriter()) {
+            writer.write(source);
+        }
+        catch(IOException e) {
+            throw new ProcessingException("Couldn't write " + name + ": " + e.getMessage(), origin);
+        }
+    }
+
+    static String accessorName(TypeElement type) {
+        return AdapterWriter.flatName(type) + ACCESSOR_SUFFIX;
+    }
+
+    private String writeAccessor(TypeElement type) throws ProcessingException {
+        if(type.getModifiers().contains(Modifier.PRIVATE)) {
+            throw new ProcessingException("Interfaces with @Pref methods can't be private", type);
+        }
+        if(!type.getTypeParameters().isEmpty()) {
+            throw new ProcessingException("Interfaces with @Pref methods can't have type parameters", type);
+        }
+
+        // Every abstract method, including inherited ones, is implemented by the generated class
+        Map<String, ExecutableElement> keys = new LinkedHashMap<>();
+        Map<ExecutableElement, AnnotationMirror> prefs = new HashMap<>();
+        for(ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if(!method.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            AnnotationMirror pref = findPref(method);
+            if(pref == null) {
+                throw new ProcessingException("Every abstract method of " + type + " needs @Pref so it can be generated", method);
+            }
+            if(!method.getParameters().isEmpty() || !method.getTypeParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID) {
+                throw new ProcessingException("@Pref methods take no parameters and return the stored value", method);
+            }
+            String name = stringValue(pref, "name");
+            name = name == null || name.isEmpty() ? method.getSimpleName().toString() : name;
+            if(name.startsWith(RESERVED_PREFIX)) {
+                throw new ProcessingException("Keys starting with " + RESERVED_PREFIX + " are reserved for expiry times", method);
+            }
+            ExecutableElement previous = keys.put(name, method);
+            if(previous != null) {
+                throw new ProcessingException("Key " + name + " is already used by " + previous.getSimpleName() + "()", method);
+            }
+            prefs.put(method, pref);
+        }
+
+        String accessor = accessorName(type);
+        String packageName = adapters.packageOf(type);
+        SourceBuilder source = new SourceBuilder();
+        source.line("// Generated by PreferenceProcessor from " + type.getQualifiedName() + ", do not edit");
+        if(!packageName.isEmpty()) {
+            source.line("package " + packageName + ";");
+        }
+        source.blank();
+        source.line("import com.google.gson.TypeAdapter;");
+        source.line("import com.google.gson.stream.JsonReader;");
+        source.line("import com.google.gson.stream.JsonToken;");
+        source.line("import com.google.gson.stream.JsonWriter;");
+        source.line("import com.simplymadeapps.preferencehelper.PreferenceKey;");
+        source.line("import com.simplymadeapps.preferencehelper.PreferenceStore;");
+        source.blank();
+        source.line("import java.io.IOException;");
+        source.blank();
+        source.open("public final class " + accessor + " implements " + type.getQualifiedName());
+        source.blank();
+
+        Map<ExecutableElement, String> nested = new LinkedHashMap<>();
+        for(Map.Entry<String, ExecutableElement> key : keys.entrySet()) {
+            String adapter = writeKey(source, key.getValue(), key.getKey(), prefs.get(key.getValue()));
+            if(adapter != null) {
+                nested.put(key.getValue(), adapter);
+            }
+        }
+
+        source.blank();
+        source.line("private final PreferenceStore store;");
+        source.blank();
+        source.line("/**");
+        source.line(" * Reads and writes the default store.");
+        source.line(" */");
+        source.open("public " + accessor + "()");
+        source.line("this.store = null;");
+        source.close();
+        source.blank();
+        source.open("public " + accessor + "(PreferenceStore store)");
+        source.open("if(store == null)");
+        source.line("throw new IllegalArgumentException(\"Store cannot be null\");");
+        source.close();
+        source.line("this.store = store;");
+        source.close();
+
+        for(ExecutableElement method : keys.values()) {
+            String constant = constantName(method.getSimpleName().toString());
+            String capitalized = capitalize(method.getSimpleName().toString());
+            source.blank();
+            source.line("@Override");
+            source.open("public " + method.getReturnType() + " " + method.getSimpleName() + "()");
+            source.line("return store == null ? " + constant + ".get() : " + constant + ".get(store);");
+            source.close();
+            source.blank();
+            source.open("public void put" + capitalized + "(" + method.getReturnType() + " value)");
+            source.open("if(store == null)");
+            source.line(constant + ".put(value);");
+            source.orElse();
+            source.line(constant + ".put(store, value);");
+            source.close();
+            source.close();
+            source.blank();
+            source.open("public void remove" + capitalized + "()");
+            source.open("if(store == null)");
+            source.line(constant + ".remove();");
+            source.orElse();
+            source.line(constant + ".remove(store);");
+            source.close();
+            source.close();
+        }
+
+        for(Map.Entry<ExecutableElement, String> adapter : nested.entrySet()) {
+            source.blank();
+            writeNestedAdapter(source, adapter.getKey(), adapter.getValue());
+        }
+        source.close();
+        return source.toString();
+    }
+
+    /**
+     * Declares the key's constant.  Returns the name of the nested adapter class a List, Set or Map key needs, or null
+     * when the key needs none.
+     */
+    private String writeKey(SourceBuilder source, ExecutableElement method, String name, AnnotationMirror pref) throws ProcessingException {
+        TypeMirror type = method.getReturnType();
+        String fallback = stringValue(pref, "defaultValue");
+        String declaration = "public static final PreferenceKey<" + boxed(type) + "> " + constantName(method.getSimpleName().toString()) + " = PreferenceKey.";
+        String literalName = literal(name);
+
+        AdapterWriter.Kind kind = adapters.kind(type, method);
+        switch(kind) {
+            case BOOLEAN:
+                if(fallback != null && !fallback.equals("true") && !fallback.equals("false")) {
+                    throw new ProcessingException("defaultValue " + fallback + " is not a boolean", method);
+                }
+                source.line(declaration + "ofBoolean(" + literalName + ", " + (fallback == null ? "false" : fallback) + ");");
+                return null;
+            case INT:
+                source.line(declaration + "ofInt(" + literalName + ", " + parseNumber(fallback, kind, method) + ");");
+                return null;
+            case LONG:
+                source.line(declaration + "ofLong(" + literalName + ", " + parseNumber(fallback, kind, method) + "L);");
+                return null;
+            case FLOAT:
+                source.line(declaration + "ofFloat(" + literalName + ", " + parseNumber(fallback, kind, method) + "f);");
+                return null;
+            case STRING:
+                source.line(declaration + "ofString(" + literalName + ", " + (fallback == null ? "null" : literal(fallback)) + ");");
+                return null;
+            case DOUBLE:
+                throw new ProcessingException("SharedPreferences can't store a double - use a float, or a class with a double field", method);
+            case ENUM:
+                String constant = fallback == null ? "null" : enumConstant(type, fallback, method);
+                source.line(declaration + "of(" + literalName + ", " + constant + ", " + adapters.qualifiedAdapterName((TypeElement) processingEnv.getTypeUtils().asElement(type)) + ".INSTANCE);");
+                return null;
+            case OBJECT:
+                checkNoFallback(fallback, method);
+                source.line(declaration + "of(" + literalName + ", null, " + adapters.qualifiedAdapterName((TypeElement) processingEnv.getTypeUtils().asElement(type)) + ".INSTANCE);");
+                return null;
+            default:
+                checkNoFallback(fallback, method);
+                break;
+        }
+
+        if(kind == AdapterWriter.Kind.SET && AdapterWriter.isString(((DeclaredType) type).getTypeArguments().get(0))) {
+            // Stored with putStringSet() like every other set of strings
+            source.line(declaration + "ofStringSet(" + literalName + ", null);");
+            return null;
+        }
+
+        String adapter = capitalize(method.getSimpleName().toString()) + "Adapter";
+        source.line(declaration + "of(" + literalName + ", null, new " + adapter + "());");
+
+        return adapter;
+    }
+
+    private void writeNestedAdapter(SourceBuilder source, ExecutableElement method, String adapter) throws ProcessingException {
+        TypeMirror type = method.getReturnType();
+        source.open("private static final class " + adapter + " extends TypeAdapter<" + type + ">");
+        source.blank();
+        source.line("@Override");
+        source.open("public void write(JsonWriter out, " + type + " value) throws IOException");
+        source.open("if(value == null)");
+        source.line("out.nullValue();");
+        source.orElse();
+        adapters.write(source, "value", type, method, 0);
+        source.close();
+        source.close();
+        source.blank();
+        source.line("@Override");
+        source.open("public " + type + " read(JsonReader in) throws IOException");
+        source.line(type + " value;");
+        adapters.readNullable(source, "value", type, method, 0);
+        source.line("return value;");
+        source.close();
+        source.close();
+    }
+
+    private static void checkNoFallback(String fallback, Element method) throws ProcessingException {
+        if(fallback != null) {
+            throw new ProcessingException("defaultValue is only supported for primitives, strings and enums", method);
+        }
+    }
+
+    private static String parseNumber(String fallback, AdapterWriter.Kind kind, Element method) throws ProcessingException {
+        if(fallback == null) {
+            return "0";
+        }
+        try {
+            switch(kind) {
+                case INT:
+                    return Integer.toString(Integer.parseInt(fallback));
+                case LONG:
+                    return Long.toString(Long.parseLong(fallback));
+                default:
+                    float value = Float.parseFloat(fallback);
+                    if(Float.isNaN(value) || Float.isInfinite(value)) {
+                        throw new NumberFormatException();
+                    }
+                    return Float.toString(value);
+            }
+        }
+        catch(NumberFormatException e) {
+            throw new ProcessingException("defaultValue " + fallback + " is not a " + kind.name().toLowerCase(), method);
+        }
+    }
+
+    private String enumConstant(TypeMirror type, String fallback, Element method) throws ProcessingException {
+        TypeElement element = (TypeElement) processingEnv.getTypeUtils().asElement(type);
+        for(Element constant : element.getEnclosedElements()) {
+            if(constant.getKind() == ElementKind.ENUM_CONSTANT && constant.getSimpleName().contentEquals(fallback)) {
+                return element.getQualifiedName() + "." + fallback;
+            }
+        }
+        throw new ProcessingException("defaultValue " + fallback + " is not a constant of " + element, method);
+    }
+
+    private static AnnotationMirror findPref(Element element) {
+        for(AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if(((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(PREF)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value set on the annotation, or null when it was left out.
+     */
+    private static String stringValue(AnnotationMirror annotation, String name) {
+        for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet()) {
+            if(value.getKey().getSimpleName().contentEquals(name)) {
+                return (String) value.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String boxed(TypeMirror type) {
+        switch(type.getKind()) {
+            case BOOLEAN:
+                return "Boolean";
+            case INT:
+                return "Integer";
+            case LONG:
+                return "Long";
+            case FLOAT:
+                return "Float";
+            case DOUBLE:
+                return "Double";
+            default:
+                return type.toString();
+        }
+    }
+
+    /**
+     * Turns launchCount into LAUNCH_COUNT.
+     */
+    static String constantName(String name) {
+        StringBuilder constant = new StringBuilder();
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(name.charAt(i - 1))) {
+                constant.append('_');
+            }
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.toString();
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Returns the string as a Java literal, escaping anything outside printable ASCII.  Control characters are
+     * escaped in octal because javac turns a unicode escape of a line break into a real one.
+     */
+    static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            }
+            else if(c < 0x20) {
+                literal.append(String.format("\\%03o", (int) c));
+            }
+            else if(c > 0x7e) {
+                literal.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
@@ -0,0 +1,20 @@
+package com.simplymadeapps.preferencehelper.processor;
+
+import javax.lang.model.element.Element;
+
+/**
+ * A declaration the processor can't generate code for, reported as a compile error on the element at fault.
+ */
+class ProcessingException extends Exception {
+
+    private final Element element;
+
+    ProcessingException(String message, Element element) {
+        super(message);
+        this.element = element;
+    }
+
+    Element getElement() {
+        return element;
+    }
+}
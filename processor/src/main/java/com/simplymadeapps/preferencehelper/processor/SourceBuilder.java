@@ -0,0 +1,50 @@
+package com.simplymadeapps.preferencehelper.processor;
+
+/**
+ * Builds generated source a line at a time, indented the way the library's own code is.
+ */
+class SourceBuilder {
+
+    private final StringBuilder source = new StringBuilder();
+    private int depth;
+
+    SourceBuilder line(String line) {
+        for(int i = 0; i < depth; i++) {
+            source.append("    ");
+        }
+        source.append(line).append('\n');
+        return this;
+    }
+
+    SourceBuilder blank() {
+        source.append('\n');
+        return this;
+    }
+
+    /**
+     * Starts a block such as "if(value == null) {".
+     */
+    SourceBuilder open(String statement) {
+        line(statement + " {");
+        depth++;
+        return this;
+    }
+
+    SourceBuilder close() {
+        depth--;
+        return line("}");
+    }
+
+    /**
+     * Opens the second block of an if statement, on its own line after the first block's closing brace.
+     */
+    SourceBuilder orElse() {
+        close();
+        return open("else");
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+}
@@ -0,0 +1,333 @@
+package com.simplymadeapps.preferencehelper.processor;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+@RunWith(Enclosed.class)
+public class PreferenceProcessorTests {
+
+    // The annotation as the library declares it, so the tests don't need the Android library on the classpath
+    static final String PREF = "package com.simplymadeapps.preferencehelper;\n"
+            + "public @interface Pref {\n"
+            + "    String name() default \"\";\n"
+            + "    String defaultValue() default \"\";\n"
+            + "}\n";
+
+    /**
+     * Runs the processor over the sources without compiling them, and returns the errors the processor reported.
+     * Javac's own errors are left out, since the generated code refers to the library, which isn't on the classpath.
+     */
+    static List<String> process(File output, String... sources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<JavaFileObject> files = new ArrayList<>();
+        files.add(new Source("com.simplymadeapps.preferencehelper.Pref", PREF));
+        for(String source : sources) {
+            String name = source.replaceAll("(?s).*?(?:interface|class|enum) (\\w+).*", "$1");
+            files.add(new Source("test." + name, "package test;\nimport com.simplymadeapps.preferencehelper.Pref;\nimport java.util.*;\n" + source));
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = Arrays.asList("-proc:only", "-s", output.getPath());
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, files);
+        task.setProcessors(Collections.singletonList(new PreferenceProcessor()));
+        task.call();
+
+        List<String> errors = new ArrayList<>();
+        for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if(diagnostic.getKind() == Diagnostic.Kind.ERROR && "compiler.err.proc.messager".equals(diagnostic.getCode())) {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+
+    static class Source extends SimpleJavaFileObject {
+
+        private final String source;
+
+        Source(String name, String source) {
+            super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    static String read(File output, String name) throws IOException {
+        return new String(Files.readAllBytes(new File(output, "test/" + name + ".java").toPath()), StandardCharsets.UTF_8);
+    }
+
+    public static class GenerationTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        @Test
+        public void test_accessor() throws IOException {
+            List<String> errors = process(folder.getRoot(),
+                    "public interface Settings {\n"
+                            + "    @Pref(name = \"launch_count\", defaultValue = \"3\") int launchCount();\n"
+                            + "    @Pref(defaultValue = \"-5\") long lastSync();\n"
+                            + "    @Pref(defaultValue = \"1.5\") float scale();\n"
+                            + "    @Pref boolean enabled();\n"
+                            + "    @Pref(defaultValue = \"caf\\u00e9\") String name();\n"
+                            + "    @Pref Set<String> tags();\n"
+                            + "    @Pref(defaultValue = \"DARK\") Theme theme();\n"
+                            + "    @Pref User user();\n"
+                            + "    @Pref List<User> userList();\n"
+                            + "    default int ignored() { return 0; }\n"
+                            + "}\n",
+                    "public enum Theme { LIGHT, DARK }\n",
+                    "public class User { String name; }\n");
+
+            Assert.assertEquals(errors, Collections.<String>emptyList());
+            String source = read(folder.getRoot(), "Settings_Preferences");
+            Assert.assertTrue(source.contains("public final class Settings_Preferences implements test.Settings {"));
+            Assert.assertTrue(source.contains("public static final PreferenceKey<Integer> LAUNCH_COUNT = PreferenceKey.ofInt(\"launch_count\", 3);"));
+            Assert.assertTrue(source.contains("public static final PreferenceKey<Long> LAST_SYNC = PreferenceKey.ofLong(\"lastSync\", -5L);"));
+            Assert.assertTrue(source.contains("PreferenceKey.ofFloat(\"scale\", 1.5f);"));
+            Assert.assertTrue(source.contains("PreferenceKey.ofBoolean(\"enabled\", false);"));
+            Assert.assertTrue(source.contains("PreferenceKey.ofString(\"name\", \"caf\\u00e9\");"));
+            Assert.assertTrue(source.contains("PreferenceKey.ofStringSet(\"tags\", null);"));
+            Assert.assertTrue(source.contains("PreferenceKey.of(\"theme\", test.Theme.DARK, test.Theme_PreferenceAdapter.INSTANCE);"));
+            Assert.assertTrue(source.contains("PreferenceKey.of(\"user\", null, test.User_PreferenceAdapter.INSTANCE);"));
+            Assert.assertTrue(source.contains("PreferenceKey.of(\"userList\", null, new UserListAdapter());"));
+            Assert.assertTrue(source.contains("private static final class UserListAdapter extends TypeAdapter<java.util.List<test.User>> {"));
+            Assert.assertTrue(source.contains("public void putLaunchCount(int value) {"));
+            Assert.assertTrue(source.contains("public void removeLaunchCount() {"));
+            Assert.assertFalse(source.contains("ignored"));
+            Assert.assertTrue(read(folder.getRoot(), "User_PreferenceAdapter").contains("case \"name\": {"));
+            Assert.assertTrue(read(folder.getRoot(), "Theme_PreferenceAdapter").contains("return test.Theme.DARK;"));
+        }
+
+        @Test
+        public void test_nested() throws IOException {
+            List<String> errors = process(folder.getRoot(),
+                    "public class Outer {\n"
+                            + "    public interface Settings { @Pref User user(); }\n"
+                            + "    public static class User { }\n"
+                            + "}\n");
+
+            Assert.assertEquals(errors, Collections.<String>emptyList());
+            Assert.assertTrue(read(folder.getRoot(), "Outer_Settings_Preferences").contains("test.Outer_User_PreferenceAdapter.INSTANCE"));
+            Assert.assertTrue(read(folder.getRoot(), "Outer_User_PreferenceAdapter").contains("new test.Outer.User()"));
+        }
+
+        @Test
+        public void test_inherited() throws IOException {
+            List<String> errors = process(folder.getRoot(),
+                    "public interface Settings extends BaseSettings { @Pref int count(); }\n",
+                    "public interface BaseSettings { @Pref String name(); }\n");
+
+            Assert.assertEquals(errors, Collections.<String>emptyList());
+            Assert.assertTrue(read(folder.getRoot(), "Settings_Preferences").contains("public java.lang.String name() {"));
+        }
+
+        @Test
+        public void test_adapterWrittenOnce() throws IOException {
+            List<String> errors = process(folder.getRoot(),
+                    "public interface Settings { @Pref User user(); }\n",
+                    "public interface OtherSettings { @Pref User user(); @Pref List<User> users(); }\n",
+                    "public class User { User friend; }\n");
+
+            Assert.assertEquals(errors, Collections.<String>emptyList());
+            Assert.assertTrue(read(folder.getRoot(), "User_PreferenceAdapter").contains("test.User_PreferenceAdapter.INSTANCE.read(in)"));
+        }
+
+        @Test
+        public void test_constantName() {
+            Assert.assertEquals(PreferenceProcessor.constantName("launchCount"), "LAUNCH_COUNT");
+            Assert.assertEquals(PreferenceProcessor.constantName("userID"), "USER_ID");
+            Assert.assertEquals(PreferenceProcessor.constantName("url"), "URL");
+        }
+
+        @Test
+        public void test_literal() {
+            Assert.assertEquals(PreferenceProcessor.literal("a\"b\\c\n\u00e9"), "\"a\\\"b\\\\c\\012\\u00e9\"");
+        }
+    }
+
+    public static class ErrorTests {
+
+        @Rule
+        public TemporaryFolder folder = new TemporaryFolder();
+
+        void assertError(String expected, String... sources) {
+            List<String> errors = process(folder.getRoot(), sources);
+
+            Assert.assertEquals(errors.toString(), errors.size(), 1);
+            Assert.assertTrue(errors.get(0), errors.get(0).contains(expected));
+        }
+
+        @Test
+        public void test_notInterface() {
+            assertError("@Pref methods must be declared in an interface", "public abstract class Settings { @Pref abstract int count(); }\n");
+        }
+
+        @Test
+        public void test_defaultMethod() {
+            assertError("@Pref methods can't be default or static methods", "public interface Settings { @Pref default int count() { return 0; } }\n");
+        }
+
+        @Test
+        public void test_privateInterface() {
+            assertError("Interfaces with @Pref methods can't be private", "public class Outer { private interface Settings { @Pref int count(); } }\n");
+        }
+
+        @Test
+        public void test_genericInterface() {
+            assertError("Interfaces with @Pref methods can't have type parameters", "public interface Settings<T> { @Pref int count(); }\n");
+        }
+
+        @Test
+        public void test_unannotated() {
+            assertError("Every abstract method of test.Settings needs @Pref", "public interface Settings { @Pref int count(); int other(); }\n");
+        }
+
+        @Test
+        public void test_parameters() {
+            assertError("@Pref methods take no parameters and return the stored value", "public interface Settings { @Pref int count(int value); }\n");
+        }
+
+        @Test
+        public void test_void() {
+            assertError("@Pref methods take no parameters and return the stored value", "public interface Settings { @Pref void count(); }\n");
+        }
+
+        @Test
+        public void test_duplicateKey() {
+            assertError("Key count is already used by count()", "public interface Settings { @Pref int count(); @Pref(name = \"count\") int other(); }\n");
+        }
+
+        @Test
+        public void test_reservedKey() {
+            assertError("Keys starting with #ttl: are reserved for expiry times", "public interface Settings { @Pref(name = \"#ttl:count\") int count(); }\n");
+        }
+
+        @Test
+        public void test_badDefaults() {
+            assertError("defaultValue x is not a int", "public interface Settings { @Pref(defaultValue = \"x\") int count(); }\n");
+            assertError("defaultValue 1.5 is not a long", "public interface Settings { @Pref(defaultValue = \"1.5\") long count(); }\n");
+            assertError("defaultValue NaN is not a float", "public interface Settings { @Pref(defaultValue = \"NaN\") float count(); }\n");
+            assertError("defaultValue yes is not a boolean", "public interface Settings { @Pref(defaultValue = \"yes\") boolean count(); }\n");
+        }
+
+        @Test
+        public void test_badEnumDefault() {
+            assertError("defaultValue BLUE is not a constant of test.Theme",
+                    "public interface Settings { @Pref(defaultValue = \"BLUE\") Theme theme(); }\n",
+                    "public enum Theme { LIGHT }\n");
+        }
+
+        @Test
+        public void test_objectDefault() {
+            assertError("defaultValue is only supported for primitives, strings and enums",
+                    "public interface Settings { @Pref(defaultValue = \"x\") List<String> names(); }\n");
+        }
+
+        @Test
+        public void test_double() {
+            assertError("SharedPreferences can't store a double", "public interface Settings { @Pref double value(); }\n");
+        }
+
+        @Test
+        public void test_unsupported() {
+            assertError(AdapterWriter.UNSUPPORTED + ", not java.util.Date", "public interface Settings { @Pref Date date(); }\n");
+            assertError(AdapterWriter.UNSUPPORTED + ", not char", "public interface Settings { @Pref User user(); }\n", "public class User { char c; }\n");
+            assertError(AdapterWriter.UNSUPPORTED + ", not java.util.List<? extends java.lang.String>",
+                    "public interface Settings { @Pref List<? extends String> names(); }\n");
+        }
+
+        @Test
+        public void test_rawList() {
+            assertError("Declare the element type of java.util.List", "public interface Settings { @Pref List names(); }\n");
+        }
+
+        @Test
+        public void test_mapKeys() {
+            assertError("Maps can only be stored with String keys", "public interface Settings { @Pref Map<Integer, String> names(); }\n");
+        }
+
+        @Test
+        public void test_privateField() {
+            assertError("Field name of test.User must be visible to User_PreferenceAdapter",
+                    "public interface Settings { @Pref User user(); }\n", "public class User { private String name; }\n");
+        }
+
+        @Test
+        public void test_finalField() {
+            assertError("Field name of test.User can't be set without reflection because it is final",
+                    "public interface Settings { @Pref User user(); }\n", "public class User { final String name = null; }\n");
+        }
+
+        @Test
+        public void test_duplicateField() {
+            assertError("test.User declares multiple JSON fields named name",
+                    "public interface Settings { @Pref User user(); }\n",
+                    "public class User extends Base { String name; }\n",
+                    "public class Base { String name; }\n");
+        }
+
+        @Test
+        public void test_platformSuperclass() {
+            assertError("test.User can't be stored because it extends java.util.AbstractList",
+                    "public interface Settings { @Pref User user(); }\n",
+                    "public class User extends AbstractList<String> { public String get(int i) { return null; } public int size() { return 0; } }\n");
+        }
+
+        @Test
+        public void test_privateClass() {
+            assertError("can't be stored because generated code can't reach a private class",
+                    "public interface Settings { @Pref Outer user(); }\n",
+                    "public class Outer { private static class User { } User user; }\n");
+        }
+
+        @Test
+        public void test_innerClass() {
+            assertError("test.Outer.User can't be stored because it is an inner class",
+                    "public interface Settings { @Pref Outer.User user(); }\n", "public class Outer { public class User { } }\n");
+        }
+
+        @Test
+        public void test_abstractClass() {
+            assertError("test.User can't be stored because it is abstract",
+                    "public interface Settings { @Pref User user(); }\n", "public abstract class User { }\n");
+        }
+
+        @Test
+        public void test_genericClass() {
+            assertError("test.Box can't be stored because it has type parameters",
+                    "public interface Settings { @Pref Box<String> box(); }\n", "public class Box<T> { }\n");
+        }
+
+        @Test
+        public void test_constructor() {
+            assertError("test.User needs a constructor without parameters that isn't private",
+                    "public interface Settings { @Pref User user(); }\n", "public class User { User(String name) { } }\n");
+        }
+    }
+}